@@ -0,0 +1,67 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import statechum.analysis.learning.linear.GDLearnerGraph;
+import statechum.analysis.learning.rpnicore.LSolver;
+import statechum.analysis.learning.rpnicore.LearnerGraphND;
+
+/** Benchmarks construction of the matrix used by {@link statechum.analysis.learning.linear.GD} to compare states of a minimal machine,
+ * including identification of incompatible pairs of states that precedes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class GDMatrixBenchmark extends GraphBenchmarkState
+{
+	/** The number of threads to use when building a matrix. */
+	@Param({"1","4"})
+	public int threads;
+
+	protected GDLearnerGraph ndGraph;
+
+	@Setup
+	public void setup()
+	{
+		setupConfiguration();
+		ndGraph = new GDLearnerGraph(buildMachine(), LearnerGraphND.ignoreRejectStates, false);
+	}
+
+	@Benchmark
+	public LSolver buildMatrix_internal()
+	{
+		return ndGraph.buildMatrix(threads);
+	}
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.benchmarks;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.analysis.learning.experiments.ForestFireLabelledStateMachineGenerator;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.RandomPathGenerator;
+import statechum.analysis.learning.rpnicore.Transform;
+import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+import statechum.model.testset.PTASequenceEngine;
+
+/** Parameters shared by all benchmarks: the size of graphs, the size of their alphabet and the representation of transition matrices.
+ * Graphs are generated by {@link ForestFireLabelledStateMachineGenerator} and PTAs from random walks of them
+ * by {@link RandomPathGenerator}, using fixed seeds so that every run of a benchmark works on the same graphs.
+ * JMH only accepts parameters declared in classes annotated with {@link State}, including abstract ones.
+ */
+@State(Scope.Benchmark)
+public abstract class GraphBenchmarkState
+{
+	/** The number of states in a randomly-generated machine. */
+	@Param({"100","500","2000"})
+	public int states;
+
+	/** The number of labels in a randomly-generated machine. */
+	@Param({"10"})
+	public int alphabet;
+
+	/** Representation of transition matrices to benchmark. */
+	@Param({"STATETREE_SLOWTREE","STATETREE_LINKEDHASH","STATETREE_ARRAY","STATETREE_OVERLAY","STATETREE_DENSE"})
+	public STATETREE matrix;
+
+	/** Seed used to generate graphs and random walks. */
+	public static final int seed = 1;
+
+	protected Configuration config;
+
+	/** Interns labels for the representations of transition matrices that require it, null otherwise. */
+	protected ConvertALabel converter;
+
+	/** Sets up the configuration to use, expected to be called first by setup methods of subclasses. */
+	protected void setupConfiguration()
+	{
+		config = Configuration.getDefaultConfiguration().copy();
+		config.setTransitionMatrixImplType(matrix);config.setMaxStateNumber(states*4);
+		config.setAskQuestions(false);config.setDebugMode(false);
+		converter = matrix == STATETREE.STATETREE_ARRAY || matrix == STATETREE.STATETREE_DENSE? new Transform.InternStringLabel():null;
+	}
+
+	/** Generates a deterministic machine with approximately the number of states given by {@link #states}. */
+	protected LearnerGraph buildMachine()
+	{
+		ForestFireLabelledStateMachineGenerator generator = new ForestFireLabelledStateMachineGenerator(0.365,0.3,0.2,0.2,alphabet,seed,config,converter);
+		synchronized(AbstractLearnerGraph.syncObj)
+		{
+			return generator.buildMachine(states);
+		}
+	}
+
+	/** Builds a PTA from positive and negative random walks of the supplied machine. */
+	protected LearnerGraph buildPTA(LearnerGraph machine)
+	{
+		RandomPathGenerator generator = new RandomPathGenerator(machine,new Random(seed),5,null);
+		generator.generatePosNeg(2*states, 1);
+		PTASequenceEngine engine = generator.getAllSequences(0);
+		LearnerGraph pta = new LearnerGraph(config);pta.initPTA();
+		pta.paths.augmentPTA(engine);
+		return pta;
+	}
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraphCachedData;
+import statechum.analysis.learning.rpnicore.MergeStates;
+
+/** Benchmarks computation of scores of red-blue pairs and merging of states of a PTA. Each invocation goes through all pairs
+ * that would be considered by the learner at the first step of learning.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PairScoringBenchmark extends GraphBenchmarkState
+{
+	protected LearnerGraph pta;
+
+	/** Pairs to compute scores of, all of them can be merged. */
+	protected List<PairScore> pairs;
+
+	@Setup
+	public void setup()
+	{
+		setupConfiguration();
+		pta = buildPTA(buildMachine());
+		pairs = new ArrayList<PairScore>(pta.pairscores.chooseStatePairs(null));
+	}
+
+	@Benchmark
+	public void computeStateScore(Blackhole blackhole)
+	{
+		for(PairScore pair:pairs)
+			blackhole.consume(pta.pairscores.computeStateScore(pair));
+	}
+
+	@Benchmark
+	public void computePairCompatibilityScore_general(Blackhole blackhole)
+	{
+		for(PairScore pair:pairs)
+		{
+			Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> mergedVertices = new ArrayList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+			blackhole.consume(pta.pairscores.computePairCompatibilityScore_general(pair, null, mergedVertices));
+		}
+	}
+
+	@Benchmark
+	public void mergeAndDeterminize_general(Blackhole blackhole)
+	{
+		for(PairScore pair:pairs)
+			blackhole.consume(MergeStates.mergeAndDeterminize_general(pta, pair));
+	}
+}
@@ -33,12 +33,15 @@ import statechum.Configuration.GDScoreComputationEnum;
 import statechum.Configuration.GD_COLOUR_MODE;
 import statechum.Configuration.IDMode;
 import statechum.Configuration.LABELKIND;
+import statechum.Configuration.LINEARSOLVER;
+import statechum.Configuration.LTL2BABACKEND;
 import statechum.Configuration.LEARNER;
 import statechum.Configuration.QuestionGeneratorKind;
 import statechum.Configuration.SMTGRAPHDOMAINCONSISTENCYCHECK;
 import statechum.Configuration.SMTGRAPHRANGECONSISTENCYCHECK;
 import statechum.Configuration.STATETREE;
 import statechum.Configuration.ScoreMode;
+import statechum.Configuration.WSETALGORITHM;
 import statechum.DeterministicDirectedSparseGraph.VertID;
 import statechum.DeterministicDirectedSparseGraph.VertexID;
 
@@ -204,6 +207,21 @@ public class AttributeMutator {
 						valueA = GDScoreComputationAlgorithmEnum.SCORE_LINEAR;valueB = GDScoreComputationAlgorithmEnum.SCORE_TESTSET;
 				}
 				else
+				if (var.getType().equals(LINEARSOLVER.class))
+				{
+						valueA = LINEARSOLVER.LINEARSOLVER_DEFAULT;valueB = LINEARSOLVER.LINEARSOLVER_ITERATIVE_JACOBI;
+				}
+				else
+				if (var.getType().equals(WSETALGORITHM.class))
+				{
+						valueA = WSETALGORITHM.WSET_REDUCEDMEMORY;valueB = WSETALGORITHM.WSET_PARTITIONREFINEMENT;
+				}
+				else
+				if (var.getType().equals(LTL2BABACKEND.class))
+				{
+						valueA = LTL2BABACKEND.LTL2BA_EXTERNAL;valueB = LTL2BABACKEND.LTL2BA_JAVA;
+				}
+				else
 				if (var.getType().equals(LABELKIND.class))
 				{
 					valueA = LABELKIND.LABEL_ERLANG;valueB = LABELKIND.LABEL_STRING;
@@ -132,6 +132,72 @@ public class Configuration implements Cloneable {
 		return learnerIdMode;
 	}
 
+	/**
+	 * Computation of scores of red-blue pairs is usually done from scratch after every merge. 
+	 * Where this is set to true, learners that support it retain scores between merges and only 
+	 * recompute those of pairs affected by the most recent merge, see {@link statechum.analysis.learning.rpnicore.PairScoreCache}. 
+	 * This does not affect the outcome of learning.
+	 */
+	protected boolean incrementalPairSelection = false;
+
+	public boolean isIncrementalPairSelection() {
+		return incrementalPairSelection;
+	}
+
+	public void setIncrementalPairSelection(boolean newValue) {
+		incrementalPairSelection = newValue;
+	}
+
+	/**
+	 * The number of threads to use when computing scores of red-blue pairs in
+	 * {@link statechum.analysis.learning.rpnicore.PairScoreComputation#chooseStatePairs(statechum.analysis.learning.rpnicore.PairScoreComputation.RedNodeSelectionProcedure)}.
+	 * Values of 1 or less mean that scores are computed in the thread of the learner.
+	 * The outcome of learning does not depend on this value.
+	 */
+	protected int pairScoringThreadNumber = 1;
+
+	public int getPairScoringThreadNumber() {
+		return pairScoringThreadNumber;
+	}
+
+	public void setPairScoringThreadNumber(int newValue) {
+		pairScoringThreadNumber = newValue;
+	}
+
+	/**
+	 * The number of threads to use when building the initial PTA in
+	 * {@link statechum.analysis.learning.RPNIUniversalLearner#init(java.util.Collection, java.util.Collection)}.
+	 * Values of 1 or less mean that traces are added one at a time in the thread of the learner; otherwise
+	 * {@link statechum.analysis.learning.rpnicore.ConcurrentPTABuilder} is used. The PTA, including names of states,
+	 * does not depend on this value.
+	 */
+	protected int ptaConstructionThreadNumber = 1;
+
+	public int getPtaConstructionThreadNumber() {
+		return ptaConstructionThreadNumber;
+	}
+
+	public void setPtaConstructionThreadNumber(int newValue) {
+		ptaConstructionThreadNumber = newValue;
+	}
+
+	/**
+	 * The number of threads to use when computing the closure of states to merge in
+	 * {@link statechum.analysis.learning.rpnicore.PairScoreComputation#computePairCompatibilityScore_general(statechum.analysis.learning.StatePair, java.util.Collection, java.util.Collection)}.
+	 * Values of 1 or less mean that merging is performed in the calling thread; otherwise
+	 * {@link statechum.analysis.learning.rpnicore.UnionFindMergeEngine} is used. This pays off for mergers that collapse
+	 * large parts of a graph; equivalence classes and scores do not depend on this value.
+	 */
+	protected int mergeThreadNumber = 1;
+
+	public int getMergeThreadNumber() {
+		return mergeThreadNumber;
+	}
+
+	public void setMergeThreadNumber(int newValue) {
+		mergeThreadNumber = newValue;
+	}
+
 	/**
 	 * In order to check that the old and the new state mergers and question
 	 * generators are doing approximately similar things, this mode is
@@ -381,6 +447,66 @@ public class Configuration implements Cloneable {
 		equivalentStatesAllowedForW = equiv;
 	}
 
+	/** Determines how a characterising set is computed when test sets are generated by {@link statechum.analysis.learning.rpnicore.WMethod}. */
+	public enum WSETALGORITHM {
+		/** {@link statechum.analysis.learning.rpnicore.WMethod#computeWSet_reducedmemory}, computing a separating sequence for every pair of states. */
+		WSET_REDUCEDMEMORY,
+		/** {@link statechum.analysis.learning.rpnicore.PartitionRefinementWSet}, which splits blocks of states in parallel and builds on a characterising set computed earlier for the same graph. */
+		WSET_PARTITIONREFINEMENT
+	}
+
+	protected WSETALGORITHM wSetAlgorithm = WSETALGORITHM.WSET_REDUCEDMEMORY;
+
+	public WSETALGORITHM getWSetAlgorithm() {
+		return wSetAlgorithm;
+	}
+
+	public void setWSetAlgorithm(WSETALGORITHM value) {
+		wSetAlgorithm = value;
+	}
+
+	/** The number of threads to use when a characterising set is computed using {@link WSETALGORITHM#WSET_PARTITIONREFINEMENT}. */
+	protected int wSetThreadNumber = 1;
+
+	public int getWSetThreadNumber() {
+		return wSetThreadNumber;
+	}
+
+	public void setWSetThreadNumber(int value) {
+		wSetThreadNumber = value;
+	}
+
+	/** Determines how LTL formulae are turned into automata by {@link statechum.analysis.learning.rpnicore.LTL_to_ba}. */
+	public enum LTL2BABACKEND {
+		/** Runs the external ltl2ba executable and parses its output. */
+		LTL2BA_EXTERNAL,
+		/** Uses {@link statechum.analysis.learning.rpnicore.LTLTranslator}, which does not need any external executables but only supports safety properties. */
+		LTL2BA_JAVA
+	}
+
+	protected LTL2BABACKEND ltl2baBackend = LTL2BABACKEND.LTL2BA_EXTERNAL;
+
+	public LTL2BABACKEND getLtl2baBackend() {
+		return ltl2baBackend;
+	}
+
+	public void setLtl2baBackend(LTL2BABACKEND value) {
+		ltl2baBackend = value;
+	}
+
+	/** The maximal number of automata built from LTL to keep in memory, in order to avoid translating the same formulae 
+	 * again when constraints are rebuilt. Zero disables caching.
+	 */
+	protected int ltl2baCacheSize = 64;
+
+	public int getLtl2baCacheSize() {
+		return ltl2baCacheSize;
+	}
+
+	public void setLtl2baCacheSize(int value) {
+		ltl2baCacheSize = value;
+	}
+
 	@Override
 	public Object clone() {
 		try {
@@ -857,6 +983,93 @@ public class Configuration implements Cloneable {
 		gdScoreComputationAlgorithm = value;
 	}
 
+	/**
+	 * Solver to use for systems of equations built when computing compatibility scores of pairs of states, 
+	 * such as those for linear pair selection and GD.
+	 * <ul>
+	 * <li><em>LINEARSOLVER_DEFAULT</em> uses the external (UMFPACK-based) solver if it can be loaded and Colt otherwise.</li>
+	 * <li><em>LINEARSOLVER_EXTERNAL</em> uses the external solver and throws if it cannot be loaded.</li>
+	 * <li><em>LINEARSOLVER_COLT</em> uses dense LU decomposition in Colt, only suitable for small systems.</li>
+	 * <li><em>LINEARSOLVER_ITERATIVE_JACOBI</em> uses BiCGSTAB with a diagonal (Jacobi) preconditioner, 
+	 * which is written in Java and uses multiple threads.</li>
+	 * <li><em>LINEARSOLVER_ITERATIVE_ILU</em> uses BiCGSTAB with an incomplete LU factorisation as a preconditioner, 
+	 * which usually needs fewer iterations than Jacobi but the preconditioner itself is applied in a single thread.</li>
+	 * </ul>
+	 */
+	public enum LINEARSOLVER {
+		LINEARSOLVER_DEFAULT, LINEARSOLVER_EXTERNAL, LINEARSOLVER_COLT, LINEARSOLVER_ITERATIVE_JACOBI, LINEARSOLVER_ITERATIVE_ILU
+	}
+
+	protected LINEARSOLVER linearSolver = LINEARSOLVER.LINEARSOLVER_DEFAULT;
+
+	public LINEARSOLVER getLinearSolver() {
+		return linearSolver;
+	}
+
+	public void setLinearSolver(LINEARSOLVER value) {
+		linearSolver = value;
+	}
+
+	/**
+	 * Iterative solvers stop when the norm of the residual <em>b-Ax</em> is below this value multiplied by the norm of <em>b</em>.
+	 */
+	protected double linearSolverTolerance = 1e-12;
+
+	public double getLinearSolverTolerance() {
+		return linearSolverTolerance;
+	}
+
+	public void setLinearSolverTolerance(double value) {
+		if (value <= 0)
+			throw new IllegalArgumentException("tolerance should be positive");
+		linearSolverTolerance = value;
+	}
+
+	/**
+	 * The maximal number of iterations of an iterative solver; if the solution is not found by then, 
+	 * an {@link IllegalArgumentException} is thrown.
+	 */
+	protected int linearSolverMaxIterations = 10000;
+
+	public int getLinearSolverMaxIterations() {
+		return linearSolverMaxIterations;
+	}
+
+	public void setLinearSolverMaxIterations(int value) {
+		linearSolverMaxIterations = value;
+	}
+
+	/**
+	 * If positive, the matrix used to compute compatibility scores of pairs of states
+	 * is built in chunks of this many rows of the transition matrix, each of which is moved outside the Java heap as soon as it is built.
+	 * This way, the memory used during construction of the matrix is bounded by the size of a chunk rather than being
+	 * proportional to the number of pairs of states. Zero or negative means the matrix is built in one go.
+	 */
+	protected int gdMatrixChunkRows = 0;
+
+	public int getGdMatrixChunkRows() {
+		return gdMatrixChunkRows;
+	}
+
+	public void setGdMatrixChunkRows(int value) {
+		gdMatrixChunkRows = value;
+	}
+
+	/**
+	 * Where the matrix is built in chunks (see {@link #getGdMatrixChunkRows()}), this is a directory where
+	 * chunks are spilled to memory-mapped files. If null, direct buffers are used, the total size of which
+	 * is limited by the -XX:MaxDirectMemorySize option of the JVM.
+	 */
+	protected String gdMatrixSpillDirectory = null;
+
+	public String getGdMatrixSpillDirectory() {
+		return gdMatrixSpillDirectory;
+	}
+
+	public void setGdMatrixSpillDirectory(String value) {
+		gdMatrixSpillDirectory = value;
+	}
+
 	/**
 	 * When scores are generated using SCORE_TESTSET (via W method), this number
 	 * indicates how many extra states are to use in test generation.
@@ -936,6 +1149,22 @@ public class Configuration implements Cloneable {
 		gdPropagateDet = newValue;
 	}
 
+	/**
+	 * Where true and GD is asked to use more than one thread, candidates for key pairs in each wave are
+	 * evaluated by multiple threads and so are the changes contributed by different key pairs to a patch.
+	 * Outcomes from threads are combined in the order they would have been produced by a single thread,
+	 * hence the patch is the same regardless of this value.
+	 */
+	protected boolean gdConcurrentWaves = false;
+
+	public boolean getGdConcurrentWaves() {
+		return gdConcurrentWaves;
+	}
+
+	public void setGdConcurrentWaves(boolean newValue) {
+		gdConcurrentWaves = newValue;
+	}
+
 	/**
 	 * Considering all pairs of states, we need to determine those of them which
 	 * are over a specific threshold, defined as top so many percent (expressed
@@ -1385,9 +1614,14 @@ public class Configuration implements Cloneable {
 	/** The collection holding a transition matrix can be either a tree map for compatibility with old learners or a {@link HashMapWithSearch} that is a flavour of {@link LinkedHashMap}. 
 	 * that is more efficient, particularly for large graphs. The order of state exploration is dependent on hash code computation rather than on names or numbers of states. This would
 	 * typically lead to slightly different learning outcomes hence the possibility of compatibility mode. 
+	 * STATETREE_OVERLAY stores transition matrices the same way as STATETREE_LINKEDHASH, except that a shallow copy of a deterministic graph 
+	 * (such as the one made when two states are merged) only records changes made to the transition matrix of the original graph, 
+	 * see {@link statechum.analysis.learning.rpnicore.TransitionMatrixOverlay}.
+	 * STATETREE_DENSE keeps transition matrices of deterministic graphs in arrays of integers, see {@link statechum.analysis.learning.rpnicore.DenseTransitionMatrix};
+	 * similarly to STATETREE_ARRAY, labels have to be interned. Non-deterministic graphs use the same representation as STATETREE_LINKEDHASH.
 	 */
 	public enum STATETREE {
-		STATETREE_SLOWTREE, STATETREE_LINKEDHASH, STATETREE_ARRAY
+		STATETREE_SLOWTREE, STATETREE_LINKEDHASH, STATETREE_ARRAY, STATETREE_OVERLAY, STATETREE_DENSE
 	}
 
 	protected STATETREE transitionMatrixImplType = STATETREE.STATETREE_LINKEDHASH;
@@ -1401,6 +1635,36 @@ public class Configuration implements Cloneable {
 	{
 		transitionMatrixImplType = value;
 	}
+
+	/** Where transition matrices are {@link STATETREE#STATETREE_DENSE}, determines whether rows of transition matrices are kept outside the Java heap,
+	 * so that PTAs built from very large collections of traces do not need very large heaps. 
+	 */
+	protected boolean offHeapTransitions = false;
+	
+	public boolean isOffHeapTransitions()
+	{
+		return offHeapTransitions;
+	}
+	
+	public void setOffHeapTransitions(boolean value)
+	{
+		offHeapTransitions = value;
+	}
+	
+	/** Directory where memory-mapped files holding transitions stored outside the Java heap are created, see {@link #isOffHeapTransitions()}.
+	 * If null, direct buffers are used, the total size of which is limited by the -XX:MaxDirectMemorySize option of the JVM.
+	 */
+	protected String offHeapStorageDirectory = null;
+	
+	public String getOffHeapStorageDirectory()
+	{
+		return offHeapStorageDirectory;
+	}
+	
+	public void setOffHeapStorageDirectory(String value)
+	{
+		offHeapStorageDirectory = value;
+	}
 	
 	/** With a switch to {@link LinkedHashMap} for representation of a transition matrix, performance is better however the order is dependent on hash code generation which may change. Using this attribute one
 	 * can switch the hashcode order to compare-order (like that of {@link TreeMap}) which is useful for recording test results.
@@ -1433,6 +1697,22 @@ public class Configuration implements Cloneable {
 		useConstraints = newValue;
 	}
 
+	/**
+	 * Where constraints are used, augmentation of a merged graph with if-then automata usually explores the product
+	 * of the whole graph with all automata. If this is set to true, learners that support it record the explored product 
+	 * states for the current tentative automaton and after a merge only re-explore those where graph states have changed, 
+	 * see {@link statechum.analysis.learning.rpnicore.Transform.ExploredIfThenStates}. This does not affect the outcome of learning.
+	 */
+	protected boolean incrementalConstraints = false;
+
+	public boolean isIncrementalConstraints() {
+		return incrementalConstraints;
+	}
+
+	public void setIncrementalConstraints(boolean newValue) {
+		incrementalConstraints = newValue;
+	}
+
 	public static final String configXMLTag = "configuration",
 			configVarTag = "var", configVarAttrName = "name",
 			configVarAttrValue = "value";
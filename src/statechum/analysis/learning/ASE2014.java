@@ -66,7 +66,6 @@ import statechum.analysis.learning.rpnicore.Transform;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
 import statechum.analysis.learning.rpnicore.WMethod;
 import statechum.model.testset.PTASequenceEngine.FilterPredicate;
-import statechum.collections.ArrayMapWithSearchPos;
 import statechum.analysis.learning.DrawGraphs.SquareBagPlot;
 
 
@@ -400,8 +399,6 @@ public class ASE2014 extends PairQualityLearner
 			useClassifyPairs = v;
 		}
 		
-		Map<CmpVertex,Long> inconsistenciesPerVertex = null;
-		
 		/** Whether we should try learning with zero inconsistencies, to see how heuristics fare. */
 		protected boolean disableInconsistenciesInMergers = false;
 		
@@ -415,12 +412,11 @@ public class ASE2014 extends PairQualityLearner
 		{
 			coregraph = graph;
 					 				
-			long value = MarkovClassifier.computeInconsistency(coregraph, Markov, checker,false);
-			inconsistencyFromAnEarlierIteration=value;
-			cl = new MarkovClassifier(Markov, coregraph);
+			// where the graph is the outcome of the last merger, inconsistencies of vertices not affected by it are retained from the previous iteration.
+			cl = cl != null && cl.model == Markov?new MarkovClassifier(cl, coregraph):new MarkovClassifier(Markov, coregraph);
+			inconsistencyFromAnEarlierIteration=cl.computeConsistency(checker, false);// this records inconsistencies of all vertices, to be reused when mergers are evaluated.
 		    extendedGraph = cl.constructMarkovTentative();
 			inverseGraph = (LearnerGraphND)MarkovClassifier.computeInverseGraph(coregraph,true);
-			inconsistenciesPerVertex = new ArrayMapWithSearchPos<CmpVertex,Long>(coregraph.getStateNumber());
 		}
 		
 		@Override // we only need this in order to supply a routine to find surrounding transitions and initComputation
@@ -442,7 +438,7 @@ public class ASE2014 extends PairQualityLearner
 			{			
 				LearnerGraph merged = MergeStates.mergeCollectionOfVerticesNoUpdateOfAuxiliaryInformation(coregraph, verticesToMerge);
 				if (!disableInconsistenciesInMergers)
-					currentInconsistency = MarkovClassifier.computeInconsistencyOfAMerger(coregraph, verticesToMerge, inconsistenciesPerVertex, merged, Markov, cl, checker);
+					currentInconsistency = cl.computeInconsistencyOfAMerger(verticesToMerge, merged, checker);
 				
 				score=genScore-currentInconsistency;
 				if (useNewScoreNearRoot && genScore <= 1) // could do with 2 but it does not make a difference.
@@ -32,16 +32,19 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import statechum.Configuration;
 import statechum.Label;
 import statechum.Configuration.STATETREE;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
-import statechum.analysis.learning.MarkovModel.MarkovMatrixEngine;
 import statechum.analysis.learning.MarkovModel.MarkovMatrixEngine.PredictionForSequence;
 import statechum.analysis.learning.MarkovModel.MarkovOutcome;
 import statechum.analysis.learning.MarkovModel.UpdatablePairInteger;
+import statechum.analysis.learning.MarkovPredictionLookup.PredictionVisitor;
+import statechum.analysis.learning.MarkovPredictionLookup.PredictionsFollowingPrefix;
 import statechum.analysis.learning.experiments.PairSelection.MarkovPassivePairSelection;
 import statechum.analysis.learning.rpnicore.AMEquivalenceClass;
 import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
@@ -54,8 +57,6 @@ import statechum.analysis.learning.rpnicore.MergeStates;
 import statechum.analysis.learning.rpnicore.PairScoreComputation;
 import statechum.collections.ArrayMapWithSearch;
 import statechum.collections.ArrayMapWithSearchPos;
-import statechum.model.testset.PTAExploration;
-import statechum.model.testset.PTASequenceEngine;
 
 /** An instance of this class holds all the necessary parameters in order to make it possible to predict transitions and/or check inconsistencies using a Markov model. Depending on the kind of model passed to it, 
  * it will be making appropriate predictions.
@@ -90,6 +91,26 @@ public class MarkovClassifier
 	@SuppressWarnings("rawtypes")
 	public final AbstractLearnerGraph graphToCheckForConsistency;  
 	
+	/** Inconsistencies of vertices of {@link #graph}, for each of the checkers used to compute them. Since the graph is not modified, these remain valid until 
+	 * the model is updated by {@link #updateMarkov(boolean)} or {@link #updateMarkov(CmpVertex, int)} and are reused when numerous mergers of the same graph are evaluated. 
+	 * Could be accessed by multiple threads.
+	 */
+	protected final ConcurrentMap<ConsistencyChecker,Map<CmpVertex,Long>> inconsistencyCache = new ConcurrentHashMap<ConsistencyChecker,Map<CmpVertex,Long>>();
+
+	/** Enumerates paths in {@link #graphToUseForPrediction}, constructed on first use by {@link #getPathWalker()}. */
+	private MarkovPathWalker pathWalker = null;
+
+	/** Returns the engine used to enumerate paths in {@link #graphToUseForPrediction}, constructing it if necessary. */
+	public synchronized MarkovPathWalker getPathWalker()
+	{
+		if (pathWalker == null)
+		{
+			AbstractLearnerGraph<?,?> graph = graphToUseForPrediction;
+			pathWalker = new MarkovPathWalker(graph);
+		}
+		return pathWalker;
+	}
+
 
 	/** Navigates a path from the supplied state and either returns 
 	 * true if it is a valid path.
@@ -186,7 +207,73 @@ public class MarkovClassifier
 		assert graph.transitionMatrix.keySet().equals(graphToCheckForConsistency.transitionMatrix.keySet());
 	}
 	
-	interface ForEachCollectionOfPaths
+	/** Constructs a classifier for a graph obtained by merging vertices of the graph of the supplied classifier. Inconsistencies cached by the supplied classifier 
+	 * are retained for all vertices other than those that could be affected by the merger, that is, merged vertices and those within the length of predictions from them, 
+	 * in either direction. This way, inconsistencies of the graph after a merger only have to be computed for the affected vertices.
+	 * 
+	 * @param previous classifier for the graph before a merger
+	 * @param merged the outcome of merging
+	 * @param verticesToMerge vertices that were merged, computed by the generalised scoring routine.
+	 */
+	public MarkovClassifier(MarkovClassifier previous, LearnerGraph merged, Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge)
+	{
+		this(previous, merged, obtainMergedVertices(verticesToMerge));
+	}
+	
+	/** Constructs a classifier for the supplied graph, using the model of the supplied classifier. Where the graph was obtained by {@link MergeStates} from 
+	 * the graph of the supplied classifier, inconsistencies cached by that classifier are retained in the same way as by 
+	 * {@link #MarkovClassifier(MarkovClassifier, LearnerGraph, Collection)}, using the states recorded by {@link LearnerGraphCachedData#getStatesAffectedByMerge()}.
+	 * Otherwise none are retained. 
+	 * 
+	 * @param previous classifier for the graph before a merger
+	 * @param merged the graph to make predictions in, usually the outcome of merging.
+	 */
+	public MarkovClassifier(MarkovClassifier previous, LearnerGraph merged)
+	{
+		this(previous, merged, merged.learnerCache.getMergedFrom() == previous.graph && merged.learnerCache.getStatesAffectedByMerge() != null?
+				new HashSet<CmpVertex>(merged.learnerCache.getStatesAffectedByMerge()):null);
+	}
+	
+	/** Constructs a classifier for a graph obtained by merging vertices of the graph of the supplied classifier.
+	 * 
+	 * @param previous classifier for the graph before a merger
+	 * @param merged the outcome of merging
+	 * @param mergedVertices vertices that were changed by the merger, those absent from <i>merged</i> are ignored; null if no inconsistencies are to be retained.
+	 */
+	protected MarkovClassifier(MarkovClassifier previous, LearnerGraph merged, Set<CmpVertex> mergedVertices)
+	{
+		this(previous.model, merged);
+		if (mergedVertices != null)
+		{
+			Set<CmpVertex> affectedForward = new HashSet<CmpVertex>(), affectedBackward = new HashSet<CmpVertex>();
+			for(CmpVertex v:mergedVertices)
+				if (merged.transitionMatrix.containsKey(v))
+				{
+					affectedForward.add(v);affectedBackward.add(v);
+				}
+			computeClosure(merged,affectedForward,model.getPredictionLen());
+			computeClosureInAnyGraph(predictionGraphInverted?graphToUseForPrediction:!model.directionForwardOrInverse?graphToCheckForConsistency:computeInverseGraph(merged), affectedBackward, model.getPredictionLen());
+			for(Entry<ConsistencyChecker,Map<CmpVertex,Long>> checkerToInconsistencies:previous.inconsistencyCache.entrySet())
+			{
+				Map<CmpVertex,Long> inconsistencies = getInconsistencies(checkerToInconsistencies.getKey());
+				for(Entry<CmpVertex,Long> entry:checkerToInconsistencies.getValue().entrySet())
+					if (!affectedForward.contains(entry.getKey()) && !affectedBackward.contains(entry.getKey()) && graph.transitionMatrix.containsKey(entry.getKey()))
+						inconsistencies.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	/** Returns merged vertices of equivalence classes with more than one state. */
+	protected static Set<CmpVertex> obtainMergedVertices(Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge)
+	{
+		Set<CmpVertex> mergedVertices = new HashSet<CmpVertex>();
+		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:verticesToMerge)
+			if (eqClass.getStates().size() > 1)
+				mergedVertices.add(eqClass.getMergedVertex());
+		return mergedVertices;
+	}
+	
+	public interface ForEachCollectionOfPaths
 	{
 		/** This one is called for each path in an explored graph. */
 		public void handlePath(List<Label> path);
@@ -289,13 +376,7 @@ public class MarkovClassifier
 	public static long computeInconsistencyOfAMerger(LearnerGraph coregraph, List<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge,Map<CmpVertex,Long> origInconsistencies, LearnerGraph merged, MarkovModel m, MarkovClassifier origClassifier, ConsistencyChecker checker)
 	{
 		Set<CmpVertex> affectedVerticesInMergedGraph = new LinkedHashSet<CmpVertex>(),affectedVerticesInOrigGraph = new LinkedHashSet<CmpVertex>();
-		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:verticesToMerge)
-			if (eqClass.getStates().size() > 1)
-			{
-				affectedVerticesInOrigGraph.addAll(eqClass.getStates());affectedVerticesInMergedGraph.add(eqClass.getMergedVertex());
-			}
-		computeClosure(coregraph,affectedVerticesInOrigGraph,m.getPredictionLen());
-		computeClosure(merged,affectedVerticesInMergedGraph,m.getPredictionLen());
+		computeAffectedVertices(coregraph, verticesToMerge, merged, m, affectedVerticesInOrigGraph, affectedVerticesInMergedGraph);
 
 		long origInconsistencyRelativeToChanges = 0;
 		for(CmpVertex v:affectedVerticesInOrigGraph)
@@ -315,6 +396,37 @@ public class MarkovClassifier
 		return mergedInconsistencyRelativeToChanges - origInconsistencyRelativeToChanges;
 	}
 	
+	/** Given a collection of vertices that is to be merged, computes the inconsistency of the outcome of a merger, in the same way as 
+	 * {@link #computeInconsistencyOfAMerger(LearnerGraph, List, Map, LearnerGraph, MarkovModel, MarkovClassifier, ConsistencyChecker)} does, 
+	 * using inconsistencies of vertices of the graph of this classifier cached in this classifier. Can be called by multiple threads.
+	 *
+	 * @param verticesToMerge vertices to merge in the graph of this classifier, computed by the generalised scoring routine.
+	 * @param merged the outcome of merging.
+	 * @param checker Consistency checker to use for predictions.
+	 */
+	public long computeInconsistencyOfAMerger(List<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge, LearnerGraph merged, ConsistencyChecker checker)
+	{
+		Set<CmpVertex> affectedVerticesInMergedGraph = new LinkedHashSet<CmpVertex>(),affectedVerticesInOrigGraph = new LinkedHashSet<CmpVertex>();
+		computeAffectedVertices(graph, verticesToMerge, merged, model, affectedVerticesInOrigGraph, affectedVerticesInMergedGraph);
+		long origInconsistencyRelativeToChanges = computeConsistencyForSpecificVertices(checker, affectedVerticesInOrigGraph, false);
+		MarkovClassifier cl = new MarkovClassifier(model, merged);
+		long mergedInconsistencyRelativeToChanges = cl.computeConsistencyForSpecificVertices(checker,affectedVerticesInMergedGraph,false);
+		return mergedInconsistencyRelativeToChanges - origInconsistencyRelativeToChanges;
+	}
+	
+	/** Identifies vertices that may have different inconsistencies after a merger, both in the original and the merged graph. */
+	protected static void computeAffectedVertices(LearnerGraph coregraph, List<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge, LearnerGraph merged, MarkovModel m, 
+			Set<CmpVertex> affectedVerticesInOrigGraph, Set<CmpVertex> affectedVerticesInMergedGraph)
+	{
+		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:verticesToMerge)
+			if (eqClass.getStates().size() > 1)
+			{
+				affectedVerticesInOrigGraph.addAll(eqClass.getStates());affectedVerticesInMergedGraph.add(eqClass.getMergedVertex());
+			}
+		computeClosure(coregraph,affectedVerticesInOrigGraph,m.getPredictionLen());
+		computeClosure(merged,affectedVerticesInMergedGraph,m.getPredictionLen());
+	}
+	
 	/** Walks all paths of the specified distance and states encountered are added to the provided set.
 	 * 
 	 * @param coregraph graph to explore
@@ -355,6 +467,23 @@ public class MarkovClassifier
 		}
 	}
 	
+	/** Similar to {@link #computeClosure(LearnerGraph, Set, int)} but works with non-deterministic graphs, such as inverse graphs. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static void computeClosureInAnyGraph(AbstractLearnerGraph coregraph, Set<CmpVertex> affectedVerticesInGraph, int distance)
+	{
+		Collection<CmpVertex> currentExplorationBoundary = new ArrayList<CmpVertex>(affectedVerticesInGraph);
+		for(int exploredDistance=0;exploredDistance < distance && !currentExplorationBoundary.isEmpty();++exploredDistance)
+		{// breadth-first search where every iteration explores vertices at the next distance from the original ones.
+			Collection<CmpVertex> nextBoundary = new ArrayList<CmpVertex>();
+			for(CmpVertex v:currentExplorationBoundary)
+				for(Object targets:((Map<Label,Object>)coregraph.transitionMatrix.get(v)).values())
+					for(Object target:coregraph.getTargets(targets))
+						if (affectedVerticesInGraph.add((CmpVertex)target))
+							nextBoundary.add((CmpVertex)target);
+			currentExplorationBoundary = nextBoundary;
+		}
+	}
+	
 	/** Given a graph, it uses the supplied collection of labels in order to identify states to merge, constructs a merge and counts the number of inconsistencies between the Markov-predicted vertices and the actual ones.
 	 * The large number of arguments reflect the extent to which this process can be customised. 
 	 * <p>
@@ -650,18 +779,15 @@ public class MarkovClassifier
 		        final Map<Label,UpdatablePairDouble> outgoing_labels_probabilities=new HashMap<Label,UpdatablePairDouble>();
 		        final Map<Label,UpdatablePairInteger> outgoing_labels_occurrences=new HashMap<Label,UpdatablePairInteger>();
 		        final UpdatablePairInteger sum=new UpdatablePairInteger(0,0);
-		        WalkThroughAllPathsOfSpecificLength(graphToUseForPrediction,vert,model.getPredictionLen(),new ForEachCollectionOfPaths() 
+		        getPathWalker().walkThroughAllPathsOfSpecificLength(vert,model.getPredictionLen(),predictionGraphInverted,new ForEachCollectionOfPaths() 
 		        {
 					@Override
-					public void handlePath(List<Label> pathToNewState) 
+					public void handlePath(List<Label> partOfTraceUsedInMarkovPredictions) 
 					{
-	    				List<Label> partOfTraceUsedInMarkovPredictions=new ArrayList<Label>(pathToNewState.size());partOfTraceUsedInMarkovPredictions.addAll(pathToNewState);
-    					if (predictionGraphInverted)
-    						Collections.reverse(partOfTraceUsedInMarkovPredictions);
-    					Map<Label,PTASequenceEngine.Node> lastElementToPrediction = model.markovMatrix.getMapFromLabelsToPredictions(partOfTraceUsedInMarkovPredictions);
+    					PredictionsFollowingPrefix lastElementToPrediction = model.getPredictionLookup().getPredictionsFollowing(partOfTraceUsedInMarkovPredictions);
 	    				for(Label label:allElementsOfAlphabet)
 	    				{
-	    					PredictionForSequence prediction = MarkovMatrixEngine.getPredictionIfExists(lastElementToPrediction,label);
+	    					PredictionForSequence prediction = lastElementToPrediction == null?null:lastElementToPrediction.getPrediction(label);
 
 	    					UpdatablePairInteger occurrence_of_label_predicted_form_Markov=prediction == null?null:prediction.occurrence;
 
@@ -820,24 +946,23 @@ public class MarkovClassifier
 		final Set<Label> failureLabels = new TreeSet<Label>();
 		final Map<Label,MarkovOutcome> outgoing_labels_probabilities=
 				graph.config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY? new ArrayMapWithSearchPos<Label,MarkovOutcome>() : new HashMap<Label,MarkovOutcome>();
-        WalkThroughAllPathsOfSpecificLength(graphToUseForPrediction,vert,chunkLength-1-lengthOfPathBeyond,new ForEachCollectionOfPaths() 
+        final List<Label> partOfTraceUsedInMarkovPredictions=new ArrayList<Label>(chunkLength);// reused for all paths
+        getPathWalker().walkThroughAllPathsOfSpecificLength(vert,chunkLength-1-lengthOfPathBeyond,predictionGraphInverted,new ForEachCollectionOfPaths() 
         {
 			@Override
 			public void handlePath(List<Label> pathToNewState) 
 			{
 				if (pathsOfInterest != null)
-					pathsOfInterest.add(pathToNewState);
-
-				List<Label> partOfTraceUsedInMarkovPredictions=new ArrayList<Label>(pathToNewState.size());
-				if (predictionGraphInverted)
-				{
-					for(int i=pathToNewState.size()-1;i>=0;--i) partOfTraceUsedInMarkovPredictions.add(pathToNewState.get(i));if (pathBeyondCurrentState != null) partOfTraceUsedInMarkovPredictions.addAll(pathBeyondCurrentState);
+				{// the supplied path is only valid during this call and is already reversed if necessary, whereas callers expect paths in the order of labels in graphToUseForPrediction.
+					int size = pathToNewState.size();
+					List<Label> path = new ArrayList<Label>(size);
+					for(int i=0;i<size;++i) path.add(pathToNewState.get(predictionGraphInverted?size-1-i:i));
+					pathsOfInterest.add(path);
 				}
-				else
-				{
-					partOfTraceUsedInMarkovPredictions.addAll(pathToNewState);if (pathBeyondCurrentState != null) partOfTraceUsedInMarkovPredictions.addAll(pathBeyondCurrentState);
-				}
-				Map<Label,PTASequenceEngine.Node> lastElementToPrediction = model.markovMatrix.getMapFromLabelsToPredictions(partOfTraceUsedInMarkovPredictions);
+
+				partOfTraceUsedInMarkovPredictions.clear();partOfTraceUsedInMarkovPredictions.addAll(pathToNewState);
+				if (pathBeyondCurrentState != null) partOfTraceUsedInMarkovPredictions.addAll(pathBeyondCurrentState);
+				PredictionsFollowingPrefix lastElementToPrediction = model.getPredictionLookup().getPredictionsFollowing(partOfTraceUsedInMarkovPredictions);
 
 				for(Label label:graph.getCache().getAlphabet())
 				{
@@ -845,7 +970,7 @@ public class MarkovClassifier
 					{// if the labels is not already recorded as being inconsistently predicted
 						MarkovOutcome predictedFromEalierTrace = outgoing_labels_probabilities.get(label);
     					
-    					PredictionForSequence prediction = MarkovMatrixEngine.getPredictionIfExists(lastElementToPrediction, label);
+    					PredictionForSequence prediction = lastElementToPrediction == null?null:lastElementToPrediction.getPrediction(label);
     					MarkovOutcome predicted_from_Markov= prediction!=null?prediction.prediction:null;
 						MarkovOutcome outcome = MarkovOutcome.reconcileOpinions_PosNeg_Overrides_Null(predictedFromEalierTrace, predicted_from_Markov);
 						if (outcome != predictedFromEalierTrace)
@@ -878,6 +1003,7 @@ public class MarkovClassifier
 	@SuppressWarnings("unchecked")
 	public void updateMarkov(CmpVertex vert, int chunkLength)
 	{
+		inconsistencyCache.clear();// inconsistencies depend on the model
 		List<List<Label>> markovPathsToUpdate = new LinkedList<List<Label>>();
 		predictTransitionsFromState(vert,null,chunkLength,markovPathsToUpdate);
 
@@ -903,7 +1029,7 @@ public class MarkovClassifier
 					pathToUpdateInMarkov.add(lbl);
 					
 					MarkovOutcome newValue = null;
-					PredictionForSequence prediction = model.markovMatrix.getPredictionAndCreateNewOneIfNecessary(pathToUpdateInMarkov);
+					PredictionForSequence prediction = model.getPredictionAndCreateNewOneIfNecessary(pathToUpdateInMarkov);
 					
 					boolean foundAccept = false, foundReject = false;
 					for(Object vObj:graphToCheckForConsistency.getTargets(targets))
@@ -939,9 +1065,7 @@ public class MarkovClassifier
 	 */
 	public long computeConsistency(ConsistencyChecker checker, boolean displayTrace)
 	{
-		long accumulatedInconsistency = 0;
-		for(CmpVertex v:graph.transitionMatrix.keySet()) if (v.isAccept()) accumulatedInconsistency+=checkFanoutInconsistency(v,checker,displayTrace);
-		return accumulatedInconsistency;
+		return computeConsistencyForSpecificVertices(checker, graph.transitionMatrix.keySet(), displayTrace);
 	}
 
 	/** Determines how consistent a graph is compared to the data in the Markov model.
@@ -956,11 +1080,38 @@ public class MarkovClassifier
 		for(CmpVertex v:statesOfInterest)
 			if (v.isAccept())
 			{
-				long inconsistency = checkFanoutInconsistency(v,checker,displayTrace);
+				long inconsistency = displayTrace?checkFanoutInconsistency(v,checker,displayTrace):getInconsistency(v, checker);
 				accumulatedInconsistency+=inconsistency;
 			}
 		return accumulatedInconsistency;
 	}
+	
+	/** Returns the inconsistency of the supplied vertex of {@link #graph}, computed by {@link #checkFanoutInconsistency(CmpVertex, ConsistencyChecker)} and cached in this classifier. */
+	public long getInconsistency(CmpVertex v, ConsistencyChecker checker)
+	{
+		Map<CmpVertex,Long> inconsistencies = getInconsistencies(checker);
+		Long inconsistency = inconsistencies.get(v);
+		if (inconsistency == null)
+		{// where multiple threads compute inconsistency of the same vertex, they will all record the same value. If the cache is emptied in the meantime, the value is recorded in a map that is no longer used.
+			inconsistency = checkFanoutInconsistency(v,checker,false);
+			inconsistencies.put(v, inconsistency);
+		}
+		return inconsistency.longValue();
+	}
+	
+	/** Returns a map from vertices to inconsistencies computed with the supplied checker, adding it to {@link #inconsistencyCache} if necessary. */
+	protected Map<CmpVertex,Long> getInconsistencies(ConsistencyChecker checker)
+	{
+		Map<CmpVertex,Long> inconsistencies = inconsistencyCache.get(checker);
+		if (inconsistencies == null)
+		{
+			inconsistencies = new ConcurrentHashMap<CmpVertex,Long>();
+			Map<CmpVertex,Long> existing = inconsistencyCache.putIfAbsent(checker, inconsistencies);
+			if (existing != null)
+				inconsistencies = existing;
+		}
+		return inconsistencies;
+	}
 		
 	/** Uses the supplied Markov matrix to check if predicted transitions from specific states match those that actually exist.
 	 * <ul>
@@ -1001,32 +1152,21 @@ public class MarkovClassifier
 			outgoing_labels_value.put(entry.getKey(),entry.getValue().isAccept()?MarkovOutcome.positive:MarkovOutcome.negative);
 		}
 		
-		WalkThroughAllPathsOfSpecificLength(graphToUseForPrediction,vert,model.getPredictionLen(),new ForEachCollectionOfPaths() 
+		getPathWalker().walkThroughAllPathsOfSpecificLength(vert,model.getPredictionLen(),predictionGraphInverted,new ForEachCollectionOfPaths() 
         {
 			@Override
-			public void handlePath(List<Label> pathToNewState) 
+			public void handlePath(List<Label> partOfTraceUsedInMarkovPredictions) 
 			{
-				List<Label> partOfTraceUsedInMarkovPredictions = new ArrayList<Label>();
-				
-				if (predictionGraphInverted)
-				{
-					for(int i=pathToNewState.size()-1;i>=0;--i) partOfTraceUsedInMarkovPredictions.add(pathToNewState.get(i));
-				}
-				else
-				{
-					partOfTraceUsedInMarkovPredictions.addAll(pathToNewState);
-				}
-				
-				Map<Label,PTASequenceEngine.Node> mapFromLastLabelToNodes = model.markovMatrix.getMapFromLabelsToPredictions(partOfTraceUsedInMarkovPredictions);
+				PredictionsFollowingPrefix lastElementToPrediction = model.getPredictionLookup().getPredictionsFollowing(partOfTraceUsedInMarkovPredictions);
 				
 				//System.out.println(vert.toString()+" : "+encounteredPartOfTrace+" outgoing: "+outgoingLabels);
-				if (checker.considerPathsWithPrefixMissingInMarkov() || mapFromLastLabelToNodes != null) // we skip everything where a path was not seen in PTA unless we are asked to consider all such paths.
+				if (checker.considerPathsWithPrefixMissingInMarkov() || lastElementToPrediction != null) // we skip everything where a path was not seen in PTA unless we are asked to consider all such paths.
     				for(Label label:outgoingLabels)
     				{
 						MarkovOutcome labels_occurrence= outgoing_labels_value.get(label);
 						if (labels_occurrence != MarkovOutcome.failure)
 						{
-	    					PredictionForSequence prediction = MarkovMatrixEngine.getPredictionIfExists(mapFromLastLabelToNodes, label);
+	    					PredictionForSequence prediction = lastElementToPrediction == null?null:lastElementToPrediction.getPrediction(label);
 	    					MarkovOutcome predicted_from_Markov=prediction == null?null:prediction.prediction;
 	    					if (predicted_from_Markov != MarkovOutcome.failure)
 	    					{// if training data does not lead to a consistent outcome for this label because chunk length is too small, not much we can do, but otherwise we are here and can make use of the data
@@ -1112,6 +1252,7 @@ public class MarkovClassifier
 	 */
 	public void updateMarkov(boolean onlyLongest)
 	{
+		inconsistencyCache.clear();// inconsistencies depend on the model
     	for(CmpVertex vert:graph.transitionMatrix.keySet())
     		for(int len=onlyLongest?model.getChunkLen():1;len <=model.getChunkLen();++len)// this is very inefficient; we'll optimize it later if needed.
 	           if(vert.isAccept())
@@ -1260,56 +1401,29 @@ public class MarkovClassifier
 		List<List<Label>> whatToMerge = null;
 
 		final AtomicLong maxCount = new AtomicLong(0);
-		PTAExploration<Boolean> exploration = new PTAExploration<Boolean>(model.markovMatrix) {
-			@Override
-			public Boolean newUserObject() {
-				return null;
-			}
-
+		model.getPredictionLookup().visitPredictions(new PredictionVisitor() {
 			@Override
-			public void nodeEntered(PTAExplorationNode currentNode,	LinkedList<PTAExplorationNode> pathToInit) 
+			public void visit(List<Label> sequence, PredictionForSequence prediction) 
 			{
-				PredictionForSequence prediction = (PredictionForSequence)currentNode.getState();
-				if (pathToInit.size() == WLength && prediction.prediction == MarkovOutcome.positive)
+				if (sequence.size() == WLength && prediction.prediction == MarkovOutcome.positive)
 				{
 					long countInPTA=prediction.occurrence.firstElem;
 					if (countInPTA > maxCount.longValue())
 						maxCount.set(countInPTA);
 				}
 			}
-
-			@Override
-			public void leafEntered(PTAExplorationNode currentNode,	LinkedList<PTAExplorationNode> pathToInit) 
-			{
-				nodeEntered(currentNode, pathToInit);
-			}
-
-			@Override
-			public void nodeLeft(@SuppressWarnings("unused") PTAExplorationNode currentNode, @SuppressWarnings("unused") LinkedList<PTAExplorationNode> pathToInit) 
-			{
-				// nothing to do here.
-			}
-
-		};
-		exploration.walkThroughAllPaths();
+		});
 
 		final Map<Long,List<List<Label>>> thresholdToInconsistency = new TreeMap<Long,List<List<Label>>>();
-		exploration = new PTAExploration<Boolean>(model.markovMatrix) {
+		model.getPredictionLookup().visitPredictions(new PredictionVisitor() {
 			@Override
-			public Boolean newUserObject() {
-				return null;
-			}
-
-			@Override
-			public void nodeEntered(PTAExplorationNode currentNode,	LinkedList<PTAExplorationNode> pathToInit) 
+			public void visit(List<Label> path, PredictionForSequence prediction) 
 			{
-				PredictionForSequence prediction = (PredictionForSequence)currentNode.getState();
-				if (pathToInit.size() == WLength && prediction.prediction == MarkovOutcome.positive)
+				if (path.size() == WLength && prediction.prediction == MarkovOutcome.positive)
 				{
 					long countInPTA=prediction.occurrence.firstElem;
 					if (countInPTA < maxCount.longValue()/2) // paths that are very common are likely to be present from a number of different states and as such not very good for discriminating between them.
 					{
-						LinkedList<Label> path = new LinkedList<Label>();for(PTAExplorationNode elem:pathToInit) path.addFirst(elem.getInput());
 						long value = computeInconsistencyForMergingPath(path, checker);
 						if (value >= 0)
 						{
@@ -1323,21 +1437,7 @@ public class MarkovClassifier
 					}
 				}
 			}
-
-			@Override
-			public void leafEntered(PTAExplorationNode currentNode,	LinkedList<PTAExplorationNode> pathToInit) 
-			{
-				nodeEntered(currentNode, pathToInit);
-			}
-
-			@Override
-			public void nodeLeft(@SuppressWarnings("unused") PTAExplorationNode currentNode, @SuppressWarnings("unused")	LinkedList<PTAExplorationNode> pathToInit) 
-			{
-				// nothing to do here.
-			}
-
-		};
-		exploration.walkThroughAllPaths();
+		});
 		
 		{// Now evaluate the most consistent element in the map and merge all paths associated with it. 
 		 // In reality, there would be many other elements that might be feasible, however we'd like 
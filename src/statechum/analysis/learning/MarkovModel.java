@@ -20,11 +20,24 @@ package statechum.analysis.learning;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import statechum.Label;
 import statechum.Trace;
@@ -54,7 +67,7 @@ import statechum.model.testset.PTASequenceSetAutomaton;
  */
 public class MarkovModel
 {
-	public static class MarkovMatrixEngine extends statechum.model.testset.PTASequenceEngine
+	public static class MarkovMatrixEngine extends statechum.model.testset.PTASequenceEngine implements MarkovPredictionLookup
 	{
 		public static class PredictionForSequence
 		{
@@ -98,6 +111,52 @@ public class MarkovModel
 			return pta.get(currentNode);
 		}
 		
+		@Override
+		public PredictionsFollowingPrefix getPredictionsFollowing(List<Label> prefix)
+		{
+			final Map<Label,PTASequenceEngine.Node> lastElementToPrediction = getMapFromLabelsToPredictions(prefix);
+			if (lastElementToPrediction == null)
+				return null;
+			return new PredictionsFollowingPrefix() {
+				@Override
+				public PredictionForSequence getPrediction(Label label) {
+					return getPredictionIfExists(lastElementToPrediction, label);
+				}
+			};
+		}
+		
+		@Override
+		public void visitPredictions(final PredictionVisitor visitor)
+		{
+			PTAExploration<Boolean> exploration = new PTAExploration<Boolean>(this) {
+				@Override
+				public Boolean newUserObject() {
+					return null;
+				}
+
+				@Override
+				public void nodeEntered(PTAExplorationNode currentNode, LinkedList<PTAExplorationNode> pathToInit) 
+				{
+					LinkedList<Label> path = new LinkedList<Label>();for(PTAExplorationNode elem:pathToInit) path.addFirst(elem.getInput());
+					visitor.visit(path, (PredictionForSequence)currentNode.getState());
+				}
+
+				@Override
+				public void leafEntered(PTAExplorationNode currentNode,	LinkedList<PTAExplorationNode> pathToInit) 
+				{
+					nodeEntered(currentNode, pathToInit);
+				}
+
+				@Override
+				public void nodeLeft(@SuppressWarnings("unused") PTAExplorationNode currentNode, @SuppressWarnings("unused") LinkedList<PTAExplorationNode> pathToInit) 
+				{
+					// nothing to do here.
+				}
+
+			};
+			exploration.walkThroughAllPaths();
+		}
+		
 		/** Obtains predictions and occurrence. */
 		public static PredictionForSequence getPredictionIfExists(Map<Label,PTASequenceEngine.Node> map, Label element)
 		{
@@ -110,6 +169,7 @@ public class MarkovModel
 		}
 		
 		/** Given a sequence, obtains a prediction for it. */
+		@Override
 		public PredictionForSequence getPrediction(List<Label> sequence)
 		{
 			PTASequenceEngine.Node currentNode = getNodeFromSequence(sequence);
@@ -119,6 +179,7 @@ public class MarkovModel
 		}
 		
 		/** Obtains predictions, initialises a new one if absent. */
+		@Override
 		public PredictionForSequence getPredictionAndCreateNewOneIfNecessary(List<Label> sequence)
 		{
 			SequenceSet set = MarkovMatrixEngine.this.new SequenceSet();set.setIdentity();
@@ -130,8 +191,21 @@ public class MarkovModel
 		
 	}
 	
+	/** Stores the model where it is built using a PTA, null if {@link #markovTable} is used instead. */
 	public final MarkovMatrixEngine markovMatrix;
 	
+	/** Stores the model in primitive arrays, null if {@link #markovMatrix} is used instead. */
+	public final MarkovNGramTable markovTable;
+	
+	/** Whichever of {@link #markovMatrix} and {@link #markovTable} stores the model. */
+	protected final MarkovPredictionLookup predictionLookup;
+	
+	/** Returns predictions of this model regardless of how it is stored. */
+	public MarkovPredictionLookup getPredictionLookup()
+	{
+		return predictionLookup;
+	}
+	
 	/** Contains the number of times a specific path was encountered. Would usually be prefix-closed by construction. This property is used both to identify if a particular path was never seen*/
 	//public final Map<Trace, UpdatablePairInteger> occurrenceMatrix =  new HashMap<Trace,UpdatablePairInteger>();
 	
@@ -154,13 +228,39 @@ public class MarkovModel
 	public final boolean predictForwardOrSideways,directionForwardOrInverse;
 	
     public MarkovModel(int chunkLen,boolean argPredictForwardOrSideways,boolean argDirectionForwardOrInverse, boolean PTAUseMatrix)
+    {
+    	this(chunkLen,argPredictForwardOrSideways,argDirectionForwardOrInverse,PTAUseMatrix,false);
+    }
+    
+    /** Constructs a Markov model.
+     * 
+     * @param chunkLen the maximal length of paths in the model.
+     * @param PTAUseMatrix whether the PTA storing the model should use a matrix, ignored if <i>useTable</i> is set.
+     * @param useTable whether to store the model in a {@link MarkovNGramTable} rather than in a PTA. This uses much less memory but 
+     * only supports sequences where labels can be packed into 64 bits.
+     */
+    public MarkovModel(int chunkLen,boolean argPredictForwardOrSideways,boolean argDirectionForwardOrInverse, boolean PTAUseMatrix, boolean useTable)
     {
     	if (chunkLen < 2)
     		throw new IllegalArgumentException("chunkLen should be at least 2");
     	chunk_Length = chunkLen;predictForwardOrSideways = argPredictForwardOrSideways;directionForwardOrInverse = argDirectionForwardOrInverse;
-    	markovMatrix = new MarkovMatrixEngine(PTAUseMatrix);
+    	markovMatrix = useTable?null:new MarkovMatrixEngine(PTAUseMatrix);
+    	markovTable = useTable?new MarkovNGramTable(chunkLen):null;
+    	predictionLookup = useTable?markovTable:markovMatrix;
     }
     
+	/** Given a sequence, obtains a prediction for it, null if the sequence has not been seen. */
+	public PredictionForSequence getPrediction(List<Label> sequence)
+	{
+		return predictionLookup.getPrediction(sequence);
+	}
+	
+	/** Obtains predictions, initialises a new one if absent. */
+	public PredictionForSequence getPredictionAndCreateNewOneIfNecessary(List<Label> sequence)
+	{
+		return predictionLookup.getPredictionAndCreateNewOneIfNecessary(sequence);
+	}
+    
     /** Used to record outcomes of Markov computations. Its primary use are the three values and static routines to make decisions between them. */
     public static  class MarkovOutcome 
 	{
@@ -404,8 +504,148 @@ public class MarkovModel
 			}
 		}
 		
+		updatePredictionsFromOccurrences();
+	}
+	
+	/** The number of traces handed to a thread at a time by {@link #createMarkovLearner(Iterator, Iterator, boolean, int)}. */
+	public static final int tracesPerBatch = 1000;
+	
+	/** A collection of traces, all of which are either accept or reject-traces. */
+	protected static class TraceBatch
+	{
+		final List<List<Label>> traces;
+		final boolean positive;
+		
+		public TraceBatch(List<List<Label>> traceList, boolean pos)
+		{
+			traces = traceList;positive = pos;
+		}
+	}
+	
+	/** Added to a queue of batches of traces to tell a thread there are no more traces to process. */
+	protected static final TraceBatch lastBatch = new TraceBatch(null, false);
+	
+	/** Adds chunks of the supplied trace to a table, in the same way as {@link #createMarkovLearner(Collection, Collection, boolean)} does.
+	 * 
+	 * @return the number of labels in the trace.
+	 */
+	protected int countChunks(List<Label> trace, boolean positive, boolean onlyLongest, MarkovNGramTable counts)
+	{
+		List<Label> traceToSplit = trace instanceof RandomAccess?trace:new ArrayList<Label>(trace);
+		int traceLength = traceToSplit.size();
+		for(int chunkLen=onlyLongest?chunk_Length:1;chunkLen<=chunk_Length;++chunkLen)
+			for(int f=0;f+chunkLen <= traceLength;++f)
+			{// in a reject-trace, only the last chunk is a reject one
+				boolean positiveChunk = positive || f+chunkLen < traceLength;
+				counts.addOccurrence(traceToSplit.subList(f, f+chunkLen), positiveChunk?1:0, positiveChunk?0:1);
+			}
+		return traceLength;
+	}
+	
+	/** Constructs the tables used by the learner using multiple threads, with the same outcome as {@link #createMarkovLearner(Collection, Collection, boolean)}.
+	 * 
+	 * @param threads the number of threads to use.
+	 */
+	public void createMarkovLearner(Collection<List<Label>> pos,Collection<List<Label>> neg, boolean onlyLongest, int threads)
+	{
+		createMarkovLearner(pos.iterator(), neg.iterator(), onlyLongest, threads);
+	}
+	
+	/** Constructs the tables used by the learner using multiple threads, from traces that are read from the supplied iterators as they are needed, 
+	 * so that the entire collection of traces does not have to be kept in memory. The outcome is the same as that of {@link #createMarkovLearner(Collection, Collection, boolean)}.
+	 * <p>
+	 * Traces are handed to threads in batches, each thread counts chunks of traces in its own {@link MarkovNGramTable}. Once all traces have been processed, 
+	 * tables are combined and the counts are added to this model in the order of labels, hence the outcome does not depend on which traces were processed by which thread.
+	 * Counts are kept in tables regardless of the storage used by this model, therefore the length of chunks is limited in the same way as it is for {@link MarkovNGramTable}.
+	 * 
+	 * @param pos accept-traces
+	 * @param neg reject-traces
+	 * @param onlyLongest if set, only add traces of <i>chunkLen</i> to Markov matrix. Where false, all prefixes are added as well.
+	 * @param threads the number of threads to use.
+	 */
+	public void createMarkovLearner(final Iterator<List<Label>> pos,final Iterator<List<Label>> neg, final boolean onlyLongest, int threads)
+	{
+		final int threadNumber = Math.max(1, threads);
+		final AtomicLong traceLength = new AtomicLong(0);
+		final BlockingQueue<TraceBatch> batches = new ArrayBlockingQueue<TraceBatch>(2*threadNumber);
+		List<MarkovNGramTable> tables = new ArrayList<MarkovNGramTable>(threadNumber);
+		ExecutorService executor = Executors.newFixedThreadPool(threadNumber);
+		try
+		{
+			CompletionService<MarkovNGramTable> runner = new ExecutorCompletionService<MarkovNGramTable>(executor);
+			for(int i=0;i<threadNumber;++i)
+				runner.submit(new Callable<MarkovNGramTable>() {
+					@Override
+					public MarkovNGramTable call() throws Exception {
+						MarkovNGramTable counts = new MarkovNGramTable(chunk_Length);
+						long labelsCounted = 0;
+						for(TraceBatch batch = batches.take();batch != lastBatch;batch = batches.take())
+							for(List<Label> trace:batch.traces)
+								labelsCounted+=countChunks(trace, batch.positive, onlyLongest, counts);
+						traceLength.addAndGet(labelsCounted);
+						return counts;
+					}
+				});
+			
+			for(boolean positive:new boolean[]{true,false})
+			{
+				Iterator<List<Label>> traces = positive?pos:neg;
+				while(traces.hasNext())
+				{
+					List<List<Label>> batch = new ArrayList<List<Label>>(tracesPerBatch);
+					while(traces.hasNext() && batch.size() < tracesPerBatch)
+						batch.add(traces.next());
+					putBatch(batches, new TraceBatch(batch, positive), runner, tables);
+				}
+			}
+			for(int i=0;i<threadNumber;++i)
+				putBatch(batches, lastBatch, runner, tables);
+			while(tables.size() < threadNumber)
+				tables.add(runner.take().get());// this will throw an exception if any of the tasks failed.
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to build a Markov model, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		if (traceLength.get() == 0)
+			throw new IllegalArgumentException("empty trace data");
+		
+		MarkovNGramTable counts = tables.get(0);
+		for(int i=1;i<tables.size();++i)
+		{
+			counts.addAll(tables.get(i));tables.set(i, null);
+		}
+		counts.addOccurrencesTo(this);
+		updatePredictionsFromOccurrences();
+	}
+	
+	/** Adds a batch of traces to a queue, collecting the outcomes of threads that finished while waiting for space in the queue, so that 
+	 * a failure of any of the threads is reported rather than leaving this one waiting for ever.
+	 */
+	protected static void putBatch(BlockingQueue<TraceBatch> batches, TraceBatch batch, CompletionService<MarkovNGramTable> runner, List<MarkovNGramTable> tables) throws InterruptedException, ExecutionException
+	{
+		while(!batches.offer(batch, 100, TimeUnit.MILLISECONDS))
+		{
+			Future<MarkovNGramTable> finished = runner.poll();
+			if (finished != null)
+				tables.add(finished.get());
+		}
+	}
+	
+	/** Computes predictions from the number of times every sequence was seen in accept and reject-traces. */
+	protected void updatePredictionsFromOccurrences()
+	{
 		// Construct a matrix from trace data, including marking of conflicting data as invalid (conflicts arise where a path is too short). 
 		// A prefix of either a positive/ a negative/ a failure (where there are some states from which a shorter sequence is rejected but from other states a longer one is accepted).
+		if (markovTable != null)
+		{
+			markovTable.updatePredictionsFromOccurrences();return;
+		}
 		
 		PTAExploration<Boolean> exploration = new PTAExploration<Boolean>(markovMatrix) {
 			@Override
@@ -445,6 +685,9 @@ public class MarkovModel
 
 	public Map<List<Label>, MarkovOutcome> computePredictionMatrix()
 	{
+		if (markovTable != null)
+			return markovTable.computePredictionMatrix();
+		
 		final Map<List<Label>, MarkovOutcome> outcome = new LinkedHashMap<List<Label>,MarkovOutcome>();
 		PTAExploration<Boolean> exploration = new PTAExploration<Boolean>(markovMatrix) {
 			@Override
@@ -480,6 +723,9 @@ public class MarkovModel
 	
 	public Map<List<Label>, UpdatablePairInteger> computeOccurrenceMatrix()
 	{
+		if (markovTable != null)
+			return markovTable.computeOccurrenceMatrix();
+		
 		final Map<List<Label>, UpdatablePairInteger> outcome = new LinkedHashMap<List<Label>,UpdatablePairInteger>();
 		PTAExploration<Boolean> exploration = new PTAExploration<Boolean>(markovMatrix) {
 			@Override
@@ -516,11 +762,19 @@ public class MarkovModel
 	
 	protected void updateOccurrenceMatrix(Trace traceToMarkov, boolean positive)
 	{
-		UpdatablePairInteger occurrence_of_trace=markovMatrix.getPredictionAndCreateNewOneIfNecessary(traceToMarkov.getList()).occurrence;
 		if(positive)
-			occurrence_of_trace.add(1,0);
+			updateOccurrence(traceToMarkov.getList(),1,0);
 		else  // if negative
-			occurrence_of_trace.add(0,1);
+			updateOccurrence(traceToMarkov.getList(),0,1);
+	}
+
+	/** Adds to the number of times the supplied sequence was seen in accept and reject-traces. */
+	protected void updateOccurrence(List<Label> sequence, int pos, int neg)
+	{
+		if (markovTable != null)
+			markovTable.addOccurrence(sequence, pos, neg);
+		else
+			markovMatrix.getPredictionAndCreateNewOneIfNecessary(sequence).occurrence.add(pos,neg);
 	}
 
 	public static List<Trace> splitTrace (Trace t,int chunkLen)
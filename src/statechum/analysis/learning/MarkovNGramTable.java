@@ -0,0 +1,463 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import statechum.Label;
+import statechum.analysis.learning.MarkovModel.MarkovMatrixEngine.PredictionForSequence;
+import statechum.analysis.learning.MarkovModel.MarkovOutcome;
+import statechum.analysis.learning.MarkovModel.UpdatablePairInteger;
+
+/** Stores a Markov model in primitive arrays rather than in a tree of {@link statechum.model.testset.PTASequenceEngine.Node} objects.
+ * <p>
+ * Labels are interned, that is, given consecutive numbers in the order they are first seen; every sequence of up to
+ * <em>maxLength</em> labels is packed into a <em>long</em> where every label occupies <em>64/maxLength</em> bits.
+ * Keys are stored in an open-addressing hash table with linear probing, alongside the number of times a sequence was
+ * seen in accept and reject-traces and the prediction made for it. In the same way as the PTA-based storage, the table
+ * is prefix-closed: adding a sequence adds all of its prefixes with zero counts.
+ * <p>
+ * Methods {@link #getPrediction(List)} and {@link #getPredictionAndCreateNewOneIfNecessary(List)} return instances of
+ * {@link PredictionForSequence} that can be modified by the caller. Such instances are only created on request and once
+ * created, replace the primitive data for the corresponding sequence; bulk updates via {@link #addOccurrence(List, int, int)}
+ * do not create any objects.
+ */
+public class MarkovNGramTable implements MarkovPredictionLookup
+{
+	/** Marks an unused slot. Every label is encoded as a non-zero number hence only an empty sequence could have this value and it is not stored in the table. */
+	protected static final long EMPTY = 0;
+
+	/** Returned by {@link #encode(List, boolean)} where a sequence contains a label that has not been seen.
+	 * Since no label is encoded with all bits set, no key can take this value.
+	 */
+	protected static final long ABSENT = -1;
+
+	/** Codes for predictions, stored in a byte array. */
+	protected static final byte NO_PREDICTION = 0, POSITIVE = 1, NEGATIVE = 2, FAILURE = 3;
+
+	protected static final MarkovOutcome [] codeToOutcome = new MarkovOutcome[]{null, MarkovOutcome.positive, MarkovOutcome.negative, MarkovOutcome.failure, MarkovOutcome.unknown};
+
+	protected final int maxLength, bitsPerLabel;
+
+	protected final long labelMask;
+
+	/** The maximal number of distinct labels that can be encoded. */
+	protected final int maxLabels;
+
+	protected final Map<Label,Integer> labelToCode = new HashMap<Label,Integer>();
+
+	/** Labels in the order of their codes, starting from code 1. */
+	protected final List<Label> codeToLabel = new ArrayList<Label>();
+
+	protected long [] keys;
+	protected int [] positive, negative;
+	protected byte [] predictions;
+
+	/** Instances returned to callers, null until the first of them is requested. */
+	protected PredictionForSequence [] views = null;
+
+	/** The prediction for an empty sequence, which always exists in the same way as the root of a PTA. */
+	protected final PredictionForSequence emptySequence = new PredictionForSequence();
+
+	/** The number of non-empty sequences in the table. */
+	protected int size = 0;
+
+	public MarkovNGramTable(int maximalLength)
+	{
+		if (maximalLength < 1 || maximalLength > 32)
+			throw new IllegalArgumentException("sequences of length "+maximalLength+" cannot be packed into 64 bits");
+		maxLength = maximalLength;bitsPerLabel = 64/maxLength;
+		labelMask = bitsPerLabel == 64?-1L:(1L << bitsPerLabel)-1;
+		maxLabels = bitsPerLabel > 31?Integer.MAX_VALUE:(int)(labelMask-1);// a code with all bits set cannot be used.
+		allocate(64);
+	}
+
+	protected void allocate(int capacity)
+	{
+		keys = new long[capacity];positive = new int[capacity];negative = new int[capacity];predictions = new byte[capacity];
+	}
+
+	/** Obtains a code of the supplied label, adding a new one if necessary. Returns 0 if a label is not known and <em>create</em> is false. */
+	protected int codeOf(Label label, boolean create)
+	{
+		Integer code = labelToCode.get(label);
+		if (code == null)
+		{
+			if (!create)
+				return 0;
+			if (codeToLabel.size() >= maxLabels)
+				throw new IllegalArgumentException("too many labels ("+(codeToLabel.size()+1)+") to pack sequences of length "+maxLength+" into 64 bits");
+			codeToLabel.add(label);code = codeToLabel.size();labelToCode.put(label, code);
+		}
+		return code.intValue();
+	}
+
+	/** Packs the supplied sequence into a key, where the first element is in the most significant position.
+	 *
+	 * @param sequence sequence to pack
+	 * @param create whether to intern labels that have not been seen.
+	 * @return the key, {@link #ABSENT} if <em>create</em> is false and the sequence contains an unknown label.
+	 */
+	protected long encode(List<Label> sequence, boolean create)
+	{
+		if (sequence.size() > maxLength)
+		{
+			if (create)
+				throw new IllegalArgumentException("sequence "+sequence+" is longer than "+maxLength);
+			return ABSENT;
+		}
+		long key = 0;
+		for(Label label:sequence)
+		{
+			int code = codeOf(label, create);
+			if (code == 0)
+				return ABSENT;
+			key = (key << bitsPerLabel) | code;
+		}
+		return key;
+	}
+
+	/** The number of labels packed in the supplied key. */
+	protected int lengthOf(long key)
+	{
+		return (64 - Long.numberOfLeadingZeros(key) + bitsPerLabel - 1)/bitsPerLabel;
+	}
+
+	protected List<Label> decode(long key)
+	{
+		int length = lengthOf(key);
+		List<Label> sequence = new ArrayList<Label>(length);
+		for(int i=length-1;i>=0;--i)
+			sequence.add(codeToLabel.get((int)((key >>> (bitsPerLabel*i)) & labelMask)-1));
+		return sequence;
+	}
+
+	protected static int hash(long key)
+	{// the finaliser of MurmurHash3
+		long h = key;
+		h ^= h >>> 33;h *= 0xff51afd7ed558ccdL;h ^= h >>> 33;h *= 0xc4ceb9fe1a85ec53L;h ^= h >>> 33;
+		return (int)h;
+	}
+
+	/** Returns a slot containing the supplied key or a negative number <em>-(slot+1)</em> where <em>slot</em> is where the key should be added. */
+	protected int findSlot(long key)
+	{
+		int mask = keys.length-1;
+		for(int slot = hash(key) & mask;;slot = (slot+1) & mask)
+		{
+			if (keys[slot] == key)
+				return slot;
+			if (keys[slot] == EMPTY)
+				return -(slot+1);
+		}
+	}
+
+	/** Returns a slot for the supplied key, adding it and all its prefixes to the table if necessary. */
+	protected int obtainSlot(long key)
+	{
+		int slot = findSlot(key);
+		if (slot >= 0)
+			return slot;
+
+		int length = lengthOf(key);
+		if (length > 1)
+			obtainSlot(key >>> bitsPerLabel);// this may rehash the table, hence the slot to use has to be found again.
+		if ((size+1)*4 > keys.length*3)
+			rehash(keys.length*2);
+		slot = -findSlot(key)-1;
+		keys[slot] = key;++size;
+		return slot;
+	}
+
+	protected void rehash(int capacity)
+	{
+		long [] oldKeys = keys;int [] oldPositive = positive, oldNegative = negative;byte [] oldPredictions = predictions;PredictionForSequence [] oldViews = views;
+		allocate(capacity);
+		if (oldViews != null) views = new PredictionForSequence[capacity];
+		for(int i=0;i<oldKeys.length;++i)
+			if (oldKeys[i] != EMPTY)
+			{
+				int slot = -findSlot(oldKeys[i])-1;
+				keys[slot] = oldKeys[i];positive[slot] = oldPositive[i];negative[slot] = oldNegative[i];predictions[slot] = oldPredictions[i];
+				if (oldViews != null) views[slot] = oldViews[i];
+			}
+	}
+
+	/** Returns an instance of {@link PredictionForSequence} for the supplied slot, creating it from the primitive data if necessary. */
+	protected PredictionForSequence view(int slot)
+	{
+		if (views == null)
+			views = new PredictionForSequence[keys.length];
+		PredictionForSequence prediction = views[slot];
+		if (prediction == null)
+		{
+			prediction = new PredictionForSequence();prediction.occurrence.add(positive[slot], negative[slot]);prediction.prediction = codeToOutcome[predictions[slot]];
+			views[slot] = prediction;
+		}
+		return prediction;
+	}
+
+	/** Given a sequence, obtains a prediction for it, null if the sequence is not known. */
+	@Override
+	public PredictionForSequence getPrediction(List<Label> sequence)
+	{
+		if (sequence.isEmpty())
+			return emptySequence;
+		long key = encode(sequence, false);
+		if (key == ABSENT)
+			return null;
+		int slot = findSlot(key);
+		if (slot < 0)
+			return null;
+		return view(slot);
+	}
+
+	/** Obtains predictions, initialises a new one if absent. */
+	@Override
+	public PredictionForSequence getPredictionAndCreateNewOneIfNecessary(List<Label> sequence)
+	{
+		if (sequence.isEmpty())
+			return emptySequence;
+		return view(obtainSlot(encode(sequence, true)));
+	}
+
+	/** Returns an instance of {@link PredictionForSequence} for the supplied slot without recording it, so that predictions can be 
+	 * looked up by multiple threads. Such an instance reflects the current data for the slot and should not be modified.
+	 */
+	protected PredictionForSequence peek(int slot)
+	{
+		if (views != null && views[slot] != null)
+			return views[slot];
+		PredictionForSequence prediction = new PredictionForSequence();prediction.occurrence.add(positive[slot], negative[slot]);prediction.prediction = codeToOutcome[predictions[slot]];
+		return prediction;
+	}
+
+	@Override
+	public PredictionsFollowingPrefix getPredictionsFollowing(List<Label> prefix)
+	{
+		final long prefixKey = encode(prefix, false);
+		if (prefixKey == ABSENT || (prefixKey != EMPTY && findSlot(prefixKey) < 0))
+			return null;
+		final boolean canBeFollowed = prefix.size() < maxLength;
+		return new PredictionsFollowingPrefix() {
+			@Override
+			public PredictionForSequence getPrediction(Label label) {
+				if (!canBeFollowed)
+					return null;
+				int code = codeOf(label, false);
+				if (code == 0)
+					return null;
+				int slot = findSlot((prefixKey << bitsPerLabel) | code);
+				return slot < 0?null:peek(slot);
+			}
+		};
+	}
+
+	/** Visits sequences in the order of codes of their labels. */
+	@Override
+	public void visitPredictions(PredictionVisitor visitor)
+	{
+		visitor.visit(new ArrayList<Label>(), emptySequence);
+		for(Integer slot:orderedSlots())
+			visitor.visit(decode(keys[slot.intValue()]), peek(slot.intValue()));
+	}
+
+	/** Adds the supplied sequence if it is not known and updates the number of times it was seen. */
+	public void addOccurrence(List<Label> sequence, int pos, int neg)
+	{
+		if (sequence.isEmpty())
+		{
+			emptySequence.occurrence.add(pos,neg);return;
+		}
+		int slot = obtainSlot(encode(sequence, true));
+		if (views != null && views[slot] != null)
+			views[slot].occurrence.add(pos, neg);
+		else
+		{
+			positive[slot]+=pos;negative[slot]+=neg;
+		}
+	}
+
+	/** Computes a prediction for every sequence that was seen, from the number of times it was seen in accept and reject-traces,
+	 * in the same way as {@link MarkovModel#createMarkovLearner(java.util.Collection, java.util.Collection, boolean)} does for
+	 * the PTA-based storage. Sequences that were not seen retain their predictions.
+	 */
+	public void updatePredictionsFromOccurrences()
+	{
+		updatePrediction(emptySequence);
+		for(int slot=0;slot<keys.length;++slot)
+			if (keys[slot] != EMPTY)
+			{
+				if (views != null && views[slot] != null)
+					updatePrediction(views[slot]);
+				else
+				if (positive[slot] > 0 && negative[slot] > 0)
+					predictions[slot] = FAILURE;
+				else
+				if (positive[slot] > 0)
+					predictions[slot] = POSITIVE;
+				else
+				if (negative[slot] > 0)
+					predictions[slot] = NEGATIVE;
+			}
+	}
+
+	protected static void updatePrediction(PredictionForSequence prediction)
+	{
+		if (prediction.occurrence.firstElem > 0 && prediction.occurrence.secondElem > 0)
+			prediction.prediction = MarkovOutcome.failure;
+		else
+		if (prediction.occurrence.firstElem > 0)
+			prediction.prediction = MarkovOutcome.positive;
+		else
+		if (prediction.occurrence.secondElem > 0)
+			prediction.prediction = MarkovOutcome.negative;
+	}
+
+	/** Returns slots of all sequences in the table, ordered so that every sequence follows its prefix and sequences with the same prefix are ordered by codes of their last labels. */
+	protected Integer [] orderedSlots()
+	{
+		return orderedSlots(keys);
+	}
+
+	/** Returns slots of all sequences in the table, ordered by the supplied keys in the same way as {@link #orderedSlots()} orders them by the keys stored in the table.
+	 *
+	 * @param keysToCompare keys to use for every slot, each of which should have the same length as the key stored in that slot.
+	 */
+	protected Integer [] orderedSlots(final long [] keysToCompare)
+	{
+		Integer [] slots = new Integer[size];
+		int i=0;
+		for(int slot=0;slot<keys.length;++slot)
+			if (keys[slot] != EMPTY)
+				slots[i++]=slot;
+		Arrays.sort(slots, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				long a = keysToCompare[o1.intValue()], b = keysToCompare[o2.intValue()];
+				int lengthA = lengthOf(a), lengthB = lengthOf(b), common = Math.min(lengthA, lengthB);
+				// align the keys so that they contain the same number of labels and compare them as unsigned numbers.
+				long prefixA = a >>> (bitsPerLabel*(lengthA-common)), prefixB = b >>> (bitsPerLabel*(lengthB-common));
+				if (prefixA != prefixB)
+					return (prefixA + Long.MIN_VALUE) < (prefixB + Long.MIN_VALUE)?-1:1;
+				return lengthA - lengthB;
+			}
+		});
+		return slots;
+	}
+
+	protected int positiveAt(int slot)
+	{
+		if (views != null && views[slot] != null)
+			return views[slot].occurrence.firstElem;
+		return positive[slot];
+	}
+
+	protected int negativeAt(int slot)
+	{
+		if (views != null && views[slot] != null)
+			return views[slot].occurrence.secondElem;
+		return negative[slot];
+	}
+
+	/** Adds the number of times every sequence in the supplied table was seen to this table. Predictions are not copied. */
+	public void addAll(MarkovNGramTable other)
+	{
+		for(int slot=0;slot<other.keys.length;++slot)
+			if (other.keys[slot] != EMPTY && (other.positiveAt(slot) != 0 || other.negativeAt(slot) != 0))
+				addOccurrence(other.decode(other.keys[slot]), other.positiveAt(slot), other.negativeAt(slot));
+	}
+
+	/** Adds the number of times every sequence in this table was seen to the supplied Markov model. Sequences are added in the order of their labels, 
+	 * hence the outcome does not depend on the order in which sequences were added to this table.
+	 */
+	public void addOccurrencesTo(MarkovModel model)
+	{
+		Label [] labels = codeToLabel.toArray(new Label[codeToLabel.size()]);
+		Arrays.sort(labels);
+		long [] rank = new long[labels.length+1];
+		for(int i=0;i<labels.length;++i)
+			rank[labelToCode.get(labels[i]).intValue()] = i+1;
+		long [] rankedKeys = new long[keys.length];
+		for(int slot=0;slot<keys.length;++slot)
+			if (keys[slot] != EMPTY)
+			{
+				long key = keys[slot], rankedKey = 0;
+				for(int i=lengthOf(key)-1;i>=0;--i)
+					rankedKey = (rankedKey << bitsPerLabel) | rank[(int)((key >>> (bitsPerLabel*i)) & labelMask)];
+				rankedKeys[slot] = rankedKey;
+			}
+		if (emptySequence.occurrence.firstElem != 0 || emptySequence.occurrence.secondElem != 0)
+			model.updateOccurrence(new ArrayList<Label>(), emptySequence.occurrence.firstElem, emptySequence.occurrence.secondElem);
+		for(Integer slot:orderedSlots(rankedKeys))
+		{
+			int s = slot.intValue();
+			if (positiveAt(s) != 0 || negativeAt(s) != 0)
+				model.updateOccurrence(decode(keys[s]), positiveAt(s), negativeAt(s));
+		}
+	}
+
+	protected MarkovOutcome predictionAt(int slot)
+	{
+		if (views != null && views[slot] != null)
+			return views[slot].prediction;
+		return codeToOutcome[predictions[slot]];
+	}
+
+	/** Returns a map from sequences to predictions, only including sequences with predictions. */
+	public Map<List<Label>, MarkovOutcome> computePredictionMatrix()
+	{
+		Map<List<Label>, MarkovOutcome> outcome = new LinkedHashMap<List<Label>,MarkovOutcome>();
+		if (emptySequence.prediction != null)
+			outcome.put(new ArrayList<Label>(), emptySequence.prediction);
+		for(Integer slot:orderedSlots())
+		{
+			MarkovOutcome prediction = predictionAt(slot.intValue());
+			if (prediction != null)
+				outcome.put(decode(keys[slot.intValue()]), prediction);
+		}
+		return outcome;
+	}
+
+	/** Returns a map from sequences to the number of times they were seen, only including sequences with predictions. */
+	public Map<List<Label>, UpdatablePairInteger> computeOccurrenceMatrix()
+	{
+		Map<List<Label>, UpdatablePairInteger> outcome = new LinkedHashMap<List<Label>,UpdatablePairInteger>();
+		if (emptySequence.prediction != null)
+			outcome.put(new ArrayList<Label>(), emptySequence.occurrence);
+		for(Integer slot:orderedSlots())
+		{
+			int s = slot.intValue();
+			if (predictionAt(s) != null)
+				outcome.put(decode(keys[s]), views != null && views[s] != null?views[s].occurrence:new UpdatablePairInteger(positive[s], negative[s]));
+		}
+		return outcome;
+	}
+
+	/** The number of non-empty sequences in the table, including those without predictions. */
+	public int size()
+	{
+		return size;
+	}
+}
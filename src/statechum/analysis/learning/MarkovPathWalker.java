@@ -0,0 +1,255 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import statechum.Label;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.analysis.learning.MarkovClassifier.ForEachCollectionOfPaths;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
+import statechum.analysis.learning.rpnicore.CachedData;
+
+/** Enumerates paths of a specific length in a graph, in the same way as {@link MarkovClassifier#WalkThroughAllPathsOfSpecificLength},
+ * but without creating a list for every step of exploration.
+ * <p>
+ * States and labels of a graph are numbered when an instance of this class is constructed and transitions between accept-states
+ * are stored in primitive arrays, where transitions of each state are kept together. Paths are explored depth-first,
+ * with the current path kept in an array of label numbers; for each path of the requested length, the callback is passed a
+ * view of this array. Such a view is only valid for the duration of a call to the callback and is modified as exploration
+ * proceeds, hence a callback that needs to retain a path has to copy it. Paths are reported in the same order as
+ * {@link MarkovClassifier#WalkThroughAllPathsOfSpecificLength} reports them, and every path only once.
+ * <p>
+ * The graph should not be modified after an instance of this class is constructed. The instance itself is immutable and can be
+ * used by multiple threads at the same time.
+ */
+public class MarkovPathWalker
+{
+	/** Maps states to their numbers. */
+	protected final Map<CmpVertex,Integer> stateToNumber = new HashMap<CmpVertex,Integer>();
+
+	/** Labels in the order of their numbers. */
+	protected final Label [] numberToLabel;
+
+	/** Whether a state is an accept-state. */
+	protected final boolean [] accept;
+
+	/** Transitions of state <em>i</em> occupy positions from <em>firstTransition[i]</em> to <em>firstTransition[i+1]</em> exclusive in
+	 * {@link #transitionLabel} and {@link #transitionTarget}. Only transitions from accept-states to accept-states are recorded.
+	 */
+	protected final int [] firstTransition, transitionLabel, transitionTarget;
+
+	/** True if no state has multiple transitions with the same label, in which case distinct walks cannot produce the same sequence of labels. */
+	protected final boolean deterministic;
+
+	/** The number of bits needed to record a label number. */
+	protected final int bitsPerLabel;
+
+	public <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>> MarkovPathWalker(AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> graph)
+	{
+		int stateCount = graph.transitionMatrix.size();
+		accept = new boolean[stateCount];
+		for(CmpVertex state:graph.transitionMatrix.keySet())
+		{
+			accept[stateToNumber.size()] = state.isAccept();stateToNumber.put(state, stateToNumber.size());
+		}
+
+		Map<Label,Integer> labelToNumber = new HashMap<Label,Integer>();
+		List<Label> labels = new ArrayList<Label>();
+		firstTransition = new int[stateCount+1];
+		int [] labelsOfTransitions = new int[16], targetsOfTransitions = new int[16];
+		int transitionCount = 0, stateNumber = 0;
+		boolean noDuplicateLabels = true;
+		for(Entry<CmpVertex,Map<Label,TARGET_TYPE>> entry:graph.transitionMatrix.entrySet())
+		{
+			firstTransition[stateNumber] = transitionCount;
+			if (accept[stateNumber])
+				for(Entry<Label,TARGET_TYPE> transition:entry.getValue().entrySet())
+				{
+					Integer label = labelToNumber.get(transition.getKey());
+					if (label == null)
+					{
+						label = labels.size();labelToNumber.put(transition.getKey(), label);labels.add(transition.getKey());
+					}
+					int targetsWithThisLabel = 0;
+					for(CmpVertex target:graph.getTargets(transition.getValue()))
+						if (target.isAccept())
+						{
+							if (transitionCount == labelsOfTransitions.length)
+							{
+								labelsOfTransitions = Arrays.copyOf(labelsOfTransitions, transitionCount*2);targetsOfTransitions = Arrays.copyOf(targetsOfTransitions, transitionCount*2);
+							}
+							labelsOfTransitions[transitionCount] = label;targetsOfTransitions[transitionCount] = stateToNumber.get(target);
+							++transitionCount;++targetsWithThisLabel;
+						}
+					if (targetsWithThisLabel > 1)
+						noDuplicateLabels = false;
+				}
+			++stateNumber;
+		}
+		firstTransition[stateCount] = transitionCount;
+		transitionLabel = Arrays.copyOf(labelsOfTransitions, transitionCount);transitionTarget = Arrays.copyOf(targetsOfTransitions, transitionCount);
+		numberToLabel = labels.toArray(new Label[labels.size()]);
+		deterministic = noDuplicateLabels;
+		bitsPerLabel = numberToLabel.length <= 1?1:Integer.SIZE - Integer.numberOfLeadingZeros(numberToLabel.length-1);
+	}
+
+	/** A read-only view of the path currently being explored, optionally in the reverse order. */
+	protected class PathView extends AbstractList<Label> implements RandomAccess
+	{
+		protected final int [] path;
+		protected final boolean reversed;
+
+		protected PathView(int [] labelNumbers, boolean reverse)
+		{
+			path = labelNumbers;reversed = reverse;
+		}
+
+		@Override
+		public Label get(int index)
+		{
+			if (index < 0 || index >= path.length)
+				throw new IndexOutOfBoundsException("index "+index+" is outside a path of length "+path.length);
+			return numberToLabel[path[reversed?path.length-1-index:index]];
+		}
+
+		@Override
+		public int size()
+		{
+			return path.length;
+		}
+	}
+
+	/** A set of paths packed into <em>long</em> numbers, stored in an open-addressing hash table. */
+	protected static class PackedPathSet
+	{
+		protected long [] keys = new long[64];
+		protected boolean [] used = new boolean[64];
+		protected int size = 0;
+
+		protected static int hash(long key)
+		{
+			key ^= key >>> 33;key *= 0xff51afd7ed558ccdL;key ^= key >>> 33;
+			return (int)key;
+		}
+
+		/** Adds the supplied key to the set, returning false if it was already there. */
+		public boolean add(long key)
+		{
+			if (4*(size+1) > 3*keys.length)
+			{
+				long [] oldKeys = keys;boolean [] oldUsed = used;
+				keys = new long[oldKeys.length*2];used = new boolean[oldKeys.length*2];size = 0;
+				for(int i=0;i<oldKeys.length;++i)
+					if (oldUsed[i]) add(oldKeys[i]);
+			}
+			int mask = keys.length-1, slot = hash(key) & mask;
+			while(used[slot])
+			{
+				if (keys[slot] == key)
+					return false;
+				slot = (slot+1) & mask;
+			}
+			used[slot] = true;keys[slot] = key;++size;
+			return true;
+		}
+	}
+
+	/** Explores all paths of the specified length from the supplied state, via accept-states only, and calls the callback for each of them.
+	 *
+	 * @param vert state to start from. Nothing is reported if it is a reject-state.
+	 * @param pathLength length of paths to report.
+	 * @param reverse whether paths should be passed to the callback in the reverse order, which is useful where the graph explored is an inverse of the one of interest.
+	 * @param callback what to call for each path; the list it is passed is only valid for the duration of a call.
+	 */
+	public void walkThroughAllPathsOfSpecificLength(CmpVertex vert, int pathLength, boolean reverse, ForEachCollectionOfPaths callback)
+	{
+		Integer startState = stateToNumber.get(vert);
+		if (startState == null)
+			throw new IllegalArgumentException("state "+vert+" is not in the graph");
+		if (pathLength < 0)
+			throw new IllegalArgumentException("invalid length of paths "+pathLength);
+		if (!accept[startState])
+			return;
+
+		int [] path = new int[pathLength];
+		PathView view = new PathView(path, reverse);
+		if (pathLength == 0)
+		{
+			callback.handlePath(view);return;
+		}
+
+		PackedPathSet packedPathsEncountered = null;Set<List<Label>> pathsEncountered = null;
+		if (!deterministic)
+		{
+			if (pathLength*bitsPerLabel <= Long.SIZE)
+				packedPathsEncountered = new PackedPathSet();
+			else
+				pathsEncountered = new HashSet<List<Label>>();
+		}
+
+		// position[depth] is the next transition to consider from the state reached by the first depth labels of the path.
+		int [] position = new int[pathLength];
+		position[0] = firstTransition[startState];
+		int [] limit = new int[pathLength];
+		limit[0] = firstTransition[startState+1];
+		int depth = 0;
+		while(depth >= 0)
+		{
+			if (position[depth] == limit[depth])
+			{
+				--depth;continue;
+			}
+			int transition = position[depth]++;
+			path[depth] = transitionLabel[transition];
+			if (depth == pathLength-1)
+			{
+				boolean newPath = true;
+				if (packedPathsEncountered != null)
+				{
+					long key = 0;
+					for(int i=0;i<pathLength;++i) key = (key << bitsPerLabel) | path[i];
+					newPath = packedPathsEncountered.add(key);
+				}
+				else
+					if (pathsEncountered != null)
+					{
+						List<Label> copy = new ArrayList<Label>(pathLength);
+						for(int i=0;i<pathLength;++i) copy.add(numberToLabel[path[i]]);
+						newPath = pathsEncountered.add(copy);
+					}
+				if (newPath)
+					callback.handlePath(view);
+			}
+			else
+			{
+				int target = transitionTarget[transition];
+				++depth;position[depth] = firstTransition[target];limit[depth] = firstTransition[target+1];
+			}
+		}
+	}
+}
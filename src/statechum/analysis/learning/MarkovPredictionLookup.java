@@ -0,0 +1,63 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning;
+
+import java.util.List;
+
+import statechum.Label;
+import statechum.analysis.learning.MarkovModel.MarkovMatrixEngine.PredictionForSequence;
+
+/** Provides access to predictions of a Markov model regardless of whether it is stored in a PTA ({@link MarkovModel.MarkovMatrixEngine})
+ * or in a table ({@link MarkovNGramTable}), see {@link MarkovModel#getPredictionLookup()}.
+ */
+public interface MarkovPredictionLookup
+{
+	/** Predictions for sequences made of a specific prefix followed by a single label. */
+	public interface PredictionsFollowingPrefix
+	{
+		/** Returns the prediction for the prefix followed by the supplied label, null if such a sequence has not been seen.
+		 * The returned prediction should not be modified, {@link MarkovPredictionLookup#getPredictionAndCreateNewOneIfNecessary(List)} should be used for that.
+		 */
+		public PredictionForSequence getPrediction(Label label);
+	}
+
+	/** Called for every sequence in a model. */
+	public interface PredictionVisitor
+	{
+		/** Called for a sequence in a model, including an empty one. The supplied sequence can be retained by the caller; the prediction should not be modified. */
+		public void visit(List<Label> sequence, PredictionForSequence prediction);
+	}
+
+	/** Given a sequence, obtains a prediction for it, null if the sequence has not been seen. */
+	public PredictionForSequence getPrediction(List<Label> sequence);
+
+	/** Obtains predictions, initialises a new one if absent. */
+	public PredictionForSequence getPredictionAndCreateNewOneIfNecessary(List<Label> sequence);
+
+	/** Used to look up predictions for all labels that may follow a specific prefix, where the prefix is only located once.
+	 *
+	 * @param prefix sequence to use for predictions.
+	 * @return predictions for sequences starting with the supplied prefix, null if the prefix has not been seen.
+	 */
+	public PredictionsFollowingPrefix getPredictionsFollowing(List<Label> prefix);
+
+	/** Calls the supplied visitor for every sequence in the model, where each sequence is visited after its prefixes.
+	 * The order of sequences with the same prefix depends on how the model is stored. The model should not be modified by the visitor.
+	 */
+	public void visitPredictions(PredictionVisitor visitor);
+}
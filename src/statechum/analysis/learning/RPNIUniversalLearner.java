@@ -29,10 +29,14 @@ import statechum.GlobalConfiguration.G_PROPERTIES;
 import statechum.JUConstants.PAIRCOMPATIBILITY;
 import statechum.analysis.learning.observers.ProgressDecorator.LearnerEvaluationConfiguration;
 import statechum.analysis.learning.rpnicore.ComputeQuestions;
+import statechum.analysis.learning.rpnicore.ConcurrentPTABuilder;
 import statechum.analysis.learning.rpnicore.LearnerGraph;
 import statechum.analysis.learning.rpnicore.MergeStates;
+import statechum.analysis.learning.rpnicore.PairScoreCache;
 import statechum.analysis.learning.rpnicore.PathRoutines;
 import statechum.analysis.learning.rpnicore.Transform;
+import statechum.analysis.learning.rpnicore.TransitionMatrixOverlay;
+import statechum.analysis.learning.rpnicore.Transform.ExploredIfThenStates;
 import statechum.analysis.learning.rpnicore.Transform.AugmentFromIfThenAutomatonException;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
 import statechum.analysis.learning.spin.SpinResult;
@@ -85,11 +89,13 @@ public class RPNIUniversalLearner extends RPNILearner
 	{// Given that we may have a graph with a single reject-state, we'd like to start by adding
 	 // reject-sequences first.
 		getTentativeAutomaton().initPTA();		
-		getTentativeAutomaton().paths.augmentPTA(minus, false,false);
-		getTentativeAutomaton().paths.augmentPTA(plus, true,false);
+		new ConcurrentPTABuilder(getTentativeAutomaton(),config.getPtaConstructionThreadNumber()).augmentPTA(minus, plus);
 		return getTentativeAutomaton();
 	}
 
+	/** Builds the initial PTA from the supplied collection of sequences. For very large PTAs, 
+	 * {@link Configuration#setOffHeapTransitions(boolean)} with {@link Configuration.STATETREE#STATETREE_DENSE} makes it possible to keep transitions outside the Java heap.
+	 */
 	@Override
 	public LearnerGraph init(PTASequenceEngine en, 
 			@SuppressWarnings("unused") int plusSize, @SuppressWarnings("unused") int minusSize)
@@ -108,11 +114,24 @@ public class RPNIUniversalLearner extends RPNILearner
 		return null;
 	}
 
+	/** Scores of pairs retained between merges, only used if incremental pair selection is enabled. */
+	protected PairScoreCache pairScoreCache = null;
+	
+	/** Returns the cache of pair scores if incremental pair selection is enabled and null otherwise. */
+	protected PairScoreCache getPairScoreCache()
+	{
+		if (!config.isIncrementalPairSelection())
+			return null;
+		if (pairScoreCache == null)
+			pairScoreCache = new PairScoreCache();
+		return pairScoreCache;
+	}
+	
 	/** Identifies a collection of states to merge, sorted in the order of scores. */
 	@Override 
 	public Stack<PairScore> ChooseStatePairs(LearnerGraph graph)
 	{
-		Stack<PairScore> pairs = graph.pairscores.chooseStatePairs(null);
+		Stack<PairScore> pairs = graph.pairscores.chooseStatePairs(null,getPairScoreCache());
 		return pairs;
 	}
 	
@@ -129,15 +148,24 @@ public class RPNIUniversalLearner extends RPNILearner
 	 */
 	protected LearnerGraph [] ifthenAutomata = null;
 	
+	/** Where constraints are added incrementally, this is the collection of product states explored when the current tentative automaton was augmented.
+	 * It remains valid as long as the tentative automaton is only changed by merging states or adding transitions.
+	 */
+	protected ExploredIfThenStates tentativeAutomatonExplored = null;
+	
+	/** Product states explored in the most recent call to {@link #AddConstraints}. */
+	protected ExploredIfThenStates lastExplored = null;
+	
 	@Override 
 	public boolean AddConstraints(LearnerGraph pta, LearnerGraph outcome, StringBuffer counterExampleHolder)
 	{
 		assert ifthenAutomata != null;
 		
 		boolean result = true;
-		LearnerGraph.copyGraphs(pta, outcome);
+		LearnerGraph.copyGraphs(pta, outcome);lastExplored = null;
 		try {
-			Transform.augmentFromIfThenAutomaton(outcome, null, ifthenAutomata, config.getHowManyStatesToAddFromIFTHEN());
+			lastExplored = Transform.augmentFromIfThenAutomaton(outcome, null, ifthenAutomata, config.getHowManyStatesToAddFromIFTHEN(),
+					tentativeAutomatonExplored,config.isIncrementalConstraints());
 		} catch (AugmentFromIfThenAutomatonException e) {
 			// merge failed because the constraints disallowed it, hence return a failure
 			result = false;e.getFailureLocation(counterExampleHolder);
@@ -237,9 +265,10 @@ public class RPNIUniversalLearner extends RPNILearner
 			if (ifthenAutomata == null) 
 				ifthenAutomata = Transform.buildIfThenAutomata(ifthenAutomataAsText, alphabetUsedForIfThen, ptaHardFacts, config, topLevelListener.getLabelConverter()).toArray(new LearnerGraph[0]);
 
+			tentativeAutomatonExplored = null;
 			if (!topLevelListener.AddConstraints(getTentativeAutomaton(),updatedTentativeAutomaton,counterExampleHolder))
 				throw new IllegalArgumentException(getHardFactsContradictionErrorMessage(ifthenAutomataAsText, counterExampleHolder.toString()));
-			setTentativeAutomaton(updatedTentativeAutomaton);
+			setTentativeAutomaton(updatedTentativeAutomaton);tentativeAutomatonExplored = lastExplored;
 		}
 		if (getTentativeAutomaton().config.getUseLTL() && getTentativeAutomaton().config.getUseSpin() && !ifthenAutomataAsText.isEmpty()){
 			spin = new SpinUtil(config,getLabelConverter());
@@ -256,7 +285,12 @@ public class RPNIUniversalLearner extends RPNILearner
 		{
 			iterations++;
 			PairScore pair = possibleMerges.pop();
-			final LearnerGraph temp = topLevelListener.MergeAndDeterminize(getTentativeAutomaton(), pair);
+			LearnerGraph merged = topLevelListener.MergeAndDeterminize(getTentativeAutomaton(), pair);
+			if (getTentativeAutomaton().config.getUseLTL() && getTentativeAutomaton().config.getUseSpin() && merged.transitionMatrix instanceof TransitionMatrixOverlay)
+			{// counter-examples from Spin are added to ptaSoftFacts while the merged graph is in use, hence it should not be an overlay over it.
+				LearnerGraph detached = new LearnerGraph(merged.config);LearnerGraph.copyGraphs(merged, detached);merged = detached;
+			}
+			final LearnerGraph temp = merged;
 			Collection<List<Label>> questions = new LinkedList<List<Label>>();
 			long score = pair.getScore();
 			RestartLearningEnum restartLearning = RestartLearningEnum.restartNONE;// whether we need to rebuild a PTA and restart learning.
@@ -533,7 +567,7 @@ public class RPNIUniversalLearner extends RPNILearner
 							return null;// this is the case when a user cancels the learning process when presented by "speculative" questions.
 					LearnerGraph.copyGraphs(ptaHardFacts,ptaSoftFacts);// this is cloned to eliminate counter-examples added to ptaSoftFacts by Spin
 				}
-				setTentativeAutomaton(ptaSoftFacts);// no need to clone - this is the job of mergeAndDeterminize anyway
+				setTentativeAutomaton(ptaSoftFacts);tentativeAutomatonExplored = null;// no need to clone - this is the job of mergeAndDeterminize anyway
 				getTentativeAutomaton().clearColoursButAmber();// this one will clear all colours if amber mode is not set.
 
 				setChanged();
@@ -570,7 +604,7 @@ public class RPNIUniversalLearner extends RPNILearner
 					StringBuffer counterExampleHolder = new StringBuffer();
 					if (!topLevelListener.AddConstraints(getTentativeAutomaton(),updatedTentativeAutomaton,counterExampleHolder))
 						throw new IllegalArgumentException(getHardFactsContradictionErrorMessage(ifthenAutomataAsText, counterExampleHolder.toString()));
-					setTentativeAutomaton(updatedTentativeAutomaton);
+					setTentativeAutomaton(updatedTentativeAutomaton);tentativeAutomatonExplored = lastExplored;
 				}
 				// Where Erlang learner adds additional traces, these have to be recorded in extraTracesPlus/extraTracesMinus 
 				// and applied later. If these are applied immediately, AugmentPTA resets cache and the PTA of questions is lost.
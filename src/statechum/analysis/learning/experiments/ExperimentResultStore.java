@@ -0,0 +1,216 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.experiments;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/** An append-only store of outcomes of experiments, keyed by the name of an experiment and the number of a task.
+ * All results are kept in a single file in a directory, shared by all processes running tasks, each of which appends
+ * its outcome while holding a lock on that file. Every record is framed with its length and a checksum, hence a record
+ * damaged by a process that crashed while writing it is skipped when the store is loaded; where there are multiple
+ * records for the same task, the last one is used.
+ * <p>
+ * In addition to the results, an index of completed tasks is maintained in a separate file. It only contains hashes of names
+ * of experiments and task numbers, so that a process about to run a task can cheaply determine whether the task has already
+ * been completed. To re-run an experiment from scratch, both files have to be deleted.
+ */
+public class ExperimentResultStore
+{
+	public static final String resultsFileName = "results.store", indexFileName = "results.index";
+
+	/** Marks the start of every record in the store. */
+	protected static final int MAGIC = 0x53435253;
+
+	/** The size of a record header, containing the magic number and the length of the data in the record. */
+	protected static final int HEADER_SIZE = 8;
+
+	/** The size of a checksum following the data of every record. */
+	protected static final int CRC_SIZE = 8;
+
+	/** Every entry of an index is a hash of the name of an experiment followed by a task number. */
+	protected static final int INDEX_ENTRY_SIZE = 12;
+
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected final File results, index;
+
+	public ExperimentResultStore(File directory)
+	{
+		results = new File(directory,resultsFileName);index = new File(directory,indexFileName);
+	}
+
+	/** Computes a 64-bit FNV-1a hash of the name of an experiment, used in the index. */
+	protected static long hashName(String experimentName)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for(byte b:experimentName.getBytes(UTF8))
+		{
+			hash ^= b & 0xff;hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/** Appends the outcome of a task to the store and marks the task as completed.
+	 *
+	 * @param experimentName name of the experiment
+	 * @param task the number of the task
+	 * @param outcome the outcome of the task in a textual form.
+	 * @throws IOException if the store cannot be updated.
+	 */
+	public void append(String experimentName, int task, String outcome) throws IOException
+	{
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(payloadBytes);
+		payload.writeUTF(experimentName);payload.writeInt(task);
+		byte [] text = outcome.getBytes(UTF8);payload.writeInt(text.length);payload.write(text);
+		payload.close();
+		CRC32 crc = new CRC32();crc.update(payloadBytes.toByteArray());
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(HEADER_SIZE+payloadBytes.size()+CRC_SIZE);
+		DataOutputStream record = new DataOutputStream(recordBytes);
+		record.writeInt(MAGIC);record.writeInt(payloadBytes.size());payloadBytes.writeTo(record);record.writeLong(crc.getValue());
+		record.close();
+
+		ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);indexEntry.putLong(hashName(experimentName));indexEntry.putInt(task);indexEntry.flip();
+
+		RandomAccessFile resultsFile = new RandomAccessFile(results,"rw"), indexFile = null;
+		try
+		{
+			FileChannel resultsChannel = resultsFile.getChannel();
+			FileLock lock = resultsChannel.lock();// the index is only modified while holding a lock on the results file.
+			try
+			{
+				ByteBuffer data = ByteBuffer.wrap(recordBytes.toByteArray());
+				long position = resultsChannel.size();
+				while(data.hasRemaining())
+					position+=resultsChannel.write(data, position);
+				resultsChannel.force(false);
+
+				indexFile = new RandomAccessFile(index,"rw");
+				FileChannel indexChannel = indexFile.getChannel();
+				long indexSize = indexChannel.size();
+				if (indexSize % INDEX_ENTRY_SIZE != 0)
+				{// a process crashed while adding an entry, remove it so that entries remain aligned.
+					indexSize -= indexSize % INDEX_ENTRY_SIZE;indexChannel.truncate(indexSize);
+				}
+				while(indexEntry.hasRemaining())
+					indexSize+=indexChannel.write(indexEntry, indexSize);
+			}
+			finally
+			{
+				lock.release();
+			}
+		}
+		finally
+		{
+			if (indexFile != null) indexFile.close();
+			resultsFile.close();
+		}
+	}
+
+	/** Determines whether the supplied task has been completed, by looking it up in the index.
+	 * Since the index only contains hashes of names of experiments, it is in principle possible for this method to return true
+	 * for a task that has not been completed; this will be reported when results are collected.
+	 */
+	public boolean isCompleted(String experimentName, int task) throws IOException
+	{
+		if (!index.canRead())
+			return false;
+		long hash = hashName(experimentName);
+		DataInputStream indexStream = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+		try
+		{
+			for(long entries = index.length()/INDEX_ENTRY_SIZE;entries > 0;--entries)
+			{
+				long entryHash = indexStream.readLong();int entryTask = indexStream.readInt();
+				if (entryHash == hash && entryTask == task)
+					return true;
+			}
+		}
+		finally
+		{
+			indexStream.close();
+		}
+		return false;
+	}
+
+	/** Loads the entire store, returning a map from names of experiments to outcomes of tasks, keyed by task numbers.
+	 * Records that are damaged are skipped.
+	 */
+	public Map<String,Map<Integer,String>> load() throws IOException
+	{
+		Map<String,Map<Integer,String>> outcome = new TreeMap<String,Map<Integer,String>>();
+		if (!results.canRead())
+			return outcome;
+		RandomAccessFile resultsFile = new RandomAccessFile(results,"r");
+		try
+		{
+			FileChannel channel = resultsFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("store "+results+" is too large to be loaded");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int limit = buffer.limit(), position = 0;
+			CRC32 crc = new CRC32();
+			while(position + HEADER_SIZE + CRC_SIZE <= limit)
+			{
+				int length = buffer.getInt(position+4);
+				if (buffer.getInt(position) != MAGIC || length < 0 || length > limit - position - HEADER_SIZE - CRC_SIZE)
+				{// not a start of a valid record, look for the next one.
+					++position;continue;
+				}
+				byte [] payload = new byte[length];
+				buffer.position(position+HEADER_SIZE);buffer.get(payload);
+				crc.reset();crc.update(payload);
+				if (crc.getValue() != buffer.getLong(position+HEADER_SIZE+length))
+				{
+					++position;continue;
+				}
+				DataInputStream payloadStream = new DataInputStream(new ByteArrayInputStream(payload));
+				String experimentName = payloadStream.readUTF();int task = payloadStream.readInt();
+				byte [] text = new byte[payloadStream.readInt()];payloadStream.readFully(text);
+				Map<Integer,String> tasks = outcome.get(experimentName);
+				if (tasks == null)
+				{
+					tasks = new TreeMap<Integer,String>();outcome.put(experimentName, tasks);
+				}
+				tasks.put(task, new String(text,UTF8));
+				position += HEADER_SIZE+length+CRC_SIZE;
+			}
+		}
+		finally
+		{
+			resultsFile.close();
+		}
+		return outcome;
+	}
+}
@@ -0,0 +1,363 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.experiments;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs tasks of an experiment in a pool of long-lived worker JVMs on the local machine, avoiding the cost of starting a JVM
+ * and loading classes for every task while keeping tasks isolated from each other and from the process collecting results.
+ * <p>
+ * Every worker runs the main method of the experiment in the {@link SGE_ExperimentRunner.PhaseEnum#LOCAL_FARM_WORKER} phase, where
+ * tasks are constructed but not run. Each time a worker reaches a collection of results of a sub-experiment, it tells this farm
+ * which tasks it has and waits for commands on its standard input: a worker is asked either to run a specific task, storing the
+ * outcome in an {@link ExperimentResultStore} and reporting the time it took, or to proceed to the next sub-experiment.
+ * Lines a worker prints to its standard output that are not a part of this protocol are passed to the standard output of this process.
+ * <p>
+ * Tasks are handed to workers as they become free. Tasks that have previously been run are handed out last, longest first,
+ * using durations recorded in a file, so that long tasks do not end up being run at the end. A worker that terminates
+ * while running a task, usually because it ran out of memory, is restarted and the task is handed out again, up to
+ * a limited number of times.
+ */
+public class LocalTaskFarm
+{
+	/** The start of every line that is a part of the protocol between the farm and the workers. */
+	public static final String protocolPrefix = "\u0001TASKFARM ";
+
+	public static final String cmdReady = "READY", cmdRun = "RUN", cmdNext = "NEXT", cmdDone = "DONE", cmdFailed = "FAILED";
+
+	/** The name of the file where durations of tasks are recorded. */
+	public static final String durationsFileName = "taskfarm.durations";
+
+	/** The number of times a task is attempted if workers running it keep terminating. */
+	protected int maxAttempts = 3;
+
+	public void setMaxAttempts(int value)
+	{
+		maxAttempts = value;
+	}
+
+	protected final List<String> workerCommandLine;
+
+	protected final WorkerProcess [] workers;
+
+	protected final File durationsFile;
+
+	/** Durations of tasks in milliseconds, keyed by names of experiments followed by a separator and task numbers. */
+	protected final Map<String,Long> durations = new ConcurrentHashMap<String,Long>();
+
+	/**
+	 * @param commandLine the command to start a worker
+	 * @param workerNumber the number of workers
+	 * @param directory where to keep durations of tasks.
+	 */
+	public LocalTaskFarm(List<String> commandLine, int workerNumber, File directory) throws IOException
+	{
+		if (workerNumber <= 0)
+			throw new IllegalArgumentException("the number of workers should be positive");
+		workerCommandLine = new ArrayList<String>(commandLine);workers = new WorkerProcess[workerNumber];
+		durationsFile = new File(directory,durationsFileName);
+		if (durationsFile.canRead())
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(durationsFile));
+			try
+			{
+				for(String line = reader.readLine();line != null;line = reader.readLine())
+				{
+					int separatorPosition = line.indexOf(SGE_ExperimentRunner.RunSubExperiment.separator);
+					if (separatorPosition > 0)
+						durations.put(line.substring(separatorPosition+1), Long.valueOf(line.substring(0, separatorPosition)));
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+	protected static String durationKey(String experimentName, int task)
+	{
+		return task+SGE_ExperimentRunner.RunSubExperiment.separator+experimentName;
+	}
+
+	/** A worker JVM. */
+	protected class WorkerProcess
+	{
+		final Process process;
+		final BufferedReader output;
+		final Writer input;
+
+		/** The first task of the sub-experiment the worker is waiting in, -1 if it is running a sub-experiment. */
+		int readyFrom = -1;
+
+		public WorkerProcess() throws IOException
+		{
+			ProcessBuilder builder = new ProcessBuilder(workerCommandLine);
+			process = builder.start();
+			output = new BufferedReader(new InputStreamReader(process.getInputStream(),"UTF-8"));
+			input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(),"UTF-8"));
+			final InputStream errorStream = process.getErrorStream();
+			Thread errorCopier = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte [] buffer = new byte[4096];
+					try
+					{
+						for(int length = errorStream.read(buffer);length >= 0;length = errorStream.read(buffer))
+						{
+							System.err.write(buffer, 0, length);System.err.flush();
+						}
+					}
+					catch(IOException ex)
+					{// the worker has terminated, nothing to copy.
+					}
+				}
+			},"stderr of a worker");
+			errorCopier.setDaemon(true);errorCopier.start();
+		}
+
+		/** Returns the next command from the worker, without the prefix, or null if the worker has terminated. */
+		String readCommand()
+		{
+			try
+			{
+				for(String line = output.readLine();line != null;line = output.readLine())
+				{
+					if (line.startsWith(protocolPrefix))
+						return line.substring(protocolPrefix.length());
+					System.out.println(line);
+				}
+			}
+			catch(IOException ex)
+			{// the worker has terminated
+			}
+			return null;
+		}
+
+		/** Sends a command to the worker, returning false if the worker has terminated. */
+		boolean sendCommand(String command)
+		{
+			try
+			{
+				input.write(command);input.write('\n');input.flush();
+				return true;
+			}
+			catch(IOException ex)
+			{
+				return false;
+			}
+		}
+
+		/** Waits for the worker to reach the sub-experiment starting from the supplied task, asking it to skip earlier ones.
+		 * @return false if the worker has terminated.
+		 */
+		boolean waitUntilReady(int from)
+		{
+			while(readyFrom != from)
+			{
+				if (readyFrom >= 0 && readyFrom < from)
+				{
+					if (!sendCommand(cmdNext))
+						return false;
+					readyFrom = -1;
+				}
+				if (readyFrom > from)
+					throw new IllegalArgumentException("worker is running sub-experiment starting from "+readyFrom+", beyond the expected one from "+from);
+				String command = readCommand();
+				if (command == null)
+					return false;
+				String [] data = command.split(" ",3);
+				if (data.length < 3 || !data[0].equals(cmdReady))
+					throw new IllegalArgumentException("unexpected command "+command+" from worker");
+				readyFrom = Integer.parseInt(data[1]);
+			}
+			return true;
+		}
+
+		void destroy()
+		{
+			try { input.close(); } catch (IOException e) { /* ignore this */ }
+			process.destroy();
+		}
+	}
+
+	/** Starts a worker to replace the supplied one, which is assumed to have terminated. */
+	protected WorkerProcess restartWorker(int workerNumber) throws IOException
+	{
+		if (workers[workerNumber] != null)
+			workers[workerNumber].destroy();
+		workers[workerNumber] = new WorkerProcess();
+		return workers[workerNumber];
+	}
+
+	/** Runs the supplied tasks of a sub-experiment in workers.
+	 *
+	 * @param experimentName name of the sub-experiment
+	 * @param from the first task of the sub-experiment, used to determine whether a worker has reached it.
+	 * @param tasks tasks to run
+	 * @return tasks that failed, associated with messages describing failures.
+	 */
+	public Map<Integer,String> runTasks(final String experimentName, final int from, Collection<Integer> tasks) throws IOException
+	{
+		List<Integer> order = new ArrayList<Integer>(tasks);
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				Long duration1 = durations.get(durationKey(experimentName, o1)), duration2 = durations.get(durationKey(experimentName, o2));
+				if (duration1 == null || duration2 == null)
+				{
+					if (duration1 != null) return 1;// tasks with unknown durations go first.
+					if (duration2 != null) return -1;
+					return o1.compareTo(o2);
+				}
+				int outcome = duration2.compareTo(duration1);
+				return outcome != 0?outcome:o1.compareTo(o2);
+			}
+		});
+		final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>(order);
+		final AtomicInteger outstanding = new AtomicInteger(order.size());
+		final Map<Integer,String> failures = new TreeMap<Integer,String>();
+		final Map<Integer,Integer> attempts = new ConcurrentHashMap<Integer,Integer>();
+		final Writer durationsWriter = new BufferedWriter(new FileWriter(durationsFile,true));
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers.length);
+		try
+		{
+			CompletionService<Integer> runner = new ExecutorCompletionService<Integer>(executor);
+			for(int i=0;i<workers.length;++i)
+			{
+				final int workerNumber = i;
+				runner.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int tasksRun = 0, failedStarts = 0;
+						WorkerProcess worker = workers[workerNumber];
+						while(outstanding.get() > 0)
+						{
+							if (worker == null || !worker.waitUntilReady(from))
+							{
+								if (++failedStarts > maxAttempts)
+									throw new IllegalArgumentException("worker failed to start "+failedStarts+" times in a row");
+								worker = restartWorker(workerNumber);
+								continue;
+							}
+							failedStarts = 0;
+							Integer task = queue.poll(100, TimeUnit.MILLISECONDS);
+							if (task == null)
+								continue;// wait in case a task has to be run again after its worker terminated.
+							String reply = null;
+							if (worker.sendCommand(cmdRun+" "+task))
+								reply = worker.readCommand();
+							if (reply == null)
+							{// the worker has terminated, most likely because it ran out of memory.
+								int attempt = attempts.containsKey(task)?attempts.get(task)+1:1;
+								attempts.put(task, attempt);
+								if (attempt < maxAttempts)
+									queue.add(task);
+								else
+								{
+									synchronized(failures) { failures.put(task, "worker terminated "+attempt+" times while running this task"); }
+									outstanding.decrementAndGet();
+								}
+								worker = restartWorker(workerNumber);
+								continue;
+							}
+							String [] data = reply.split(" ",3);
+							if (data.length < 3 || !data[1].equals(task.toString()))
+								throw new IllegalArgumentException("unexpected reply "+reply+" from worker");
+							if (data[0].equals(cmdDone))
+							{
+								long duration = Long.parseLong(data[2]);
+								durations.put(durationKey(experimentName, task), duration);
+								synchronized(durationsWriter) { durationsWriter.write(duration+durationKey(experimentName,task)+"\n"); }
+							}
+							else
+								if (data[0].equals(cmdFailed))
+									synchronized(failures) { failures.put(task, data[2]); }
+								else
+									throw new IllegalArgumentException("unexpected reply "+reply+" from worker");
+							++tasksRun;outstanding.decrementAndGet();
+						}
+						// all tasks of this sub-experiment have been completed, hence the worker can proceed to the next one.
+						if (worker != null && worker.readyFrom == from && worker.sendCommand(cmdNext))
+							worker.readyFrom = -1;
+						return tasksRun;
+					}
+				});
+			}
+			for(int i=0;i<workers.length;++i)
+				runner.take().get();// this will throw an exception if any of the tasks failed.
+		}
+		catch(Exception ex)
+		{
+			shutdown();
+			IllegalArgumentException e = new IllegalArgumentException("failed to run tasks of "+experimentName+", the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		finally
+		{
+			executor.shutdown();
+			durationsWriter.close();
+		}
+		return failures;
+	}
+
+	/** Tells all workers to terminate, by closing their standard input, and waits for them to do so. */
+	public void shutdown()
+	{
+		for(int i=0;i<workers.length;++i)
+			if (workers[i] != null)
+			{
+				try { workers[i].input.close(); } catch (IOException e) { /* the worker has already terminated */ }
+				while(workers[i].readCommand() != null) { /* absorb the remaining output of the worker */ }
+				try
+				{
+					workers[i].process.waitFor();
+				}
+				catch (InterruptedException e)
+				{
+					workers[i].process.destroy();
+				}
+				workers[i] = null;
+			}
+	}
+}
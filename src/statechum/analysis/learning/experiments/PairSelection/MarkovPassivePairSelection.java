@@ -792,7 +792,7 @@ public class MarkovPassivePairSelection extends PairQualityLearner
 					//learnerOfPairs.setPairsToMerge(checkVertices(pta, referenceGraph, m));
 					final LearnerGraph finalReferenceGraph = referenceGraph;
 
-					learnerOfPairs.setScoreComputationOverride(new statechum.analysis.learning.rpnicore.PairScoreComputation.RedNodeSelectionProcedure() {
+					learnerOfPairs.setScoreComputationOverride(new statechum.analysis.learning.rpnicore.PairScoreComputation.ThreadSafeRedNodeSelectionProcedure() {
 						
 						@SuppressWarnings("unused")
 						@Override
@@ -811,13 +811,15 @@ public class MarkovPassivePairSelection extends PairQualityLearner
 							int genScore = coregraph.pairscores.computePairCompatibilityScore_general(p, null, verticesToMerge);
 							assert genScore >= 0;
 							LearnerGraph merged = MergeStates.mergeCollectionOfVertices(coregraph, null, verticesToMerge);
-							long value = MarkovClassifier.computeInconsistency(merged, m, checker, false);
+							long value = new MarkovClassifier(cl, merged, verticesToMerge).computeConsistency(checker, false);
 							inconsistencyFromAnEarlierIteration = value;
 							return null;
 						}
 						
 						long inconsistencyFromAnEarlierIteration = 0;
 						LearnerGraph coregraph = null;
+						/** Classifier for {@link #coregraph}, caching inconsistencies of its vertices. */
+						MarkovClassifier cl = null;
 						
 						LearnerGraphND inverseGraph = null;
 						/** Where I have a set of paths to merge because I have identified specific states, this map is constructed that maps vertices to be merged together to the partition number that corresponds to them. */
@@ -827,6 +829,9 @@ public class MarkovPassivePairSelection extends PairQualityLearner
 						public void initComputation(LearnerGraph graph) 
 						{
 							coregraph = graph;
+							// where the graph is the outcome of the last merger, inconsistencies of vertices not affected by it are retained from the previous iteration.
+							cl = cl == null?new MarkovClassifier(m, coregraph):new MarkovClassifier(cl, coregraph);
+							cl.computeConsistency(checker, false);// this records inconsistencies of all vertices, to be reused when mergers are evaluated.
 							//labelStatesAwayFromRoot(coregraph,m.getChunkLen()-1);
 							inverseGraph = (LearnerGraphND)MarkovClassifier.computeInverseGraph(coregraph,true);
 							vertexToPartition.clear();
@@ -838,6 +843,7 @@ public class MarkovPassivePairSelection extends PairQualityLearner
 							}
 						}
 						
+						/** Only reads the graph, the Markov model and inconsistencies cached by the classifier, hence can be called concurrently. The value of inconsistencyFromAnEarlierIteration is only updated in resolvePotentialDeadEnd. */
 						@Override
 						public long overrideScoreComputation(PairScore p) 
 						{
@@ -871,7 +877,7 @@ public class MarkovPassivePairSelection extends PairQualityLearner
 							if (genScore >= 0)
 							{
 								LearnerGraph merged = MergeStates.mergeCollectionOfVertices(coregraph, null, verticesToMerge);
-								currentInconsistency = MarkovClassifier.computeInconsistency(merged, m, checker, 
+								currentInconsistency = new MarkovClassifier(cl, merged, verticesToMerge).computeConsistency(checker, 
 										false
 										//p.getQ().getStringId().equals("P2672") && p.getR().getStringId().equals("P2209")
 										)-inconsistencyFromAnEarlierIteration;
@@ -19,18 +19,26 @@ package statechum.analysis.learning.experiments;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import statechum.Helper;
 import statechum.ProgressIndicator;
@@ -56,7 +64,7 @@ public class SGE_ExperimentRunner
 	public interface processSubExperimentResult<RESULT> 
 	{
 		/** Called to plot results of the experiment, using the result <i>r</i>. The <i>experimentrunner</i> is what is to be used to perform plotting, via 
-		 * calls to {@link runSubExperiment#Record(String, Object, Double, String)}. The outcome of these calls are stored in a file and subsequently assembled and plotted.
+		 * calls to {@link runSubExperiment#Record(String, Object, Double, String)}. The outcome of these calls are stored in an {@link ExperimentResultStore} and subsequently assembled and plotted.
 		 * 
 		 * @param r the outcome of running an experiment.
 		 * @param experimentrunner
@@ -72,9 +80,19 @@ public class SGE_ExperimentRunner
 	}
 	
 	
+	/** Phases of running an experiment on a grid. Tasks are counted with COUNT_TASKS and each is then run as a separate process
+	 * with RUN_TASK, storing its outcome in an {@link ExperimentResultStore}; a task that already has an outcome in the store is
+	 * not run again, hence a crashed or partially complete run can be resumed by running all the tasks again.
+	 * LIST_INCOMPLETE_TASKS prints the numbers of tasks that do not have an outcome in the store.
+	 * Once all tasks are complete, COLLECT_RESULTS loads their outcomes and plots graphs.
+	 * <p>
+	 * RUN_LOCAL_FARM runs tasks in a pool of worker JVMs on the local machine, using {@link LocalTaskFarm}, followed by collection of results;
+	 * it takes the number of workers as an argument. Workers run the main method of the experiment in the LOCAL_FARM_WORKER phase,
+	 * with the same additional arguments as passed to the RUN_LOCAL_FARM phase.
+	 */
 	public enum PhaseEnum
 	{
-		RUN_TASK, COLLECT_RESULTS, COUNT_TASKS, RUN_STANDALONE
+		RUN_TASK, COLLECT_RESULTS, COUNT_TASKS, RUN_STANDALONE, LIST_INCOMPLETE_TASKS, RUN_LOCAL_FARM, LOCAL_FARM_WORKER
 	}
 	
 	public static class RunSubExperiment<RESULT> 
@@ -90,11 +108,64 @@ public class SGE_ExperimentRunner
 		protected RESULT outcomeOfExperiment = null;
 		private DrawGraphs gr = new DrawGraphs();
 
-		private final String tmpDir;
+		/** Outcomes of tasks run on a grid. */
+		private final ExperimentResultStore store;
+		
+		/** The task to run in the RUN_TASK phase, it is run once the name of the experiment it belongs to is known. */
+		private Callable<RESULT> taskToRunCallable = null;
+		
+		/** Outcomes of all tasks, loaded from the store on the first collection of results. */
+		private Map<String,Map<Integer,String>> storedOutcomes = null;
+		
+		/** Tasks without an outcome in the store, found during the LIST_INCOMPLETE_TASKS phase. */
+		private final List<Integer> incompleteTasks = new ArrayList<Integer>();
+		
+		/** When collecting results, graphs are plotted every time this number of tasks has been collected, 
+		 * 0 means that graphs are only plotted once all results are collected. */
+		private int plotInterval = 0;
+		
+		public void setPlotInterval(int value)
+		{
+			plotInterval = value;
+		}
+		
+		/** The number of workers to use in the RUN_LOCAL_FARM phase. */
+		private int farmWorkerNumber = 0;
+		
+		/** Arguments following the number of workers in the RUN_LOCAL_FARM phase, passed to workers. */
+		private final List<String> farmArguments = new ArrayList<String>();
+		
+		/** The class with the main method to run in workers, by default the one that called the constructor of this runner. */
+		private String workerMainClass = null;
+		
+		/** Arguments passed to JVMs of workers, in addition to those used to start this JVM, such as the maximal size of the heap. */
+		private final List<String> workerJvmArguments = new ArrayList<String>();
+		
+		public void setWorkerMainClass(String className)
+		{
+			workerMainClass = className;
+		}
+		
+		public void setWorkerJvmArguments(List<String> arguments)
+		{
+			workerJvmArguments.clear();workerJvmArguments.addAll(arguments);
+		}
+		
+		/** Pool of workers for the RUN_LOCAL_FARM phase, started on the first collection of results. */
+		private LocalTaskFarm farm = null;
+		
+		/** Tasks of the current sub-experiment in the LOCAL_FARM_WORKER phase. */
+		private final List<Callable<RESULT>> farmTasks = new ArrayList<Callable<RESULT>>();
+		
+		/** Commands from the farm in the LOCAL_FARM_WORKER phase. */
+		private BufferedReader farmCommands = null;
+		
+		private final File resultDirectory;
 		
 		public RunSubExperiment(int cpuNumber,String dir, String []args)
 		{
-			tmpDir = dir+"/";
+			resultDirectory = new File(dir);
+			store = new ExperimentResultStore(resultDirectory);
 			if (args.length == 0)
 				// no args means standalone
 				phase = PhaseEnum.RUN_STANDALONE;
@@ -123,6 +194,23 @@ public class SGE_ExperimentRunner
 					if (args.length != 1)
 						throw new IllegalArgumentException("no arguments is permitted for phase "+phase);
 					break;
+				case LIST_INCOMPLETE_TASKS:
+					if (args.length != 1)
+						throw new IllegalArgumentException("no arguments is permitted for phase "+phase);
+					break;
+				case RUN_LOCAL_FARM:
+					if (args.length < 2)
+						throw new IllegalArgumentException("the number of workers should be provided");
+					farmWorkerNumber = Integer.valueOf(args[1]);
+					if (farmWorkerNumber <= 0)
+						throw new IllegalArgumentException("the number of workers should be positive");
+					farmArguments.addAll(Arrays.asList(args).subList(2, args.length));
+					StackTraceElement [] stack = new Throwable().getStackTrace();
+					if (stack.length > 1)
+						workerMainClass = stack[1].getClassName();
+					break;
+				case LOCAL_FARM_WORKER:
+					break;
 				}
 			}
 			executorService = Executors.newFixedThreadPool(cpuNumber);runner = new ExecutorCompletionService<RESULT>(executorService);
@@ -140,6 +228,16 @@ public class SGE_ExperimentRunner
 			{
 				System.out.println(taskCounter);outcome = taskCounter;
 			}
+			if (phase == PhaseEnum.LIST_INCOMPLETE_TASKS)
+			{
+				for(int task:incompleteTasks)
+					System.out.println(task+1);// tasks are numbered from 1 on a grid.
+				outcome = incompleteTasks.size();
+			}
+			if (farm != null)
+			{
+				farm.shutdown();farm = null;
+			}
 			shutdown();
 			return outcome;
 		}
@@ -150,18 +248,7 @@ public class SGE_ExperimentRunner
 			{
 			case RUN_TASK:// when running in Grid mode, each task runs as a separate process given that we intend to run them on separate nodes.
 				if (taskToRun == taskCounter)
-					try
-					{
-						outcomeOfExperiment = task.call();// this one asks the handler to record the results of the experiment in a form that can subsequently be passed to R.
-					}
-					catch(Exception ex)
-					{
-						Helper.throwUnchecked("running task failed: "+ex.getMessage(), ex);
-					}
-					finally
-					{
-						shutdown();
-					}
+					taskToRunCallable = task;// the task is run by collectOutcomeOfExperiments unless it has already been completed.
 				break;
 				
 			case RUN_STANDALONE:// only submit the task of interest
@@ -172,6 +259,13 @@ public class SGE_ExperimentRunner
 				break;
 			case COLLECT_RESULTS:
 				break;
+			case LIST_INCOMPLETE_TASKS:
+				break;
+			case RUN_LOCAL_FARM:
+				break;
+			case LOCAL_FARM_WORKER:
+				farmTasks.add(task);// tasks are run when requested by the farm.
+				break;
 					
 			}
 			++taskCounter;
@@ -185,9 +279,209 @@ public class SGE_ExperimentRunner
 		
 		public static final String separator = "|", separatorRegEx="\\|";
 		
-		protected String constructFileName(int rCounter)
+		/** Constructs a human-readable name of a task, used when reporting problems with it. */
+		protected String constructTaskName(int rCounter)
+		{
+			return experimentName.replaceAll("[:\\// ]", "_")+"-"+rCounter;				
+		}
+
+		/** Runs the task chosen for the RUN_TASK phase, storing the outcome in <i>outcomeOfExperiment</i>. */
+		protected void runTask()
 		{
-			return tmpDir+experimentName.replaceAll("[:\\// ]", "_")+"-"+rCounter;				
+			try
+			{
+				outcomeOfExperiment = taskToRunCallable.call();// this one asks the handler to record the results of the experiment in a form that can subsequently be passed to R.
+			}
+			catch(Exception ex)
+			{
+				Helper.throwUnchecked("running task failed: "+ex.getMessage(), ex);
+			}
+			finally
+			{
+				shutdown();
+			}
+		}
+
+		/** Turns the outcome of a task into text, using {@link RunSubExperiment#Record(RGraph, Comparable, Double, String, String)} calls made by the supplied handler. */
+		protected String recordOutcome(RESULT result, processSubExperimentResult<RESULT> handlerForExperimentResults) throws IOException
+		{
+			StringWriter outcomeText = new StringWriter();
+			outputWriter = new BufferedWriter(outcomeText);
+			try
+			{
+				handlerForExperimentResults.processSubResult(result,this);
+			}
+			finally
+			{
+				outputWriter.close();outputWriter = null;
+			}
+			return outcomeText.toString();
+		}
+		
+		/** Adds outcomes of tasks of the current sub-experiment to graphs and plots them. 
+		 * Outcomes are parsed concurrently, but added to graphs in the order of tasks.
+		 * 
+		 * @param outcomesOfTasks outcomes of tasks, <i>null</i> if none are available.
+		 */
+		@SuppressWarnings({ "unchecked" })
+		protected void collectStoredOutcomes(Map<Integer,String> outcomesOfTasks) throws Exception
+		{
+			Map<Integer,String> outcomes = outcomesOfTasks;
+			if (outcomes == null) outcomes = Collections.emptyMap();
+			List<Future<List<RecordedValue>>> parsedOutcomes = new ArrayList<Future<List<RecordedValue>>>(taskCounter-taskCounterFromPreviousSubExperiment);
+			for(int rCounter=taskCounterFromPreviousSubExperiment;rCounter < taskCounter;++rCounter)
+			{
+				final String text = outcomes.get(rCounter), taskName = constructTaskName(rCounter);
+				parsedOutcomes.add(text == null?null:executorService.submit(new Callable<List<RecordedValue>>() {
+					@Override
+					public List<RecordedValue> call() throws Exception {
+						return parseOutcome(taskName, text);
+					}
+				}));
+			}
+			for(int rCounter=taskCounterFromPreviousSubExperiment;rCounter < taskCounter;++rCounter)
+			{
+				Future<List<RecordedValue>> parsed = parsedOutcomes.get(rCounter-taskCounterFromPreviousSubExperiment);
+				if (parsed == null)
+					throw new IllegalArgumentException("Experiment "+constructTaskName(rCounter)+" did not record an outcome");
+				for(RecordedValue value:parsed.get())
+				{
+					if(value.graph.getFileName().endsWith(".csv"))
+						value.graph.addPairValues(value.x, value.y, value.colour, value.label);
+					else
+						value.graph.add(value.x, value.y, value.colour, value.label);
+				}
+				if (plotInterval > 0 && (rCounter-taskCounterFromPreviousSubExperiment+1) % plotInterval == 0)
+					plotAllGraphs(nameToGraph.values(),-1);
+			}
+			// if we got here, handling of the output has been successful, plot graphs.
+			plotAllGraphs(nameToGraph.values(),-1);
+		}
+		
+		/** Constructs the command line to start a worker in the RUN_LOCAL_FARM phase. */
+		protected List<String> constructWorkerCommandLine()
+		{
+			if (workerMainClass == null)
+				throw new IllegalArgumentException("the class to run in workers is not known");
+			List<String> commandLine = ExperimentRunner.extractJavaCommandLineArgs();
+			commandLine.addAll(workerJvmArguments);
+			commandLine.add(workerMainClass);commandLine.add(PhaseEnum.LOCAL_FARM_WORKER.name());commandLine.addAll(farmArguments);
+			return commandLine;
+		}
+		
+		/** Sends a command to the farm, in the LOCAL_FARM_WORKER phase. */
+		protected static void sendToFarm(String command)
+		{
+			System.out.println(LocalTaskFarm.protocolPrefix+command);System.out.flush();
+		}
+		
+		/** Runs tasks of the current sub-experiment as requested by the farm, until asked to proceed to the next sub-experiment.
+		 * A worker terminates if it runs out of memory or the farm closes its standard input. 
+		 */
+		protected void serveFarm(processSubExperimentResult<RESULT> handlerForExperimentResults) throws IOException
+		{
+			if (farmCommands == null)
+				farmCommands = new BufferedReader(new InputStreamReader(System.in,"UTF-8"));
+			sendToFarm(LocalTaskFarm.cmdReady+" "+taskCounterFromPreviousSubExperiment+" "+experimentName);
+			for(String command = farmCommands.readLine();!LocalTaskFarm.cmdNext.equals(command);command = farmCommands.readLine())
+			{
+				if (command == null)
+					System.exit(0);// the farm has shut down, there is nothing left to do.
+				
+				String [] data = command.split(" ");
+				if (data.length != 2 || !data[0].equals(LocalTaskFarm.cmdRun))
+					throw new IllegalArgumentException("unexpected command "+command+" from the farm");
+				int task = Integer.parseInt(data[1]);
+				if (task < taskCounterFromPreviousSubExperiment || task >= taskCounter)
+					throw new IllegalArgumentException("task "+task+" is not a part of "+experimentName);
+				long startTime = System.currentTimeMillis();
+				try
+				{
+					RESULT result = farmTasks.get(task-taskCounterFromPreviousSubExperiment).call();
+					if (result == null)
+						throw new IllegalArgumentException("experiment "+task+" did not complete or returned null");
+					store.append(experimentName, task, recordOutcome(result,handlerForExperimentResults));
+					sendToFarm(LocalTaskFarm.cmdDone+" "+task+" "+(System.currentTimeMillis()-startTime));
+				}
+				catch(OutOfMemoryError ex)
+				{// the worker is in an unknown state, the farm will restart it and run the task again.
+					Runtime.getRuntime().halt(1);
+				}
+				catch(Throwable ex)
+				{
+					sendToFarm(LocalTaskFarm.cmdFailed+" "+task+" running task failed: "+String.valueOf(ex.getMessage()).replace('\n', ' '));
+				}
+			}
+			farmTasks.clear();
+		}
+
+		/** A value recorded by a task, to be added to a graph. */
+		@SuppressWarnings("rawtypes")
+		protected static class RecordedValue
+		{
+			final RGraph graph;
+			final Comparable x;
+			final Double y;
+			final String colour, label;
+			
+			public RecordedValue(RGraph g, Comparable argX, Double argY, String argColour, String argLabel)
+			{
+				graph = g;x = argX;y = argY;colour = argColour;label = argLabel;
+			}
+		}
+		
+		/** Parses the outcome of a task, recorded by {@link RunSubExperiment#Record(RGraph, Comparable, Double, String, String)}.
+		 * This does not modify any graphs, hence outcomes of different tasks can be parsed concurrently.
+		 *  
+		 * @param taskName name of the task, used in error messages
+		 * @param text the outcome of the task
+		 * @return values to add to graphs.
+		 */
+		@SuppressWarnings("rawtypes")
+		protected List<RecordedValue> parseOutcome(String taskName, String text) throws IOException
+		{
+			List<RecordedValue> outcome = new ArrayList<RecordedValue>();
+			BufferedReader reader = new BufferedReader(new StringReader(text));
+			String line = reader.readLine();
+			while(line != null)
+			{
+				String [] data = line.split(separatorRegEx,-2);
+				if (data.length != 6)
+					throw new IllegalArgumentException("Experiment in "+taskName+" logged result with invalid number of values ("+data.length+") at "+line);
+				String argType = data[1], argStringValue = data[2], name = data[0], color=null, label = null;
+				if (!data[4].isEmpty())
+					color = data[4];// yes, colour is a string here because it is passed to the R tool as-is and Java color will confuse it.
+				if (!data[5].isEmpty())
+					label = data[5];
+				Double yValue = new Double(data[3]);
+				if (!nameToGraph.containsKey(data[0]))
+					throw new IllegalArgumentException("Experiment in "+taskName+" refers to an unknown graph "+data[0]);
+				
+				Object argValue = null;
+				if (argType.equals("java.lang.String"))
+					argValue = argStringValue;
+				else
+					if (argType.equals("java.lang.Double"))
+						argValue = new Double(argStringValue);
+					else
+						if (argType.equals("java.lang.Float"))
+							argValue = new Float(argStringValue);
+						else
+							if (argType.equals("java.lang.Integer"))
+								argValue = new Integer(argStringValue);
+							else
+								if (argType.equals("java.lang.Long"))
+									argValue = new Long(argStringValue);
+								else
+									throw new IllegalArgumentException("cannot load a value of type "+argType);
+				
+				RGraph thisPlot = nameToGraph.get(name);
+				if (thisPlot == null)
+					throw new IllegalArgumentException("unknown graph with file name "+name);
+				outcome.add(new RecordedValue(thisPlot, (Comparable)argValue, yValue, color, label));
+				line = reader.readLine();
+			}
+			return outcome;
 		}
 
 		/** Plots the supplied graphs. If the task number is divisible by 10, plots them on the screen, if negative - dumps a pdf.  
@@ -249,82 +543,59 @@ public class SGE_ExperimentRunner
 				case RUN_TASK: // we run only one task of the many that might be submitted, here we need to do one collect of the many that might be submitted, the condition below chooses the one matching taskToRun.
 					if (taskToRun >= taskCounterFromPreviousSubExperiment && taskToRun < taskCounter) // we increment taskCounter after running each task, hence this one corresponds to a task plus one.
 					{
-						if (outcomeOfExperiment == null)
-							throw new IllegalArgumentException("experiment "+taskToRun+" did not complete or returned null");
-						outputWriter = new BufferedWriter(new FileWriter(constructFileName(taskToRun)));
-						try
+						if (store.isCompleted(experimentName, taskToRun))
 						{
-							handlerForExperimentResults.processSubResult(outcomeOfExperiment,this);
+							System.out.println("task "+constructTaskName(taskToRun)+" has already been completed");shutdown();
 						}
-						finally
+						else
 						{
-							outputWriter.close();outputWriter = null;
+							runTask();
+							if (outcomeOfExperiment == null)
+								throw new IllegalArgumentException("experiment "+taskToRun+" did not complete or returned null");
+							store.append(experimentName, taskToRun, recordOutcome(outcomeOfExperiment,handlerForExperimentResults));// only outcomes that have been completely recorded are stored.
 						}
 					}
 					break;
+				case LIST_INCOMPLETE_TASKS:
+					if (storedOutcomes == null)
+						storedOutcomes = store.load();
+					{
+						Map<Integer,String> outcomes = storedOutcomes.get(experimentName);
+						for(int rCounter=taskCounterFromPreviousSubExperiment;rCounter < taskCounter;++rCounter)
+							if (outcomes == null || !outcomes.containsKey(rCounter))
+								incompleteTasks.add(rCounter);
+					}
+					break;
 				case COLLECT_RESULTS:
-					for(int rCounter=taskCounterFromPreviousSubExperiment;rCounter < taskCounter;++rCounter)
+					if (storedOutcomes == null)
+						storedOutcomes = store.load();
+					collectStoredOutcomes(storedOutcomes.get(experimentName));
+					break;
+				case RUN_LOCAL_FARM:
 					{
-						BufferedReader reader = new BufferedReader(new FileReader(constructFileName(rCounter)));
-						try
+						if (farm == null)
+							farm = new LocalTaskFarm(constructWorkerCommandLine(),farmWorkerNumber,resultDirectory);
+						Map<Integer,String> outcomes = store.load().get(experimentName);
+						List<Integer> tasksToRun = new ArrayList<Integer>();
+						for(int rCounter=taskCounterFromPreviousSubExperiment;rCounter < taskCounter;++rCounter)
+							if (outcomes == null || !outcomes.containsKey(rCounter))
+								tasksToRun.add(rCounter);
+						Map<Integer,String> failures = farm.runTasks(experimentName, taskCounterFromPreviousSubExperiment, tasksToRun);
+						if (!failures.isEmpty())
 						{
-							String line = reader.readLine();
-							while(line != null)
+							StringBuffer description = new StringBuffer();
+							for(Entry<Integer,String> failure:failures.entrySet())
 							{
-								String [] data = line.split(separatorRegEx,-2);
-								if (data.length != 6)
-									throw new IllegalArgumentException("Experiment in "+constructFileName(rCounter)+" logged result with invalid number of values ("+data.length+") at "+line);
-								String argType = data[1], argStringValue = data[2], name = data[0], color=null, label = null;
-								if (!data[4].isEmpty())
-									color = data[4];// yes, colour is a string here because it is passed to the R tool as-is and Java color will confuse it.
-								if (!data[5].isEmpty())
-									label = data[5];
-								Double yValue = new Double(data[3]);
-								if (!nameToGraph.containsKey(data[0]))
-									throw new IllegalArgumentException("Experiment in "+constructFileName(rCounter)+" refers to an unknown graph "+data[0]);
-								
-								Object argValue = null;
-								if (argType.equals("java.lang.String"))
-									argValue = argStringValue;
-								else
-									if (argType.equals("java.lang.Double"))
-										argValue = new Double(argStringValue);
-									else
-										if (argType.equals("java.lang.Float"))
-											argValue = new Float(argStringValue);
-										else
-											if (argType.equals("java.lang.Integer"))
-												argValue = new Integer(argStringValue);
-											else
-												if (argType.equals("java.lang.Long"))
-													argValue = new Long(argStringValue);
-												else
-													throw new IllegalArgumentException("cannot load a value of type "+argType);
-								
-								RGraph thisPlot = nameToGraph.get(name);
-								if (thisPlot == null)
-									throw new IllegalArgumentException("unknown graph with file name "+name);
-								
-								if(thisPlot.getFileName().endsWith(".csv"))
-									thisPlot.addPairValues((Comparable)argValue, yValue, color, label);
-								
-								else
-									thisPlot.add((Comparable)argValue, yValue, color, label);
-
-
-								line = reader.readLine();
-
+								description.append('\n');description.append(constructTaskName(failure.getKey()));description.append(": ");description.append(failure.getValue());
 							}
-							
-							// if we got here, handling of the output has been successful, plot graphs.
-							plotAllGraphs(nameToGraph.values(),-1);
-						}
-						finally
-						{
-							reader.close();
+							throw new IllegalArgumentException(failures.size()+" tasks failed:"+description);
 						}
+						collectStoredOutcomes(store.load().get(experimentName));
 					}
 					break;
+				case LOCAL_FARM_WORKER:
+					serveFarm(handlerForExperimentResults);
+					break;
 				default:
 					break;
 				}
@@ -338,7 +609,7 @@ public class SGE_ExperimentRunner
 		}
 		
 		/**
-		 * Stores argument values into a file. Does not use serialisation in order to make those arguments readable for a human.
+		 * Stores argument values into the outcome of a task, subsequently placed in a store of results. Does not use serialisation in order to make those arguments readable for a human.
 		 * 
 		 * @param graph graph to which the x-y value relates to
 		 * @param x position of the dot along the X axis
@@ -358,6 +629,7 @@ public class SGE_ExperimentRunner
 			switch(phase)
 			{
 			case RUN_TASK:
+			case LOCAL_FARM_WORKER:
 				outputWriter.write(graph.getFileName());outputWriter.write(separator);
 				outputWriter.write(x.getClass().getCanonicalName());outputWriter.write(separator);outputWriter.write(x.toString());outputWriter.write(separator);
 				outputWriter.write(y.toString());outputWriter.write(separator);
@@ -371,6 +643,8 @@ public class SGE_ExperimentRunner
 			case COUNT_TASKS:
 				break;
 			case COLLECT_RESULTS:
+			case LIST_INCOMPLETE_TASKS:
+			case RUN_LOCAL_FARM:
 				throw new IllegalArgumentException("this should not be called during phase "+phase);
 			case RUN_STANDALONE:			
 				if(graph.getFileName().endsWith(".csv"))
@@ -413,7 +413,7 @@ public class DiffExperiments {
 				inFirst = fromState.isAccept();
 			
 			
-			PredictionForSequence prediction = model.markovMatrix.getPrediction(list);
+			PredictionForSequence prediction = model.getPrediction(list);
 			if(prediction == null)
 				inSecond= false;
 			else
@@ -36,6 +36,10 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -557,6 +561,67 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 			graphToPatch.addVertex(vert);
 	}
 
+	/** Whether candidates for key pairs and changes contributed by key pairs should be computed by multiple threads. */
+	protected boolean useConcurrentWaves()
+	{
+		return ThreadNumber > 1 && grCombined.config.getGdConcurrentWaves();
+	}
+	
+	/** Processes a range of elements, used where work is split between threads. */
+	protected interface ChunkHandler<RESULT>
+	{
+		/** Processes elements from <em>from</em> to <em>to</em> exclusive and returns the outcome. */
+		public RESULT handleChunk(int from, int to);
+	}
+	
+	/** Records changes contributed by elements, such as key pairs. */
+	protected interface ChangeEmitter<ELEM>
+	{
+		public void emit(Collection<ELEM> elements, PatchGraph patch);
+	}
+	
+	/** The smallest number of elements worth giving to a separate thread. */
+	protected static final int minimalChunk = 16;
+	
+	/** Splits the specified number of elements into chunks and processes them using threads of the pool shared with {@link RowTaskScheduler}.
+	 * 
+	 * @param size the number of elements to process
+	 * @param handler what to do with each chunk
+	 * @return outcomes of processing of chunks, in the order of chunks.
+	 */
+	protected <RESULT> List<RESULT> processInChunks(int size, final ChunkHandler<RESULT> handler)
+	{
+		final int chunkNumber = Math.min(ThreadNumber*RowTaskScheduler.CHUNKS_PER_THREAD, size/minimalChunk);
+		if (chunkNumber <= 1)
+			return Collections.singletonList(handler.handleChunk(0, size));
+		
+		final int [] workLoad = GDLearnerGraph.partitionWorkLoadLinear(chunkNumber, size);
+		final AtomicReferenceArray<RESULT> outcome = new AtomicReferenceArray<RESULT>(chunkNumber);
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+		List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(ThreadNumber);
+		for(int th=0;th<ThreadNumber;++th)
+			workers.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					for(int c=nextChunk.getAndIncrement();c<chunkNumber;c=nextChunk.getAndIncrement())
+						outcome.set(c, handler.handleChunk(workLoad[c], workLoad[c+1]));
+					return 0;
+				}
+			});
+		try
+		{
+			for(Future<Integer> result:RowTaskScheduler.getPool(ThreadNumber).invokeAll(workers))
+				result.get();// this will throw an exception if any of the tasks failed.
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		List<RESULT> result = new ArrayList<RESULT>(chunkNumber);
+		for(int c=0;c<chunkNumber;++c) result.add(outcome.get(c));
+		return result;
+	}
+	
 	/** We need to do two things,
 	 * <ul>
 	 * <li>Iterate through the transitions of the combined graph in order to find out which 
@@ -639,7 +704,57 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 			}
 			
 			// Pick all transitions and incompatible pairs which have been added/removed from the matched states.
+			emitChanges(aTOb.entrySet(), new ChangeEmitter<Entry<CmpVertex,CmpVertex>>() {
+				@Override
+				public void emit(Collection<Entry<CmpVertex,CmpVertex>> keyPairs, PatchGraph patch) {
+					emitKeyPairs(keyPairs, patch);
+				}
+			});
+
+			// now we just need to go through states which are not key states
+			emitChanges(statesOfA, new ChangeEmitter<CmpVertex>() {
+				@Override
+				public void emit(Collection<CmpVertex> states, PatchGraph patch) {
+					emitUnmatchedStatesOfA(states, patch);
+				}
+			});
+
+			emitChanges(statesOfB, new ChangeEmitter<CmpVertex>() {
+				@Override
+				public void emit(Collection<CmpVertex> states, PatchGraph patch) {
+					emitStatesOfB(states, patch);
+				}
+			});
+			// Add relabelling: first, aTOb , then duplicates. If this is done in a different order
+			// we might relabel a vertex to the name already in use and relabel will choke.
 			for(Entry<CmpVertex,CmpVertex> entry:aTOb.entrySet())
+			{
+				VertID from = entry.getKey(), to = newBToOrig.get(entry.getValue());
+				if (!from.equals(to))
+					addRelabelling(from,to);
+			}
+
+			for(CmpVertex vert:duplicates)
+				addRelabelling(vert, newBToOrig.get(vert));
+			//StringBuffer inTermsOfB = new StringBuffer("disconnected: "+disconnectedStatesInKeyPairs+" key pairs: "+aTOb+", that is: ");
+			//for(Entry<CmpVertex,CmpVertex> entry:aTOb.entrySet()) inTermsOfB.append(entry.getKey()).append("=").append(newBToOrig.get(entry.getValue())).append(", ");
+			//System.out.println(inTermsOfB);
+			
+			
+			// If a match is found in the loop through aTOb, it is appropriate to set the initial state to the corresponding state of A,
+			// if not, this means that initial state of B will be the new state, we hence add it and set as 
+			// initial. Many tests among TestGD_Multithreaded explore both possibilities.
+			setInitial(initialState);
+		}
+
+		/** Records changes contributed by key pairs, comparing compatibility information and outgoing transitions of their states.
+		 * 
+		 * @param keyPairs key pairs, each with a state of A followed by the corresponding state in the B part of <em>grCombined</em>.
+		 * @param patch where to record changes.
+		 */
+		protected void emitKeyPairs(Collection<Entry<CmpVertex,CmpVertex>> keyPairs, PatchGraph patch)
+		{
+			for(Entry<CmpVertex,CmpVertex> entry:keyPairs)
 			{
 				// check records of compatible/incompatible pairs of states. This is based on what our compatibility matrix
 				// says about states A (i.e. from the left-hand side of the aTOb set) and then matching it to what it says
@@ -659,7 +774,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 										// Otherwise, we risk making mistakes (see <em>testComputeGD6()</em> for an illustration).
 										
 										targetsB.get(aTOb.get(targetInA.getKey())) != targetInA.getValue()) // different value of the relation
-									removeFromCompatibility(entry.getKey(), targetInA.getKey(),targetInA.getValue());
+									patch.removeFromCompatibility(entry.getKey(), targetInA.getKey(),targetInA.getValue());
 								else
 									newTargetsForB.remove(aTOb.get(targetInA.getKey()));// relations match (note that here I may easily ask to remove elements from an empty collection or remove a null element which is fine since there cannot be such elements in newTargetsForB)
 							} 	
@@ -669,7 +784,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 					for(Entry<CmpVertex,JUConstants.PAIRCOMPATIBILITY> newTarget:newTargetsForB.entrySet())
 						// the pair entry.getKey(),targetInA.getKey() are not related or
 						// they in a different relation to entry.getValue(),targetInB.getKey() (such as INCOMPATIBLE v.s. IFTHEN)						
-						addToCompatibility(entry.getKey(), getOrig(newTarget.getKey()),newTarget.getValue());
+						patch.addToCompatibility(entry.getKey(), getOrig(newTarget.getKey()),newTarget.getValue());
 				}
 				
 				// Transitions from the A part. We only consider outgoing transitions because incoming ones are either from other key pairs or from unmatched states.
@@ -680,7 +795,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 					List<CmpVertex> targetsInB = grCombined.transitionMatrix.get(entry.getValue()).get(transitionA.getKey());
 					if (targetsInB == null) // this transition does not exist in B, record that all target states have to be removed
 						for(CmpVertex targetA:grCombined.getTargets(transitionA.getValue()))
-							removeTransition(entry.getKey(), transitionA.getKey(),targetA);
+							patch.removeTransition(entry.getKey(), transitionA.getKey(),targetA);
 					else
 					{
 						Collection<CmpVertex> targetsA=grCombined.getTargets(transitionA.getValue()), targetsB=grCombined.getTargets(targetsInB);
@@ -695,17 +810,17 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 						{
 							CmpVertex targetB = aTOb.get(targetA);
 							if (targetB == null)
-								removeTransition(entry.getKey(), transitionA.getKey(),targetA);// target is not a key state
+								patch.removeTransition(entry.getKey(), transitionA.getKey(),targetA);// target is not a key state
 							else
 							if (!targetsB.contains(targetB))
 							// Transition leads to a state which is not key in either of the two machines or both are parts of different key states.
-								removeTransition(entry.getKey(), transitionA.getKey(),targetA);
+								patch.removeTransition(entry.getKey(), transitionA.getKey(),targetA);
 							else
 								newTargetsForB.remove(targetB);
 						}
 						
 						for(CmpVertex targetB:newTargetsForB)
-							addTransition(entry.getKey(), transitionA.getKey(),getOrig(targetB));
+							patch.addTransition(entry.getKey(), transitionA.getKey(),getOrig(targetB));
 					}
 				}
 				
@@ -715,31 +830,38 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 					List<CmpVertex> targetsInA = grCombined.transitionMatrix.get(entry.getKey()).get(transitionB.getKey());
 					if (targetsInA == null) // a transition unique to B
 						for(CmpVertex targetB:grCombined.getTargets(transitionB.getValue()))
-							addTransition(getOrig(entry.getValue()), transitionB.getKey(),getOrig(targetB));
+							patch.addTransition(getOrig(entry.getValue()), transitionB.getKey(),getOrig(targetB));
 				}
 				
 			}
+		}
 
-			// now we just need to go through states which are not key states
-			for(CmpVertex vertex:statesOfA)
+		/** Records removal of transitions and compatibility information of those of the supplied states of A that are not part of any key pair. */
+		protected void emitUnmatchedStatesOfA(Collection<CmpVertex> states, PatchGraph patch)
+		{
+			for(CmpVertex vertex:states)
 				if (!statesInKeyPairs.contains(vertex))
 				{
 					for(Entry<Label,List<CmpVertex>> target:grCombined.transitionMatrix.get(vertex).entrySet())
 						// transition not matched because some states are not known hence remove it.
 						for(CmpVertex targetState:grCombined.getTargets(target.getValue()))
 								// if either of the two vertices does not exist or the transition does not exist on the B's side
-								removeTransition(vertex, target.getKey(),targetState);
+								patch.removeTransition(vertex, target.getKey(),targetState);
 					// incompatible pairs.
 					if (grCombined.pairCompatibility.compatibility.containsKey(vertex))
 						for(Entry<CmpVertex,PAIRCOMPATIBILITY> vertOther:grCombined.pairCompatibility.compatibility.get(vertex).entrySet())
-							removeFromCompatibility(vertex, vertOther.getKey(),vertOther.getValue());// we are talking in terms of the original vertices hence no need to call getOrig here unlike below when we go through vertices of B
+							patch.removeFromCompatibility(vertex, vertOther.getKey(),vertOther.getValue());// we are talking in terms of the original vertices hence no need to call getOrig here unlike below when we go through vertices of B
 				}
+		}
 
-			for(CmpVertex vertex:statesOfB)
+		/** Records addition of disconnected states of B and, for states not part of any key pair, of their transitions and compatibility information. */
+		protected void emitStatesOfB(Collection<CmpVertex> states, PatchGraph patch)
+		{
+			for(CmpVertex vertex:states)
 			{
 				CmpVertex vertexA = getOrig(vertex);
 				if ( (grCombined.transitionMatrix.get(vertex).isEmpty() && inverse.matrixForward.transitionMatrix.get(vertex).isEmpty())) // disconnected vertex, regardless whether in a key pair or not.
-					addVertex(vertexA);
+					patch.addVertex(vertexA);
 
 				if (!statesInKeyPairs.contains(vertex))
 				{
@@ -750,35 +872,39 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 						Entry<Label,List<CmpVertex>> target = targetStatesIterator.next();
 						// transition not matched because some states are not known hence append it.
 						for(CmpVertex targetState:grCombined.getTargets(target.getValue()))
-								addTransition(vertexA, target.getKey(),getOrig(targetState));
+								patch.addTransition(vertexA, target.getKey(),getOrig(targetState));
 					}
 
 					// incompatible pairs.
 					if (grCombined.pairCompatibility.compatibility.containsKey(vertex))
 						for(Entry<CmpVertex,JUConstants.PAIRCOMPATIBILITY> vertEntry:grCombined.pairCompatibility.compatibility.get(vertex).entrySet())
-							addToCompatibility(vertexA, getOrig(vertEntry.getKey()),vertEntry.getValue());
+							patch.addToCompatibility(vertexA, getOrig(vertEntry.getKey()),vertEntry.getValue());
 				}
 			}
-			// Add relabelling: first, aTOb , then duplicates. If this is done in a different order
-			// we might relabel a vertex to the name already in use and relabel will choke.
-			for(Entry<CmpVertex,CmpVertex> entry:aTOb.entrySet())
+		}
+
+		/** Calls the supplied emitter for all of the elements, passing it this collector. Where key pairs are processed concurrently, 
+		 * elements are split into chunks processed by different threads, each recording changes in a {@link PatchBuffer}.
+		 * Buffers are then replayed in the order of chunks, hence this collector receives the same changes in the same order either way.
+		 */
+		protected <ELEM> void emitChanges(Collection<ELEM> elements, final ChangeEmitter<ELEM> emitter)
+		{
+			if (!useConcurrentWaves())
 			{
-				VertID from = entry.getKey(), to = newBToOrig.get(entry.getValue());
-				if (!from.equals(to))
-					addRelabelling(from,to);
+				emitter.emit(elements, this);
+				return;
 			}
-
-			for(CmpVertex vert:duplicates)
-				addRelabelling(vert, newBToOrig.get(vert));
-			//StringBuffer inTermsOfB = new StringBuffer("disconnected: "+disconnectedStatesInKeyPairs+" key pairs: "+aTOb+", that is: ");
-			//for(Entry<CmpVertex,CmpVertex> entry:aTOb.entrySet()) inTermsOfB.append(entry.getKey()).append("=").append(newBToOrig.get(entry.getValue())).append(", ");
-			//System.out.println(inTermsOfB);
 			
-			
-			// If a match is found in the loop through aTOb, it is appropriate to set the initial state to the corresponding state of A,
-			// if not, this means that initial state of B will be the new state, we hence add it and set as 
-			// initial. Many tests among TestGD_Multithreaded explore both possibilities.
-			setInitial(initialState);
+			final List<ELEM> elementList = new ArrayList<ELEM>(elements);
+			for(PatchBuffer changes:processInChunks(elementList.size(), new ChunkHandler<PatchBuffer>() {
+				@Override
+				public PatchBuffer handleChunk(int from, int to) {
+					PatchBuffer changes = new PatchBuffer();
+					emitter.emit(elementList.subList(from, to), changes);
+					return changes;
+				}
+			}))
+				changes.replay(this);
 		}
 
 		/**
@@ -1220,6 +1346,83 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 		}
 	}
 	
+	/** Records changes in the order they are made, so that they can be passed to another patcher later. 
+	 * Used where parts of a patch are computed by different threads. 
+	 */
+	public static class PatchBuffer implements PatchGraph
+	{
+		protected enum ChangeKind { ADDTRANSITION, REMOVETRANSITION, ADDCOMPATIBILITY, REMOVECOMPATIBILITY, ADDVERTEX, SETINITIAL, ADDRELABELLING }
+		
+		/** Every change occupies four consecutive elements, the kind of a change followed by its arguments, unused ones set to null. */
+		protected final List<Object> changes = new ArrayList<Object>();
+		
+		protected void record(ChangeKind kind, Object a, Object b, Object c)
+		{
+			changes.add(kind);changes.add(a);changes.add(b);changes.add(c);
+		}
+		
+		/** Passes all the recorded changes to the supplied patcher, in the order they were recorded. */
+		public void replay(PatchGraph graphToPatch)
+		{
+			for(int i=0;i<changes.size();i+=4)
+			{
+				Object a = changes.get(i+1), b = changes.get(i+2), c = changes.get(i+3);
+				switch((ChangeKind)changes.get(i))
+				{
+				case ADDTRANSITION:
+					graphToPatch.addTransition((CmpVertex)a, (Label)b, (CmpVertex)c);break;
+				case REMOVETRANSITION:
+					graphToPatch.removeTransition((CmpVertex)a, (Label)b, (CmpVertex)c);break;
+				case ADDCOMPATIBILITY:
+					graphToPatch.addToCompatibility((CmpVertex)a, (CmpVertex)b, (PAIRCOMPATIBILITY)c);break;
+				case REMOVECOMPATIBILITY:
+					graphToPatch.removeFromCompatibility((CmpVertex)a, (CmpVertex)b, (PAIRCOMPATIBILITY)c);break;
+				case ADDVERTEX:
+					graphToPatch.addVertex((CmpVertex)a);break;
+				case SETINITIAL:
+					graphToPatch.setInitial((CmpVertex)a);break;
+				case ADDRELABELLING:
+					graphToPatch.addRelabelling((VertID)a, (VertID)b);break;
+				}
+			}
+		}
+
+		@Override
+		public void addRelabelling(VertID a, VertID b) {
+			record(ChangeKind.ADDRELABELLING, a, b, null);
+		}
+
+		@Override
+		public void addVertex(CmpVertex vertex) {
+			record(ChangeKind.ADDVERTEX, vertex, null, null);
+		}
+
+		@Override
+		public void addToCompatibility(CmpVertex a, CmpVertex b, PAIRCOMPATIBILITY value) {
+			record(ChangeKind.ADDCOMPATIBILITY, a, b, value);
+		}
+
+		@Override
+		public void removeFromCompatibility(CmpVertex a, CmpVertex b, PAIRCOMPATIBILITY value) {
+			record(ChangeKind.REMOVECOMPATIBILITY, a, b, value);
+		}
+
+		@Override
+		public void addTransition(CmpVertex from, Label label, CmpVertex to) {
+			record(ChangeKind.ADDTRANSITION, from, label, to);
+		}
+
+		@Override
+		public void removeTransition(CmpVertex from, Label label, CmpVertex to) {
+			record(ChangeKind.REMOVETRANSITION, from, label, to);
+		}
+
+		@Override
+		public void setInitial(CmpVertex vertex) {
+			record(ChangeKind.SETINITIAL, vertex, null, null);
+		}
+	}
+	
 	/** This class records requested changes and is capable of returning a 
 	 * collection of them in a form of XML which can then be applied to a graph.
 	 */
@@ -1606,7 +1809,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 				JConsole_Diagnostics.getDiagnostics().setStatus("finished building matrix forward "+DateFormat.getTimeInstance().format(new Date()));
 				forward.stateToCorrespondingGraph = null;// deallocate memory
 				//System.out.println(forward.dumpEquations(solverForward, pairScores, newBToOrig));
-				solverForward.solve(threads);
+				solverForward.solve(threads,forward.config);
 				solverForward.freeAllButResult();// deallocate memory before creating a large array.
 				scoresForward = solverForward.j_x;
 			}
@@ -1617,7 +1820,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 				//System.out.println(inverse.dumpEquations(solverInverse, pairScores, newBToOrig));
 				JConsole_Diagnostics.getDiagnostics().setStatus("finished building matrix inverse "+DateFormat.getTimeInstance().format(new Date()));
 				inverse.stateToCorrespondingGraph = null;// deallocate memory
-				solverInverse.solve(threads);
+				solverInverse.solve(threads,inverse.config);
 				solverInverse.freeAllButResult();// deallocate memory before creating a large array.
 				scoresInverse = solverInverse.j_x;
 			}
@@ -1748,9 +1951,34 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 	 * 
 	 * @param matrixND the (non-deterministic) matrix
 	 */
-	protected void populateCurrentWave(LearnerGraphND matrixND) 
+	protected void populateCurrentWave(final LearnerGraphND matrixND) 
+	{
+		if (useConcurrentWaves())
+		{// candidates are collected for chunks of the front wave and then added in the order of chunks, hence the outcome is the same as that of a single thread.
+			final List<PairScore> pairs = new ArrayList<PairScore>(frontWave);
+			for(List<PairScore> candidates:processInChunks(pairs.size(), new ChunkHandler<List<PairScore>>() {
+				@Override
+				public List<PairScore> handleChunk(int from, int to) {
+					List<PairScore> candidates = new ArrayList<PairScore>();
+					addCandidates(matrixND, pairs.subList(from, to), candidates);
+					return candidates;
+				}
+			}))
+				currentWave.addAll(candidates);
+		}
+		else
+			addCandidates(matrixND, frontWave, currentWave);
+	}
+	
+	/** For each of the supplied pairs, adds pairs of target states of matched transitions to the collection of candidates, as long as none of these target states are contained in statesInKeyPairs. 
+	 * 
+	 * @param matrixND the (non-deterministic) matrix
+	 * @param pairs pairs on the front line
+	 * @param candidates where to add candidate pairs
+	 */
+	protected void addCandidates(LearnerGraphND matrixND, Collection<PairScore> pairs, Collection<PairScore> candidates)
 	{
-		for(PairScore pair:frontWave)
+		for(PairScore pair:pairs)
 		{
 			for(Entry<Label,List<CmpVertex>> targetCollectionA:matrixND.transitionMatrix.get(pair.getQ()).entrySet())
 			{
@@ -1767,7 +1995,7 @@ public class GD<TARGET_A_TYPE,TARGET_B_TYPE,
 									int scorePosition = pairScores[forward.vertexToIntNR(targetStateA,targetStateB)];
 									score = scoresForward[scorePosition] + scoresInverse[scorePosition];
 								}
-								currentWave.add(new PairScore(targetStateA,targetStateB,(int)(multiplier*score),0));
+								candidates.add(new PairScore(targetStateA,targetStateB,(int)(multiplier*score),0));
 								
 							}
 				}
@@ -18,7 +18,10 @@
 
 package statechum.analysis.learning.linear;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -42,6 +45,7 @@ import statechum.Helper;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
 import statechum.analysis.learning.PairScore;
 import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.linear.RowTaskScheduler.WorkLoadShape;
 import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
 import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
 import statechum.analysis.learning.rpnicore.AbstractLearnerGraph.PairCompatibility;
@@ -304,28 +308,44 @@ public class GDLearnerGraph
 	 * @return the row to start from for each thread
 	 */
 	public static int [] partitionWorkLoadTriangular(int ThreadNumber, int totalStateNumber)
+	{
+		return partitionWorkLoadTriangular(ThreadNumber, 0, totalStateNumber);
+	}
+	
+	/** Partitions rows <em>firstRow</em>..<em>lastRow</em> (exclusive) of a triangular matrix between threads,
+	 * used where a matrix is processed in chunks of rows.
+	 * 
+	 * @param ThreadNumber number of threads to parallelise for.
+	 * @param firstRow the first row to process
+	 * @param lastRow the row after the last one to process
+	 * @return the row to start from for each thread
+	 */
+	public static int [] partitionWorkLoadTriangular(int ThreadNumber, int firstRow, int lastRow)
 	{
 		// The idea is that if a set of rows for some processor contains d rows
 		// and starts at row a, then the job has the time complexity
 		// of [(a+d)*(a+d+1) - a*(a+1)]/2. 
-		// We'd like to allocate a n(n+1)/(2*ThreadNumber) to each CPU.
-		// Solving quadratic equation, the result is
-		// d = ( -2*a-1 + sqrt((2*a+1)*(2*a+1)+4*n*(n+1)/ThreadNumber) ) /2
+		// We'd like to allocate [l(l+1)-f(f+1)]/(2*ThreadNumber) to each CPU, where f is the first row and l is the last one.
+		// For f=0, solving quadratic equation, the result is
+		// d = ( -2*a-1 + sqrt((2*a+1)*(2*a+1)+4*l*(l+1)/ThreadNumber) ) /2
+		// and otherwise l*(l+1) is replaced with l*(l+1)-f*(f+1).
 		// We can hence iteratively compute different values of a.
 		if (ThreadNumber <= 0) throw new IllegalArgumentException("invalid processor number");
+		if (firstRow < 0 || firstRow > lastRow) throw new IllegalArgumentException("invalid range of rows");
 		int result []= new int[ThreadNumber+1];
-		result[0]=0;
-		double a = 0; // previous row
+		result[0]=firstRow;
+		double a = firstRow; // previous row
+		double work = (double)lastRow*(lastRow+1)-(double)firstRow*(firstRow+1);
 		
 		for(int count=1;count < ThreadNumber;++count)
 		{
 			double valueOfNewRow = a+( -2*a-1 + Math.sqrt((2*a+1)*(2*a+1)+
-					4*(double)totalStateNumber*(totalStateNumber+1)/ThreadNumber) ) /2;// I truncate rather than round up in order to avoid the sum from going over the total number of rows.
-			result[count]=(int)valueOfNewRow;a=valueOfNewRow;
-			assert result[count] >= 0 && result[count] <= totalStateNumber && result[count]>=result[count-1] : "obtained row "+result[count]+" while the range is 0.."+totalStateNumber;
+					4*work/ThreadNumber) ) /2;// I truncate rather than round up in order to avoid the sum from going over the total number of rows.
+			result[count]=Math.min(lastRow,(int)valueOfNewRow);a=valueOfNewRow;
+			assert result[count] >= firstRow && result[count] <= lastRow && result[count]>=result[count-1] : "obtained row "+result[count]+" while the range is "+firstRow+".."+lastRow;
 
 		}
-		result[ThreadNumber]=totalStateNumber;
+		result[ThreadNumber]=lastRow;
 		return result;
 	}
 	
@@ -363,6 +383,7 @@ public class GDLearnerGraph
 	 * 
 	 * @param matrix transition matrix to run tasks on
 	 * @param workLoad the which rows to be processed by which threads.
+	 * @see RowTaskScheduler for a version which hands out rows to threads as they become idle.
 	  */
 	public static <TARGET_TYPE> void performRowTasks(List<? extends HandleRow<TARGET_TYPE>> handlerList,int ThreadNumber, 
 			final Map<CmpVertex,Map<Label, TARGET_TYPE>> matrix, final StatesToConsider filter,final int[]workLoad)
@@ -505,12 +526,12 @@ public class GDLearnerGraph
 			/** This set is different for different threads hence no need to acquire/release locks. */
 			Set<Integer> sourceData = new TreeSet<Integer>();
 
-			/** Used to detect non-consecutive state pair numbers - in this case an internal error should be reported. */
-			int prevStatePairNumber =-1;
-
 			@Override
 			public void handleEntry(Entry<CmpVertex, Map<Label, List<CmpVertex>>> entryA, @SuppressWarnings("unused") int threadNo)
 			{// we are never called with entryA which has been filtered out.
+				/** Used to detect non-consecutive state pair numbers within a row - in this case an internal error should be reported. 
+				 * Rows given to a thread do not have to be next to each other. */
+				int prevStatePairNumber =-1;
 				Collection<Entry<Label,List<CmpVertex>>> rowA_collection = matrixInverse.transitionMatrix.get(entryA.getKey()).entrySet();// the "inverse" row
 				BitVector inputsAcceptedFromA = inputsAccepted.get(entryA.getKey()), inputsRejectedFromA = inputsRejected.get(entryA.getKey());
 				
@@ -573,8 +594,8 @@ public class GDLearnerGraph
 				}// B-loop
 			}
 		});
-		performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix, filter,
-				GDLearnerGraph.partitionWorkLoadTriangular(ThreadNumber,matrixForward.transitionMatrix.size()));
+		RowTaskScheduler.performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix, filter,
+				WorkLoadShape.TRIANGULAR,0,matrixForward.transitionMatrix.size());
 		//inputsAccepted=null;inputsRejected=null;
 		
 		// At this point, we've marked all clearly incompatible pairs of states and need to propagate 
@@ -923,7 +944,7 @@ public class GDLearnerGraph
 				}
 			});
 		}
-		GDLearnerGraph.performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix,new LearnerGraphND.ignoreNoneClass(), GDLearnerGraph.partitionWorkLoadLinear(ThreadNumber,matrixForward.getStateNumber()));
+		RowTaskScheduler.performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix,new LearnerGraphND.ignoreNoneClass(), WorkLoadShape.LINEAR,0,matrixForward.getStateNumber());
 		
 		// Now collect the results
 		for(int th=0;th<ThreadNumber;++th) stateToCorrespondingGraph.putAll(workerMap[th]);
@@ -1086,14 +1107,21 @@ public class GDLearnerGraph
 		//if (linearWarningsEnabled)
 		//	System.out.println("Initial number of pairs: "+getPairNumber()+", after reduction: "+pairsNumber);
 
-		final int expectedMatrixSize = getExpectedIncomingPerPairOfStates()*pairsNumber;
+		// When the matrix is built in chunks, only a chunk has to be kept in per-thread arrays at any one time.
+		final int totalRows = matrixForward.transitionMatrix.size();
+		final int rowsPerChunk = config.getGdMatrixChunkRows() > 0? Math.min(config.getGdMatrixChunkRows(),Math.max(totalRows,1)):Math.max(totalRows,1);
+		final int expectedMatrixSize = (int)Math.min((long)getExpectedIncomingPerPairOfStates()*pairsNumber,
+				(long)getExpectedIncomingPerPairOfStates()*rowsPerChunk*totalRows);
 		/** This one is supposed to contain indices into Ai where each column starts. Every thread
-		 * processes a continuous sequence of state pairs (ensured by exploring a triangular subset of 
-		 * all the pairs and matching it to calls to vertexToIntNR()). For this reason, it is easy to 
-		 * compute a range of state pairs handled by every thread and subsequently renumber the array.
+		 * processes a number of continuous sequences of state pairs (ensured by exploring a triangular subset of 
+		 * all the pairs and matching it to calls to vertexToIntNR()), one for each chunk of rows it is given. 
+		 * For this reason, it is easy to record ranges of state pairs handled by every thread and subsequently renumber the array.
 		 */ 
 		final int Ap[]=config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH?new int[pairsNumber+1]:null;
-		final int Ap_threadStart[]=new int[ThreadNumber+1];for(int i=0;i<Ap_threadStart.length;++i) Ap_threadStart[i]=-1;
+		/** For each thread, contains triples (the first state pair, the one after the last state pair, the position in Ai of the first element)
+		 * of continuous sequences of state pairs handled by that thread. 
+		 */
+		final IntArrayList segments[]=new IntArrayList[ThreadNumber];for(int i=0;i<ThreadNumber;++i) segments[i]=new IntArrayList();
 		
 		// one array per thread.
 		final IntArrayList Ai_array[]=new IntArrayList[ThreadNumber];
@@ -1128,13 +1156,14 @@ public class GDLearnerGraph
 						Helper.throwUnchecked("failed to create an instance of ddrh", e);
 					}
 				
-				if (config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH)
-				{// since we need 'em, allocate the arrays.
-					tmpAi = new IntArrayList(getExpectedIncomingPerPairOfStates()*pairsNumber);
+				if (config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH && Ai_array[threadNo] == null)
+				{// since we need 'em, allocate the arrays; where the matrix is built in chunks, they are reused between chunks. 
+				 // tmpAi only holds a single column and grows if needed. 
+					tmpAi = new IntArrayList(4*getExpectedIncomingPerPairOfStates()+1);
 					Ai_array[threadNo]=new IntArrayList(expectedMatrixSize/ThreadNumber+getExpectedIncomingPerPairOfStates());
 					Ax_array[threadNo]=new DoubleArrayList(expectedMatrixSize/ThreadNumber+getExpectedIncomingPerPairOfStates());
 				}
-				currentPosition[threadNo]=0;
+				currentPosition[threadNo]=0;prevStatePairNumber = -1;
 				
 			}
 			
@@ -1148,6 +1177,7 @@ public class GDLearnerGraph
 				Collection<Entry<Label,List<CmpVertex>>> rowA_collection = matrixInverse.transitionMatrix.get(entryA.getKey()).entrySet();
 					
 				// Now iterate through states
+				boolean inRow = false;// whether we have seen any compatible pairs in the current row.
 				Iterator<Entry<CmpVertex,Map<Label,List<CmpVertex>>>> stateB_It = matrixInverse.transitionMatrix.entrySet().iterator();
 				while(stateB_It.hasNext())
 				{
@@ -1170,12 +1200,18 @@ public class GDLearnerGraph
 					 // Since currentStatePair is a reject, all pairs leading to it should be labelled rejects too
 					 // (this is the task of findIncompatiblePairs() ) and thus we do not need to consider this pair at all.
 						
-						// Now we check that we go through the sequence of pairs without missing any;
-						// a failure at this point means that we are now going through pairs in a different order 
-						// than when findIncompatiblePairs did when building incompatiblePairs. 
-						assert prevStatePairNumber < 0 || currentStatePair == prevStatePairNumber+1;prevStatePairNumber=currentStatePair;
-
-						if (Ap_threadStart[threadNo] < 0) Ap_threadStart[threadNo]=currentStatePair;
+						// Rows given to this thread do not have to be next to each other, hence where we went past a gap in 
+						// the sequence of pairs, a new sequence is started. Within a row, a gap would mean that we are 
+						// now going through pairs in a different order than when findIncompatiblePairs did when building incompatiblePairs. 
+						IntArrayList threadSegments = segments[threadNo];
+						if (prevStatePairNumber < 0 || currentStatePair != prevStatePairNumber+1)
+						{
+							assert !inRow: "non-consecutive state pair numbers within a row";
+							threadSegments.add(currentStatePair);threadSegments.add(currentStatePair+1);threadSegments.add(currentPosition[threadNo]);
+						}
+						else
+							threadSegments.setQuick(threadSegments.size()-2, currentStatePair+1);
+						prevStatePairNumber=currentStatePair;inRow = true;
 						if (debugThread == threadNo) System.out.println("thread "+threadNo+" is considering states: ("+entryA+","+stateB+"), with state pair number "+currentStatePair);
 						int colEntriesNumber=0;
 						
@@ -1287,68 +1323,105 @@ public class GDLearnerGraph
 				}// stateB_It.hasNext()
 			}
 		});
-		performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix,filter,
-				GDLearnerGraph.partitionWorkLoadTriangular(ThreadNumber,matrixForward.transitionMatrix.size()));
-		// At this point, we are finished building the matrices, it's time to populate the main arrays if needed - we do not have to do this if we only aim to compute the right-hand side.
-		LSolver result = null;
-		if (config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH)
+		// Where the matrix is built in chunks, each chunk is moved out of the Java heap as soon as it is built. 
+		final MatrixChunkStore chunkStore = config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH && config.getGdMatrixChunkRows() > 0?
+				new MatrixChunkStore(config.getGdMatrixSpillDirectory()):null;
+		int Ai[]=null;double Ax[]=null;
+		int prevLastPos = 0;// the number of non-zero elements in all the chunks built so far.
+		for(int firstRow=0;firstRow == 0 || firstRow<totalRows;firstRow+=rowsPerChunk)
 		{
-			// First, we compute the number of non-zero elements.
-			int size = 0;for(int thread=0;thread<ThreadNumber;++thread) size+=currentPosition[thread];
-			// Second, allocate arrays.
-			int Ai[]=new int[size];double Ax[]=new double[size];
-	
-			// In a number of cases we'll have more threads than rows to handle, hence threads will have nothing to do
-			// and Ap_threadStart will be -1 for those threads. In order to ensure that Ap_threadStart contains
-			// continuous values, we set those -1 elements to Ap_threadStart of the subsequent thread (or pairsNumber if there is none).
-			int currentLastStatePair = pairsNumber;
-			for(int th=ThreadNumber;th>=0;--th) if (Ap_threadStart[th] < 0) Ap_threadStart[th]=currentLastStatePair;else currentLastStatePair=Ap_threadStart[th];
-			
-			int prevLastPos = 0;
-			// Finally, populate them.
 			for(int thread=0;thread<ThreadNumber;++thread)
 			{
-	/* I'll try to draw a picture which shows the relation between arrays computed by different threads, 
-	
-	StatePair values  : 0  1  2 | 3  4  5 | 6  7  8
-					Ap:	0  8 12 | 0 11 16 | 0  4 12
-	                            |         |
-	  threadNo		  :     0        1         2 		  
-	  currentPosition :    20       18        19
-	  
-	  The above picture with three threads shows the following relation between columns
-	  and the number of elements in them:
-		0	8 -0
-		1	12-8
-		2	20-12
-		
-		3	11-0
-		4	16-11
-		5	18-16
-		
-		....
-		
-	  When we copy the outcome into Ai and Ax, we have to introduce sequential numbers, 
-	  so column 3 will start where column 2 finished in Ai populated by thread 0, 
-	  i.e. at position 20 (last element filled in by thread 0), 
-	  column 4 will start at 11+20 and so on until data filled in by thread 2,
-	  hence column 6 will start at position 20+18.
-	  
-	  With the above illustration in mind, the code below updates Ap and fills in Ax and Ai.
-	*/
-	
-				int lastPair = Ap_threadStart[thread+1];// the position where the next thread has started (or would've started if it was not the last thread).
-				for(int i=Ap_threadStart[thread];i<lastPair;++i)
-					Ap[i]+=prevLastPos;
-				
-				// If a thread had no work to do, currentPosition[thread] would stay at zero so we shall not corrupt anything,
-				// but Ai_array[thread] may be null, so we'd best check for "no work".
-				if (currentPosition[thread]>0)
+				currentPosition[thread]=0;segments[thread].clear();
+			}
+			RowTaskScheduler.performRowTasks(handlerList, ThreadNumber, matrixForward.transitionMatrix,filter,
+					WorkLoadShape.TRIANGULAR,firstRow,Math.min(totalRows, firstRow+rowsPerChunk));
+			// At this point, we are finished building the matrices for the current chunk, it's time to populate the main arrays if needed - we do not have to do this if we only aim to compute the right-hand side.
+			if (config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH)
+			{
+				// First, we compute the number of non-zero elements.
+				int size = 0;for(int thread=0;thread<ThreadNumber;++thread) size+=currentPosition[thread];
+				// Second, allocate arrays.
+				int chunkAi[]=new int[size];double chunkAx[]=new double[size];
+				// Sequences of state pairs handled by different threads are interleaved, hence we collect them all and sort them by the first state pair.
+				List<int[]> chunkSegments = new ArrayList<int[]>();
+				for(int thread=0;thread<ThreadNumber;++thread)
 				{
-					System.arraycopy(Ai_array[thread].elements(), 0, Ai, prevLastPos, currentPosition[thread]);
-					System.arraycopy(Ax_array[thread].elements(), 0, Ax, prevLastPos, currentPosition[thread]);
-					prevLastPos+=currentPosition[thread];
+					IntArrayList threadSegments = segments[thread];
+					for(int i=0;i<threadSegments.size();i+=3)
+					{
+						int endPos = i+3 < threadSegments.size()?threadSegments.getQuick(i+5):currentPosition[thread];
+						chunkSegments.add(new int[]{threadSegments.getQuick(i),threadSegments.getQuick(i+1),threadSegments.getQuick(i+2),endPos,thread});
+					}
+				}
+				Collections.sort(chunkSegments, new Comparator<int[]>() {
+					@Override
+					public int compare(int[] o1, int[] o2) {
+						return o1[0] < o2[0]? -1:(o1[0] == o2[0]? 0:1);
+					}
+				});
+				int chunkPos = 0;
+				// Finally, populate them.
+				for(int [] segment:chunkSegments)
+				{
+		/* I'll try to draw a picture which shows the relation between arrays computed by different threads, 
+		
+		StatePair values  : 0  1  2 | 3  4  5 | 6  7  8
+						Ap:	0  8 12 | 0 11 16 | 0  4 12
+		                            |         |
+		  threadNo		  :     0        1         2 		  
+		  currentPosition :    20       18        19
+		  
+		  The above picture with three threads shows the following relation between columns
+		  and the number of elements in them:
+			0	8 -0
+			1	12-8
+			2	20-12
+			
+			3	11-0
+			4	16-11
+			5	18-16
+			
+			....
+			
+		  When we copy the outcome into Ai and Ax, we have to introduce sequential numbers, 
+		  so column 3 will start where column 2 finished in Ai populated by thread 0, 
+		  i.e. at position 20 (last element filled in by thread 0), 
+		  column 4 will start at 11+20 and so on until data filled in by thread 2,
+		  hence column 6 will start at position 20+18.
+		  Where a thread handled more than one sequence of state pairs, each sequence is moved in the same way, starting
+		  from its own position in the arrays of that thread. Where the matrix is built in chunks, columns of each chunk 
+		  are also offset by the number of elements in the preceding chunks.
+		  
+		  With the above illustration in mind, the code below updates Ap and fills in Ax and Ai.
+		*/
+					int firstPair = segment[0], lastPair = segment[1], startPos = segment[2], length = segment[3]-startPos, thread = segment[4];
+					for(int i=firstPair;i<lastPair;++i)
+						Ap[i]+=prevLastPos+chunkPos-startPos;
+					
+					System.arraycopy(Ai_array[thread].elements(), startPos, chunkAi, chunkPos, length);
+					System.arraycopy(Ax_array[thread].elements(), startPos, chunkAx, chunkPos, length);
+					chunkPos+=length;
+				}
+				assert chunkPos == size;
+				prevLastPos+=size;
+				if (chunkStore == null)
+				{// a single chunk, use it directly.
+					Ai=chunkAi;Ax=chunkAx;
 				}
+				else
+					chunkStore.append(chunkAi, chunkAx, size);
+			}
+		}
+		
+		LSolver result = null;
+		if (config.getGdScoreComputation() == GDScoreComputationEnum.GD_RH)
+		{
+			if (chunkStore != null)
+			{// all the chunks are now built, the per-thread arrays are no longer needed, hence we can assemble the matrix.
+				for(int thread=0;thread<ThreadNumber;++thread) { Ai_array[thread]=null;Ax_array[thread]=null; }
+				Ai=new int[chunkStore.size()];Ax=new double[chunkStore.size()];
+				chunkStore.copyTo(Ai, Ax);
 			}
 			Ap[pairsNumber]=prevLastPos;
 			result = new LSolver(Ap,Ai,Ax,b,new double[pairsNumber]);
@@ -1365,6 +1438,11 @@ public class GDLearnerGraph
 				public void solve(@SuppressWarnings("unused") int threads)
 				{// a dummy method
 				}
+				
+				@Override
+				public void solve(@SuppressWarnings("unused") int threads, @SuppressWarnings("unused") Configuration conf)
+				{// a dummy method
+				}
 			};
 		}
 		return result;
@@ -1381,7 +1459,7 @@ public class GDLearnerGraph
 		final int [] incompatiblePairs = new int[getPairNumber()];for(int i=0;i<incompatiblePairs.length;++i) incompatiblePairs[i]=PAIR_OK;
 		final int pairsNumber = findIncompatiblePairs(incompatiblePairs,ThreadNumber);
 		LSolver solver = buildMatrix_internal(incompatiblePairs, pairsNumber, ThreadNumber,ddrh);
-		solver.solve(ThreadNumber);
+		solver.solve(ThreadNumber,config);
 		solver.freeAllButResult();// deallocate memory before creating a large array.
 		double statePairScores[] = new double[incompatiblePairs.length];
 		// now fill in the scores in the array.
@@ -0,0 +1,139 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.linear;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Holds row indices and values of a sparse matrix in compressed-column form while the matrix is being built,
+ * outside the Java heap, either in direct buffers or in memory-mapped files. Chunks of the matrix are appended
+ * in the order of columns and are copied into the final arrays once the whole of the matrix has been constructed.
+ */
+public class MatrixChunkStore
+{
+	/** The maximal number of non-zero elements kept in a single buffer, ensuring the size of each buffer is below 2GB. */
+	public static final int MAX_ELEMENTS_PER_BUFFER = 1 << 27;
+
+	/** The number of bytes taken by each non-zero element: an integer row index and a double value. */
+	protected static final int BYTES_PER_ELEMENT = 4+8;
+
+	/** Directory to keep memory-mapped files in, null if direct buffers should be used. */
+	protected final File directory;
+
+	/** Buffers with the data, each starting with row indices followed by values. */
+	protected final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+	/** The number of elements in each of the buffers. */
+	protected final List<Integer> lengths = new ArrayList<Integer>();
+
+	/** The total number of elements stored. */
+	protected int size = 0;
+
+	/** Constructs a store.
+	 *
+	 * @param storageDirectory directory to create memory-mapped files in, null to use direct buffers.
+	 */
+	public MatrixChunkStore(String storageDirectory)
+	{
+		directory = storageDirectory == null? null:new File(storageDirectory);
+	}
+
+	/** Returns the total number of elements stored. */
+	public int size()
+	{
+		return size;
+	}
+
+	/** Allocates a buffer of the specified number of bytes. */
+	protected ByteBuffer allocateBuffer(int bytes)
+	{
+		ByteBuffer buffer = null;
+		if (directory == null)
+			buffer = ByteBuffer.allocateDirect(bytes);
+		else
+		{
+			RandomAccessFile file = null;
+			try
+			{
+				File chunkFile = File.createTempFile("matrix_chunk", ".bin", directory);chunkFile.deleteOnExit();
+				file = new RandomAccessFile(chunkFile, "rw");
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);// the mapping remains valid after the file is closed
+				if (!chunkFile.delete())
+					chunkFile.deleteOnExit();
+			}
+			catch(IOException ex)
+			{
+				throw new IllegalArgumentException("failed to create a matrix chunk in "+directory+": "+ex.getMessage(),ex);
+			}
+			finally
+			{
+				if (file != null)
+					try { file.close(); } catch (IOException e) { /* ignore this */ }
+			}
+		}
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/** Appends the supplied elements to this store.
+	 *
+	 * @param Ai row indices
+	 * @param Ax values
+	 * @param length the number of elements to take from the supplied arrays.
+	 */
+	public void append(int [] Ai, double [] Ax, int length)
+	{
+		if (length > Ai.length || length > Ax.length)
+			throw new IllegalArgumentException("invalid number of elements");
+		if ((long)size+length > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("the matrix is too large");
+		int offset = 0;
+		while(offset < length)
+		{
+			int elements = Math.min(MAX_ELEMENTS_PER_BUFFER, length-offset);
+			ByteBuffer buffer = allocateBuffer(BYTES_PER_ELEMENT*elements);
+			buffer.asIntBuffer().put(Ai, offset, elements);
+			buffer.position(4*elements);buffer.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer().put(Ax, offset, elements);
+			buffer.position(0);
+			buffers.add(buffer);lengths.add(elements);
+			offset+=elements;
+		}
+		size+=length;
+	}
+
+	/** Copies all the elements stored into the supplied arrays, which should be at least {@link #size()} long. */
+	public void copyTo(int [] Ai, double [] Ax)
+	{
+		if (Ai.length < size || Ax.length < size)
+			throw new IllegalArgumentException("arrays are too short");
+		int offset = 0;
+		for(int i=0;i<buffers.size();++i)
+		{
+			ByteBuffer buffer = buffers.get(i).duplicate().order(ByteOrder.nativeOrder());
+			int elements = lengths.get(i);
+			buffer.asIntBuffer().get(Ai, offset, elements);
+			buffer.position(4*elements);buffer.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer().get(Ax, offset, elements);
+			offset+=elements;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.linear;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.linear.GDLearnerGraph.HandleRow;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph.StatesToConsider;
+
+/** Runs handlers on rows of a transition matrix, handing out chunks of rows to threads as they become idle, rather than
+ * splitting rows between threads in advance as {@link GDLearnerGraph#performRowTasks} does. Chunks start large and
+ * become smaller as the work runs out, hence where rows take very different time to process, threads that got easy rows
+ * take more of the remaining ones instead of waiting for the thread that got hard ones.
+ * <p>
+ * Threads are taken from a pool shared between all calls, so that repeated calls made during learning do not have to create
+ * new threads every time. Each handler is only used by one thread at a time, hence handlers can keep per-thread state initialised in
+ * {@link HandleRow#init(int)}, however a handler is usually given rows that are not next to each other.
+ */
+public class RowTaskScheduler
+{
+	/** Determines how the amount of work depends on the number of a row. */
+	public enum WorkLoadShape
+	{
+		/** All rows take the same time, such as where every state is compared to a fixed collection of states. */
+		LINEAR,
+		/** Row <em>i</em> takes time proportional to <em>i+1</em>, such as where every state is compared to states preceding it. */
+		TRIANGULAR
+	}
+
+	/** Each thread is expected to process this many chunks on average; chunks get smaller as the work runs out. */
+	public static final int CHUNKS_PER_THREAD = 4;
+
+	/** The pool of threads shared between all calls. */
+	private static ForkJoinPool sharedPool = null;
+
+	/** Returns a shared pool with at least the specified number of threads, creating one if necessary. */
+	public static synchronized ForkJoinPool getPool(int threads)
+	{
+		if (sharedPool == null || sharedPool.getParallelism() < threads)
+			// the pool being replaced is not shut down because it may be in use; its threads are daemons and terminate when idle.
+			sharedPool = new ForkJoinPool(Math.max(threads, Runtime.getRuntime().availableProcessors()));
+		return sharedPool;
+	}
+
+	/** Hands out chunks of rows to threads. */
+	protected static class RowSource
+	{
+		/** The first row not yet given to any thread. */
+		private final AtomicInteger nextRow;
+
+		/** The row after the last one to process. */
+		private final int lastRow;
+
+		/** Used to compute the amount of work for each row. */
+		private final WorkLoadShape shape;
+
+		/** The number of threads to share the work between. */
+		private final int threads;
+
+		public RowSource(int first, int last, WorkLoadShape sh, int th)
+		{
+			nextRow = new AtomicInteger(first);lastRow = last;shape = sh;threads = th;
+		}
+
+		/** The amount of work for rows <em>from</em>..<em>to</em>-1. */
+		protected double work(int from, int to)
+		{
+			if (shape == WorkLoadShape.LINEAR)
+				return to-from;
+			return ((double)to*(to+1)-(double)from*(from+1))/2;
+		}
+
+		/** Determines the row after the last one in a chunk starting at the supplied row. */
+		protected int chunkEnd(int from)
+		{
+			double target = work(from,lastRow)/(CHUNKS_PER_THREAD*threads);
+			double size = 0;
+			if (shape == WorkLoadShape.LINEAR)
+				size = target;
+			else
+			{// solving (a+d)*(a+d+1) - a*(a+1) = 2*target for d, as in GDLearnerGraph.partitionWorkLoadTriangular
+				double a = from;
+				size = ( -2*a-1 + Math.sqrt((2*a+1)*(2*a+1)+8*target) ) /2;
+			}
+			return (int)Math.min(lastRow, from+Math.max(1, Math.ceil(size)));
+		}
+
+		/** Claims the next chunk of rows.
+		 *
+		 * @param range where to store the first and the one after the last row of the chunk.
+		 * @return false if there are no more rows to process.
+		 */
+		public boolean claim(int [] range)
+		{
+			while(true)
+			{
+				int from = nextRow.get();
+				if (from >= lastRow)
+					return false;
+				int to = chunkEnd(from);
+				if (nextRow.compareAndSet(from, to))
+				{
+					range[0]=from;range[1]=to;return true;
+				}
+			}
+		}
+	}
+
+	/** Runs the supplied handlers on the rows of the supplied matrix.
+	 *
+	 * @param handlerList handlers to use, one for each thread.
+	 * @param ThreadNumber the number of threads to use. If this is one, the handler is called directly from the current thread.
+	 * @param matrix transition matrix to run tasks on
+	 * @param filter determines rows to consider; rows are numbered from zero, only counting those that are considered.
+	 * @param shape how the amount of work depends on the number of a row.
+	 * @param firstRow the first row to process
+	 * @param lastRow the row after the last one to process; if there are fewer rows, all the remaining ones are processed.
+	 */
+	public static <TARGET_TYPE> void performRowTasks(final List<? extends HandleRow<TARGET_TYPE>> handlerList,int ThreadNumber,
+			final Map<CmpVertex,Map<Label, TARGET_TYPE>> matrix, final StatesToConsider filter, WorkLoadShape shape, final int firstRow, int lastRow)
+	{
+		if (ThreadNumber <= 0) throw new IllegalArgumentException("invalid processor number");
+		final List<Entry<CmpVertex,Map<Label,TARGET_TYPE>>> rows = new ArrayList<Entry<CmpVertex,Map<Label,TARGET_TYPE>>>();
+		int currentRow = 0;
+		for(Entry<CmpVertex,Map<Label,TARGET_TYPE>> entry:matrix.entrySet())
+			if (filter.stateToConsider(entry.getKey()))
+			{
+				if (currentRow >= lastRow)
+					break;
+				if (currentRow >= firstRow)
+					rows.add(entry);
+				++currentRow;
+			}
+		final RowSource source = new RowSource(firstRow, firstRow+rows.size(), shape, ThreadNumber);
+
+		List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(ThreadNumber);
+		for(int count=0;count < ThreadNumber;++count)
+		{
+			final int threadNo = count;
+			final HandleRow<TARGET_TYPE> handler = handlerList.get(count);
+			workers.add(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception
+				{
+					boolean initialised = false;
+					int range[] = new int[2];
+					while(source.claim(range))
+					{
+						if (!initialised)
+						{// only initialise handlers that are given any rows, like GDLearnerGraph.performRowTasks does.
+							handler.init(threadNo);initialised = true;
+						}
+						for(int row=range[0];row<range[1];++row)
+							handler.handleEntry(rows.get(row-firstRow), threadNo);
+					}
+					return 0;
+				}
+			});
+		}
+
+		try
+		{
+			if (ThreadNumber > 1)
+			{
+				List<Future<Integer>> outcomes = getPool(ThreadNumber).invokeAll(workers);
+				for(Future<Integer> outcome:outcomes)
+					outcome.get();// this will throw an exception if any of the tasks failed.
+			}
+			else
+				// Run single-threaded.
+				workers.get(0).call();
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+	}
+}
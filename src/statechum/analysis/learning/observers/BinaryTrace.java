@@ -0,0 +1,834 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.observers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Stack;
+import java.util.TreeMap;
+
+import statechum.Configuration;
+import statechum.JUConstants;
+import statechum.Label;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertID;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.Learner.RestartLearningEnum;
+import statechum.analysis.learning.observers.ProgressDecorator.AugmentPTAData;
+import statechum.analysis.learning.observers.ProgressDecorator.InitialData;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+
+/** A compact binary representation of learner traces, an alternative to XML written by {@link RecordProgressDecorator}.
+ * A trace is a header followed by a sequence of frames, each of which is a kind byte, the length of the payload and the payload.
+ * Labels and state identifiers are interned: the first time one is used, a definition frame is written before the
+ * frame that uses it, hence all other frames refer to labels and states by number. Graphs passed to the learner
+ * are stored as a series where only states added, removed or modified compared to the previous graph are recorded
+ * (the whole graph is stored after a restart or where log compression is turned off). Both writing and reading
+ * only need the current graph and tables of interned labels and states to be kept in memory.
+ *
+ * @author kirill
+ */
+public class BinaryTrace
+{
+	/** Identifies traces in this format. */
+	public static final int MAGIC = 0x53434254;
+
+	/** Version of the format. */
+	public static final int VERSION = 1;
+
+	/** Kinds of frames in a trace, the ordinal is stored as the kind byte. */
+	public enum FRAMEKIND { FRAME_LABEL, FRAME_STATE, FRAME_EVALUATIONDATA, FRAME_INIT, FRAME_PAIRS, FRAME_QUESTIONS, FRAME_MOREQUESTIONS,
+		FRAME_MERGEANDDETERMINIZE, FRAME_RESTART, FRAME_ANSWER, FRAME_AUGMENTPTA, FRAME_CONSTRAINTS, FRAME_RESULT }
+
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Writes a non-negative integer using 7 bits per byte, with the top bit indicating that more bytes follow. */
+	public static void writeUnsigned(DataOutputStream out, int value) throws IOException
+	{
+		if (value < 0) throw new IllegalArgumentException("negative value "+value);
+		int v = value;
+		while((v & ~0x7F) != 0)
+		{
+			out.writeByte((v & 0x7F) | 0x80);v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	public static int readUnsigned(DataInputStream in) throws IOException
+	{
+		int result = 0;
+		for(int shift=0;shift < 35;shift+=7)
+		{
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+		}
+		throw new IllegalArgumentException("invalid variable-length integer");
+	}
+
+	/** Writes a signed value, using zig-zag encoding so that small negative numbers take little space. */
+	public static void writeSigned(DataOutputStream out, long value) throws IOException
+	{
+		long v = (value << 1) ^ (value >> 63);
+		while((v & ~0x7FL) != 0)
+		{
+			out.writeByte((int)((v & 0x7F) | 0x80));v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+	public static long readSigned(DataInputStream in) throws IOException
+	{
+		long v = 0;
+		for(int shift=0;shift < 70;shift+=7)
+		{
+			int b = in.readUnsignedByte();
+			v |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (v >>> 1) ^ -(v & 1);
+		}
+		throw new IllegalArgumentException("invalid variable-length integer");
+	}
+
+	/** Unlike {@link DataOutputStream#writeUTF}, this one does not limit the length of strings. */
+	public static void writeString(DataOutputStream out, String str) throws IOException
+	{
+		byte [] data = str.getBytes(UTF8);
+		writeUnsigned(out, data.length);out.write(data);
+	}
+
+	public static String readString(DataInputStream in) throws IOException
+	{
+		byte [] data = new byte[readUnsigned(in)];
+		in.readFully(data);
+		return new String(data,UTF8);
+	}
+
+	/** A state of a graph, in terms of numbers of interned labels and states. Immutable. */
+	static final class StateRecord
+	{
+		static final int FLAG_ACCEPT = 1, FLAG_HIGHLIGHT = 2;
+
+		final int flags, colour, origState, depth;
+
+		/** Pairs of a label and a target state, ordered by label. */
+		final int [] row;
+
+		StateRecord(int argFlags, int argColour, int argOrigState, int argDepth, int [] argRow)
+		{
+			flags = argFlags;colour = argColour;origState = argOrigState;depth = argDepth;row = argRow;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + flags;
+			result = prime * result + colour;
+			result = prime * result + origState;
+			result = prime * result + depth;
+			result = prime * result + Arrays.hashCode(row);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof StateRecord))
+				return false;
+			StateRecord other = (StateRecord) obj;
+			return flags == other.flags && colour == other.colour && origState == other.origState && depth == other.depth &&
+					Arrays.equals(row, other.row);
+		}
+	}
+
+	/** A graph in terms of numbers of interned labels and states. */
+	static class GraphSnapshot
+	{
+		final Map<Integer,StateRecord> states;
+		int init = -1;
+
+		/** Triples of a pair of states and the ordinal of their compatibility. */
+		int [] compatibility = new int[0];
+
+		GraphSnapshot()
+		{
+			states = new LinkedHashMap<Integer,StateRecord>();
+		}
+
+		GraphSnapshot(GraphSnapshot from)
+		{
+			states = new LinkedHashMap<Integer,StateRecord>(from.states);init = from.init;compatibility = from.compatibility;
+		}
+	}
+
+	/** Frame kinds, indexed by the kind byte. */
+	protected static final FRAMEKIND [] frameKinds = FRAMEKIND.values();
+
+	/** Writes a trace, frame by frame, to the supplied stream. */
+	public static class TraceWriter
+	{
+		protected final DataOutputStream output;
+
+		/** Frames defining labels and states interned while the current frame is being constructed. */
+		protected final ByteArrayOutputStream definitionBytes = new ByteArrayOutputStream();
+		protected final DataOutputStream definitions = new DataOutputStream(definitionBytes);
+
+		protected final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		protected final DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+		protected final Map<Label,Integer> labels = new HashMap<Label,Integer>();
+		protected final Map<String,Integer> states = new HashMap<String,Integer>();
+
+		/** The previous graph in the series, null if the next one has to be written completely. */
+		protected GraphSnapshot previous = null;
+
+		/** Whether to store graphs as differences from previous ones, see {@link Configuration#getCompressLogs()}. */
+		protected final boolean compress;
+
+		public TraceWriter(OutputStream outStream, Configuration config)
+		{
+			output = new DataOutputStream(outStream);compress = config.getCompressLogs();
+			try
+			{
+				output.writeInt(MAGIC);output.writeInt(VERSION);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace header", ex);
+			}
+		}
+
+		protected int internLabel(Label label) throws IOException
+		{
+			Integer result = labels.get(label);
+			if (result == null)
+			{
+				result = labels.size();labels.put(label, result);
+				byte [] data = label.toErlangTerm().getBytes(UTF8);
+				definitions.writeByte(FRAMEKIND.FRAME_LABEL.ordinal());writeUnsigned(definitions, data.length);definitions.write(data);
+			}
+			return result.intValue();
+		}
+
+		protected int internState(VertID state) throws IOException
+		{
+			String id = state.getStringId();
+			Integer result = states.get(id);
+			if (result == null)
+			{
+				result = states.size();states.put(id, result);
+				byte [] data = id.getBytes(UTF8);
+				definitions.writeByte(FRAMEKIND.FRAME_STATE.ordinal());writeUnsigned(definitions, data.length);definitions.write(data);
+			}
+			return result.intValue();
+		}
+
+		/** Writes out definitions collected during the construction of the current frame followed by the frame itself. */
+		protected void endFrame(FRAMEKIND kind)
+		{
+			try
+			{
+				definitions.flush();definitionBytes.writeTo(output);definitionBytes.reset();
+				payload.flush();
+				output.writeByte(kind.ordinal());writeUnsigned(output, payloadBytes.size());payloadBytes.writeTo(output);payloadBytes.reset();
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+		}
+
+		protected void writeSequence(List<Label> sequence) throws IOException
+		{
+			writeUnsigned(payload, sequence.size());
+			for(Label label:sequence)
+				writeUnsigned(payload, internLabel(label));
+		}
+
+		protected void writeSequenceList(Collection<List<Label>> sequences) throws IOException
+		{
+			writeUnsigned(payload, sequences.size());
+			for(List<Label> seq:sequences)
+				writeSequence(seq);
+		}
+
+		protected void writePair(VertID q, VertID r, long score, long otherScore) throws IOException
+		{
+			writeUnsigned(payload, internState(q));writeUnsigned(payload, internState(r));
+			writeSigned(payload, score);writeSigned(payload, otherScore);
+		}
+
+		protected GraphSnapshot takeSnapshot(LearnerGraph graph) throws IOException
+		{
+			GraphSnapshot result = new GraphSnapshot();
+			for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:graph.transitionMatrix.entrySet())
+			{
+				CmpVertex vert = entry.getKey();
+				TreeMap<Integer,Integer> transitions = new TreeMap<Integer,Integer>();
+				for(Entry<Label,CmpVertex> transition:entry.getValue().entrySet())
+					transitions.put(internLabel(transition.getKey()), internState(transition.getValue()));
+				int [] row = new int[2*transitions.size()];int i=0;
+				for(Entry<Integer,Integer> transition:transitions.entrySet())
+				{
+					row[i++]=transition.getKey();row[i++]=transition.getValue();
+				}
+				int flags = (vert.isAccept()?StateRecord.FLAG_ACCEPT:0) | (vert.isHighlight()?StateRecord.FLAG_HIGHLIGHT:0);
+				result.states.put(internState(vert), new StateRecord(flags, vert.getColour() == null?-1:vert.getColour().ordinal(),
+						vert.getOrigState() == null?-1:internState(vert.getOrigState()),vert.getDepth(),row));
+			}
+			result.init = internState(graph.getInit());
+
+			List<Integer> compatibility = new ArrayList<Integer>();
+			for(Entry<CmpVertex,Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY>> entry:graph.pairCompatibility.compatibility.entrySet())
+			{
+				int a = internState(entry.getKey());
+				for(Entry<CmpVertex,JUConstants.PAIRCOMPATIBILITY> pair:entry.getValue().entrySet())
+				{
+					int b = internState(pair.getKey());
+					if (a < b)
+					{// each pair is recorded in both directions, we only need one of them.
+						compatibility.add(a);compatibility.add(b);compatibility.add(pair.getValue().ordinal());
+					}
+				}
+			}
+			result.compatibility = new int[compatibility.size()];
+			for(int i=0;i<result.compatibility.length;++i) result.compatibility[i]=compatibility.get(i);
+			return result;
+		}
+
+		/** Writes a graph, either completely or as a difference to the previous one in the series.
+		 *
+		 * @param graph graph to write
+		 * @param inSeries whether this graph is a part of a series. If not, the graph is written completely and the series is unaffected.
+		 */
+		protected void writeGraph(LearnerGraph graph, boolean inSeries) throws IOException
+		{
+			GraphSnapshot snapshot = takeSnapshot(graph);
+			GraphSnapshot base = inSeries && compress?previous:null;
+			payload.writeBoolean(base != null);
+			if (base != null)
+			{
+				List<Integer> removed = new LinkedList<Integer>();
+				for(Integer state:base.states.keySet())
+					if (!snapshot.states.containsKey(state))
+						removed.add(state);
+				writeUnsigned(payload, removed.size());
+				for(Integer state:removed) writeUnsigned(payload, state);
+			}
+			writeUnsigned(payload, snapshot.init);
+			List<Entry<Integer,StateRecord>> changed = new LinkedList<Entry<Integer,StateRecord>>();
+			for(Entry<Integer,StateRecord> entry:snapshot.states.entrySet())
+				if (base == null || !entry.getValue().equals(base.states.get(entry.getKey())))
+					changed.add(entry);
+			writeUnsigned(payload, changed.size());
+			for(Entry<Integer,StateRecord> entry:changed)
+			{// states first, so that transitions can refer to states modified in this graph.
+				StateRecord record = entry.getValue();
+				writeUnsigned(payload, entry.getKey());payload.writeByte(record.flags);
+				writeUnsigned(payload, record.colour+1);writeUnsigned(payload, record.origState+1);writeSigned(payload, record.depth);
+			}
+			for(Entry<Integer,StateRecord> entry:changed)
+			{
+				int [] row = entry.getValue().row;
+				writeUnsigned(payload, row.length/2);
+				for(int value:row) writeUnsigned(payload, value);
+			}
+			if (base != null && Arrays.equals(base.compatibility, snapshot.compatibility))
+				payload.writeBoolean(false);
+			else
+			{
+				payload.writeBoolean(true);
+				writeUnsigned(payload, snapshot.compatibility.length/3);
+				for(int value:snapshot.compatibility) writeUnsigned(payload, value);
+			}
+			if (inSeries) previous = snapshot;
+		}
+
+		/** Resets the series - the graph to follow will be stored completely. */
+		public void reset()
+		{
+			previous = null;
+		}
+
+		public void writeEvaluationData(String xmlText)
+		{
+			try
+			{
+				writeString(payload, xmlText);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_EVALUATIONDATA);
+		}
+
+		public void writeInit(InitialData initialData)
+		{
+			try
+			{
+				writeSequenceList(initialData.plus);writeUnsigned(payload, initialData.plusSize);
+				writeSequenceList(initialData.minus);writeUnsigned(payload, initialData.minusSize);
+				writeGraph(initialData.graph, false);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_INIT);
+		}
+
+		public void writePairs(Collection<PairScore> pairs)
+		{
+			try
+			{
+				writeUnsigned(payload, pairs.size());
+				for(PairScore p:pairs)
+					writePair(p.getQ(), p.getR(), p.getScore(), p.getAnotherScore());
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_PAIRS);
+		}
+
+		/** Writes questions, <em>kind</em> is either {@link FRAMEKIND#FRAME_QUESTIONS} or {@link FRAMEKIND#FRAME_MOREQUESTIONS}. */
+		public void writeQuestions(FRAMEKIND kind, PairScore pair, List<List<Label>> questions)
+		{
+			try
+			{
+				writePair(pair.getQ(), pair.getR(), pair.getScore(), pair.getAnotherScore());
+				writeSequenceList(questions);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(kind);
+		}
+
+		public void writeMergeAndDeterminize(StatePair pair, LearnerGraph result)
+		{
+			try
+			{
+				writePair(pair.getQ(), pair.getR(), 0, 0);
+				writeGraph(result, true);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_MERGEANDDETERMINIZE);
+		}
+
+		public void writeRestart(RestartLearningEnum mode)
+		{
+			try
+			{
+				writeUnsigned(payload, mode.ordinal());
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_RESTART);
+		}
+
+		public void writeAnswer(List<Label> question, int failedPosition, String ltl)
+		{
+			try
+			{
+				writeSequence(question);writeSigned(payload, failedPosition);
+				payload.writeBoolean(ltl != null);
+				if (ltl != null) writeString(payload, ltl);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_ANSWER);
+		}
+
+		public void writeAugmentPTA(AugmentPTAData data)
+		{
+			try
+			{
+				writeUnsigned(payload, data.kind.ordinal());writeSequence(data.sequence);payload.writeBoolean(data.accept);
+				writeUnsigned(payload, data.colour == null?0:data.colour.ordinal()+1);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_AUGMENTPTA);
+		}
+
+		public void writeConstraints(LearnerGraph outcome, boolean constraintsAdded)
+		{
+			try
+			{
+				payload.writeBoolean(constraintsAdded);writeGraph(outcome, true);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_CONSTRAINTS);
+		}
+
+		public void writeResult(LearnerGraph graph)
+		{
+			try
+			{
+				writeGraph(graph, true);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to write binary trace", ex);
+			}
+			endFrame(FRAMEKIND.FRAME_RESULT);
+		}
+
+		public void close() throws IOException
+		{
+			output.close();
+		}
+	}
+
+	/** An event loaded from a trace. Only fields relevant to the kind of event are set. */
+	public static class TraceEvent
+	{
+		public final FRAMEKIND kind;
+
+		public TraceEvent(FRAMEKIND argKind)
+		{
+			kind = argKind;
+		}
+
+		/** XML text of learner evaluation data. */
+		public String text = null;
+		public InitialData initial = null;
+		public Stack<PairScore> pairs = null;
+		public PairScore pair = null;
+		public List<List<Label>> sequences = null;
+		public List<Label> sequence = null;
+		public LearnerGraph graph = null;
+		public RestartLearningEnum restartMode = null;
+		public int failedPosition = JUConstants.intUNKNOWN;
+		public String ltl = null;
+		public AugmentPTAData augmentData = null;
+		public boolean constraintsAdded = false;
+	}
+
+	/** Reads a trace, one event at a time. */
+	public static class TraceReader
+	{
+		protected final DataInputStream input;
+
+		/** Textual representation of interned labels, converted to labels on first use since the configuration
+		 * determining the kind of labels is usually loaded from the trace itself.
+		 */
+		protected final List<String> labelText = new ArrayList<String>();
+		protected final List<Label> labels = new ArrayList<Label>();
+		protected final List<VertexID> states = new ArrayList<VertexID>();
+
+		protected GraphSnapshot previous = null;
+
+		protected Configuration config = null;
+		protected final ConvertALabel converter;
+
+		public TraceReader(InputStream inStream, ConvertALabel conv)
+		{
+			input = new DataInputStream(inStream);converter = conv;
+			try
+			{
+				if (input.readInt() != MAGIC) throw new IllegalArgumentException("not a binary learner trace");
+				int version = input.readInt();
+				if (version != VERSION) throw new IllegalArgumentException("unsupported version "+version+" of binary learner trace");
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to read binary trace header", ex);
+			}
+		}
+
+		/** Sets the configuration used to construct labels, states and graphs. */
+		public void setConfiguration(Configuration cnf)
+		{
+			config = cnf;
+		}
+
+		/** Resets the series - the graph to follow is expected to be stored completely. */
+		public void reset()
+		{
+			previous = null;
+		}
+
+		protected Label getLabel(int number)
+		{
+			if (number >= labelText.size()) throw new IllegalArgumentException("undefined label "+number);
+			if (config == null) throw new IllegalArgumentException("configuration has to be loaded before labels can be used");
+			while(labels.size() <= number) labels.add(null);
+			Label result = labels.get(number);
+			if (result == null)
+			{
+				result = AbstractLearnerGraph.generateNewLabel(labelText.get(number), config, converter);labels.set(number, result);
+			}
+			return result;
+		}
+
+		protected VertexID getState(int number)
+		{
+			if (number >= states.size()) throw new IllegalArgumentException("undefined state "+number);
+			return states.get(number);
+		}
+
+		protected CmpVertex newVertex(int number)
+		{
+			if (config == null) throw new IllegalArgumentException("configuration has to be loaded before states can be used");
+			return AbstractLearnerGraph.generateNewCmpVertex(getState(number), config);
+		}
+
+		protected List<Label> readSequence(DataInputStream in) throws IOException
+		{
+			int length = readUnsigned(in);
+			List<Label> result = new ArrayList<Label>(length);
+			for(int i=0;i<length;++i) result.add(getLabel(readUnsigned(in)));
+			return result;
+		}
+
+		protected List<List<Label>> readSequenceList(DataInputStream in) throws IOException
+		{
+			int count = readUnsigned(in);
+			List<List<Label>> result = new LinkedList<List<Label>>();
+			for(int i=0;i<count;++i) result.add(readSequence(in));
+			return result;
+		}
+
+		protected PairScore readPair(DataInputStream in) throws IOException
+		{
+			CmpVertex q = newVertex(readUnsigned(in)), r = newVertex(readUnsigned(in));
+			long score = readSigned(in), otherScore = readSigned(in);
+			return new PairScore(q,r,score,otherScore);
+		}
+
+		protected LearnerGraph readGraph(DataInputStream in, boolean inSeries) throws IOException
+		{
+			boolean delta = in.readBoolean();
+			GraphSnapshot snapshot = null;
+			if (delta)
+			{
+				if (!inSeries || previous == null) throw new IllegalArgumentException("difference to a graph where there is no previous graph");
+				snapshot = new GraphSnapshot(previous);
+				int removed = readUnsigned(in);
+				for(int i=0;i<removed;++i)
+					if (snapshot.states.remove(readUnsigned(in)) == null)
+						throw new IllegalArgumentException("removal of a non-existing state");
+			}
+			else
+				snapshot = new GraphSnapshot();
+			snapshot.init = readUnsigned(in);
+			int changed = readUnsigned(in);
+			int [] changedStates = new int[changed], flags = new int[changed], colours = new int[changed], origStates = new int[changed], depths = new int[changed];
+			for(int i=0;i<changed;++i)
+			{
+				changedStates[i]=readUnsigned(in);flags[i]=in.readUnsignedByte();
+				colours[i]=readUnsigned(in)-1;origStates[i]=readUnsigned(in)-1;depths[i]=(int)readSigned(in);
+			}
+			for(int i=0;i<changed;++i)
+			{
+				int [] row = new int[2*readUnsigned(in)];
+				for(int j=0;j<row.length;++j) row[j]=readUnsigned(in);
+				snapshot.states.put(changedStates[i], new StateRecord(flags[i], colours[i], origStates[i], depths[i], row));
+			}
+			if (in.readBoolean())
+			{
+				snapshot.compatibility = new int[3*readUnsigned(in)];
+				for(int j=0;j<snapshot.compatibility.length;++j) snapshot.compatibility[j]=readUnsigned(in);
+			}
+			else
+				if (!delta) throw new IllegalArgumentException("missing compatibility of a complete graph");
+
+			if (inSeries) previous = snapshot;
+			return buildGraph(snapshot);
+		}
+
+		/** Constructs a graph from the supplied snapshot. */
+		protected LearnerGraph buildGraph(GraphSnapshot snapshot)
+		{
+			if (config == null) throw new IllegalArgumentException("configuration has to be loaded before graphs can be used");
+			LearnerGraph graph = new LearnerGraph(config);graph.initEmpty();
+			Map<Integer,CmpVertex> vertices = new HashMap<Integer,CmpVertex>();
+			JUConstants [] colours = JUConstants.values();
+			for(Entry<Integer,StateRecord> entry:snapshot.states.entrySet())
+			{
+				StateRecord record = entry.getValue();
+				CmpVertex vert = newVertex(entry.getKey());
+				vert.setAccept( (record.flags & StateRecord.FLAG_ACCEPT) != 0);vert.setHighlight( (record.flags & StateRecord.FLAG_HIGHLIGHT) != 0);
+				if (record.colour >= 0) vert.setColour(colours[record.colour]);
+				if (record.origState >= 0) vert.setOrigState(getState(record.origState));
+				vert.setDepth(record.depth);
+				vertices.put(entry.getKey(), vert);graph.transitionMatrix.put(vert, graph.createNewRow());
+			}
+			CmpVertex init = vertices.get(snapshot.init);
+			if (init == null) throw new IllegalArgumentException("missing initial state");
+			graph.setInit(init);
+			for(Entry<Integer,StateRecord> entry:snapshot.states.entrySet())
+			{
+				Map<Label,CmpVertex> row = graph.transitionMatrix.get(vertices.get(entry.getKey()));
+				int [] transitions = entry.getValue().row;
+				for(int i=0;i<transitions.length;i+=2)
+				{
+					CmpVertex target = vertices.get(transitions[i+1]);
+					if (target == null) throw new IllegalArgumentException("unknown target state "+getState(transitions[i+1]));
+					graph.addTransition(row, getLabel(transitions[i]), target);
+				}
+			}
+			JUConstants.PAIRCOMPATIBILITY [] compatibilityValues = JUConstants.PAIRCOMPATIBILITY.values();
+			for(int i=0;i<snapshot.compatibility.length;i+=3)
+			{
+				CmpVertex a = vertices.get(snapshot.compatibility[i]), b = vertices.get(snapshot.compatibility[i+1]);
+				if (a == null || b == null) throw new IllegalArgumentException("unknown state in a compatibility pair");
+				graph.addToCompatibility(a, b, compatibilityValues[snapshot.compatibility[i+2]]);
+			}
+			graph.setIDNumbers();graph.learnerCache.invalidate();
+			return graph;
+		}
+
+		/** Returns the next event in the trace or null if there are no more events. */
+		public TraceEvent readEvent()
+		{
+			TraceEvent result = null;
+			try
+			{
+				while(result == null)
+				{
+					int kindByte = input.read();
+					if (kindByte < 0)
+						return null;
+					if (kindByte >= frameKinds.length) throw new IllegalArgumentException("unknown frame kind "+kindByte);
+					FRAMEKIND kind = frameKinds[kindByte];
+					byte [] data = new byte[readUnsigned(input)];
+					input.readFully(data);
+					switch(kind)
+					{
+					case FRAME_LABEL:
+						labelText.add(new String(data,UTF8));break;
+					case FRAME_STATE:
+						states.add(VertexID.parseID(new String(data,UTF8)));break;
+					default:
+						DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+						result = readEvent(kind, in);
+						if (in.available() > 0) throw new IllegalArgumentException("unexpected data at the end of frame "+kind);
+					}
+				}
+			}
+			catch(EOFException ex)
+			{
+				statechum.Helper.throwUnchecked("truncated binary trace", ex);
+			}
+			catch(IOException ex)
+			{
+				statechum.Helper.throwUnchecked("failed to read binary trace", ex);
+			}
+			return result;
+		}
+
+		protected TraceEvent readEvent(FRAMEKIND kind, DataInputStream in) throws IOException
+		{
+			TraceEvent result = new TraceEvent(kind);
+			switch(kind)
+			{
+			case FRAME_EVALUATIONDATA:
+				result.text = readString(in);break;
+			case FRAME_INIT:
+				result.initial = new InitialData();
+				result.initial.plus = readSequenceList(in);result.initial.plusSize = readUnsigned(in);
+				result.initial.minus = readSequenceList(in);result.initial.minusSize = readUnsigned(in);
+				result.initial.graph = readGraph(in, false);
+				break;
+			case FRAME_PAIRS:
+				result.pairs = new Stack<PairScore>();
+				int count = readUnsigned(in);
+				for(int i=0;i<count;++i) result.pairs.add(readPair(in));
+				break;
+			case FRAME_QUESTIONS:
+			case FRAME_MOREQUESTIONS:
+				result.pair = readPair(in);result.sequences = readSequenceList(in);break;
+			case FRAME_MERGEANDDETERMINIZE:
+				result.pair = readPair(in);result.graph = readGraph(in, true);break;
+			case FRAME_RESTART:
+				result.restartMode = RestartLearningEnum.values()[readUnsigned(in)];
+				if (result.restartMode != RestartLearningEnum.restartNONE) reset();
+				break;
+			case FRAME_ANSWER:
+				result.sequence = readSequence(in);result.failedPosition = (int)readSigned(in);
+				if (in.readBoolean()) result.ltl = readString(in);
+				break;
+			case FRAME_AUGMENTPTA:
+				RestartLearningEnum ptaKind = RestartLearningEnum.values()[readUnsigned(in)];
+				List<Label> sequence = readSequence(in);boolean accept = in.readBoolean();
+				int colour = readUnsigned(in);
+				result.augmentData = new AugmentPTAData(ptaKind,sequence,accept,colour == 0?null:JUConstants.values()[colour-1]);
+				break;
+			case FRAME_CONSTRAINTS:
+				result.constraintsAdded = in.readBoolean();result.graph = readGraph(in, true);break;
+			case FRAME_RESULT:
+				result.graph = readGraph(in, true);break;
+			default:
+				throw new IllegalArgumentException("unexpected frame "+kind);
+			}
+			return result;
+		}
+
+		public void close()
+		{
+			try
+			{
+				input.close();
+			} catch (IOException e) {// ignores error
+			}
+		}
+	}
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -55,7 +56,7 @@ import statechum.analysis.learning.AbstractOracle;
 
 /** An instance of this class behaves like a learner including calls to its decorators, 
  * but instead of running an experiment all data is retrieved from the supplied
- * XML file. This is useful in order to transform existing traces from a learner 
+ * XML file or a binary trace. This is useful in order to transform existing traces from a learner 
  * or make analysis of what it was doing, without actually re-running an experiment
  * which may be time-consuming. 
  *  
@@ -75,6 +76,12 @@ public class LearnerSimulator extends ProgressDecorator
 	/** Graph compressor. */
 	protected GraphSeries series = null;
 
+	/** Reader of a binary trace, null if the trace is in XML. */
+	protected BinaryTrace.TraceReader binaryReader = null;
+	
+	/** The event of a binary trace corresponding to the current method call. */
+	protected BinaryTrace.TraceEvent currentEvent = null;
+
 	/** This method is aimed for loading an XML file with a fixed structure.
 	 * Every time <em>expectNextElement</em> is called a caller expects that
 	 * the next element in XML will have a specific tag and this method throws
@@ -261,7 +268,17 @@ public class LearnerSimulator extends ProgressDecorator
 	
 	public LearnerSimulator(InputStream inStream, boolean useZip, ConvertALabel conv) 
 	{
-		super(conv);decoratedLearner=this;readZip=useZip;
+		this(inStream,useZip?TraceFormat.TRACE_ZIP:TraceFormat.TRACE_XML,conv);
+	}
+	
+	public LearnerSimulator(InputStream inStream, TraceFormat format, ConvertALabel conv) 
+	{
+		super(conv);decoratedLearner=this;readZip=format == TraceFormat.TRACE_ZIP;
+		if (format == TraceFormat.TRACE_BINARY)
+		{
+			binaryReader = new BinaryTrace.TraceReader(new java.io.BufferedInputStream(inStream), conv);
+		}
+		else
 		if (readZip)
 		{
 			inputZip = new ZipInputStream(new java.io.BufferedInputStream(inStream));
@@ -283,6 +300,11 @@ public class LearnerSimulator extends ProgressDecorator
 			}
 			inputZip = null;
 		}
+		if (binaryReader != null)
+		{
+			binaryReader.close();binaryReader = null;
+		}
+		currentEvent = null;
 		doc = null;
 	}
 	
@@ -311,9 +333,75 @@ public class LearnerSimulator extends ProgressDecorator
 			stringToEnumMap.put(kind.name(), kind);
 	}
 	
+	/** Loads the next event from a binary trace, throwing {@link IllegalArgumentException} if it is not of the expected kind. */
+	protected BinaryTrace.TraceEvent expectNextEvent(BinaryTrace.FRAMEKIND kind)
+	{
+		BinaryTrace.TraceEvent result = binaryReader.readEvent();
+		if (result == null)
+			throw new IllegalArgumentException("failed to find event "+kind);
+		if (result.kind != kind)
+			throw new IllegalArgumentException("encountered "+result.kind+" instead of "+kind);
+		return result;
+	}
+	
+	/** Plays back a binary trace. */
+	protected LearnerGraph learnMachineFromBinaryTrace()
+	{
+		currentEvent = expectNextEvent(BinaryTrace.FRAMEKIND.FRAME_INIT);
+		LearnerGraph graph = null, temp = null, result = null;
+		while(currentEvent != null)
+		{
+			if (result != null) // we already know the final graph but there are more events to come
+				throw new IllegalArgumentException("unexpected event "+currentEvent.kind+" after the learner result is known");
+			switch(currentEvent.kind)
+			{
+			case FRAME_RESULT:
+				result = currentEvent.graph;break;
+			case FRAME_CONSTRAINTS:
+				topLevelListener.AddConstraints(graph,new LearnerGraph(graph,graph.config),null);break;
+			case FRAME_ANSWER:
+				Object outcome = topLevelListener.CheckWithEndUser(graph, currentEvent.sequence, AbstractOracle.USER_CANCELLED, null, null, null);
+				assert outcome == expectedReturnValue;
+				break;
+			case FRAME_PAIRS:
+				topLevelListener.ChooseStatePairs(graph);
+				break;
+			case FRAME_QUESTIONS:
+				topLevelListener.ComputeQuestions(currentEvent.pair,graph,temp);
+				break;
+			case FRAME_MOREQUESTIONS:
+				topLevelListener.RecomputeQuestions(currentEvent.pair,graph,temp);
+				break;
+			case FRAME_MERGEANDDETERMINIZE:
+				temp = topLevelListener.MergeAndDeterminize(graph, currentEvent.pair);
+				break;
+			case FRAME_RESTART:
+				topLevelListener.Restart(currentEvent.restartMode);
+				if (currentEvent.restartMode == RestartLearningEnum.restartNONE)
+					graph = temp;
+				// if we are restarting, graph is unchanged.
+				break;
+			case FRAME_INIT:
+				graph = topLevelListener.init(currentEvent.initial.plus,currentEvent.initial.minus);
+				break;
+			case FRAME_AUGMENTPTA:
+				AugmentPTAData augmentData = currentEvent.augmentData;
+				topLevelListener.AugmentPTA(null, augmentData.kind, augmentData.sequence, augmentData.accept, augmentData.colour);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown event in binary trace "+currentEvent.kind);
+			}
+			currentEvent = binaryReader.readEvent();
+		}
+		return result;
+	}
+	
 	@Override
 	public LearnerGraph learnMachine()
 	{
+		if (binaryReader != null)
+			return learnMachineFromBinaryTrace();
+		
 		currentElement = expectNextElement(StatechumXML.ELEM_INIT.name());
 		LearnerGraph graph = null, temp = null, result = null;
 		while(currentElement != null)
@@ -418,6 +506,11 @@ public class LearnerSimulator extends ProgressDecorator
 			@SuppressWarnings("unused") PairScore pairBeingMerged,
 			@SuppressWarnings("unused") Object[] options) 
 	{
+		if (binaryReader != null)
+		{
+			Pair<Integer,String> returnValue = new Pair<Integer,String>(currentEvent.failedPosition,currentEvent.ltl);expectedReturnValue=returnValue;
+			return returnValue;
+		}
 		Integer failedPosition = Integer.valueOf(currentElement.getAttribute(StatechumXML.ATTR_FAILEDPOS.name()));
 		String ltlValue = null;
 		if (currentElement.hasAttribute(StatechumXML.ATTR_LTL.name())) ltlValue = currentElement.getAttribute(StatechumXML.ATTR_LTL.name());
@@ -433,6 +526,9 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public Stack<PairScore> ChooseStatePairs(LearnerGraph graph)
 	{
+		if (binaryReader != null)
+			return currentEvent.pairs;
+		
 		org.w3c.dom.NodeList Pairs = currentElement.getChildNodes();
 		Stack<PairScore> result = new Stack<PairScore>();
 		for(int i=0;i<Pairs.getLength();++i)
@@ -460,6 +556,8 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public List<List<Label>> ComputeQuestions(@SuppressWarnings("unused") PairScore pair, @SuppressWarnings("unused") LearnerGraph original, @SuppressWarnings("unused") LearnerGraph temp)
 	{
+		if (binaryReader != null)
+			return currentEvent.sequences;
 		return labelio.readSequenceList(getElement(StatechumXML.ELEM_SEQ.name()),StatechumXML.ATTR_QUESTIONS.name());
 	}
 
@@ -473,6 +571,8 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public List<List<Label>> RecomputeQuestions(@SuppressWarnings("unused") PairScore pair, @SuppressWarnings("unused") LearnerGraph original, @SuppressWarnings("unused") LearnerGraph temp)
 	{
+		if (binaryReader != null)
+			return currentEvent.sequences;
 		return labelio.readSequenceList(getElement(StatechumXML.ELEM_SEQ.name()),StatechumXML.ATTR_MOREQUESTIONS.name());
 	}
 
@@ -499,9 +599,14 @@ public class LearnerSimulator extends ProgressDecorator
 	 */
 	public LearnerEvaluationConfiguration readLearnerConstructionData(Configuration defaultConfig)
 	{
-		Element evaluationData = expectNextElement(StatechumXML.ELEM_EVALUATIONDATA.name());
+		Element evaluationData = null;
+		if (binaryReader != null)
+			evaluationData = getDocumentOfXML(new StringReader(expectNextEvent(BinaryTrace.FRAMEKIND.FRAME_EVALUATIONDATA).text)).getDocumentElement();
+		else
+			evaluationData = expectNextElement(StatechumXML.ELEM_EVALUATIONDATA.name());
 		LearnerEvaluationConfiguration cnf = readLearnerEvaluationConfiguration(evaluationData,defaultConfig);
 		config = cnf.config;
+		if (binaryReader != null) binaryReader.setConfiguration(config);
 		series = new GraphSeries(config,converter);
 		return cnf;
 	}
@@ -515,6 +620,8 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public LearnerGraph MergeAndDeterminize(@SuppressWarnings("unused") LearnerGraph original, @SuppressWarnings("unused") StatePair pair) 
 	{
+		if (binaryReader != null)
+			return currentEvent.graph;
 		Element graphNode = getElement(StatechumXML.gdGD.toString());
 		if (graphNode == null) graphNode = getElement(StatechumXML.graphmlNodeNameNS.toString());
 		if (graphNode == null) throw new IllegalArgumentException("failed to find a node with a graph");
@@ -548,6 +655,8 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public LearnerGraph init(@SuppressWarnings("unused") Collection<List<Label>> plus, @SuppressWarnings("unused") Collection<List<Label>> minus) 
 	{
+		if (binaryReader != null)
+			return currentEvent.initial.graph;
 		InitialData initial = readInitialData(currentElement);// wastefully load the element once again - does not matter because this is done very infrequently
 		return initial.graph;
 	}
@@ -558,6 +667,11 @@ public class LearnerSimulator extends ProgressDecorator
 	@Override
 	public boolean AddConstraints(@SuppressWarnings("unused") LearnerGraph graph, LearnerGraph outcome, @SuppressWarnings("unused") StringBuffer counterExampleHolder) 
 	{
+		if (binaryReader != null)
+		{
+			AbstractLearnerGraph.copyGraphs(currentEvent.graph,outcome);
+			return currentEvent.constraintsAdded;
+		}
 		AbstractLearnerGraph.copyGraphs(series.readGraph(currentElement),outcome);
 		return Boolean.parseBoolean(currentElement.getAttribute(StatechumXML.ATTR_CONSTRAINTSADDED.name()));
 	}
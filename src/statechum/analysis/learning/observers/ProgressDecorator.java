@@ -48,6 +48,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -78,6 +82,11 @@ public abstract class ProgressDecorator extends LearnerDecorator
 		super(conv);
 	}
 	
+	/** Formats of trace logs: a single XML document, a zip file where each entry is an XML element or 
+	 * a binary trace written by {@link BinaryTrace}.
+	 */
+	public enum TraceFormat { TRACE_XML, TRACE_ZIP, TRACE_BINARY }
+	
 	protected Document doc = null;
 
 	protected SequenceIO<statechum.Label> labelio = null;//new LEGACY_StringLabelSequenceWriter(doc, result.config);
@@ -98,6 +107,20 @@ public abstract class ProgressDecorator extends LearnerDecorator
 		return pairElement;
 	}
 	
+	/** Writes the supplied element into an XML stream, with the same attributes as {@link #writePair(PairScore, Document)}.
+	 * 
+	 * @param element to write
+	 * @param writer where to write
+	 */
+	public static void writePair(PairScore element, XMLStreamWriter writer) throws XMLStreamException
+	{
+		writer.writeEmptyElement(StatechumXML.ELEM_PAIR.name());
+		if (element.getAnotherScore() != JUConstants.intUNKNOWN) writer.writeAttribute(StatechumXML.ATTR_OTHERSCORE.name(), Long.toString(element.getAnotherScore()));
+		writer.writeAttribute(StatechumXML.ATTR_Q.name(), element.getQ().getStringId());
+		writer.writeAttribute(StatechumXML.ATTR_R.name(), element.getR().getStringId());
+		if (element.getScore() != JUConstants.intUNKNOWN) writer.writeAttribute(StatechumXML.ATTR_SCORE.name(), Long.toString(element.getScore()));
+	}
+	
 	/** Loads a pair from the supplied XML element.
 	 * 
 	 * @param graph the graph which elements to load 
@@ -120,8 +143,33 @@ public abstract class ProgressDecorator extends LearnerDecorator
 			throw new IllegalArgumentException("expected to load a pair but got "+elem.getNodeName());
 		if (!elem.hasAttribute(StatechumXML.ATTR_Q.name()) || !elem.hasAttribute(StatechumXML.ATTR_R.name()) )
 				throw new IllegalArgumentException("missing attribute in a pair");
-		String q = elem.getAttribute(StatechumXML.ATTR_Q.name()), r = elem.getAttribute(StatechumXML.ATTR_R.name()),
-			score=elem.getAttribute(StatechumXML.ATTR_SCORE.name()), otherscore = elem.getAttribute(StatechumXML.ATTR_OTHERSCORE.name());
+		return readPair(graph, elem.getAttribute(StatechumXML.ATTR_Q.name()), elem.getAttribute(StatechumXML.ATTR_R.name()),
+			elem.getAttribute(StatechumXML.ATTR_SCORE.name()), elem.getAttribute(StatechumXML.ATTR_OTHERSCORE.name()));
+	}
+	
+	/** Loads a pair from the current element of the supplied XML stream, 
+	 * in the same way as {@link #readPair(AbstractLearnerGraph, Element)}.
+	 * 
+	 * @param graph the graph which elements to load 
+	 * @param reader stream positioned at the element to load from
+	 * @return loaded state pair.
+	 */
+	public static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>> 
+		PairScore readPair(AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> graph, XMLStreamReader reader)
+	{
+		String name = AbstractPersistence.qualifiedName(reader);
+		if (!name.equals(StatechumXML.ELEM_PAIR.name()))
+			throw new IllegalArgumentException("expected to load a pair but got "+name);
+		String q = reader.getAttributeValue(null, StatechumXML.ATTR_Q.name()), r = reader.getAttributeValue(null, StatechumXML.ATTR_R.name());
+		if (q == null || r == null)
+				throw new IllegalArgumentException("missing attribute in a pair");
+		return readPair(graph, q, r, reader.getAttributeValue(null, StatechumXML.ATTR_SCORE.name()), reader.getAttributeValue(null, StatechumXML.ATTR_OTHERSCORE.name()));
+	}
+	
+	/** Constructs a pair from the values of attributes, <em>null</em> or empty scores are treated as unknown. */
+	protected static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>> 
+		PairScore readPair(AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> graph, String q, String r, String score, String otherscore)
+	{
 		int scoreInt = JUConstants.intUNKNOWN, otherScoreInt = JUConstants.intUNKNOWN;
 		if (score != null && score.length() > 0)
 			try { scoreInt = Integer.valueOf(score); } catch(NumberFormatException ex) { statechum.Helper.throwUnchecked("failed to read a score in a pair", ex); }
@@ -19,6 +19,7 @@
 package statechum.analysis.learning.observers;
 
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Stack;
@@ -68,28 +69,48 @@ public class RecordProgressDecorator extends ProgressDecorator
 	/** Graph compressor. */
 	protected GraphSeries series = null;
 	
+	/** Where a binary trace is recorded, events are passed to this writer instead of being turned into XML. */
+	protected BinaryTrace.TraceWriter binaryWriter = null;
+	
 	public RecordProgressDecorator(Learner learner, OutputStream outStream, int threadNumber, Configuration conf, boolean writeInZipFormat) 
+	{
+		this(learner,outStream,threadNumber,conf,writeInZipFormat?TraceFormat.TRACE_ZIP:TraceFormat.TRACE_XML);
+	}
+
+	public RecordProgressDecorator(Learner learner, OutputStream outStream, int threadNumber, Configuration conf, TraceFormat format) 
 	{
 		super(learner);
-		initProgressDecorator(outStream, threadNumber, conf, writeInZipFormat);
+		initProgressDecorator(outStream, threadNumber, conf, format);
 	}
 
 	/** Constructor only used for testing. */
 	public RecordProgressDecorator(OutputStream outStream, int threadNumber, Configuration conf, boolean writeInZipFormat, ConvertALabel conv) 
+	{
+		this(outStream,threadNumber,conf,writeInZipFormat?TraceFormat.TRACE_ZIP:TraceFormat.TRACE_XML,conv);
+	}
+	
+	/** Constructor only used for testing. */
+	public RecordProgressDecorator(OutputStream outStream, int threadNumber, Configuration conf, TraceFormat format, ConvertALabel conv) 
 	{
 		super(conv);
-		initProgressDecorator(outStream, threadNumber, conf, writeInZipFormat);
+		initProgressDecorator(outStream, threadNumber, conf, format);
 	}
 	
-	private void initProgressDecorator(OutputStream outStream, int threadNumber, Configuration conf, boolean writeInZipFormat)
+	private void initProgressDecorator(OutputStream outStream, int threadNumber, Configuration conf, TraceFormat format)
 	{
-		config = conf;writeZip=writeInZipFormat;
+		config = conf;writeZip=format == TraceFormat.TRACE_ZIP;
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		try
 		{
 			factory.setFeature(javax.xml.XMLConstants.FEATURE_SECURE_PROCESSING, true);factory.setXIncludeAware(false);
 			factory.setExpandEntityReferences(false);factory.setValidating(false);// we do not have a schema to validate against-this does not seem necessary for the simple data format we are considering here.
-			doc = factory.newDocumentBuilder().newDocument();
+			doc = factory.newDocumentBuilder().newDocument();// in the binary format, only used for learner evaluation data.
+			if (format == TraceFormat.TRACE_BINARY)
+			{
+				outputStream=new java.io.BufferedOutputStream(outStream);
+				binaryWriter = new BinaryTrace.TraceWriter(outputStream, config);
+			}
+			else
 			if (writeZip)
 			{// using http://java.sun.com/developer/technicalArticles/Programming/compression/
 				outputStream=new ZipOutputStream(new java.io.BufferedOutputStream(outStream));
@@ -116,6 +137,10 @@ public class RecordProgressDecorator extends ProgressDecorator
 	 */
 	protected void writeResult(LearnerGraph graph)
 	{
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeResult(graph);return;
+		}
 		Element finalGraphXMLNode = series.writeGraph(graph);
 		finalGraphXMLNode.setAttribute(StatechumXML.ATTR_GRAPHKIND.name(),StatechumXML.ATTR_LEARNINGOUTCOME.name());
 		writeElement(finalGraphXMLNode);
@@ -126,7 +151,7 @@ public class RecordProgressDecorator extends ProgressDecorator
 	{
 		try 
 		{
-			if (!writeZip)
+			if (!writeZip && binaryWriter == null)
 			{
 				Transformer trans = TransformerFactory.newInstance().newTransformer();
 				trans.transform(new DOMSource(doc),new StreamResult(outputStream));
@@ -170,7 +195,7 @@ public class RecordProgressDecorator extends ProgressDecorator
 	/** Used to give all entries in a zip file unique names. */
 	protected int entryNumber = 1;
 	
-	/** Writes the supplied XML element out, either to XML file or to Zip stream. 
+	/** Writes the supplied XML element out, either to XML file or to Zip stream. Not used for binary traces.
 	 * The destination of data depends on the <em>writeZip</em> attribute.
 	 * 
 	 * @param elem what to write out.
@@ -224,8 +249,12 @@ public class RecordProgressDecorator extends ProgressDecorator
 			PairScore pairBeingMerged,
 			Object[] options) 
 	{
-		Element questionElement = doc.createElement(StatechumXML.ELEM_ANSWER.name());
 		Pair<Integer,String> result = decoratedLearner.CheckWithEndUser(graph, question, responseForNoRestart, acceptedElements, pairBeingMerged, options);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeAnswer(question, result.firstElem, result.secondElem);return result;
+		}
+		Element questionElement = doc.createElement(StatechumXML.ELEM_ANSWER.name());
 		StringBuffer strBuffer = new StringBuffer();labelio.writeInputSequence(strBuffer,question);
 		questionElement.setAttribute(StatechumXML.ATTR_QUESTION.name(),strBuffer.toString());
 		questionElement.setAttribute(StatechumXML.ATTR_FAILEDPOS.name(), result.firstElem.toString());
@@ -237,6 +266,10 @@ public class RecordProgressDecorator extends ProgressDecorator
 	@Override 
 	public Stack<PairScore> ChooseStatePairs(LearnerGraph graph) {
 		Stack<PairScore> result = decoratedLearner.ChooseStatePairs(graph);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writePairs(result);return result;
+		}
 		Element pairsElement = doc.createElement(StatechumXML.ELEM_PAIRS.name());
 		for(PairScore p:result)
 		{
@@ -250,6 +283,10 @@ public class RecordProgressDecorator extends ProgressDecorator
 	public List<List<Label>> ComputeQuestions(PairScore pair, LearnerGraph original, LearnerGraph temp) 
 	{
 		List<List<Label>> result = decoratedLearner.ComputeQuestions(pair, original, temp);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeQuestions(BinaryTrace.FRAMEKIND.FRAME_QUESTIONS, pair, result);return result;
+		}
 		Element questions = doc.createElement(StatechumXML.ELEM_QUESTIONS.name());
 		Element questionList = labelio.writeSequenceList(StatechumXML.ATTR_QUESTIONS.name(), result);
 		questions.appendChild(questionList);questions.appendChild(writePair(pair,doc));
@@ -261,6 +298,10 @@ public class RecordProgressDecorator extends ProgressDecorator
 	public List<List<Label>> RecomputeQuestions(PairScore pair, LearnerGraph original, LearnerGraph temp) 
 	{
 		List<List<Label>> result = decoratedLearner.RecomputeQuestions(pair, original, temp);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeQuestions(BinaryTrace.FRAMEKIND.FRAME_MOREQUESTIONS, pair, result);return result;
+		}
 		Element questions = doc.createElement(StatechumXML.ELEM_QUESTIONS.name());
 		Element questionList = labelio.writeSequenceList(StatechumXML.ATTR_MOREQUESTIONS.name(), result);
 		questions.appendChild(questionList);questions.appendChild(writePair(pair,doc));
@@ -271,13 +312,30 @@ public class RecordProgressDecorator extends ProgressDecorator
 	/** Stores the current learner input parameters. */
 	public void writeLearnerEvaluationData(LearnerEvaluationConfiguration cnf)
 	{
-		writeElement(writeLearnerEvaluationConfiguration(cnf));		
+		if (binaryWriter != null)
+		{// this is only written once, hence the existing XML representation is embedded in the binary trace.
+			StringWriter xmlText = new StringWriter();
+			try
+			{
+				Transformer trans = TransformerFactory.newInstance().newTransformer();
+				trans.transform(new DOMSource(writeLearnerEvaluationConfiguration(cnf)),new StreamResult(xmlText));
+			} catch (Exception e) {
+				statechum.Helper.throwUnchecked("failed to write out XML ",e);
+			}
+			binaryWriter.writeEvaluationData(xmlText.toString());
+		}
+		else
+			writeElement(writeLearnerEvaluationConfiguration(cnf));		
 	}
 	
 	@Override 
 	public LearnerGraph MergeAndDeterminize(LearnerGraph original, StatePair pair) 
 	{
 		LearnerGraph result = decoratedLearner.MergeAndDeterminize(original, pair);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeMergeAndDeterminize(pair, result);return result;
+		}
 		Element mergedGraph = series.writeGraph(result);
 		Element mergeNode = doc.createElement(StatechumXML.ELEM_MERGEANDDETERMINIZE.name());
 		mergeNode.appendChild(mergedGraph);mergeNode.appendChild(writePair(new PairScore(pair.getQ(),pair.getR(),0,0),doc));
@@ -306,7 +364,11 @@ public class RecordProgressDecorator extends ProgressDecorator
 				return !positiveFilter.shouldBeReturned(name);
 			}
 		};
-		writeElement(writeInitialData(new InitialData(engine.getData(positiveFilter), plusSize, engine.getData(negativeFilter), minusSize, result)));
+		InitialData initialData = new InitialData(engine.getData(positiveFilter), plusSize, engine.getData(negativeFilter), minusSize, result);
+		if (binaryWriter != null)
+			binaryWriter.writeInit(initialData);
+		else
+			writeElement(writeInitialData(initialData));
 		return result;
 	}
 
@@ -315,7 +377,11 @@ public class RecordProgressDecorator extends ProgressDecorator
 	{
 		LearnerGraph result = decoratedLearner.init(plus, minus);
 		
-		writeElement(writeInitialData(new InitialData(plus, plus.size(), minus, minus.size(), result)));
+		InitialData initialData = new InitialData(plus, plus.size(), minus, minus.size(), result);
+		if (binaryWriter != null)
+			binaryWriter.writeInit(initialData);
+		else
+			writeElement(writeInitialData(initialData));
 		return result;
 	}
 
@@ -323,6 +389,12 @@ public class RecordProgressDecorator extends ProgressDecorator
 	public void Restart(RestartLearningEnum mode) 
 	{
 		decoratedLearner.Restart(mode);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeRestart(mode);
+			if (mode != RestartLearningEnum.restartNONE) binaryWriter.reset();
+			return;
+		}
 		Element restartElement = doc.createElement(StatechumXML.ELEM_RESTART.name());
 		restartElement.setAttribute(StatechumXML.ATTR_KIND.name(),mode.toString());
 		writeElement(restartElement);
@@ -334,13 +406,20 @@ public class RecordProgressDecorator extends ProgressDecorator
 			List<Label> sequence, boolean accepted, JUConstants newColour) 
 	{
 		decoratedLearner.AugmentPTA(pta, ptaKind, sequence, accepted, newColour);
-		writeElement(writeAugmentPTA(new AugmentPTAData(ptaKind,sequence,accepted,newColour)));
+		if (binaryWriter != null)
+			binaryWriter.writeAugmentPTA(new AugmentPTAData(ptaKind,sequence,accepted,newColour));
+		else
+			writeElement(writeAugmentPTA(new AugmentPTAData(ptaKind,sequence,accepted,newColour)));
 	}
 
 	@Override 
 	public boolean AddConstraints(LearnerGraph graph, LearnerGraph outcome, StringBuffer counterExampleHolder) 
 	{
 		boolean result = decoratedLearner.AddConstraints(graph,outcome,counterExampleHolder);
+		if (binaryWriter != null)
+		{
+			binaryWriter.writeConstraints(outcome, result);return result;
+		}
 
 		Element ptaWithConstraintsGraphXMLNode = series.writeGraph(outcome);
 		ptaWithConstraintsGraphXMLNode.setAttribute(StatechumXML.ATTR_GRAPHKIND.name(),StatechumXML.ATTR_WITHCONSTRAINTS.name());
@@ -30,17 +30,16 @@ import java.util.Set;
 import java.util.Map.Entry;
 
 import statechum.StatechumXML;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 import org.xml.sax.Attributes;
@@ -50,7 +49,6 @@ import statechum.JUConstants;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
 import statechum.DeterministicDirectedSparseGraph.VertexID;
 import statechum.analysis.learning.PairScore;
-import statechum.analysis.learning.observers.LearnerSimulator;
 import statechum.analysis.learning.observers.ProgressDecorator;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
 import statechum.Label;
@@ -100,13 +98,72 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 		return nodeElement;
 	}
 	
+	/** Writes the supplied state into a stream, with attributes in the same order as they are 
+	 * output by the DOM serialiser, so that files are the same regardless of the way they are written.
+	 */
+	protected void writeStateNode(XMLStreamWriter writer, CmpVertex node) throws XMLStreamException
+	{
+		if (node.getStringId().contains(Initial))
+			throw new IllegalArgumentException("Invalid node name "+node);
+		writer.writeEmptyElement("node");
+		if (!node.isAccept()) writer.writeAttribute(JUConstants.ACCEPTED.name(),Boolean.toString(node.isAccept()));
+		if (node.getColour() != null) writer.writeAttribute(JUConstants.COLOUR.name(),node.getColour().name());
+		if (node.getDepth() != JUConstants.intUNKNOWN) writer.writeAttribute(JUConstants.DEPTH.name(), Integer.toString(node.getDepth()));
+		if (node.isHighlight()) writer.writeAttribute(JUConstants.HIGHLIGHT.name(),Boolean.toString(node.isHighlight()));
+		if (node.getOrigState() != null) writer.writeAttribute(JUConstants.ORIGSTATE.name(),node.getOrigState().toString());
+		writer.writeAttribute("VERTEX", transformNodeName(node));
+		writer.writeAttribute("id",node.getStringId());
+		writer.writeCharacters("\n");
+	}
+	
+	/** Provides access to attributes of an XML element, regardless whether it is a DOM element or the current element of a stream. */
+	protected interface GraphMLAttributes
+	{
+		/** Returns the value of the attribute with the supplied name, <em>null</em> if it is absent. */
+		String getAttribute(String name);
+	}
+	
+	protected static GraphMLAttributes attributesOf(final Element elem)
+	{
+		return new GraphMLAttributes() {
+			@Override
+			public String getAttribute(String name) {
+				return elem.hasAttribute(name)?elem.getAttribute(name):null;
+			}
+		};
+	}
+	
+	protected static GraphMLAttributes attributesOf(final XMLStreamReader reader)
+	{
+		return new GraphMLAttributes() {
+			@Override
+			public String getAttribute(String name) {
+				return reader.getAttributeValue(null, name);
+			}
+		};
+	}
+	
+	/** Returns the name of the current element of a stream, including the prefix, in the same way as DOM's <em>getNodeName</em>. */
+	public static String qualifiedName(XMLStreamReader reader)
+	{
+		String prefix = reader.getPrefix();
+		return prefix == null || prefix.isEmpty()? reader.getLocalName():prefix+":"+reader.getLocalName();
+	}
+	
 	/** Populates attributes of the specified node, returning true if it is marked as an initial node. */
 	protected static boolean populateCmpVertexFromElement(Element nodeElement, CmpVertex target)
 	{
-		if (nodeElement.hasAttribute(JUConstants.ACCEPTED.name())) 
+		return populateCmpVertex(attributesOf(nodeElement), target);
+	}
+	
+	/** Populates attributes of the specified node, returning true if it is marked as an initial node. */
+	protected static boolean populateCmpVertex(GraphMLAttributes nodeElement, CmpVertex target)
+	{
+		String value = nodeElement.getAttribute(JUConstants.ACCEPTED.name());
+		if (value != null) 
 		{
 			boolean outcome = false;
-			String value = nodeElement.getAttribute(JUConstants.ACCEPTED.name()).toLowerCase();
+			value = value.toLowerCase();
 			if (value.equalsIgnoreCase("true"))
 				outcome = true;
 			else
@@ -117,10 +174,11 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 			
 			target.setAccept(outcome);
 		}
-		if (nodeElement.hasAttribute(JUConstants.HIGHLIGHT.name())) target.setHighlight(Boolean.parseBoolean(nodeElement.getAttribute(JUConstants.HIGHLIGHT.name())));
-		if (nodeElement.hasAttribute(JUConstants.COLOUR.name())) 
+		String highlight = nodeElement.getAttribute(JUConstants.HIGHLIGHT.name());
+		if (highlight != null) target.setHighlight(Boolean.parseBoolean(highlight));
+		String colour = nodeElement.getAttribute(JUConstants.COLOUR.name());
+		if (colour != null) 
 		{
-			String colour = nodeElement.getAttribute(JUConstants.COLOUR.name());
 			try
 			{
 				target.setColour(JUConstants.valueOf(colour));
@@ -130,10 +188,11 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 				throw new IllegalArgumentException("invalid colour "+colour);
 			}
 		}
-		if (nodeElement.hasAttribute(JUConstants.ORIGSTATE.name())) target.setOrigState(VertexID.parseID(nodeElement.getAttribute(JUConstants.ORIGSTATE.name())));
-		if (nodeElement.hasAttribute(JUConstants.DEPTH.name()))
+		String origState = nodeElement.getAttribute(JUConstants.ORIGSTATE.name());
+		if (origState != null) target.setOrigState(VertexID.parseID(origState));
+		String depth = nodeElement.getAttribute(JUConstants.DEPTH.name());
+		if (depth != null)
 		{
-			String depth = nodeElement.getAttribute(JUConstants.DEPTH.name());
 			try
 			{
 				target.setDepth(Integer.parseInt(depth));
@@ -143,7 +202,8 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 				throw new IllegalArgumentException("invalid depth "+depth);
 			}
 		}
-		return nodeElement.getAttribute("VERTEX").contains(Initial);
+		String vertex = nodeElement.getAttribute("VERTEX");
+		return vertex != null && vertex.contains(Initial);
 	}
 	
 	public static Text endl(Document doc)
@@ -193,33 +253,57 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 		return graphElement;
 	}
 	
-	/** Writes a graph into a graphML file. All vertices are written.
+	/** Writes a graph into a graphML file. All vertices are written. States and transitions are written 
+	 * straight from the transition matrix, without constructing an XML document first, hence the memory 
+	 * needed does not depend on the size of the graph.
 	 * 
 	 * @throws IOException if an I/O error occurs or 
 	 * any vertex has a substring "Initial" in it, because this substring is used to designate 
 	 * an initial state in the graphml file. Most of the time, "Init" is used instead in the graphs.
-	 * @throws ParserConfigurationException 
 	 */
 	public void writeGraphML(Writer writer) throws IOException
 	{
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		Document doc = null;
 		try
 		{
-			factory.setFeature(javax.xml.XMLConstants.FEATURE_SECURE_PROCESSING, true);factory.setXIncludeAware(false);
-			factory.setExpandEntityReferences(false);factory.setValidating(false);// we do not have a schema to validate against-this does not seem necessary for the simple data format we are considering here.
-			doc = factory.newDocumentBuilder().newDocument();doc.setXmlStandalone(true);
+			// XMLStreamWriter refuses to declare an encoding which is different from that of the underlying writer, hence the declaration is written directly.
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+			out.writeStartElement(StatechumXML.graphmlNS.toString(), StatechumXML.graphmlNodeName.toString(), StatechumXML.graphlmURI.toString());
+			out.writeNamespace(StatechumXML.graphmlNS.toString(), StatechumXML.graphlmURI.toString());
+			out.writeStartElement(graphmlGraph);out.writeAttribute("edgedefault", "directed");out.writeDefaultNamespace(StatechumXML.graphmlNS.toString());
+			out.writeCharacters("\n");
+			writeStateNode(out, coregraph.getInit());
+			for(Entry<CmpVertex,Map<Label,TARGET_TYPE>> vert:coregraph.transitionMatrix.getPotentiallyOrderedEntrySet(coregraph.config.getUseOrderedEntrySet()))
+				if (vert.getKey() != coregraph.getInit())
+					writeStateNode(out, vert.getKey());
+			for(Entry<CmpVertex,Map<Label,TARGET_TYPE>> vert:coregraph.transitionMatrix.getPotentiallyOrderedEntrySet(coregraph.config.getUseOrderedEntrySet()))
+				for(Entry<Label,TARGET_TYPE> transition:vert.getValue().entrySet())
+					for(CmpVertex targetState:coregraph.getTargets(transition.getValue()))
+					{
+						out.writeEmptyElement("edge");out.writeAttribute("EDGE", transition.getKey().toErlangTerm());out.writeAttribute("directed", "true");
+						out.writeAttribute("source", vert.getKey().getStringId());out.writeAttribute("target", targetState.getStringId());
+						out.writeCharacters("\n");
+					}
+			
+			if (!coregraph.pairCompatibility.compatibility.isEmpty())
+			{
+				out.writeStartElement(graphmlData);out.writeAttribute(graphmlDataKey, graphmlDataIncompatible);
+				Set<CmpVertex> encounteredNodes = new HashSet<CmpVertex>();
+				for(Entry<CmpVertex,Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY>> entry:coregraph.pairCompatibility.compatibility.getPotentiallyOrderedEntrySet(coregraph.config.getUseOrderedEntrySet()))
+				{
+					encounteredNodes.add(entry.getKey());
+					for(Entry<CmpVertex,JUConstants.PAIRCOMPATIBILITY> vert:entry.getValue().entrySet())
+						if (!encounteredNodes.contains(vert.getKey()))
+						{
+							ProgressDecorator.writePair(new PairScore(entry.getKey(),vert.getKey(),vert.getValue().getInteger(),JUConstants.intUNKNOWN), out);out.writeCharacters("\n");
+						}
+				}
+				out.writeEndElement();out.writeCharacters("\n");
+			}
+			out.writeEndElement();out.writeEndElement();out.writeEndDocument();out.close();
 		}
-		catch(ParserConfigurationException ex)
+		catch(XMLStreamException e)
 		{
-			IOException parserEx = new IOException("configuration exception: "+ex);parserEx.initCause(ex);throw parserEx;
-		}
-		doc.appendChild(createGraphMLNode(doc));
-		// based on http://www.exampledepot.com/egs/javax.xml.transform/WriteDom.html
-		try {
-			Transformer trans = TransformerFactory.newInstance().newTransformer();
-			trans.transform(new DOMSource(doc),new StreamResult(writer));
-		} catch (Exception e) {
 			IOException ex = new IOException("failed to write out XML "+e);ex.initCause(e);
 			throw ex;
 		}
@@ -275,55 +359,10 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 			{
 				Element nodeElement = (Element)node;
 				if (nodeElement.getNodeName().equals("node"))
-				{
-					if (!nodeElement.hasAttribute("id"))
-						throw new IllegalArgumentException("missing id attribute");
-					
-					CmpVertex vert = AbstractLearnerGraph.generateNewCmpVertex(
-							VertexID.parseID(nodeElement.getAttribute("id")), result.config);
-					boolean initial = populateCmpVertexFromElement(nodeElement, vert);
-					if (result.transitionMatrix.containsKey(vert))
-						throw new IllegalArgumentException("duplicate vertex "+vert);
-
-					Map<Label,TARGET_TYPE> row = result.createNewRow();
-					result.transitionMatrix.put(vert, row);
-					if (initial)
-					{
-						if (result.getInit() == null)
-							result.setInit(vert);
-						else
-							throw new IllegalArgumentException("loadGraph: vertices "+vert+" and "+result.getInit()+" are both labelled as initial");
-					}
-					
-				}
+					addVertex(attributesOf(nodeElement), result);
 				else
 					if (nodeElement.getNodeName().equals("edge"))
-					{
-						if (!nodeElement.hasAttribute("source"))
-							throw new IllegalArgumentException("loadGraph: missing source of a transition");
-						if (!nodeElement.hasAttribute("target"))
-							throw new IllegalArgumentException("loadGraph: missing target of a transition");
-						if (!nodeElement.hasAttribute("directed"))
-							throw new IllegalArgumentException("loadGraph: missing \"directed\" attribute of a transition");
-						if (!nodeElement.hasAttribute("EDGE"))
-							throw new IllegalArgumentException("loadGraph: missing \"edge\" attribute of a transition");
-						if (!nodeElement.getAttribute("directed").equals("true"))
-							throw new IllegalArgumentException("loadGraph: transition must be directed");
-						
-						CmpVertex source = result.findVertex(VertexID.parseID(nodeElement.getAttribute("source"))),
-								target = result.findVertex(VertexID.parseID(nodeElement.getAttribute("target")));
-						
-						if (source == null)
-							throw new IllegalArgumentException("loadGraph: unknown source state");
-						if (target == null)
-							throw new IllegalArgumentException("loadGraph: unknown target state");
-						Label label = AbstractLearnerGraph.generateNewLabel(nodeElement.getAttribute("EDGE"), result.config,conv);
-						if (conv == null)
-							result.addTransition(result.transitionMatrix.get(source),label,target);
-						else
-							//for(Label l:conv.convertLabel(label))
-								result.addTransition(result.transitionMatrix.get(source),conv.convertLabelToLabel(label),target);
-					}
+						addTransition(attributesOf(nodeElement), result, conv);
 					else
 					if (node.getNodeName().equals(graphmlData))
 					{
@@ -331,24 +370,14 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 						{
 							NodeList children = node.getChildNodes();
 							for(int childNum=0;childNum<children.getLength();++childNum)
-								if (children.item(childNum).getNodeType() == Node.ELEMENT_NODE)
-								{
-									PairScore pair=ProgressDecorator.readPair(result, (Element)children.item(childNum));
-									CmpVertex a = result.findVertex(pair.firstElem), b = result.findVertex(pair.secondElem); 
-									if (a == null)
-										throw new IllegalArgumentException("Unknown state "+pair.firstElem);
-									if (b == null)
-										throw new IllegalArgumentException("Unknown state "+pair.secondElem);
-									result.addToCompatibility(a, b, JUConstants.PAIRCOMPATIBILITY.compatibilityToJUConstants(pair.getScore()));
-								}
-							
+								if (children.item(childNum).getNodeType() == org.w3c.dom.Node.ELEMENT_NODE)
+									addIncompatible(ProgressDecorator.readPair(result, (Element)children.item(childNum)), result);
 						}
 						else
 							throw new IllegalArgumentException("unexpected key "+((Element)node).getAttribute(graphmlDataKey));
 					}
 					else // a node which is not a "data" node.
-						if (!node.getNodeName().equals("node") && !node.getNodeName().equals("edge"))
-							throw new IllegalArgumentException("unexpected node "+node.getNodeName()+" in graph");
+						throw new IllegalArgumentException("unexpected node "+node.getNodeName()+" in graph");
 			}
     	}
     	
@@ -359,6 +388,168 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
     	return result;
 	}	
 	
+	/** Adds a state described by the supplied attributes of a graphML node to the graph. */
+	protected static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>>
+		void addVertex(GraphMLAttributes nodeElement, AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> result)
+	{
+		String id = nodeElement.getAttribute("id");
+		if (id == null)
+			throw new IllegalArgumentException("missing id attribute");
+		
+		CmpVertex vert = AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID(id), result.config);
+		boolean initial = populateCmpVertex(nodeElement, vert);
+		if (result.transitionMatrix.containsKey(vert))
+			throw new IllegalArgumentException("duplicate vertex "+vert);
+
+		Map<Label,TARGET_TYPE> row = result.createNewRow();
+		result.transitionMatrix.put(vert, row);
+		if (initial)
+		{
+			if (result.getInit() == null)
+				result.setInit(vert);
+			else
+				throw new IllegalArgumentException("loadGraph: vertices "+vert+" and "+result.getInit()+" are both labelled as initial");
+		}
+	}
+	
+	/** Adds a transition described by the supplied attributes of a graphML edge to the graph. */
+	protected static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>>
+		void addTransition(GraphMLAttributes nodeElement, AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> result, ConvertALabel conv)
+	{
+		String sourceName = nodeElement.getAttribute("source"), targetName = nodeElement.getAttribute("target"),
+				directed = nodeElement.getAttribute("directed"), edge = nodeElement.getAttribute("EDGE");
+		if (sourceName == null)
+			throw new IllegalArgumentException("loadGraph: missing source of a transition");
+		if (targetName == null)
+			throw new IllegalArgumentException("loadGraph: missing target of a transition");
+		if (directed == null)
+			throw new IllegalArgumentException("loadGraph: missing \"directed\" attribute of a transition");
+		if (edge == null)
+			throw new IllegalArgumentException("loadGraph: missing \"edge\" attribute of a transition");
+		if (!directed.equals("true"))
+			throw new IllegalArgumentException("loadGraph: transition must be directed");
+		
+		CmpVertex source = result.findVertex(VertexID.parseID(sourceName)),
+				target = result.findVertex(VertexID.parseID(targetName));
+		
+		if (source == null)
+			throw new IllegalArgumentException("loadGraph: unknown source state");
+		if (target == null)
+			throw new IllegalArgumentException("loadGraph: unknown target state");
+		Label label = AbstractLearnerGraph.generateNewLabel(edge, result.config,conv);
+		if (conv == null)
+			result.addTransition(result.transitionMatrix.get(source),label,target);
+		else
+			//for(Label l:conv.convertLabel(label))
+				result.addTransition(result.transitionMatrix.get(source),conv.convertLabelToLabel(label),target);
+	}
+	
+	/** Records the supplied pair loaded from a graphML file in the compatibility table of the graph. */
+	protected static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>>
+		void addIncompatible(PairScore pair, AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> result)
+	{
+		CmpVertex a = result.findVertex(pair.firstElem), b = result.findVertex(pair.secondElem); 
+		if (a == null)
+			throw new IllegalArgumentException("Unknown state "+pair.firstElem);
+		if (b == null)
+			throw new IllegalArgumentException("Unknown state "+pair.secondElem);
+		result.addToCompatibility(a, b, JUConstants.PAIRCOMPATIBILITY.compatibilityToJUConstants(pair.getScore()));
+	}
+	
+	/** Skips the current element of a stream together with everything nested in it. */
+	protected static void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while(depth > 0)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) ++depth;
+			else
+				if (event == XMLStreamConstants.END_ELEMENT) --depth;
+		}
+	}
+	
+	/** Loads a graph from the supplied stream, adding states and transitions to the graph as they are encountered,
+	 * without building an XML document first. The outcome is the same as that of 
+	 * {@link #loadGraph(Element, AbstractLearnerGraph, ConvertALabel)}.
+	 * 
+	 * @param reader XML stream to load from, positioned before the graphml element.
+	 * @param result graph into which to copy the loaded graph (we are generic hence cannot create an instance ourselves).
+	 * @param conv how to convert loaded labels, null for no conversion.
+	 * @return loaded graph
+	 */
+	public static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>>
+		AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> loadGraph(XMLStreamReader reader, AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> result, ConvertALabel conv) throws XMLStreamException
+	{
+		result.initEmpty();
+		while(reader.getEventType() != XMLStreamConstants.START_ELEMENT && reader.hasNext())
+			reader.next();
+		if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+			throw new IllegalArgumentException("missing graphml element");
+		String topName = qualifiedName(reader);
+		if (!topName.equals(StatechumXML.graphmlNodeNameNS.toString()) && !topName.equals(StatechumXML.graphmlNodeName.toString()))
+			throw new IllegalArgumentException("element name "+topName+" is not graphml");
+		
+		int graphs = 0;
+		for(int event = reader.next();event != XMLStreamConstants.END_ELEMENT;event = reader.next())
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				if (qualifiedName(reader).equals(graphmlGraph))
+				{
+					if (graphs++ > 0)
+						throw new IllegalArgumentException("duplicate graph element");
+					loadGraphElement(reader, result, conv);
+				}
+				else
+					skipElement(reader);
+			}
+		if (graphs < 1)
+			throw new IllegalArgumentException("absent graph element");
+		
+    	if (result.getInit() == null)
+    		throw new IllegalArgumentException("missing initial state");
+    	
+    	result.createCache();result.setIDNumbers();
+    	return result;
+	}
+	
+	/** Loads states, transitions and compatibility data from the graph element the supplied stream is positioned at. */
+	protected static <TARGET_TYPE,CACHE_TYPE extends CachedData<TARGET_TYPE,CACHE_TYPE>>
+		void loadGraphElement(XMLStreamReader reader, AbstractLearnerGraph<TARGET_TYPE,CACHE_TYPE> result, ConvertALabel conv) throws XMLStreamException
+	{
+		if (!"directed".equals(reader.getAttributeValue(null, "edgedefault")))
+			throw new IllegalArgumentException("only directed graphs are supported");
+		
+		for(int event = reader.next();event != XMLStreamConstants.END_ELEMENT;event = reader.next())
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = qualifiedName(reader);
+				if (name.equals("node"))
+				{
+					addVertex(attributesOf(reader), result);skipElement(reader);
+				}
+				else
+					if (name.equals("edge"))
+					{
+						addTransition(attributesOf(reader), result, conv);skipElement(reader);
+					}
+					else
+						if (name.equals(graphmlData))
+						{
+							String key = reader.getAttributeValue(null, graphmlDataKey);
+							if (!graphmlDataIncompatible.equals(key))
+								throw new IllegalArgumentException("unexpected key "+(key == null?"":key));
+							for(int pairEvent = reader.next();pairEvent != XMLStreamConstants.END_ELEMENT;pairEvent = reader.next())
+								if (pairEvent == XMLStreamConstants.START_ELEMENT)
+								{
+									addIncompatible(ProgressDecorator.readPair(result, reader), result);skipElement(reader);
+								}
+						}
+						else // a node which is not a "data" node.
+							throw new IllegalArgumentException("unexpected node "+name+" in graph");
+			}
+	}
+	
 	/** Loads a graph from the data in a supplied reader.
 	 * @param from reader to load a graph from
 	 * @param conv how to convert loaded labels, null for no conversion.
@@ -369,12 +560,22 @@ public class AbstractPersistence<TARGET_TYPE,CACHE_TYPE extends CachedData<TARGE
 	{
 		synchronized (AbstractLearnerGraph.syncObj) 
 		{// ensure that the calls to Jung's vertex-creation routines do not occur on different threads.
+	    	XMLStreamReader reader = null;
 	    	try
 	    	{
-	    		loadGraph(LearnerSimulator.getDocumentOfXML(from).getDocumentElement(), result, conv);
+	    		XMLInputFactory factory = XMLInputFactory.newInstance();
+	    		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	    		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);// names are matched including prefixes, in the same way as it is done for DOM.
+	    		reader = factory.createXMLStreamReader(from);
+	    		loadGraph(reader, result, conv);
+	    	}
+	    	catch(XMLStreamException e)
+	    	{
+	    		statechum.Helper.throwUnchecked("failed to load graph", e);
 	    	}
 	    	finally
 	    	{
+	    		if (reader != null) { try { reader.close(); } catch(XMLStreamException toBeIgnored) { /* Ignore exception */ } }
 	    		if (from != null) { try { from.close(); } catch(IOException toBeIgnored) { /* Ignore exception */ } }
 	    	}
 		}
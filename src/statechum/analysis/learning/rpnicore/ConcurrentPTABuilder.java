@@ -0,0 +1,299 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+
+/** Builds a PTA from collections of reject and accept-sequences using multiple threads, with the same outcome as
+ * {@link PathRoutines#augmentPTA(Collection, boolean, boolean)} called for reject-sequences followed by accept-sequences.
+ * <p>
+ * Sequences are numbered in the order they would be added by the sequential construction and partitioned by their first labels.
+ * Paths with different first labels do not share any states other than the initial one, hence every partition is turned
+ * into a private tree by a separate task, without locking. Every node of such a tree records the number of the sequence that
+ * created it; each sequence creates at most one chain of nodes, the start of which is recorded for that sequence.
+ * Once all tasks have completed, the chains are turned into states of the graph in the order of sequences, in the calling thread,
+ * so that states are created by the same thread in the same order, and hence given the same names, as they would
+ * be by the sequential construction. This is also the only part that touches the graph, since neither the transition matrix nor
+ * the creation of Jung vertices can be used concurrently.
+ * <p>
+ * Where a sequence contradicts those added before it, every task stops at the first sequence contradicting its partition;
+ * the earliest of such sequences is reported with the same exception as the sequential construction would report, after states
+ * added by the sequences preceding it are added to the graph and the state where the contradiction was found is highlighted.
+ * <p>
+ * Only an initial PTA, that is, a graph with a single accept-state and no transitions, is built concurrently; for any other graph,
+ * or where there is only one thread, sequences are added one at a time using {@link PathRoutines#augmentPTA(Collection, boolean, boolean)}.
+ */
+public class ConcurrentPTABuilder
+{
+	protected final LearnerGraph coregraph;
+
+	protected final int threadNumber;
+
+	public ConcurrentPTABuilder(LearnerGraph graph, int threads)
+	{
+		coregraph = graph;threadNumber = threads;
+	}
+
+	/** A node of a tree built by a task, corresponding to a state that will be added to the graph. */
+	protected static class Node
+	{
+		/** The node this one is entered from, null for the nodes entered from the initial state. */
+		final Node parent;
+
+		/** The label of the transition entering this node. */
+		final Label label;
+
+		/** The number of the sequence that created this node. */
+		final int sequence;
+
+		/** The number of transitions from the initial state to this node. */
+		final int depth;
+
+		final boolean accept;
+
+		/** The next node created by the same sequence, null if this is the last one. */
+		Node next = null;
+
+		/** Transitions leaving this node, created on demand since most nodes of a PTA are leaves. */
+		Map<Label,Node> children = null;
+
+		/** The state that this node was turned into, null before the graph is built. */
+		CmpVertex vertex = null;
+
+		public Node(Node parentNode, Label lbl, int seq, int depthValue, boolean acceptValue)
+		{
+			parent = parentNode;label = lbl;sequence = seq;depth = depthValue;accept = acceptValue;
+		}
+
+		Node getChild(Label lbl)
+		{
+			return children == null?null:children.get(lbl);
+		}
+
+		Node addChild(Label lbl, int seq, boolean acceptValue)
+		{
+			Node child = new Node(this, lbl, seq, depth+1, acceptValue);
+			if (children == null) children = new HashMap<Label,Node>();
+			children.put(lbl, child);
+			return child;
+		}
+	}
+
+	/** The first sequence found to contradict those preceding it in its partition. */
+	protected static class Contradiction
+	{
+		final int sequence;
+		final String message;
+
+		/** The node where the contradiction was found, null for the initial state. */
+		final Node node;
+
+		public Contradiction(int seq, String text, Node where)
+		{
+			sequence = seq;message = text;node = where;
+		}
+	}
+
+	/** All sequences to add, reject-sequences first. */
+	protected List<List<Label>> sequences;
+
+	/** The number of reject-sequences; these are at the start of <em>sequences</em>. */
+	protected int rejectNumber;
+
+	/** For every sequence, the first node it created, or null if it did not create any. */
+	protected Node [] chainStart;
+
+	protected boolean isAccept(int sequence)
+	{
+		return sequence >= rejectNumber;
+	}
+
+	/** Adds sequences from a partition to a tree, in the order of their numbers.
+	 *
+	 * @param partition numbers of sequences with the same first label.
+	 * @return the first contradicting sequence or null if there is none.
+	 */
+	protected Contradiction buildTree(int [] partition)
+	{
+		Node top = null;
+		for(int seq:partition)
+		{
+			List<Label> sequence = sequences.get(seq);boolean accepted = isAccept(seq);
+			Node current = null, prev = null;// null for current stands for the initial state, which is an accept-state.
+			int position = 0;
+			boolean reachedEnd = true;
+			for(Label input:sequence)
+			{
+				if (current != null && !current.accept)
+					return new Contradiction(seq, "incompatible "+(accepted?"accept":"reject")+" labelling: "+sequence.subList(0, position)+" when trying to append "+sequence, current);
+				Node child = current == null?top:current.getChild(input);
+				++position;
+				if (child == null)
+				{// the rest of the sequence is not in the tree, hence it is added as a chain of new nodes.
+					Node start = null;
+					for(Label lbl:sequence.subList(position-1, sequence.size()))
+					{
+						boolean acceptNode = position < sequence.size() || accepted;
+						Node newNode = current == null?new Node(null,lbl,seq,position,acceptNode):current.addChild(lbl, seq, acceptNode);
+						if (current == null) top = newNode;
+						if (start == null) start = newNode;else prev.next = newNode;
+						prev = newNode;current = newNode;++position;
+					}
+					chainStart[seq] = start;reachedEnd = false;
+					break;
+				}
+				current = child;
+			}
+			if (reachedEnd && current.accept != accepted)
+				return new Contradiction(seq, "incompatible "+(accepted?"accept":"reject")+" labelling: "+sequence.subList(0, position), current);
+		}
+		return null;
+	}
+
+	/** Adds the supplied sequences to the graph, in the same way as {@link PathRoutines#augmentPTA(Collection, boolean, boolean)} would
+	 * for reject-sequences followed by accept-sequences, without treating the graph as a maximal automaton.
+	 *
+	 * @param minus reject-sequences
+	 * @param plus accept-sequences
+	 * @return the updated graph.
+	 */
+	public LearnerGraph augmentPTA(Collection<List<Label>> minus, Collection<List<Label>> plus)
+	{
+		CmpVertex init = coregraph.getInit();
+		if (threadNumber <= 1 || init == null || !init.isAccept() || coregraph.transitionMatrix.size() != 1 || !coregraph.transitionMatrix.get(init).isEmpty())
+		{
+			coregraph.paths.augmentPTA(minus, false, false);
+			coregraph.paths.augmentPTA(plus, true, false);
+			return coregraph;
+		}
+
+		rejectNumber = minus.size();
+		sequences = new ArrayList<List<Label>>(minus.size()+plus.size());
+		sequences.addAll(minus);sequences.addAll(plus);
+		int seq;
+		chainStart = new Node[sequences.size()];
+
+		// Partition sequences by their first labels, empty sequences can only contradict the acceptance of the initial state.
+		Contradiction earliest = null;
+		Map<Label,int[]> labelToPartition = new HashMap<Label,int[]>();// every element records the partition number and its size.
+		int [] sequenceToPartition = new int[sequences.size()];
+		for(seq=0;seq<sequences.size();++seq)
+			if (sequences.get(seq).isEmpty())
+			{
+				sequenceToPartition[seq] = -1;
+				if (earliest == null && !isAccept(seq))
+					earliest = new Contradiction(seq, "incompatible reject labelling: "+sequences.get(seq), null);
+			}
+			else
+			{
+				Label first = sequences.get(seq).get(0);
+				int [] partitionData = labelToPartition.get(first);
+				if (partitionData == null)
+				{
+					partitionData = new int[]{labelToPartition.size(),0};labelToPartition.put(first, partitionData);
+				}
+				sequenceToPartition[seq] = partitionData[0];++partitionData[1];
+			}
+		final int [][] partitions = new int[labelToPartition.size()][];
+		for(int [] partitionData:labelToPartition.values())
+			partitions[partitionData[0]] = new int[partitionData[1]];
+		int [] partitionSize = new int[partitions.length];
+		for(seq=0;seq<sequences.size();++seq)
+			if (sequenceToPartition[seq] >= 0)
+			{
+				int partition = sequenceToPartition[seq];partitions[partition][partitionSize[partition]++]=seq;
+			}
+		sequenceToPartition = null;
+		// the largest partitions are handled first so that threads are not left waiting for a large partition at the end.
+		Arrays.sort(partitions, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] o1, int[] o2) {
+				return o2.length - o1.length;
+			}
+		});
+
+		final Contradiction [] contradictions = new Contradiction[partitions.length];
+		final AtomicInteger nextPartition = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(threadNumber);
+		try
+		{
+			CompletionService<Integer> runner = new ExecutorCompletionService<Integer>(executor);
+			for(int i=0;i<threadNumber;++i)
+				runner.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int partitionsBuilt = 0;
+						for(int partition=nextPartition.getAndIncrement();partition < partitions.length;partition=nextPartition.getAndIncrement())
+						{
+							contradictions[partition] = buildTree(partitions[partition]);++partitionsBuilt;
+						}
+						return partitionsBuilt;
+					}
+				});
+			for(int i=0;i<threadNumber;++i)
+				runner.take().get();// this will throw an exception if any of the tasks failed.
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to build a PTA, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		for(Contradiction contradiction:contradictions)
+			if (contradiction != null && (earliest == null || contradiction.sequence < earliest.sequence))
+				earliest = contradiction;
+
+		int sequencesToAdd = earliest == null?sequences.size():earliest.sequence;
+		synchronized (AbstractLearnerGraph.syncObj)
+		{
+			for(seq=0;seq<sequencesToAdd;++seq)
+				for(Node node=chainStart[seq];node != null;node=node.next)
+				{
+					node.vertex = coregraph.addVertex(node.parent == null?init:node.parent.vertex, node.accept, node.label);
+					node.vertex.setColour(null);node.vertex.setDepth(node.depth);
+				}
+		}
+		coregraph.learnerCache.invalidate();
+		sequences = null;chainStart = null;
+
+		if (earliest != null)
+		{
+			(earliest.node == null?init:earliest.node.vertex).setHighlight(true);
+			throw new IllegalArgumentException(earliest.message);
+		}
+		return coregraph;
+	}
+}
@@ -0,0 +1,30 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+/** Implemented by transition matrices that count modifications made to them and to their rows,
+ * so that overlays constructed over them can detect that they have been modified, see {@link TransitionMatrixOverlay}.
+ */
+public interface CountsModifications
+{
+	/** Returns the number of modifications made so far. */
+	int getModificationCount();
+
+	/** Records a modification of the matrix or of one of its rows. */
+	void modified();
+}
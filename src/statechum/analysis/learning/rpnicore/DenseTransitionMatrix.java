@@ -0,0 +1,792 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertID;
+import statechum.Label;
+import statechum.collections.ConvertibleToInt;
+import statechum.collections.MapWithSearch;
+import statechum.collections.OffHeapIntStore;
+
+/** A transition matrix of a deterministic graph, stored in arrays of integers rather than in a map of maps.
+ * This is used with {@link STATETREE#STATETREE_DENSE}.
+ * <p>
+ * Every state is given a slot when it is first seen, either as a key or as a target of a transition. Slots are found using
+ * an open-addressing hash table from values returned by {@link CmpVertex#toInt()} to slot numbers. A row of a state is
+ * an array of pairs (label, target slot), sorted by the values returned by {@link Label#toInt()}.
+ * The range of integer values of states is usually very wide, hence the slot table; labels are expected to be interned
+ * using {@link Transform.InternStringLabel} and are stored in an array indexed by their integer value.
+ * <p>
+ * Arrays of rows kept on the heap are never modified once stored, every change to a row stores a new array. Rows can hence be shared
+ * between a matrix and its copies, making it possible to copy a matrix by copying the arrays of references to rows
+ * without looking at the rows themselves, see {@link #DenseTransitionMatrix(DenseTransitionMatrix)}.
+ * <p>
+ * Rows returned by {@link #get(Object)} are views of the stored rows; rows created by {@link LearnerGraph#createNewRow()}
+ * keep their transitions in a tree map until they are added to a matrix, at which point they become views of
+ * the corresponding stored rows.
+ * <p>
+ * Where {@link Configuration#isOffHeapTransitions()} is set, rows are kept in an {@link OffHeapIntStore} rather than on the heap,
+ * so that for a large PTA the heap only holds states and a few integers per state. Each row is kept in a block of the store,
+ * which is updated in place when the row does not outgrow it and replaced with a larger one otherwise, the old block being
+ * freed for reuse. Every matrix has its own store, a copy only stores rows of states that are keys of the original.
+ */
+public class DenseTransitionMatrix extends AbstractMap<CmpVertex,Map<Label,CmpVertex>> implements MapWithSearch<CmpVertex,Map<Label,CmpVertex>>
+{
+	/** Marks an unused cell of the slot table, this is never returned by {@link CmpVertex#toInt()}. */
+	protected static final int FREE = Integer.MIN_VALUE;
+
+	/** A row without transitions. */
+	protected static final int [] EMPTY_ROW = new int[0];
+
+	/** States by slot. A state that is not a key of this map can still have a slot if it was a target of a transition. */
+	protected CmpVertex [] vertices;
+
+	/** Rows of states by slot, each containing pairs (label, target slot). Not used if rows are stored off the heap. */
+	protected int [][] rows;
+
+	/** Where rows are stored if they are not kept on the heap, null otherwise. */
+	protected final OffHeapIntStore store;
+
+	/** Positions in the store of rows by slot, used if rows are stored off the heap. */
+	protected long [] rowPositions;
+
+	/** Lengths of rows by slot, used if rows are stored off the heap. */
+	protected int [] rowLengths;
+
+	/** Capacities of blocks holding rows by slot, zero where there is no block, used if rows are stored off the heap. */
+	protected int [] rowCapacities;
+
+	/** Whether a slot corresponds to a key of this map. Rows of removed states are retained so that views of them obtained before remain valid. */
+	protected boolean [] isKey;
+
+	/** The number of slots used. */
+	protected int slotsUsed = 0;
+
+	/** The number of keys in this map. */
+	protected int keyCount = 0;
+
+	/** Open-addressing hash table from integer values of states to slots. */
+	protected int [] slotTableKeys, slotTableSlots;
+
+	/** Labels by their integer values. */
+	protected Label [] labels;
+
+	/** Constructs an empty matrix with rows stored on the heap.
+	 *
+	 * @param stateNumber the expected number of states.
+	 */
+	public DenseTransitionMatrix(int stateNumber)
+	{
+		this(stateNumber,null);
+	}
+
+	/** Constructs an empty matrix.
+	 *
+	 * @param stateNumber the expected number of states.
+	 * @param offHeapStore where to store rows, null to store them on the heap.
+	 */
+	public DenseTransitionMatrix(int stateNumber, OffHeapIntStore offHeapStore)
+	{
+		int capacity = Math.max(16, stateNumber);
+		store = offHeapStore;
+		vertices = new CmpVertex[capacity];isKey = new boolean[capacity];
+		if (store == null)
+			rows = new int[capacity][];
+		else
+		{
+			rowPositions = new long[capacity];rowLengths = new int[capacity];rowCapacities = new int[capacity];
+		}
+		createSlotTable(capacity);
+		labels = new Label[16];
+	}
+
+	/** Constructs a copy of the supplied matrix, sharing rows with it where they are kept on the heap.
+	 * Rows returned from a copy are views of the copy hence modifications to either matrix do not affect the other one.
+	 * Rows kept off the heap are copied into a new store, leaving out those of states that are not keys.
+	 *
+	 * @param from matrix to copy
+	 */
+	public DenseTransitionMatrix(DenseTransitionMatrix from)
+	{
+		store = from.store == null? null:from.store.emptyCopy();
+		vertices = from.vertices.clone();isKey = from.isKey.clone();
+		if (store == null)
+			rows = from.rows.clone();
+		else
+		{
+			int capacity = from.rowPositions.length;
+			rowPositions = new long[capacity];rowLengths = new int[capacity];rowCapacities = new int[capacity];
+			for(int slot=0;slot<from.slotsUsed;++slot)
+				if (from.isKey[slot] && from.rowLengths[slot] > 0)
+					setRow(slot, from.row(slot));
+		}
+		slotsUsed = from.slotsUsed;keyCount = from.keyCount;
+		slotTableKeys = from.slotTableKeys.clone();slotTableSlots = from.slotTableSlots.clone();
+		labels = from.labels.clone();
+	}
+
+	/** Determines whether a graph built using the supplied configuration can have its transition matrix constructed by copying that of the supplied graph.
+	 *
+	 * @param from the graph to copy
+	 * @param conf configuration of the copy.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean canShare(AbstractLearnerGraph from, Configuration conf)
+	{
+		return conf.getTransitionMatrixImplType() == STATETREE.STATETREE_DENSE && !conf.isLearnerCloneGraph() &&
+				from instanceof LearnerGraph && from.transitionMatrix instanceof DenseTransitionMatrix;
+	}
+
+	protected void createSlotTable(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 8))*4;// at most half full
+		slotTableKeys = new int[size];Arrays.fill(slotTableKeys, FREE);slotTableSlots = new int[size];
+	}
+
+	protected static int hash(int value)
+	{
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** Returns the slot of a state with the supplied integer value, -1 if there is none. */
+	protected int lookupSlot(int value)
+	{
+		int mask = slotTableKeys.length-1, pos = hash(value) & mask;
+		while(slotTableKeys[pos] != FREE)
+		{
+			if (slotTableKeys[pos] == value)
+				return slotTableSlots[pos];
+			pos = (pos+1) & mask;
+		}
+		return -1;
+	}
+
+	protected void addToSlotTable(int value, int slot)
+	{
+		int mask = slotTableKeys.length-1, pos = hash(value) & mask;
+		while(slotTableKeys[pos] != FREE)
+			pos = (pos+1) & mask;
+		slotTableKeys[pos] = value;slotTableSlots[pos] = slot;
+	}
+
+	/** Returns the slot of the supplied key, -1 if it does not have one. */
+	protected int slotOf(Object key)
+	{
+		if (!(key instanceof ConvertibleToInt))
+			return -1;
+		return lookupSlot( ((ConvertibleToInt)key).toInt() );
+	}
+
+	/** Returns the slot of the supplied state, giving it a new one if needed. */
+	protected int obtainSlot(CmpVertex vertex)
+	{
+		int value = vertex.toInt();
+		int slot = lookupSlot(value);
+		if (slot < 0)
+		{
+			if (slotsUsed == vertices.length)
+			{
+				int newCapacity = vertices.length*2;
+				vertices = Arrays.copyOf(vertices, newCapacity);isKey = Arrays.copyOf(isKey, newCapacity);
+				if (store == null)
+					rows = Arrays.copyOf(rows, newCapacity);
+				else
+				{
+					rowPositions = Arrays.copyOf(rowPositions, newCapacity);rowLengths = Arrays.copyOf(rowLengths, newCapacity);
+					rowCapacities = Arrays.copyOf(rowCapacities, newCapacity);
+				}
+			}
+			if (slotsUsed*2 >= slotTableKeys.length)
+			{// rebuild the slot table
+				createSlotTable(slotTableKeys.length);
+				for(int i=0;i<slotsUsed;++i)
+					addToSlotTable(vertices[i].toInt(), i);
+			}
+			slot = slotsUsed++;vertices[slot]=vertex;
+			addToSlotTable(value, slot);
+		}
+		return slot;
+	}
+
+	/** Returns the integer value of the supplied label, recording the label so that it can be returned when rows are iterated through. */
+	protected int obtainLabel(Label label)
+	{
+		int value = label.toInt();
+		if (value < 0)
+			throw new IllegalArgumentException("label "+label+" has a negative integer value");
+		if (value >= labels.length)
+			labels = Arrays.copyOf(labels, Math.max(value+1, labels.length*2));
+		if (labels[value] == null)
+			labels[value] = label;
+		return value;
+	}
+
+	/** Returns the row of the state with the supplied slot. If rows are stored off the heap, this is a copy. */
+	protected int [] row(int slot)
+	{
+		if (store == null)
+			return rows[slot];
+		return store.get(rowPositions[slot], rowLengths[slot]);
+	}
+
+	/** Stores the row of the state with the supplied slot; the array should not be modified afterwards.
+	 * Off the heap, the row is written over the previous one if it fits in its block.
+	 */
+	protected void setRow(int slot, int [] row)
+	{
+		if (store == null)
+			rows[slot] = row;
+		else
+		{
+			if (row.length > rowCapacities[slot])
+			{
+				if (rowCapacities[slot] > 0)
+					store.free(rowPositions[slot], rowCapacities[slot]);
+				rowCapacities[slot] = OffHeapIntStore.capacityFor(row.length);
+				rowPositions[slot] = store.allocate(rowCapacities[slot]);
+			}
+			store.set(rowPositions[slot], row);rowLengths[slot] = row.length;
+		}
+	}
+
+	/** Replaces an element of the row of the state with the supplied slot. */
+	protected void setRowElement(int slot, int position, int value)
+	{
+		if (store == null)
+		{
+			int [] newRow = rows[slot].clone();newRow[position] = value;rows[slot] = newRow;
+		}
+		else
+			store.set(rowPositions[slot]+position, value);
+	}
+
+	/** Returns the number of integers in the row of the state with the supplied slot. */
+	protected int rowLength(int slot)
+	{
+		return store == null? rows[slot].length:rowLengths[slot];
+	}
+
+	/** Returns an element of the row of the state with the supplied slot. */
+	protected int rowElement(int slot, int position)
+	{
+		return store == null? rows[slot][position]:store.get(rowPositions[slot]+position);
+	}
+
+	/** Returns the position of the pair with the supplied label in the row of the state with the supplied slot, or <i>-(insertion point)-1</i> if there is none. */
+	protected int findLabel(int slot, int label)
+	{
+		int low = 0, high = rowLength(slot)/2-1;
+		while(low <= high)
+		{
+			int mid = (low+high) >>> 1;
+			int midLabel = rowElement(slot, 2*mid);
+			if (midLabel < label)
+				low = mid+1;
+			else
+			if (midLabel > label)
+				high = mid-1;
+			else
+				return mid;
+		}
+		return -(low+1);
+	}
+
+	/** Converts transitions in the supplied map to an array of pairs (label, target slot), sorted by label. */
+	protected int [] encodeRow(Map<Label,CmpVertex> row)
+	{
+		if (row.isEmpty())
+			return EMPTY_ROW;
+		long [] pairs = new long[row.size()];int i=0;
+		for(Map.Entry<Label,CmpVertex> transition:row.entrySet())
+			pairs[i++]=((long)obtainLabel(transition.getKey()) << 32) | obtainSlot(transition.getValue());
+		Arrays.sort(pairs);
+		int [] result = new int[2*pairs.length];
+		for(i=0;i<pairs.length;++i)
+		{
+			result[2*i]=(int)(pairs[i] >>> 32);result[2*i+1]=(int)pairs[i];
+		}
+		return result;
+	}
+
+	/** Returns a copy of a row that will not be affected by subsequent changes to this matrix. */
+	protected Map<Label,CmpVertex> detachedRow(int slot)
+	{
+		Map<Label,CmpVertex> result = new TreeMap<Label,CmpVertex>();
+		int [] row = row(slot);
+		for(int i=0;i<row.length;i+=2)
+			result.put(labels[row[i]], vertices[row[i+1]]);
+		return result;
+	}
+
+	@Override
+	public Map<Label, CmpVertex> get(Object key)
+	{
+		int slot = slotOf(key);
+		if (slot < 0 || !isKey[slot])
+			return null;
+		return new DenseRow(this,slot);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		int slot = slotOf(key);
+		return slot >= 0 && isKey[slot];
+	}
+
+	@Override
+	public Map<Label, CmpVertex> put(CmpVertex key, Map<Label, CmpVertex> value)
+	{
+        if (key == null)
+            throw new IllegalArgumentException("key cannot be null for DenseTransitionMatrix");
+        if (value == null)
+            throw new IllegalArgumentException("value cannot be null for DenseTransitionMatrix");
+		int slot = obtainSlot(key);
+		vertices[slot] = key;// replaces a state that was previously only seen as a target of a transition.
+		Map<Label,CmpVertex> previous = null;
+		if (isKey[slot])
+			previous = detachedRow(slot);
+		else
+		{
+			isKey[slot] = true;++keyCount;
+		}
+
+		DenseRow denseRow = value instanceof DenseRow? (DenseRow)value:null;
+		if (denseRow != null && denseRow.matrix == null)
+		{// a newly-created row, bind it to this matrix.
+			setRow(slot, encodeRow(denseRow.pending));
+			denseRow.matrix = this;denseRow.slot = slot;denseRow.pending = null;
+		}
+		else
+		if (denseRow == null || denseRow.matrix != this || denseRow.slot != slot)
+			setRow(slot, encodeRow(value));
+		return previous;
+	}
+
+	@Override
+	public Map<Label, CmpVertex> remove(Object key)
+	{
+		int slot = slotOf(key);
+		if (slot < 0 || !isKey[slot])
+			return null;
+		isKey[slot] = false;--keyCount;
+		return new DenseRow(this,slot);
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill(vertices, 0, slotsUsed, null);Arrays.fill(isKey, 0, slotsUsed, false);
+		if (store == null)
+			Arrays.fill(rows, 0, slotsUsed, null);
+		else
+		{
+			for(int slot=0;slot<slotsUsed;++slot)
+				if (rowCapacities[slot] > 0)
+					store.free(rowPositions[slot], rowCapacities[slot]);
+			Arrays.fill(rowLengths, 0, slotsUsed, 0);Arrays.fill(rowCapacities, 0, slotsUsed, 0);
+		}
+		Arrays.fill(slotTableKeys, FREE);
+		slotsUsed = 0;keyCount = 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return keyCount;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keyCount == 0;
+	}
+
+	@Override
+	public CmpVertex findElementById(VertID id)
+	{
+		int slot = slotOf(id);
+		if (slot < 0 || !isKey[slot])
+			return null;
+		return vertices[slot];
+	}
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> getTreeEntrySet()
+	{
+		return new TreeMap<CmpVertex,Map<Label,CmpVertex>>(this).entrySet();
+	}
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> getPotentiallyOrderedEntrySet(boolean ordered)
+	{
+		if (ordered)
+			return getTreeEntrySet();
+		return entrySet();
+	}
+
+	@Override
+	public Set<CmpVertex> getPotentiallyOrderedKeySet(boolean ordered)
+	{
+		if (ordered)
+			return new TreeSet<CmpVertex>(keySet());
+		return keySet();
+	}
+
+	/** Iterates through states in the order they were given slots. */
+	protected class DenseMatrixIterator implements Iterator<Map.Entry<CmpVertex,Map<Label,CmpVertex>>>
+	{
+		/** The next slot to consider. */
+		protected int nextSlot = 0;
+
+		/** The slot returned last, -1 if none was returned or it was removed. */
+		protected int lastSlot = -1;
+
+		public DenseMatrixIterator()
+		{
+			advance();
+		}
+
+		protected void advance()
+		{
+			while(nextSlot < slotsUsed && !isKey[nextSlot])
+				++nextSlot;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return nextSlot < slotsUsed;
+		}
+
+		@Override
+		public Map.Entry<CmpVertex, Map<Label, CmpVertex>> next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			final int slot = nextSlot++;lastSlot = slot;advance();
+			return new Map.Entry<CmpVertex, Map<Label, CmpVertex>>() {
+				Map<Label,CmpVertex> value = new DenseRow(DenseTransitionMatrix.this,slot);
+
+				@Override
+				public CmpVertex getKey()
+				{
+					return vertices[slot];
+				}
+
+				@Override
+				public Map<Label, CmpVertex> getValue()
+				{
+					return value;
+				}
+
+				@Override
+				public Map<Label, CmpVertex> setValue(Map<Label, CmpVertex> newValue)
+				{
+					Map<Label,CmpVertex> previous = put(vertices[slot],newValue);value = get(vertices[slot]);
+					return previous;
+				}
+
+				@Override
+				public boolean equals(Object o)
+				{
+					if (!(o instanceof Map.Entry))
+						return false;
+					Map.Entry<?,?> other = (Map.Entry<?,?>)o;
+					return getKey().equals(other.getKey()) && value.equals(other.getValue());
+				}
+
+				@Override
+				public int hashCode()
+				{
+					return getKey().hashCode() ^ value.hashCode();
+				}
+
+				@Override
+				public String toString()
+				{
+					return getKey()+"="+value;
+				}
+			};
+		}
+
+		@Override
+		public void remove()
+		{
+			if (lastSlot < 0)
+				throw new IllegalStateException("next was not yet called or was already called");
+			isKey[lastSlot] = false;--keyCount;lastSlot = -1;// slots do not move hence the iterator remains valid
+		}
+	}
+
+	protected Set<Map.Entry<CmpVertex,Map<Label,CmpVertex>>> entrySet = null;
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> entrySet()
+	{
+		if (entrySet == null)
+			entrySet = new AbstractSet<Map.Entry<CmpVertex,Map<Label,CmpVertex>>>() {
+
+				@Override
+				public Iterator<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> iterator()
+				{
+					return new DenseMatrixIterator();
+				}
+
+				@Override
+				public int size()
+				{
+					return keyCount;
+				}
+			};
+		return entrySet;
+	}
+
+	/** A row of a dense transition matrix. Until it is added to a matrix, transitions are stored in a tree map;
+	 * once added, this is a view of the row of the corresponding state.
+	 */
+	public static class DenseRow extends AbstractMap<Label,CmpVertex>
+	{
+		/** The matrix this row belongs to, null if it has not yet been added to one. */
+		protected DenseTransitionMatrix matrix;
+
+		/** The slot of the state this row belongs to. */
+		protected int slot;
+
+		/** Transitions of a row that does not yet belong to a matrix. */
+		protected Map<Label,CmpVertex> pending;
+
+		/** Constructs a row that does not belong to a matrix. */
+		public DenseRow()
+		{
+			pending = new TreeMap<Label,CmpVertex>();
+		}
+
+		protected DenseRow(DenseTransitionMatrix m, int s)
+		{
+			matrix = m;slot = s;
+		}
+
+		@Override
+		public CmpVertex get(Object key)
+		{
+			if (matrix == null)
+				return pending.get(key);
+			if (!(key instanceof Label))
+				return null;
+			int pos = matrix.findLabel(slot, ((Label)key).toInt());
+			return pos < 0? null:matrix.vertices[matrix.rowElement(slot, 2*pos+1)];
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return get(key) != null;
+		}
+
+		@Override
+		public int size()
+		{
+			if (matrix == null)
+				return pending.size();
+			return matrix.rowLength(slot)/2;
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return size() == 0;
+		}
+
+		@Override
+		public CmpVertex put(Label key, CmpVertex value)
+		{
+			if (matrix == null)
+				return pending.put(key, value);
+			int label = matrix.obtainLabel(key), target = matrix.obtainSlot(value);
+			int pos = matrix.findLabel(slot, label);
+			if (pos >= 0)
+			{
+				CmpVertex previous = matrix.vertices[matrix.rowElement(slot, 2*pos+1)];
+				matrix.setRowElement(slot, 2*pos+1, target);
+				return previous;
+			}
+			int [] row = matrix.row(slot);
+			pos = -pos-1;
+			int [] newRow = new int[row.length+2];
+			System.arraycopy(row, 0, newRow, 0, 2*pos);
+			newRow[2*pos] = label;newRow[2*pos+1] = target;
+			System.arraycopy(row, 2*pos, newRow, 2*pos+2, row.length-2*pos);
+			matrix.setRow(slot, newRow);
+			return null;
+		}
+
+		@Override
+		public CmpVertex remove(Object key)
+		{
+			if (matrix == null)
+				return pending.remove(key);
+			if (!(key instanceof Label))
+				return null;
+			int pos = matrix.findLabel(slot, ((Label)key).toInt());
+			if (pos < 0)
+				return null;
+			CmpVertex previous = matrix.vertices[matrix.rowElement(slot, 2*pos+1)];
+			removeAt(pos);
+			return previous;
+		}
+
+		/** Removes the pair at the supplied position from the row of this state. */
+		protected void removeAt(int pos)
+		{
+			int [] row = matrix.row(slot);
+			if (row.length == 2)
+				matrix.setRow(slot, EMPTY_ROW);
+			else
+			{
+				int [] newRow = new int[row.length-2];
+				System.arraycopy(row, 0, newRow, 0, 2*pos);
+				System.arraycopy(row, 2*pos+2, newRow, 2*pos, row.length-2*pos-2);
+				matrix.setRow(slot, newRow);
+			}
+		}
+
+		@Override
+		public void clear()
+		{
+			if (matrix == null)
+				pending.clear();
+			else
+				matrix.setRow(slot, EMPTY_ROW);
+		}
+
+		@Override
+		public Set<Map.Entry<Label, CmpVertex>> entrySet()
+		{
+			if (matrix == null)
+				return pending.entrySet();
+			return new AbstractSet<Map.Entry<Label,CmpVertex>>() {
+
+				@Override
+				public Iterator<Map.Entry<Label, CmpVertex>> iterator()
+				{
+					return new DenseRowIterator();
+				}
+
+				@Override
+				public int size()
+				{
+					return DenseRow.this.size();
+				}
+			};
+		}
+
+		/** Iterates through the row of a state; since stored rows are never modified, the iterator goes through the row that was stored when the iterator was created. */
+		protected class DenseRowIterator implements Iterator<Map.Entry<Label,CmpVertex>>
+		{
+			protected final int [] row = matrix.row(slot);
+
+			/** The position of the next pair to return. */
+			protected int nextPos = 0;
+
+			/** The label returned last, null if none was returned or it was removed. */
+			protected Label lastLabel = null;
+
+			@Override
+			public boolean hasNext()
+			{
+				return nextPos < row.length/2;
+			}
+
+			@Override
+			public Map.Entry<Label, CmpVertex> next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				final Label label = matrix.labels[row[2*nextPos]];
+				final CmpVertex target = matrix.vertices[row[2*nextPos+1]];
+				++nextPos;lastLabel = label;
+				return new Map.Entry<Label,CmpVertex>() {
+					CmpVertex value = target;
+
+					@Override
+					public Label getKey()
+					{
+						return label;
+					}
+
+					@Override
+					public CmpVertex getValue()
+					{
+						return value;
+					}
+
+					@Override
+					public CmpVertex setValue(CmpVertex newValue)
+					{
+						CmpVertex previous = put(label, newValue);value = newValue;
+						return previous;
+					}
+
+					@Override
+					public boolean equals(Object o)
+					{
+						if (!(o instanceof Map.Entry))
+							return false;
+						Map.Entry<?,?> other = (Map.Entry<?,?>)o;
+						return label.equals(other.getKey()) && value.equals(other.getValue());
+					}
+
+					@Override
+					public int hashCode()
+					{
+						return label.hashCode() ^ value.hashCode();
+					}
+
+					@Override
+					public String toString()
+					{
+						return label+"="+value;
+					}
+				};
+			}
+
+			@Override
+			public void remove()
+			{
+				if (lastLabel == null)
+					throw new IllegalStateException("next was not yet called or was already called");
+				DenseRow.this.remove(lastLabel);lastLabel = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Solves a sparse system of equations <em>Ax=b</em> using preconditioned BiCGSTAB, without a need for a native library.
+ * The matrix is supplied in the compressed-column form used by {@link LSolver} and is converted to the compressed-row one,
+ * so that multiplication of it by a vector can be split between threads by rows. Vector operations are split between threads
+ * in the same way; the preconditioner is either the inverse of the diagonal of <em>A</em> (Jacobi), applied by multiple threads,
+ * or an incomplete LU factorisation with no fill-in (ILU(0)), applied by a single thread.
+ * <p>
+ * Unlike UMFPACK, this solver produces an approximate solution and may fail to converge where <em>A</em> is singular or
+ * far from diagonally-dominant, in which case {@link IllegalArgumentException} is thrown. Systems of equations built for
+ * computation of compatibility scores of pairs of states are usually diagonally-dominant.
+ */
+public class IterativeSolver
+{
+	/** The dimension of the matrix. */
+	protected final int size;
+
+	/** Matrix in the compressed-row form: row pointers, column numbers and values. */
+	protected final int [] rowStart, column;
+	protected final double [] value;
+
+	/** Positions of diagonal elements in <em>value</em>, for each row. */
+	protected final int [] diagonal;
+
+	/** Whether to use ILU(0) rather than Jacobi preconditioner. */
+	protected final boolean useILU;
+
+	/** For Jacobi, inverses of diagonal elements; for ILU, the values of the factorisation, <em>L</em> having unit diagonal. */
+	protected double [] preconditioner;
+
+	protected final int threadNumber;
+
+	/** Systems smaller than this are solved in a single thread because splitting the work would cost more than doing it. */
+	public static final int minSizeForThreads = 4096;
+
+	/** Converts the supplied matrix in the compressed-column form into the compressed-row one and builds the preconditioner.
+	 *
+	 * @param Ap column pointers
+	 * @param Ai row numbers of non-zero elements
+	 * @param Ax values of non-zero elements
+	 * @param threads the number of threads to use
+	 * @param ilu whether to use ILU(0) as a preconditioner rather than Jacobi.
+	 * @throws IllegalArgumentException if any of the diagonal elements is zero, either in the matrix or in its ILU factorisation.
+	 */
+	public IterativeSolver(int [] Ap, int [] Ai, double [] Ax, int threads, boolean ilu)
+	{
+		size = Ap.length-1;useILU = ilu;threadNumber = size < minSizeForThreads?1:Math.max(1, threads);
+		int nz = Ap[size];
+		rowStart = new int[size+1];column = new int[nz];value = new double[nz];diagonal = new int[size];
+		for(int i=0;i<nz;++i)
+			rowStart[Ai[i]+1]++;
+		for(int row=0;row<size;++row)
+			rowStart[row+1]+=rowStart[row];
+		int [] nextInRow = new int[size];System.arraycopy(rowStart, 0, nextInRow, 0, size);
+		for(int i=0;i<size;++i) diagonal[i]=-1;
+		for(int col=0;col<size;++col)
+			for(int i=Ap[col];i<Ap[col+1];++i)
+			{// since columns are visited in order, column numbers in each row are sorted.
+				int row = Ai[i], pos = nextInRow[row]++;
+				column[pos]=col;value[pos]=Ax[i];
+				if (row == col) diagonal[row]=pos;
+			}
+		for(int row=0;row<size;++row)
+			if (diagonal[row] < 0 || value[diagonal[row]] == 0)
+				throw new IllegalArgumentException("zero diagonal element in row "+row);
+
+		if (useILU)
+			buildILU();
+		else
+		{
+			preconditioner = new double[size];
+			for(int row=0;row<size;++row)
+				preconditioner[row]=1./value[diagonal[row]];
+		}
+	}
+
+	/** Computes ILU(0), which has the same structure of non-zero elements as the matrix itself. */
+	protected void buildILU()
+	{
+		preconditioner = value.clone();
+		int [] positionInRow = new int[size];for(int i=0;i<size;++i) positionInRow[i]=-1;
+		for(int row=0;row<size;++row)
+		{
+			for(int k=rowStart[row];k<rowStart[row+1];++k)
+				positionInRow[column[k]]=k;
+			for(int k=rowStart[row];k<diagonal[row];++k)
+			{// elements of L in this row, in the order of columns.
+				int col = column[k];
+				double multiplier = preconditioner[k]/preconditioner[diagonal[col]];preconditioner[k]=multiplier;
+				for(int j=diagonal[col]+1;j<rowStart[col+1];++j)
+				{// elements of U in row col
+					int pos = positionInRow[column[j]];
+					if (pos >= 0)
+						preconditioner[pos]-=multiplier*preconditioner[j];
+				}
+			}
+			for(int k=rowStart[row];k<rowStart[row+1];++k)
+				positionInRow[column[k]]=-1;
+			if (preconditioner[diagonal[row]] == 0)
+				throw new IllegalArgumentException("zero pivot in the incomplete factorisation in row "+row);
+		}
+	}
+
+	/** An operation on a range of rows, returning a partial sum (such as that of a dot product) or zero. */
+	protected static abstract class RangeOperation
+	{
+		public abstract double apply(int from, int to);
+	}
+
+	protected ExecutorService executor = null;
+
+	/** Performs the supplied operation on all rows, splitting them between threads, and returns the sum of partial results.
+	 * Partial results are added in the order of ranges, hence the outcome does not depend on the order in which threads complete.
+	 */
+	protected double perform(final RangeOperation operation)
+	{
+		if (executor == null)
+			return operation.apply(0, size);
+
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(threadNumber);
+		for(int i=0;i<threadNumber;++i)
+		{
+			final int from = (int)((long)size*i/threadNumber), to = (int)((long)size*(i+1)/threadNumber);
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					return operation.apply(from, to);
+				}
+			});
+		}
+		double result = 0;
+		try
+		{
+			for(Future<Double> outcome:executor.invokeAll(tasks))
+				result+=outcome.get().doubleValue();
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		return result;
+	}
+
+	/** Computes <em>result = Ax</em>. */
+	protected void multiply(final double [] x, final double [] result)
+	{
+		perform(new RangeOperation() {
+			@Override
+			public double apply(int from, int to) {
+				for(int row=from;row<to;++row)
+				{
+					double sum = 0;
+					for(int k=rowStart[row];k<rowStart[row+1];++k)
+						sum+=value[k]*x[column[k]];
+					result[row]=sum;
+				}
+				return 0;
+			}
+		});
+	}
+
+	protected double dot(final double [] a, final double [] b)
+	{
+		return perform(new RangeOperation() {
+			@Override
+			public double apply(int from, int to) {
+				double sum = 0;
+				for(int i=from;i<to;++i)
+					sum+=a[i]*b[i];
+				return sum;
+			}
+		});
+	}
+
+	/** Computes <em>result = M<sup>-1</sup>v</em> where <em>M</em> is the preconditioner. */
+	protected void precondition(final double [] v, final double [] result)
+	{
+		if (useILU)
+		{
+			for(int row=0;row<size;++row)
+			{// forward substitution with L
+				double sum = v[row];
+				for(int k=rowStart[row];k<diagonal[row];++k)
+					sum-=preconditioner[k]*result[column[k]];
+				result[row]=sum;
+			}
+			for(int row=size-1;row>=0;--row)
+			{// backward substitution with U
+				double sum = result[row];
+				for(int k=diagonal[row]+1;k<rowStart[row+1];++k)
+					sum-=preconditioner[k]*result[column[k]];
+				result[row]=sum/preconditioner[diagonal[row]];
+			}
+		}
+		else
+			perform(new RangeOperation() {
+				@Override
+				public double apply(int from, int to) {
+					for(int i=from;i<to;++i)
+						result[i]=preconditioner[i]*v[i];
+					return 0;
+				}
+			});
+	}
+
+	/** Computes <em>r = b-Ax</em> and returns the square of the norm of <em>r</em>. */
+	protected double residual(final double [] b, final double [] x, final double [] r)
+	{
+		multiply(x,r);
+		return perform(new RangeOperation() {
+			@Override
+			public double apply(int from, int to) {
+				double sum = 0;
+				for(int i=from;i<to;++i)
+				{
+					r[i]=b[i]-r[i];sum+=r[i]*r[i];
+				}
+				return sum;
+			}
+		});
+	}
+
+	/** Solves <em>Ax=b</em>, starting from the values in <em>x</em>.
+	 *
+	 * @param b the right-hand side
+	 * @param x initial approximation of the solution, replaced with the solution.
+	 * @param tolerance the iterations stop when the norm of the residual is below the norm of b multiplied by this value.
+	 * @param maxIterations the maximal number of iterations.
+	 * @return the number of iterations performed.
+	 * @throws IllegalArgumentException if the solution is not found within the supplied number of iterations.
+	 */
+	public int solve(final double [] b, final double [] x, double tolerance, int maxIterations)
+	{
+		if (b.length != size || x.length != size)
+			throw new IllegalArgumentException("inconsistent dimension of a matrix");
+		if (threadNumber > 1)
+			executor = Executors.newFixedThreadPool(threadNumber);
+		try
+		{
+			return bicgstab(b,x,tolerance,maxIterations);
+		}
+		finally
+		{
+			if (executor != null)
+			{
+				executor.shutdown();executor = null;
+			}
+		}
+	}
+
+	protected int bicgstab(final double [] b, final double [] x, double tolerance, int maxIterations)
+	{
+		final double [] r = new double[size], rHat = new double[size], p = new double[size], v = new double[size],
+				y = new double[size], s = new double[size], z = new double[size], t = new double[size];
+		final double bound = tolerance*tolerance*Math.max(dot(b,b), Double.MIN_NORMAL);// squared, to compare with squares of norms.
+		double residualNorm = residual(b,x,r);
+		int iteration = 0;
+		boolean restart = true;
+		double rho = 1, alpha = 1, omega = 1;
+		while(true)
+		{
+			if (residualNorm <= bound)
+			{// the residual computed by the recurrence may drift from the true one, hence check the true one before stopping.
+				double trueNorm = residual(b,x,r);
+				if (trueNorm <= bound)
+					break;
+				residualNorm = trueNorm;restart = true;
+			}
+			if (iteration++ >= maxIterations)
+				throw new IllegalArgumentException("iterative solver failed to converge after "+maxIterations+" iterations, relative residual is "+Math.sqrt(residualNorm/dot(b,b)));
+			if (restart)
+			{// (re)start from the current approximation
+				System.arraycopy(r, 0, rHat, 0, size);
+				for(int i=0;i<size;++i) { p[i]=0;v[i]=0; }
+				rho = 1;alpha = 1;omega = 1;restart = false;
+			}
+			double rhoNew = dot(rHat,r);
+			if (rhoNew == 0)
+			{
+				restart = true;residualNorm = residual(b,x,r);continue;
+			}
+			final double beta = (rhoNew/rho)*(alpha/omega), omegaCurrent = omega;
+			perform(new RangeOperation() {
+				@Override
+				public double apply(int from, int to) {
+					for(int i=from;i<to;++i)
+						p[i]=r[i]+beta*(p[i]-omegaCurrent*v[i]);
+					return 0;
+				}
+			});
+			precondition(p,y);multiply(y,v);
+			double rHatV = dot(rHat,v);
+			if (rHatV == 0)
+			{
+				restart = true;residualNorm = residual(b,x,r);continue;
+			}
+			final double alphaCurrent = rhoNew/rHatV;alpha = alphaCurrent;
+			double sNorm = perform(new RangeOperation() {
+				@Override
+				public double apply(int from, int to) {
+					double sum = 0;
+					for(int i=from;i<to;++i)
+					{
+						x[i]+=alphaCurrent*y[i];s[i]=r[i]-alphaCurrent*v[i];sum+=s[i]*s[i];
+					}
+					return sum;
+				}
+			});
+			if (sNorm <= bound)
+			{
+				residualNorm = sNorm;continue;
+			}
+			precondition(s,z);multiply(z,t);
+			double tt = dot(t,t);
+			final double omegaNew = tt == 0?0:dot(t,s)/tt;omega = omegaNew;
+			residualNorm = perform(new RangeOperation() {
+				@Override
+				public double apply(int from, int to) {
+					double sum = 0;
+					for(int i=from;i<to;++i)
+					{
+						x[i]+=omegaNew*z[i];r[i]=s[i]-omegaNew*t[i];sum+=r[i]*r[i];
+					}
+					return sum;
+				}
+			});
+			rho = rhoNew;
+			if (omegaNew == 0)
+				restart = true;
+		}
+		return iteration;
+	}
+}
@@ -17,6 +17,7 @@
  */
 package statechum.analysis.learning.rpnicore;
 
+import statechum.Configuration;
 import statechum.GlobalConfiguration;
 import statechum.GlobalConfiguration.G_PROPERTIES;
 import statechum.analysis.learning.experiments.ExperimentRunner;
@@ -435,6 +436,49 @@ public class LSolver
 			solveUsingColt();
 	}
 
+	/** Solves the system of equations using the solver chosen in the supplied configuration.
+	 * 
+	 * @param threads the number of threads to use
+	 * @param config determines the solver to use and parameters of iterative solvers.
+	 * 
+	 * Throws IllegalArgumentException of the matrix is singular or an iterative solver fails to converge.
+	 */
+	public void solve(int threads, Configuration config)
+	{
+		switch(config.getLinearSolver())
+		{
+		case LINEARSOLVER_DEFAULT:
+			solve(threads);break;
+		case LINEARSOLVER_EXTERNAL:
+			if (!solveExternally(threads))
+				throw new IllegalArgumentException("the external solver failed to solve a system of equations");
+			break;
+		case LINEARSOLVER_COLT:
+			solveUsingColt();break;
+		case LINEARSOLVER_ITERATIVE_JACOBI:
+			solveIteratively(threads, false, config.getLinearSolverTolerance(), config.getLinearSolverMaxIterations());break;
+		case LINEARSOLVER_ITERATIVE_ILU:
+			solveIteratively(threads, true, config.getLinearSolverTolerance(), config.getLinearSolverMaxIterations());break;
+		default:
+			throw new IllegalArgumentException("solver "+config.getLinearSolver()+" is not currently supported");
+		}
+	}
+	
+	/** Solves the system using {@link IterativeSolver}, which does not need a native library and uses multiple threads
+	 * for large systems.
+	 * 
+	 * @param threads the number of threads to use
+	 * @param ilu whether to use an incomplete LU factorisation as a preconditioner rather than the diagonal of the matrix.
+	 * @param tolerance the norm of the residual relative to that of <em>b</em> at which iterations stop.
+	 * @param maxIterations the maximal number of iterations, IllegalArgumentException is thrown if the solution is not found by then.
+	 * @return the number of iterations performed.
+	 */
+	public int solveIteratively(int threads, boolean ilu, double tolerance, int maxIterations)
+	{
+		for(int i=0;i<j_x.length;++i) j_x[i]=0;
+		return new IterativeSolver(j_Ap, j_Ai, j_Ax, threads, ilu).solve(j_b, j_x, tolerance, maxIterations);
+	}
+	
 	/** Solves the system using Colt, to be used only as a fallback when external solver is
 	 * not available. Justification: construction of matrices is optimized for the 
 	 * external solver, hence we spend time building them in conformance to the specific
@@ -0,0 +1,575 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Translates LTL formulae into automata without running ltl2ba. Formulae use the syntax of ltl2ba,
+ * that is, <em>[]</em>, <em>&lt;&gt;</em>, <em>X</em>, <em>U</em>, <em>V</em>, <em>!</em>, <em>&amp;&amp;</em>,
+ * <em>||</em>, <em>-&gt;</em>, <em>&lt;-&gt;</em>, <em>true</em> and <em>false</em>.
+ * <p>
+ * The translation is based on formula progression: a state of an automaton is a formula in negation normal form
+ * and a transition with a label leads to a formula which has to hold for the rest of a trace after this label.
+ * As in the rest of LTL_to_ba, exactly one label of an alphabet is true at every step.
+ * States from which no infinite trace can be constructed are removed.
+ * For safety properties (those without <em>U</em> in their negation normal form), all states of the outcome are accept-states
+ * and the automaton accepts exactly the traces satisfying a formula; states of automata built from other formulae are
+ * marked as reject-states where an eventuality is still pending, which makes {@link LTL_to_ba#ltlToBA} reject them the way it
+ * rejects non-safety automata produced by ltl2ba.
+ */
+public class LTLTranslator
+{
+	public enum KIND { TRUE, FALSE, ATOM, NOTATOM, AND, OR, NEXT, UNTIL, RELEASE }
+
+	/** An LTL formula in negation normal form. Conjunctions and disjunctions are stored as sorted sets of operands
+	 * so that formulae which only differ by the order of operands or by nesting of the same operator are the same.
+	 * Formulae are compared using their textual representation, which is also valid input to ltl2ba.
+	 */
+	public static final class Formula implements Comparable<Formula>
+	{
+		public final KIND kind;
+
+		/** Name of an atom, only used for ATOM and NOTATOM. */
+		public final String name;
+
+		/** Index of the label corresponding to an atom, -1 if not known. */
+		final int label;
+
+		final Formula [] args;
+
+		/** Whether this formula contains an eventuality. */
+		final boolean containsUntil;
+
+		private final String text;
+
+		Formula(KIND k, String atomName, int atomLabel, Formula [] arguments)
+		{
+			kind = k;name = atomName;label = atomLabel;args = arguments;
+			boolean until = kind == KIND.UNTIL;
+			StringBuilder textBuilder = new StringBuilder();
+			switch(kind)
+			{
+			case TRUE:
+				textBuilder.append("true");break;
+			case FALSE:
+				textBuilder.append("false");break;
+			case ATOM:
+				textBuilder.append(name);break;
+			case NOTATOM:
+				textBuilder.append('!');textBuilder.append(name);break;
+			case NEXT:
+				textBuilder.append("X ");textBuilder.append(args[0].text);break;
+			default:
+				String separator = kind == KIND.AND?" && ":kind == KIND.OR?" || ":kind == KIND.UNTIL?" U ":" V ";
+				textBuilder.append('(');
+				for(int i=0;i<args.length;++i)
+				{
+					if (i > 0) textBuilder.append(separator);
+					textBuilder.append(args[i].text);
+				}
+				textBuilder.append(')');
+			}
+			if (args != null)
+				for(Formula f:args) until |= f.containsUntil;
+			containsUntil = until;text = textBuilder.toString();
+		}
+
+		@Override
+		public int compareTo(Formula o) {
+			return text.compareTo(o.text);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Formula))
+				return false;
+			return text.equals(((Formula)obj).text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+
+		/** Adds names of all atoms used in this formula to the supplied collection. */
+		public void collectAtoms(Collection<String> atoms)
+		{
+			if (kind == KIND.ATOM || kind == KIND.NOTATOM)
+				atoms.add(name);
+			else
+				if (args != null)
+					for(Formula f:args) f.collectAtoms(atoms);
+		}
+	}
+
+	public static final Formula TRUE = new Formula(KIND.TRUE,null,-1,null), FALSE = new Formula(KIND.FALSE,null,-1,null);
+
+	public static Formula next(Formula f)
+	{
+		if (f.kind == KIND.TRUE || f.kind == KIND.FALSE)
+			return f;
+		return new Formula(KIND.NEXT,null,-1,new Formula[]{f});
+	}
+
+	public static Formula until(Formula a, Formula b)
+	{
+		if (b.kind == KIND.TRUE || b.kind == KIND.FALSE || a.kind == KIND.FALSE || a.equals(b))
+			return b;
+		return new Formula(KIND.UNTIL,null,-1,new Formula[]{a,b});
+	}
+
+	public static Formula release(Formula a, Formula b)
+	{
+		if (b.kind == KIND.TRUE || b.kind == KIND.FALSE || a.kind == KIND.TRUE || a.equals(b))
+			return b;
+		return new Formula(KIND.RELEASE,null,-1,new Formula[]{a,b});
+	}
+
+	public static Formula and(Formula a, Formula b)
+	{
+		return junction(KIND.AND, Arrays.asList(new Formula[]{a,b}));
+	}
+
+	public static Formula or(Formula a, Formula b)
+	{
+		return junction(KIND.OR, Arrays.asList(new Formula[]{a,b}));
+	}
+
+	/** Constructs a conjunction or a disjunction of the supplied formulae, simplifying it where possible.
+	 * Since exactly one label is true at every step, a conjunction of different atoms is false
+	 * and a disjunction of negations of different atoms is true.
+	 */
+	public static Formula junction(KIND kind, Collection<Formula> operands)
+	{
+		assert kind == KIND.AND || kind == KIND.OR;
+		Formula unit = kind == KIND.AND?TRUE:FALSE, zero = kind == KIND.AND?FALSE:TRUE;
+		KIND positive = kind == KIND.AND?KIND.ATOM:KIND.NOTATOM, negative = kind == KIND.AND?KIND.NOTATOM:KIND.ATOM;
+		Set<Formula> result = new TreeSet<Formula>();
+		List<Formula> toAdd = new LinkedList<Formula>(operands);
+		while(!toAdd.isEmpty())
+		{
+			Formula f = toAdd.remove(0);
+			if (f.kind == kind)
+				toAdd.addAll(Arrays.asList(f.args));
+			else
+			if (f.kind == zero.kind)
+				return zero;
+			else
+			if (f.kind != unit.kind)
+				result.add(f);
+		}
+
+		String positiveAtom = null;
+		Set<String> negativeAtoms = new TreeSet<String>();
+		for(Formula f:result)
+			if (f.kind == positive)
+			{
+				if (positiveAtom != null && !positiveAtom.equals(f.name))
+					return zero;
+				positiveAtom = f.name;
+			}
+			else
+				if (f.kind == negative)
+					negativeAtoms.add(f.name);
+		if (positiveAtom != null)
+		{
+			if (negativeAtoms.contains(positiveAtom))
+				return zero;
+			// where an atom is known to hold, negations of other atoms are implied by it.
+			List<Formula> implied = new LinkedList<Formula>();
+			for(Formula f:result)
+				if (f.kind == negative) implied.add(f);
+			result.removeAll(implied);
+		}
+
+		if (result.isEmpty())
+			return unit;
+		if (result.size() == 1)
+			return result.iterator().next();
+		return new Formula(kind,null,-1,result.toArray(new Formula[result.size()]));
+	}
+
+	/** Computes a formula which has to hold after the supplied label is observed, given that the supplied formula holds before it. */
+	public static Formula progress(Formula f, int label)
+	{
+		switch(f.kind)
+		{
+		case TRUE:
+		case FALSE:
+			return f;
+		case ATOM:
+			return f.label == label?TRUE:FALSE;
+		case NOTATOM:
+			return f.label == label?FALSE:TRUE;
+		case NEXT:
+			return f.args[0];
+		case AND:
+		case OR:
+		{
+			List<Formula> outcome = new ArrayList<Formula>(f.args.length);
+			for(Formula arg:f.args) outcome.add(progress(arg,label));
+			return junction(f.kind,outcome);
+		}
+		case UNTIL:
+			return or(progress(f.args[1],label),and(progress(f.args[0],label),f));
+		case RELEASE:
+			return and(progress(f.args[1],label),or(progress(f.args[0],label),f));
+		default:
+			throw new IllegalArgumentException("unexpected formula "+f);
+		}
+	}
+
+	/** Replaces names of atoms with indices of labels.
+	 *
+	 * @param f formula to process
+	 * @param atomToLabel map from names of atoms to labels.
+	 * @return formula where every atom refers to a label.
+	 * @throws IllegalArgumentException if an atom does not correspond to any label.
+	 */
+	public static Formula resolve(Formula f, Map<String,Integer> atomToLabel)
+	{
+		switch(f.kind)
+		{
+		case TRUE:
+		case FALSE:
+			return f;
+		case ATOM:
+		case NOTATOM:
+		{
+			Integer label = atomToLabel.get(f.name);
+			if (label == null)
+				throw new IllegalArgumentException("unrecognised label "+f.name);
+			return new Formula(f.kind,f.name,label.intValue(),null);
+		}
+		case NEXT:
+			return next(resolve(f.args[0],atomToLabel));
+		case UNTIL:
+			return until(resolve(f.args[0],atomToLabel),resolve(f.args[1],atomToLabel));
+		case RELEASE:
+			return release(resolve(f.args[0],atomToLabel),resolve(f.args[1],atomToLabel));
+		default:
+		{
+			List<Formula> outcome = new ArrayList<Formula>(f.args.length);
+			for(Formula arg:f.args) outcome.add(resolve(arg,atomToLabel));
+			return junction(f.kind,outcome);
+		}
+		}
+	}
+
+	/** An automaton with states numbered from zero, where transitions are given as
+	 * an array, indexed by a state and a label, of target states.
+	 */
+	public static class Automaton
+	{
+		public final int initial;
+		public final boolean [] accept;
+
+		/** For each state and each label, target states or null if there are none. */
+		public final int [][][] transitions;
+
+		public Automaton(int init, boolean [] acceptStates, int [][][] transitionsArg)
+		{
+			initial = init;accept = acceptStates;transitions = transitionsArg;
+		}
+	}
+
+	/** Builds an automaton from the supplied formula.
+	 *
+	 * @param formula a formula where all atoms have been resolved by {@link #resolve}.
+	 * @param alphabetSize the number of labels.
+	 * @return an automaton where the initial state is state zero. If there are no traces satisfying the formula, the automaton has a single reject-state.
+	 */
+	public static Automaton translate(Formula formula, int alphabetSize)
+	{
+		List<Formula> states = new ArrayList<Formula>();
+		Map<Formula,Integer> stateToNumber = new HashMap<Formula,Integer>();
+		List<int[]> successors = new ArrayList<int[]>();
+		if (formula.kind != KIND.FALSE)
+		{
+			states.add(formula);stateToNumber.put(formula, 0);
+		}
+		for(int current=0;current < states.size();++current)
+		{
+			int [] row = new int[alphabetSize];
+			for(int label=0;label<alphabetSize;++label)
+			{
+				Formula target = progress(states.get(current),label);
+				if (target.kind == KIND.FALSE)
+					row[label]=-1;
+				else
+				{
+					Integer number = stateToNumber.get(target);
+					if (number == null)
+					{
+						number = states.size();states.add(target);stateToNumber.put(target, number);
+					}
+					row[label]=number.intValue();
+				}
+			}
+			successors.add(row);
+		}
+
+		// remove states from which no infinite traces can be constructed
+		boolean [] live = new boolean[states.size()];Arrays.fill(live, true);
+		boolean changed = true;
+		while(changed)
+		{
+			changed = false;
+			for(int state=0;state<states.size();++state)
+				if (live[state])
+				{
+					boolean hasSuccessor = false;
+					for(int target:successors.get(state))
+						if (target >= 0 && live[target])
+						{
+							hasSuccessor = true;break;
+						}
+					if (!hasSuccessor)
+					{
+						live[state]=false;changed = true;
+					}
+				}
+		}
+
+		if (states.isEmpty() || !live[0])
+			return new Automaton(0, new boolean[]{false}, new int[1][alphabetSize][]);
+
+		int [] newNumber = new int[states.size()];int liveStates = 0;
+		for(int state=0;state<states.size();++state)
+			newNumber[state] = live[state]?liveStates++:-1;
+		boolean [] accept = new boolean[liveStates];int [][][] transitions = new int[liveStates][alphabetSize][];
+		for(int state=0;state<states.size();++state)
+			if (live[state])
+			{
+				accept[newNumber[state]] = !states.get(state).containsUntil;
+				int [] row = successors.get(state);
+				for(int label=0;label<alphabetSize;++label)
+					if (row[label] >= 0 && live[row[label]])
+						transitions[newNumber[state]][label] = new int[]{newNumber[row[label]]};
+			}
+		return new Automaton(0,accept,transitions);
+	}
+
+	/** Parses a formula in the syntax of ltl2ba and converts it to negation normal form.
+	 * Precedence of operators from the lowest is <em>-&gt;</em> and <em>&lt;-&gt;</em>, then <em>||</em>,
+	 * <em>&amp;&amp;</em>, <em>U</em> and <em>V</em>, followed by unary operators.
+	 *
+	 * @param ltl formula to parse
+	 * @return the parsed formula.
+	 * @throws IllegalArgumentException if a formula cannot be parsed.
+	 */
+	public static Formula parse(String ltl)
+	{
+		return new Parser(ltl).parseFormula();
+	}
+
+	/** Parses formulae into negation normal form, pushing negations down to atoms as it goes. */
+	static class Parser
+	{
+		private final String text;
+		private int position = 0;
+		private String token = null;
+
+		Parser(String ltl)
+		{
+			text = ltl;nextToken();
+		}
+
+		private void throwException(String message)
+		{
+			throw new IllegalArgumentException("syntax error in LTL formula "+text+": "+message+" at position "+position);
+		}
+
+		private static final String [] symbols = new String[]{"<->","->","[]","<>","&&","||","!","(",")"};
+
+		private void nextToken()
+		{
+			while(position < text.length() && Character.isWhitespace(text.charAt(position)))
+				++position;
+			if (position >= text.length())
+			{
+				token = null;return;
+			}
+			for(String symbol:symbols)
+				if (text.startsWith(symbol, position))
+				{
+					token = symbol;position+=symbol.length();return;
+				}
+			int start = position;
+			while(position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_'))
+				++position;
+			if (start == position)
+				throwException("unexpected character "+text.charAt(position));
+			token = text.substring(start, position);
+		}
+
+		private boolean isWord(String t)
+		{
+			return t != null && (Character.isLetterOrDigit(t.charAt(0)) || t.charAt(0) == '_');
+		}
+
+		Formula parseFormula()
+		{
+			Node outcome = parseImplication();
+			if (token != null)
+				throwException("unexpected "+token);
+			return outcome.nnf(false);
+		}
+
+		private Node parseImplication()
+		{
+			Node left = parseOr();
+			if ("->".equals(token) || "<->".equals(token))
+			{
+				char op = token.equals("->")?'>':'=';nextToken();
+				return new Node(op,left,parseImplication());
+			}
+			return left;
+		}
+
+		private Node parseOr()
+		{
+			Node left = parseAnd();
+			while("||".equals(token))
+			{
+				nextToken();left = new Node('|',left,parseAnd());
+			}
+			return left;
+		}
+
+		private Node parseAnd()
+		{
+			Node left = parseBinaryTemporal();
+			while("&&".equals(token))
+			{
+				nextToken();left = new Node('&',left,parseBinaryTemporal());
+			}
+			return left;
+		}
+
+		private Node parseBinaryTemporal()
+		{
+			Node left = parseUnary();
+			if ("U".equals(token) || "V".equals(token))
+			{
+				char op = token.charAt(0);nextToken();
+				return new Node(op,left,parseBinaryTemporal());
+			}
+			return left;
+		}
+
+		private Node parseUnary()
+		{
+			if (token == null)
+				throwException("unexpected end of formula");
+			if (token.equals("!") || token.equals("X") || token.equals("[]") || token.equals("<>"))
+			{
+				char op = token.equals("[]")?'G':token.equals("<>")?'F':token.charAt(0);nextToken();
+				return new Node(op,parseUnary(),null);
+			}
+			if (token.equals("("))
+			{
+				nextToken();
+				Node outcome = parseImplication();
+				if (!")".equals(token))
+					throwException("missing closing bracket");
+				nextToken();
+				return outcome;
+			}
+			if (!isWord(token) || token.equals("U") || token.equals("V"))
+				throwException("unexpected "+token);
+			Node outcome = token.equals("true")?new Node('t',null,null):token.equals("false")?new Node('f',null,null):new Node(token);
+			nextToken();
+			return outcome;
+		}
+	}
+
+	/** A node of a parse tree. */
+	static class Node
+	{
+		final char op;
+		final Node left, right;
+		final String name;
+
+		Node(char operation, Node l, Node r)
+		{
+			op = operation;left = l;right = r;name = null;
+		}
+
+		Node(String atom)
+		{
+			op = 'a';left = null;right = null;name = atom;
+		}
+
+		/** Converts this node to negation normal form.
+		 *
+		 * @param neg whether the outcome should be negated.
+		 */
+		Formula nnf(boolean neg)
+		{
+			switch(op)
+			{
+			case 't':
+				return neg?FALSE:TRUE;
+			case 'f':
+				return neg?TRUE:FALSE;
+			case 'a':
+				return new Formula(neg?KIND.NOTATOM:KIND.ATOM,name,-1,null);
+			case '!':
+				return left.nnf(!neg);
+			case '&':
+				return neg?or(left.nnf(true),right.nnf(true)):and(left.nnf(false),right.nnf(false));
+			case '|':
+				return neg?and(left.nnf(true),right.nnf(true)):or(left.nnf(false),right.nnf(false));
+			case '>':
+				return neg?and(left.nnf(false),right.nnf(true)):or(left.nnf(true),right.nnf(false));
+			case '=':
+				return neg?
+						or(and(left.nnf(false),right.nnf(true)),and(left.nnf(true),right.nnf(false))):
+						or(and(left.nnf(false),right.nnf(false)),and(left.nnf(true),right.nnf(true)));
+			case 'X':
+				return next(left.nnf(neg));
+			case 'G':
+				return neg?until(TRUE,left.nnf(true)):release(FALSE,left.nnf(false));
+			case 'F':
+				return neg?release(FALSE,left.nnf(true)):until(TRUE,left.nnf(false));
+			case 'U':
+				return neg?release(left.nnf(true),right.nnf(true)):until(left.nnf(false),right.nnf(false));
+			case 'V':
+				return neg?until(left.nnf(true),right.nnf(true)):release(left.nnf(false),right.nnf(false));
+			default:
+				throw new IllegalArgumentException("unexpected operation "+op);
+			}
+		}
+	}
+}
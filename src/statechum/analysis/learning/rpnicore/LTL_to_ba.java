@@ -19,8 +19,12 @@
 package statechum.analysis.learning.rpnicore;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -703,6 +707,169 @@ public class LTL_to_ba {
 		parse(converterOutput.toString());
 	}
 
+	/** Translates a supplied ltl formula using {@link LTLTranslator}.
+	 * The outcome is stored in the internal matrix. 
+	 *
+	 * @param ltl formula to translate
+	 */
+	protected void runJavaLTL2BA(String ltl)
+	{
+		loadAutomaton(translateUsingJava(LTLTranslator.parse(ltl)));
+	}
+	
+	protected LTLTranslator.Automaton translateUsingJava(LTLTranslator.Formula formula)
+	{
+		Label [] labels = alphabet.keySet().toArray(new Label[alphabet.size()]);
+		Set<String> atoms = new TreeSet<String>();formula.collectAtoms(atoms);
+		Map<String,Integer> atomToLabel = new TreeMap<String,Integer>();
+		for(String atom:atoms)
+		{
+			int position = Arrays.binarySearch(labels, AbstractLearnerGraph.generateNewLabel(atom,config,converter));
+			if (position >= 0)
+				atomToLabel.put(atom, position);
+		}
+		return LTLTranslator.translate(LTLTranslator.resolve(formula, atomToLabel), labels.length);
+	}
+	
+	/** Adds states and transitions of the supplied automaton to the internal matrix, 
+	 * using labels of the current alphabet.
+	 */
+	protected void loadAutomaton(LTLTranslator.Automaton automaton)
+	{
+		Label [] labels = alphabet.keySet().toArray(new Label[alphabet.size()]);
+		CmpVertex [] vertices = new CmpVertex[automaton.accept.length];
+		for(int state=0;state<vertices.length;++state)
+			vertices[state] = addState((automaton.accept[state]?"accept_":"T0_")+(state == automaton.initial?initStateName:"S"+state)+"_"+vertexCounter);
+		for(int state=0;state<vertices.length;++state)
+		{
+			Map<Label,List<CmpVertex>> row = matrixFromLTL.transitionMatrix.get(vertices[state]);
+			for(int label=0;label<labels.length;++label)
+				if (automaton.transitions[state][label] != null)
+				{
+					List<CmpVertex> targetList = new LinkedList<CmpVertex>();
+					for(int target:automaton.transitions[state][label]) targetList.add(vertices[target]);
+					row.put(labels[label], targetList);
+				}
+		}
+		matrixFromLTL.setInit(vertices[automaton.initial]);
+	}
+	
+	/** Converts the part of the internal matrix reachable from its initial state into an automaton. */
+	protected LTLTranslator.Automaton automatonFromMatrix()
+	{
+		Map<Label,Integer> labelToNumber = new HashMap<Label,Integer>();
+		for(Label lbl:alphabet.keySet()) labelToNumber.put(lbl, labelToNumber.size());
+		Map<CmpVertex,Integer> vertexToNumber = new HashMap<CmpVertex,Integer>();
+		List<CmpVertex> vertices = new ArrayList<CmpVertex>();
+		vertices.add(matrixFromLTL.getInit());vertexToNumber.put(matrixFromLTL.getInit(), 0);
+		for(int current=0;current<vertices.size();++current)
+			for(List<CmpVertex> targets:matrixFromLTL.transitionMatrix.get(vertices.get(current)).values())
+				for(CmpVertex target:targets)
+					if (!vertexToNumber.containsKey(target))
+					{
+						vertexToNumber.put(target, vertices.size());vertices.add(target);
+					}
+		boolean [] accept = new boolean[vertices.size()];int [][][] transitions = new int[vertices.size()][labelToNumber.size()][];
+		for(int state=0;state<vertices.size();++state)
+		{
+			accept[state] = vertices.get(state).isAccept();
+			for(Entry<Label,List<CmpVertex>> entry:matrixFromLTL.transitionMatrix.get(vertices.get(state)).entrySet())
+			{
+				int [] targets = new int[entry.getValue().size()];int i=0;
+				for(CmpVertex target:entry.getValue()) targets[i++]=vertexToNumber.get(target);
+				transitions[state][labelToNumber.get(entry.getKey())] = targets;
+			}
+		}
+		return new LTLTranslator.Automaton(0, accept, transitions);
+	}
+
+	/** Automata built from LTL, keyed by the backend, the normalised formula and the alphabet. */
+	private static final LinkedHashMap<String,LTLTranslator.Automaton> automataCache = new LinkedHashMap<String,LTLTranslator.Automaton>(16,0.75f,true);
+	
+	public static void clearAutomataCache()
+	{
+		synchronized(automataCache)
+		{
+			automataCache.clear();
+		}
+	}
+	
+	/** Returns the number of automata in the cache. */
+	public static int getAutomataCacheSize()
+	{
+		synchronized(automataCache)
+		{
+			return automataCache.size();
+		}
+	}
+	
+	/** Builds an automaton for the supplied formula using the backend chosen in the configuration and stores it in the internal matrix.
+	 * Automata are cached, hence where the same formula (up to the order of operands of conjunctions/disjunctions, 
+	 * the use of brackets and derived operators) is translated again for the same alphabet, the cached automaton is used.
+	 * 
+	 * @param ltl formula to translate
+	 * @param pathTo_ltl2ba path to ltl2ba executable, if null the default path will be used.
+	 */
+	protected void buildAutomaton(String ltl, String pathTo_ltl2ba)
+	{
+		boolean useJava = config.getLtl2baBackend() == Configuration.LTL2BABACKEND.LTL2BA_JAVA;
+		LTLTranslator.Formula formula = null;
+		try
+		{
+			formula = LTLTranslator.parse(ltl);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			if (useJava)
+				throw ex;
+			// otherwise let ltl2ba report the problem with the formula, or deal with syntax we do not know about.
+		}
+		
+		String key = null;
+		if (formula != null && config.getLtl2baCacheSize() > 0)
+		{
+			StringBuilder keyBuilder = new StringBuilder();
+			keyBuilder.append(config.getLtl2baBackend());keyBuilder.append('\n');
+			if (!useJava) { keyBuilder.append(pathTo_ltl2ba);keyBuilder.append('\n'); }
+			keyBuilder.append(config.getLabelKind());keyBuilder.append('\n');
+			keyBuilder.append(formula);keyBuilder.append('\n');
+			for(Label lbl:alphabet.keySet()) { keyBuilder.append(lbl.toErlangTerm());keyBuilder.append(','); }
+			key = keyBuilder.toString();
+			LTLTranslator.Automaton cached = null;
+			synchronized(automataCache)
+			{
+				cached = automataCache.get(key);
+			}
+			if (cached != null)
+			{
+				loadAutomaton(cached);return;
+			}
+		}
+		
+		LTLTranslator.Automaton outcome = null;
+		if (useJava)
+		{
+			outcome = translateUsingJava(formula);loadAutomaton(outcome);
+		}
+		else
+		{
+			runLTL2BA(ltl,pathTo_ltl2ba);
+			if (key != null)
+				outcome = automatonFromMatrix();
+		}
+		
+		if (key != null)
+			synchronized(automataCache)
+			{
+				automataCache.put(key, outcome);
+				Iterator<String> keyIterator = automataCache.keySet().iterator();
+				while(automataCache.size() > config.getLtl2baCacheSize())
+				{
+					keyIterator.next();keyIterator.remove();
+				}
+			}
+	}
+	
 	/** Takes a collection of LTL formulae and builds the corresponding FSM,
 	 * assuming the properties are all safety ones.
 	 * 
@@ -711,7 +878,8 @@ public class LTL_to_ba {
 	 * such as "1", we need to be aware of the alphabet of an FSM being built. 
 	 * This information is extracted from the supplied graph.
 	 * @param invert if the ltl expression is to be inverted before passing it to ltl2ba.
-	 * @param pathTo_ltl2ba path to ltl2ba executable, if null the default path will be used.
+	 * @param pathTo_ltl2ba path to ltl2ba executable, if null the default path will be used. Ignored if the configuration 
+	 * chooses {@link Configuration.LTL2BABACKEND#LTL2BA_JAVA}.
 	 * @return false if there is no LTL to extract.
 	 * @throws IncompatibleStatesException 
 	 */
@@ -723,7 +891,7 @@ public class LTL_to_ba {
 		if (ltlString.length() == 0)
 			return false;
 		
-		runLTL2BA( (invert?"!":"")+"("+ltlString+")",pathTo_ltl2ba);
+		buildAutomaton( (invert?"!":"")+"("+ltlString+")",pathTo_ltl2ba);
 		for(CmpVertex v:matrixFromLTL.transitionMatrix.keySet())
 			if (!v.isAccept())
 				throw new IllegalArgumentException("not all states are accept-states");
@@ -35,6 +35,7 @@ import statechum.Configuration.STATETREE;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
 import statechum.DeterministicDirectedSparseGraph.VertexID;
 import statechum.DeterministicDirectedSparseGraph.VertID.VertKind;
+import statechum.JUConstants;
 import statechum.analysis.learning.PairScore;
 import statechum.analysis.learning.linear.Linear;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
@@ -44,6 +45,7 @@ import statechum.collections.ArrayMapWithSearch;
 import statechum.collections.ArrayMapWithSearchPos;
 import statechum.collections.HashMapWithSearch;
 import statechum.collections.MapWithSearch;
+import statechum.collections.OffHeapIntStore;
 import statechum.collections.TreeMapWithSearch;
 import statechum.model.testset.PTASequenceEngine.FSMAbstraction;
 import edu.uci.ics.jung.graph.Graph;
@@ -241,7 +243,39 @@ public class LearnerGraph extends AbstractLearnerGraph<CmpVertex,LearnerGraphCac
 	public LearnerGraph(AbstractLearnerGraph matrixND, Configuration argConfig)
 	{
 		super(argConfig);
-		AbstractLearnerGraph.copyGraphs(matrixND, this);
+		if (TransitionMatrixOverlay.canOverlay(matrixND, argConfig))
+			copyGraphSharingVertices((LearnerGraph)matrixND, new TransitionMatrixOverlay(((LearnerGraph)matrixND).transitionMatrix, this));
+		else
+		if (DenseTransitionMatrix.canShare(matrixND, argConfig))
+			copyGraphSharingVertices((LearnerGraph)matrixND, new DenseTransitionMatrix((DenseTransitionMatrix)matrixND.transitionMatrix));
+		else
+			AbstractLearnerGraph.copyGraphs(matrixND, this);
+	}
+
+	/** Does the same as {@link AbstractLearnerGraph#copyGraphs} for a configuration that does not clone vertices, 
+	 * except that the transition matrix is constructed by the caller, such as an overlay over the one of the supplied graph.
+	 * 
+	 * @param from the graph to copy.
+	 * @param matrix the transition matrix of the copy, with the same states and transitions as that of the supplied graph.
+	 */
+	protected void copyGraphSharingVertices(LearnerGraph from, MapWithSearch<CmpVertex,Map<Label,CmpVertex>> matrix)
+	{
+		initEmpty();
+		transitionMatrix = matrix;
+		vertNegativeID = from.vertNegativeID;vertPositiveID=from.vertPositiveID;
+		setName(from.getName());
+		setInit(from.getInit());
+		layoutOptions = from.layoutOptions.copy();
+
+		Map<CmpVertex,CmpVertex> identity = new HashMapWithSearch<CmpVertex,CmpVertex>(from.pairCompatibility.compatibility.size()+1);
+		for(Entry<CmpVertex,Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY>> entry:from.pairCompatibility.compatibility.entrySet())
+		{
+			identity.put(entry.getKey(), entry.getKey());
+			for(CmpVertex v:entry.getValue().keySet())
+				identity.put(v, v);
+		}
+		PairCompatibility.copyTo(from.pairCompatibility,pairCompatibility,identity);
+		learnerCache.invalidate();
 	}
 
 	/** Sometimes, we might wish to use a pre-set value for the maxScore. 
@@ -373,6 +407,10 @@ public class LearnerGraph extends AbstractLearnerGraph<CmpVertex,LearnerGraphCac
 	{
 		if (config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY)
 			return new ArrayMapWithSearchPos<Label, CmpVertex>();
+		if (config.getTransitionMatrixImplType() == STATETREE.STATETREE_DENSE)
+			return new DenseTransitionMatrix.DenseRow();
+		if (config.getTransitionMatrixImplType() == STATETREE.STATETREE_OVERLAY)
+			return new TransitionMatrixOverlay.CountedRow();
 		return new TreeMap<Label,CmpVertex>();// using TreeMap makes everything predictable
 	}
 
@@ -492,12 +530,18 @@ public class LearnerGraph extends AbstractLearnerGraph<CmpVertex,LearnerGraphCac
 		case STATETREE_LINKEDHASH:
 			outcome = new HashMapWithSearch<CmpVertex,Map<Label,CmpVertex>>(stateNumber); //TreeMap<CmpVertex, Map<Label, CmpVertex>>();
 			break;
+		case STATETREE_OVERLAY:// overlays are only created when graphs are copied
+			outcome = new TransitionMatrixOverlay.CountedMatrix(stateNumber);
+			break;
 		case STATETREE_ARRAY:
 			outcome = new ArrayMapWithSearch<CmpVertex,Map<Label,CmpVertex>>(stateNumber);
 			break;
 		case STATETREE_SLOWTREE:
 			outcome = new TreeMapWithSearch<CmpVertex,Map<Label,CmpVertex>>(stateNumber);
 			break;
+		case STATETREE_DENSE:
+			outcome = new DenseTransitionMatrix(stateNumber,config.isOffHeapTransitions()? new OffHeapIntStore(config.getOffHeapStorageDirectory()):null);
+			break;
 		}
 		return outcome;
 	}
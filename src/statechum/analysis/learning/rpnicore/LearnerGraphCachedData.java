@@ -18,7 +18,9 @@
 
 package statechum.analysis.learning.rpnicore;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
@@ -62,6 +64,64 @@ public class LearnerGraphCachedData extends CachedData<CmpVertex,LearnerGraphCac
         	mergedToHardFacts = value;
         }
         
+	/** After merging using {@link MergeStates}, the graph states were merged in. */
+	protected LearnerGraph mergedFrom = null;
+
+	/** After merging using {@link MergeStates}, states of either {@link #mergedFrom} or this graph which were removed by the merger or
+	 * whose transitions, acceptance or compatibility with other states differ between the two graphs. Used by {@link PairScoreCache}.
+	 */
+	protected Collection<CmpVertex> statesAffectedByMerge = null;
+
+	public LearnerGraph getMergedFrom()
+	{
+		return mergedFrom;
+	}
+
+	public Collection<CmpVertex> getStatesAffectedByMerge()
+	{
+		return statesAffectedByMerge;
+	}
+
+	/** Records the graph this one was obtained from by merging states and the states affected by the merger. */
+	public void setMergedFrom(LearnerGraph original, Collection<CmpVertex> affectedStates)
+	{
+		mergedFrom = original;statesAffectedByMerge = affectedStates;
+	}
+
+	/** The engine states of the graph were first numbered by, other engines share this numbering, see {@link #obtainMergeEngine(int)}. */
+	protected UnionFindMergeEngine firstMergeEngine = null;
+
+	/** Engines merging states of this graph that are not used by any thread. */
+	protected List<UnionFindMergeEngine> idleMergeEngines = null;
+
+	/** Returns an engine to merge states of this graph that no other thread is using. 
+	 * States are numbered once per graph and the numbering is shared by all engines; engines passed to 
+	 * {@link #releaseMergeEngine(UnionFindMergeEngine)} are reused, so that the forest of states is not allocated for every pair.
+	 * 
+	 * @param threads the number of threads the engine should use.
+	 */
+	public synchronized UnionFindMergeEngine obtainMergeEngine(int threads)
+	{
+		if (firstMergeEngine == null || !firstMergeEngine.matchesGraph())
+		{
+			firstMergeEngine = new UnionFindMergeEngine((LearnerGraph)coregraph, threads);idleMergeEngines = new ArrayList<UnionFindMergeEngine>();
+			return firstMergeEngine;
+		}
+		if (idleMergeEngines.isEmpty())
+			return new UnionFindMergeEngine(firstMergeEngine, threads);
+		UnionFindMergeEngine engine = idleMergeEngines.remove(idleMergeEngines.size()-1);engine.threadNumber = threads;
+		return engine;
+	}
+
+	/** Makes the supplied engine, obtained from {@link #obtainMergeEngine(int)}, available for reuse.
+	 * Engines numbering states differently from the current numbering, because the graph was modified while they were in use, are discarded. 
+	 */
+	public synchronized void releaseMergeEngine(UnionFindMergeEngine engine)
+	{
+		if (firstMergeEngine != null && engine.sharesNumberingWith(firstMergeEngine))
+			idleMergeEngines.add(engine);
+	}
+
 	/** The maximal score which can be returned by score computation routines. Has to be long if are prepared to handle a PTA with a million states. 
 	 */
 	protected long maxScore = -1;
@@ -76,6 +136,11 @@ public class LearnerGraphCachedData extends CachedData<CmpVertex,LearnerGraphCac
 		mergedStates = null;maxScore=-1;stateLearnt = null;
 		abstractStateToLabelPreviouslyChecked = null;
 		mergedToHardFacts=null;
+		mergedFrom = null;statesAffectedByMerge = null;
+		synchronized(this)
+		{
+			firstMergeEngine = null;idleMergeEngines = null;
+		}
 	}
 	
 	/** A map associating an abstract state and a set of transitions which have been evaluated from 
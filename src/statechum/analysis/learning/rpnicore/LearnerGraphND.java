@@ -245,6 +245,8 @@ public class LearnerGraphND extends AbstractLearnerGraph<List<CmpVertex>,Learner
 		switch(config.getTransitionMatrixImplType())
 		{
 		case STATETREE_LINKEDHASH:
+		case STATETREE_OVERLAY:// overlays are only used for deterministic graphs
+		case STATETREE_DENSE:// so are dense matrices
 			outcome = new HashMapWithSearch<CmpVertex,Map<Label,List<CmpVertex>>>(stateNumber); //TreeMap<CmpVertex, Map<Label, CmpVertex>>();
 			break;
 		case STATETREE_ARRAY:
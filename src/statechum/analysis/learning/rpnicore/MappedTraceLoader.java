@@ -0,0 +1,422 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import statechum.Configuration;
+import statechum.Label;
+import statechum.apps.QSMTool;
+import statechum.apps.QSMTool.TraceAdder;
+import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+import statechum.analysis.learning.rpnicore.Transform.InternStringLabel;
+import statechum.model.testset.PTASequenceEngine;
+import statechum.model.testset.PTASequenceSetAutomaton;
+
+/** Loads large collections of traces from text files, mapping them into memory rather than reading them through a <em>Reader</em>.
+ * Every line of a file is a trace, starting with {@link QSMTool#cmdPositive} or {@link QSMTool#cmdNegative} followed by labels separated by spaces,
+ * tabs or commas; empty lines and those starting with <em>#</em> are ignored.
+ * A file is split into chunks at line boundaries; chunks are tokenised by multiple threads and traces are passed to
+ * the receiver in the order they appear in a file, from the calling thread, as soon as each chunk is tokenised.
+ * This way, the memory needed to load a collection of traces does not depend on its size.
+ * <p>
+ * All threads share the same label converter, usually {@link InternStringLabel}; every thread keeps a small table of labels
+ * it has seen so that the converter, which is synchronized, is only consulted when a thread encounters a new label.
+ */
+public class MappedTraceLoader
+{
+	/** Receives notifications about the progress of loading. */
+	public interface LoadProgress
+	{
+		/** Called from the thread that started loading after each chunk has been passed to the receiver of traces. */
+		void chunkLoaded(LoadStatistics statistics);
+	}
+
+	/** The amount of data loaded and the time it took. */
+	public static class LoadStatistics
+	{
+		/** The total size of the file being loaded. */
+		public long bytesTotal;
+
+		public long bytesLoaded, traces, labels, chunks;
+
+		/** Time since loading started. */
+		public long nanoseconds;
+
+		public double getMegabytesPerSecond()
+		{
+			return nanoseconds == 0?0:(bytesLoaded/1048576.)/(nanoseconds/1e9);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d of %d bytes, %d traces, %d labels, %.1f MB/s", bytesLoaded,bytesTotal,traces,labels,getMegabytesPerSecond());
+		}
+	}
+
+	protected final Configuration config;
+	protected final ConvertALabel converter;
+	protected final int threadNumber;
+
+	/** The size of a chunk to be tokenised by a single thread, chunks are extended to the end of the line. */
+	protected int chunkSize = 32*1024*1024;
+
+	protected LoadProgress progress = null;
+
+	/** Constructs the loader.
+	 *
+	 * @param conf determines the kind of labels to construct.
+	 * @param conv converter to intern labels, a new instance of {@link InternStringLabel} if <em>null</em>.
+	 * @param threads the number of threads to tokenise traces.
+	 */
+	public MappedTraceLoader(Configuration conf, ConvertALabel conv, int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("the number of threads should be positive");
+		config = conf;converter = conv == null?new InternStringLabel():conv;threadNumber = threads;
+	}
+
+	public void setChunkSize(int size)
+	{
+		if (size < 1)
+			throw new IllegalArgumentException("chunk size should be positive");
+		chunkSize = size;
+	}
+
+	public void setProgress(LoadProgress observer)
+	{
+		progress = observer;
+	}
+
+	public ConvertALabel getConverter()
+	{
+		return converter;
+	}
+
+	/** Traces from a single chunk, stored as a single array of labels with positions where traces end. */
+	protected static class TokenisedChunk
+	{
+		Label [] labels = new Label[1024];
+		int labelNumber = 0;
+
+		int [] traceEnd = new int[64];
+		boolean [] positive = new boolean[64];
+		int traceNumber = 0;
+
+		long bytes;
+
+		void addLabel(Label label)
+		{
+			if (labelNumber == labels.length)
+				labels = Arrays.copyOf(labels, labels.length*2);
+			labels[labelNumber++]=label;
+		}
+
+		void endTrace(boolean accept)
+		{
+			if (traceNumber == traceEnd.length)
+			{
+				traceEnd = Arrays.copyOf(traceEnd, traceEnd.length*2);positive = Arrays.copyOf(positive, positive.length*2);
+			}
+			traceEnd[traceNumber]=labelNumber;positive[traceNumber++]=accept;
+		}
+	}
+
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Associates sequences of bytes with labels, so that labels seen by a thread many times are only constructed once. */
+	protected class ThreadLabelTable
+	{
+		private byte [][] keys = new byte[256][];
+		private Label [] values = new Label[256];
+		private int size = 0;
+
+		Label getLabel(MappedByteBuffer buffer, int from, int to)
+		{
+			int hash = 1;
+			for(int i=from;i<to;++i) hash = 31*hash+buffer.get(i);
+			int mask = keys.length-1, pos = (hash ^ (hash >>> 16)) & mask;
+			while(keys[pos] != null)
+			{
+				if (matches(keys[pos], buffer, from, to))
+					return values[pos];
+				pos = (pos+1) & mask;
+			}
+			byte [] key = new byte[to-from];
+			for(int i=from;i<to;++i) key[i-from]=buffer.get(i);
+			Label label = AbstractLearnerGraph.generateNewLabel(new String(key,UTF8), config, converter);
+			keys[pos]=key;values[pos]=label;
+			if (++size*2 > keys.length)
+				rehash();
+			return label;
+		}
+
+		private boolean matches(byte [] key, MappedByteBuffer buffer, int from, int to)
+		{
+			if (key.length != to-from)
+				return false;
+			for(int i=0;i<key.length;++i)
+				if (key[i] != buffer.get(from+i))
+					return false;
+			return true;
+		}
+
+		private void rehash()
+		{
+			byte [][] oldKeys = keys;Label [] oldValues = values;
+			keys = new byte[oldKeys.length*2][];values = new Label[oldKeys.length*2];
+			int mask = keys.length-1;
+			for(int i=0;i<oldKeys.length;++i)
+				if (oldKeys[i] != null)
+				{
+					int hash = 1;
+					for(byte b:oldKeys[i]) hash = 31*hash+b;
+					int pos = (hash ^ (hash >>> 16)) & mask;
+					while(keys[pos] != null) pos = (pos+1) & mask;
+					keys[pos]=oldKeys[i];values[pos]=oldValues[i];
+				}
+		}
+	}
+
+	protected static boolean isSeparator(byte b)
+	{
+		return b == ' ' || b == '\t' || b == ',' || b == '\r';
+	}
+
+	/** Tokenises the supplied region of a file.
+	 *
+	 * @param buffer contents of the region
+	 * @param offset the position of the region in a file, to report the position of errors
+	 * @param table labels seen by the thread doing the tokenisation.
+	 */
+	protected TokenisedChunk tokenise(MappedByteBuffer buffer, long offset, ThreadLabelTable table)
+	{
+		TokenisedChunk chunk = new TokenisedChunk();chunk.bytes = buffer.limit();
+		int pos = 0, limit = buffer.limit();
+		while(pos < limit)
+		{
+			while(pos < limit && isSeparator(buffer.get(pos))) ++pos;
+			if (pos < limit && buffer.get(pos) != '\n')
+			{
+				byte first = buffer.get(pos);
+				if (first == '#')
+					while(pos < limit && buffer.get(pos) != '\n') ++pos;
+				else
+				{
+					boolean accept = true;
+					if (first == '-') accept = false;
+					else
+						if (first != '+')
+							throw new IllegalArgumentException("a trace should start with either "+QSMTool.cmdPositive+" or "+QSMTool.cmdNegative+" at offset "+(offset+pos));
+					++pos;
+					while(pos < limit && buffer.get(pos) != '\n')
+					{
+						if (isSeparator(buffer.get(pos)))
+							++pos;
+						else
+						{
+							int start = pos;
+							while(pos < limit && buffer.get(pos) != '\n' && !isSeparator(buffer.get(pos))) ++pos;
+							chunk.addLabel(table.getLabel(buffer, start, pos));
+						}
+					}
+					chunk.endTrace(accept);
+				}
+			}
+			++pos;// skip the end of line
+		}
+		return chunk;
+	}
+
+	/** Computes positions where chunks start, the last element is the size of the file. Every chunk other than the last one ends with a new line. */
+	protected long [] computeChunkBoundaries(FileChannel channel, long size) throws IOException
+	{
+		List<Long> boundaries = new LinkedList<Long>();
+		long start = 0;
+		while(start < size)
+		{
+			boundaries.add(start);
+			long end = Math.min(size, start+chunkSize);
+			if (end < size)
+			{// look for the end of line
+				MappedByteBuffer tail = null;
+				boolean found = false;
+				while(!found && end < size)
+				{
+					int window = (int)Math.min(size-end,65536);
+					tail = channel.map(FileChannel.MapMode.READ_ONLY, end-1, window);
+					for(int i=0;i<window && !found;++i)
+						if (tail.get(i) == '\n')
+						{
+							end = end-1+i+1;found = true;
+						}
+					if (!found) end += window;
+				}
+			}
+			if (end-start > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("line starting at "+start+" is too long");
+			start = end;
+		}
+		long [] outcome = new long[boundaries.size()+1];
+		int i=0;for(Long pos:boundaries) outcome[i++]=pos;
+		outcome[i]=size;
+		return outcome;
+	}
+
+	/** Loads traces from the supplied file, passing them to the supplied receiver in the order they appear in the file.
+	 * Lists of labels passed to the receiver are views of the data of a chunk and should be copied if the receiver is to keep them.
+	 *
+	 * @param file file to load
+	 * @param receiver what to pass traces to.
+	 * @return statistics of loading.
+	 */
+	public LoadStatistics load(File file, TraceAdder receiver) throws IOException
+	{
+		final long startTime = System.nanoTime();
+		final LoadStatistics statistics = new LoadStatistics();
+		RandomAccessFile randomAccess = new RandomAccessFile(file, "r");
+		ExecutorService executor = null;
+		try
+		{
+			final FileChannel channel = randomAccess.getChannel();
+			statistics.bytesTotal = channel.size();
+			final long [] boundaries = computeChunkBoundaries(channel, statistics.bytesTotal);
+			final int chunkNumber = boundaries.length-1;
+			executor = Executors.newFixedThreadPool(threadNumber);
+			final ThreadLocal<ThreadLabelTable> tables = new ThreadLocal<ThreadLabelTable>() {
+				@Override
+				protected ThreadLabelTable initialValue() {
+					return new ThreadLabelTable();
+				}
+			};
+
+			// At most a few chunks are tokenised ahead of those being passed to the receiver, in order to limit the amount of memory used.
+			LinkedList<Future<TokenisedChunk>> outstanding = new LinkedList<Future<TokenisedChunk>>();
+			int nextChunk = 0;
+			while(nextChunk < chunkNumber || !outstanding.isEmpty())
+			{
+				while(nextChunk < chunkNumber && outstanding.size() < 2*threadNumber)
+				{
+					final int chunk = nextChunk++;
+					outstanding.add(executor.submit(new Callable<TokenisedChunk>() {
+						@Override
+						public TokenisedChunk call() throws IOException {
+							MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[chunk], boundaries[chunk+1]-boundaries[chunk]);
+							return tokenise(buffer, boundaries[chunk], tables.get());
+						}
+					}));
+				}
+
+				TokenisedChunk data = outstanding.removeFirst().get();
+				List<Label> labels = Arrays.asList(data.labels);
+				int traceStart = 0;
+				for(int i=0;i<data.traceNumber;++i)
+				{
+					receiver.addTrace(labels.subList(traceStart, data.traceEnd[i]), data.positive[i]);
+					traceStart = data.traceEnd[i];
+				}
+				statistics.bytesLoaded+=data.bytes;statistics.traces+=data.traceNumber;statistics.labels+=data.labelNumber;++statistics.chunks;
+				statistics.nanoseconds = System.nanoTime()-startTime;
+				if (progress != null)
+					progress.chunkLoaded(statistics);
+			}
+		}
+		catch(InterruptedException e)
+		{
+			statechum.Helper.throwUnchecked("interrupted while loading traces", e);
+		}
+		catch(ExecutionException e)
+		{
+			if (e.getCause() instanceof IllegalArgumentException)
+				throw (IllegalArgumentException)e.getCause();
+			statechum.Helper.throwUnchecked("failed to load traces", e.getCause());
+		}
+		finally
+		{
+			if (executor != null) executor.shutdownNow();
+			randomAccess.close();
+		}
+		return statistics;
+	}
+
+	/** Adds traces from the supplied file to the supplied graph, which should have been initialised with {@link LearnerGraph#initPTA()}.
+	 * Traces are added in the same way as {@link PathRoutines#augmentPTA(List, boolean, boolean, statechum.JUConstants)} does.
+	 */
+	public LoadStatistics loadIntoPTA(File file, final LearnerGraph graph) throws IOException
+	{
+		return load(file, new TraceAdder() {
+			@Override
+			public void addTrace(List<Label> trace, boolean positive) {
+				graph.paths.augmentPTA(trace, positive, false, null);
+			}
+		});
+	}
+
+	/** Marks the tail nodes of sequences as either accept or reject, so that {@link PathRoutines#augmentPTA(PTASequenceEngine)}
+	 * could build a PTA from an engine with both positive and negative sequences.
+	 */
+	public static class PositiveNegativeAutomaton extends PTASequenceSetAutomaton
+	{
+		private boolean acceptValue = true;
+
+		public void setAccept(boolean value)
+		{
+			acceptValue = value;
+		}
+
+		@Override
+		public Object getTheOnlyState() {
+			return acceptValue?Boolean.TRUE:Boolean.FALSE;
+		}
+
+		@Override
+		public boolean shouldBeReturned(Object elem) {
+			return elem != null && ((Boolean)elem).booleanValue();
+		}
+	}
+
+	/** Adds traces from the supplied file to a new engine, which can be used with {@link statechum.analysis.learning.RPNIUniversalLearner#init(PTASequenceEngine, int, int)}. */
+	public PTASequenceEngine loadIntoEngine(File file) throws IOException
+	{
+		final PTASequenceEngine engine = new PTASequenceEngine(config.getTransitionMatrixImplType() == Configuration.STATETREE.STATETREE_ARRAY);
+		final PositiveNegativeAutomaton automaton = new PositiveNegativeAutomaton();
+		engine.init(automaton);
+		load(file, new TraceAdder() {
+			@Override
+			public void addTrace(List<Label> trace, boolean positive) {
+				PTASequenceEngine.SequenceSet initSeq = engine.new SequenceSet();initSeq.setIdentity();automaton.setAccept(positive);
+				initSeq.crossWithSequence(trace);
+			}
+		});
+		return engine;
+	}
+}
@@ -161,6 +161,7 @@ public class MergeStates {
 		currentExplorationBoundary.add(origToNew.get(original.getInit()));
 		Map<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>,Boolean> visitedEqClasses = new ArrayMapWithSearch<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>,Boolean>();
 		Boolean trueValue = new Boolean(true);
+		Set<CmpVertex> affectedStates = new HashSet<CmpVertex>();
 		while(!currentExplorationBoundary.isEmpty())
 		{// In order to build a new transition diagram consisting of equivalence classes, I need to
 		 // navigate the existing transition diagram, in its entirety.
@@ -183,11 +184,29 @@ public class MergeStates {
 					if (GlobalConfiguration.getConfiguration().isAssertEnabled() && row.containsKey(entry.getKey()))
 						assert row.get(entry.getKey()) == nextClass.getMergedVertex();
 					row.put(entry.getKey(), nextClass.getMergedVertex());
+					if (nextClass.getStates().size() > 1)
+						affectedStates.add(current.getMergedVertex());// a transition to a merged state
 				}	
 		}
+		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:mergedVertices)
+			if (eqClass.getStates().size() > 1 || !result.transitionMatrix.containsKey(eqClass.getMergedVertex()))
+			{// states merged or no longer reachable, as well as those incompatible with them.
+				affectedStates.addAll(eqClass.getStates());affectedStates.add(eqClass.getMergedVertex());
+				for(CmpVertex v:eqClass.getStates())
+				{
+					Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY> compatibilityRow = original.pairCompatibility.compatibility.get(v);
+					if (compatibilityRow != null)
+						for(CmpVertex other:compatibilityRow.keySet())
+						{
+							AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> otherClass = origToNew.get(other);
+							affectedStates.add(otherClass == null? other:otherClass.getMergedVertex());
+						}
+				}
+			}
 		AMEquivalenceClass.populateCompatible(result, mergedVertices);
 		result.layoutOptions = original.layoutOptions.copy();
 		result.learnerCache.invalidate();result.learnerCache.setMergedStates(mergedVertices);result.learnerCache.mergedToHardFacts=mergedToHard;
+		result.learnerCache.setMergedFrom(original, affectedStates);
 		if (redVertex != null)
 			result.learnerCache.stateLearnt=origToNew.get(redVertex).getMergedVertex();
 		
@@ -248,13 +267,17 @@ public class MergeStates {
 		if (original.pairscores.computePairCompatibilityScore_internal(pair,mergedVertices) < 0)
 			throw new IllegalArgumentException("elements of the pair are incompatible");
 
+		Set<CmpVertex> affectedStates = new HashSet<CmpVertex>();
 		// make a loop
 		for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:original.transitionMatrix.entrySet())
 		{
 			for(Entry<Label,CmpVertex> rowEntry:entry.getValue().entrySet())
 				if (rowEntry.getValue() == pair.getQ())	
+				{
 					// the transition from entry.getKey() leads to the original blue state, record it to be rerouted.
 					result.transitionMatrix.get(entry.getKey()).put(rowEntry.getKey(), pair.getR());
+					affectedStates.add(entry.getKey());
+				}
 		}
 
 		Set<CmpVertex> ptaVerticesUsed = new HashSet<CmpVertex>();
@@ -267,6 +290,7 @@ public class MergeStates {
 			Map<Label,CmpVertex> resultRow = result.transitionMatrix.get(vert);// the row we'll update
 			if (mergedVertices.containsKey(vert))
 			{// there are some vertices to merge with this one.
+				affectedStates.add(vert);
 				inputsUsed.clear();inputsUsed.addAll(entry.getValue().keySet());// the first entry is either a "derivative" of a red state or a branch of PTA into which we are now merging more states.
 				for(CmpVertex toMerge:mergedVertices.get(vert))
 				{// for every input, I'll have a unique target state - this is a feature of PTA
@@ -305,6 +329,7 @@ public class MergeStates {
 					currentExplorationBoundary.offer(input_and_target.getValue());
 
 				result.transitionMatrix.remove(currentVert);// remove the vertex from the resulting transition table.
+				affectedStates.add(currentVert);
 			}
 		}
 		
@@ -314,7 +339,7 @@ public class MergeStates {
 			for(CmpVertex target:entry.getValue().values())
 				if (!result.transitionMatrix.containsKey(target))
 					throw new IllegalArgumentException("vertex "+target+" is not known in a transformed graph");
-		result.learnerCache.invalidate();
+		result.learnerCache.invalidate();result.learnerCache.setMergedFrom(original, affectedStates);
 		return result;
 	}
 	
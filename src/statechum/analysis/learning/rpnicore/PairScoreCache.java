@@ -0,0 +1,300 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ * 
+ * This file is part of StateChum
+ * 
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.JUConstants;
+import statechum.Label;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.rpnicore.PairScoreComputation.ScoreComputationCallback;
+import statechum.collections.ArrayMapWithSearch;
+import statechum.collections.HashMapWithSearch;
+
+/** Retains scores of red-blue pairs between successive calls to 
+ * {@link PairScoreComputation#chooseStatePairs(PairScoreComputation.RedNodeSelectionProcedure, PairScoreCache)}, 
+ * so that after a merge only pairs affected by it have to be scored again.
+ * <p>
+ * Scores of pairs are determined by the parts of a graph reachable from the two states of a pair. 
+ * Rows of the transition matrix, accept-conditions and incompatibility relation of every state are recorded, together with
+ * the sources of transitions leading to every state. Where a graph is the outcome of merging states of the graph scores were
+ * last computed for, only states reported by {@link MergeStates} as affected by the merge
+ * (see {@link LearnerGraphCachedData#getStatesAffectedByMerge()}) are considered modified. Otherwise, the details of every state
+ * are compared to those recorded and states where any of these changed are considered modified, so that the outcome is the same
+ * as if all scores were computed from scratch regardless of how a new graph was obtained (augmented with new traces or restarted).
+ * All states from which modified states can be reached are subsequently invalidated and scores are only retained 
+ * for pairs where neither state was invalidated. 
+ * <p>
+ * Only raw scores are cached. Where a score computation callback is provided, it is invoked on every pair because 
+ * its outcome may depend on the whole of a graph. For the same reason scores computed in KTAILS and ONLYOVERRIDE modes 
+ * are never cached.
+ */
+public class PairScoreCache 
+{
+	/** What is recorded about every state in order to determine whether it was modified. */
+	protected static class StateDetails
+	{
+		final boolean accept;
+		final Map<Label,CmpVertex> row;
+		final Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY> compatibility;
+		
+		StateDetails(CmpVertex vertex, Map<Label,CmpVertex> transitions, Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY> compatibilityRow)
+		{
+			accept = vertex.isAccept();
+			row = new HashMap<Label,CmpVertex>(transitions);
+			compatibility = compatibilityRow == null? null:new HashMap<CmpVertex,JUConstants.PAIRCOMPATIBILITY>(compatibilityRow);
+		}
+		
+		/** Returns true if the supplied details of a state are the same as those recorded. */
+		boolean sameAs(CmpVertex vertex, Map<Label,CmpVertex> transitions, Map<CmpVertex,JUConstants.PAIRCOMPATIBILITY> compatibilityRow)
+		{
+			if (accept != vertex.isAccept() || !sameMap(row,transitions))
+				return false;
+			if (compatibility == null || compatibilityRow == null)
+				return (compatibility == null || compatibility.isEmpty()) && (compatibilityRow == null || compatibilityRow.isEmpty());
+			return sameMap(compatibility,compatibilityRow);
+		}
+	}
+	
+	/** Compares maps of different types, relying on the equality of their elements rather than on <em>equals</em> of the maps themselves. */ 
+	protected static <K,V> boolean sameMap(Map<K,V> recorded, Map<K,V> current)
+	{
+		if (recorded.size() != current.size())
+			return false;
+		for(Entry<K,V> entry:current.entrySet())
+		{
+			V value = recorded.get(entry.getKey());
+			if (value == null || !value.equals(entry.getValue()))
+				return false;
+		}
+		return true;
+	}
+	
+	/** Details of states of the graph which scores were computed for. */
+	protected Map<CmpVertex,StateDetails> recordedStates = null;
+	
+	/** Sources of transitions leading to every state in {@link #recordedStates}, a source is included once for every transition. */
+	protected Map<CmpVertex,List<CmpVertex>> predecessors = null;
+	
+	/** The graph scores were last computed for. */
+	protected LearnerGraph recordedGraph = null;
+	
+	/** Scores computed so far, without any adjustment by a score computation callback. */
+	protected Map<StatePair,PairScore> scores = new HashMap<StatePair,PairScore>();
+	
+	/** The configuration used to compute scores in the cache. If a graph with a different configuration is supplied, the cache is cleared. */ 
+	protected Configuration scoreConfiguration = null;
+	
+	/** The number of pairs rescored since the last call to {@link #updateFor(LearnerGraph)}, only used for statistics. */
+	protected int pairsScored = 0;
+	
+	/** The number of pairs whose scores were reused since the last call to {@link #updateFor(LearnerGraph)}, only used for statistics. */ 
+	protected int pairsReused = 0;
+	
+	public int getPairsScored()
+	{
+		return pairsScored;
+	}
+	
+	public int getPairsReused()
+	{
+		return pairsReused;
+	}
+	
+	/** Discards all recorded scores. */
+	public void clear()
+	{
+		recordedStates = null;predecessors = null;recordedGraph = null;scores.clear();scoreConfiguration = null;
+	}
+	
+	/** Compares the supplied graph to the one scores were last computed for and discards scores of pairs 
+	 * that may be affected by the difference between them. Upon completion, the supplied graph is
+	 * recorded as the one scores refer to.
+	 * 
+	 * @param graph graph to compute scores for.
+	 */
+	public void updateFor(LearnerGraph graph)
+	{
+		pairsScored = 0;pairsReused = 0;
+		if (scoreConfiguration == null || !scoreConfiguration.equals(graph.config))
+		{
+			clear();scoreConfiguration = graph.config.copy();
+		}
+		
+		if (recordedStates == null)
+		{// nothing is recorded yet
+			recordedStates = new HashMap<CmpVertex,StateDetails>(graph.getStateNumber());
+			predecessors = new HashMap<CmpVertex,List<CmpVertex>>(graph.getStateNumber());
+			for(CmpVertex vertex:graph.transitionMatrix.keySet())
+				recordState(graph, vertex);
+		}
+		else
+		{
+			Collection<CmpVertex> modified = null;
+			if (graph != recordedGraph && graph.learnerCache.getMergedFrom() == recordedGraph && graph.learnerCache.getStatesAffectedByMerge() != null)
+				modified = graph.learnerCache.getStatesAffectedByMerge();
+			else
+			{
+				modified = new LinkedList<CmpVertex>();
+				for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:graph.transitionMatrix.entrySet())
+				{
+					CmpVertex vertex = entry.getKey();
+					StateDetails details = recordedStates.get(vertex);
+					if (details == null || !details.sameAs(vertex, entry.getValue(), graph.pairCompatibility.compatibility.get(vertex)))
+						modified.add(vertex);
+				}
+				for(CmpVertex vertex:recordedStates.keySet())
+					if (!graph.transitionMatrix.containsKey(vertex))
+						modified.add(vertex);
+			}
+			if (!modified.isEmpty())
+				invalidate(graph, modified);
+		}
+		recordedGraph = graph;
+	}
+	
+	/** Replaces recorded details of the supplied state with those from the supplied graph, removing them if the state is not in the graph,
+	 * and updates predecessors of states it has transitions to.
+	 */
+	protected void recordState(LearnerGraph graph, CmpVertex vertex)
+	{
+		StateDetails previous = recordedStates.remove(vertex);
+		if (previous != null)
+			for(CmpVertex target:previous.row.values())
+			{
+				List<CmpVertex> sources = predecessors.get(target);
+				if (sources != null)
+					sources.remove(vertex);
+			}
+		
+		CmpVertex state = graph.transitionMatrix.findElementById(vertex);
+		if (state == null)
+			predecessors.remove(vertex);
+		else
+		{
+			Map<Label,CmpVertex> row = graph.transitionMatrix.get(state);
+			recordedStates.put(state, new StateDetails(state, row, graph.pairCompatibility.compatibility.get(state)));
+			for(CmpVertex target:row.values())
+			{
+				List<CmpVertex> sources = predecessors.get(target);
+				if (sources == null)
+				{
+					sources = new ArrayList<CmpVertex>(1);predecessors.put(target, sources);
+				}
+				sources.add(state);
+			}
+		}
+	}
+	
+	/** Records details of the supplied modified states and discards scores of pairs where either state can reach any of them. */
+	protected void invalidate(LearnerGraph graph, Collection<CmpVertex> modified)
+	{
+		for(CmpVertex vertex:modified)
+			recordState(graph, vertex);
+		
+		Map<CmpVertex,Boolean> invalidated = graph.config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?
+				new ArrayMapWithSearch<CmpVertex,Boolean>(graph.getStateNumber()):
+				new HashMapWithSearch<CmpVertex,Boolean>(graph.getStateNumber());
+		Queue<CmpVertex> currentExplorationBoundary = new LinkedList<CmpVertex>();// FIFO queue
+		for(CmpVertex vertex:modified)
+			if (invalidated.get(vertex) == null)
+			{
+				invalidated.put(vertex, Boolean.TRUE);currentExplorationBoundary.add(vertex);
+			}
+		while(!currentExplorationBoundary.isEmpty())
+		{
+			Collection<CmpVertex> sources = predecessors.get(currentExplorationBoundary.remove());
+			if (sources != null)
+				for(CmpVertex source:sources)
+					if (invalidated.get(source) == null)
+					{
+						invalidated.put(source, Boolean.TRUE);currentExplorationBoundary.offer(source);
+					}
+		}
+		
+		Iterator<StatePair> pairIt = scores.keySet().iterator();
+		while(pairIt.hasNext())
+		{
+			StatePair pair = pairIt.next();
+			if (!recordedStates.containsKey(pair.getQ()) || !recordedStates.containsKey(pair.getR()) ||
+					invalidated.get(pair.getQ()) != null || invalidated.get(pair.getR()) != null)
+				pairIt.remove();
+		}
+	}
+	
+	/** Determines whether scores computed in the supplied graph can be cached. In the k-tails mode 
+	 * scores depend on the size of the whole graph and in the ONLYOVERRIDE mode they are entirely up to score computation callbacks, 
+	 * hence they are not cached.
+	 */
+	public static boolean scoresCanBeCached(LearnerGraph graph)
+	{
+		Configuration.ScoreMode mode = graph.config.getLearnerScoreMode();
+		return mode != Configuration.ScoreMode.ONLYOVERRIDE && mode != Configuration.ScoreMode.KTAILS;
+	}
+	
+	/** Returns a cached score of the supplied pair, not adjusted by score computation callbacks, or null if it has to be computed. */ 
+	public PairScore lookup(CmpVertex blue, CmpVertex red)
+	{
+		PairScore cached = scores.get(new StatePair(blue,red));
+		if (cached == null)
+			return null;
+		++pairsReused;
+		return new PairScore(blue,red,cached.getScore(),cached.getAnotherScore());
+	}
+	
+	/** Records a score computed by {@link PairScoreComputation#obtainPairWithoutOverride(CmpVertex, CmpVertex)}. */
+	public void record(PairScore score)
+	{
+		scores.put(new StatePair(score.getQ(),score.getR()), score);++pairsScored;
+	}
+	
+	/** Returns a score for the supplied pair, using the cached value if one is available. 
+	 * It is assumed that {@link #updateFor(LearnerGraph)} was called with the supplied graph 
+	 * before any scores are requested.
+	 * 
+	 * @param graph graph in which to score a pair.
+	 * @param blue blue state
+	 * @param red red state
+	 * @param scoreComputationOverride callback to adjust computed scores, can be null.
+	 * @return the score of the pair.
+	 */
+	public PairScore obtainPair(LearnerGraph graph, CmpVertex blue, CmpVertex red, ScoreComputationCallback scoreComputationOverride)
+	{
+		if (!scoresCanBeCached(graph))
+			return graph.pairscores.obtainPair(blue, red, scoreComputationOverride);
+		
+		PairScore result = lookup(blue, red);
+		if (result == null)
+		{
+			result = graph.pairscores.obtainPairWithoutOverride(blue, red);record(result);
+		}
+		return graph.pairscores.overrideScore(result, scoreComputationOverride);
+	}
+}
@@ -20,6 +20,7 @@ package statechum.analysis.learning.rpnicore;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -29,6 +30,9 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import statechum.Configuration;
 import statechum.Configuration.STATETREE;
@@ -44,6 +48,8 @@ import statechum.analysis.learning.linear.GDLearnerGraph;
 import statechum.analysis.learning.linear.GDLearnerGraph.DetermineDiagonalAndRightHandSide;
 import statechum.analysis.learning.linear.GDLearnerGraph.DetermineDiagonalAndRightHandSideInterface;
 import statechum.analysis.learning.linear.GDLearnerGraph.HandleRow;
+import statechum.analysis.learning.linear.RowTaskScheduler;
+import statechum.analysis.learning.linear.RowTaskScheduler.WorkLoadShape;
 import statechum.analysis.learning.linear.GDLearnerGraph.StateBasedRandom;
 import statechum.analysis.learning.rpnicore.LSolver;
 import statechum.collections.ArrayMapWithSearch;
@@ -98,10 +104,36 @@ public class PairScoreComputation {
 		CmpVertex resolvePotentialDeadEnd(LearnerGraph coregraph, Collection<CmpVertex> reds, List<PairScore> pairs);
 	}
 	
+	/** Callbacks implementing this interface declare that <em>overrideScoreComputation</em> does not modify any shared data and hence can be called 
+	 * from multiple threads at the same time. Where scores of pairs are computed by multiple threads (see {@link Configuration#getPairScoringThreadNumber()}), 
+	 * the other callbacks are invoked from the thread of the learner, once all scores have been computed. 
+	 */
+	public static interface ThreadSafeScoreComputationCallback extends ScoreComputationCallback
+	{// no additional methods
+	}
+	
+	/** A red node selection procedure with a thread-safe <em>overrideScoreComputation</em>. All the other methods are always called from the thread of the learner. */
+	public static interface ThreadSafeRedNodeSelectionProcedure extends RedNodeSelectionProcedure, ThreadSafeScoreComputationCallback
+	{// no additional methods
+	}
+	
 
 	public Stack<PairScore> chooseStatePairs(RedNodeSelectionProcedure decisionProcedure)
+	{
+		return chooseStatePairs(decisionProcedure, null);
+	}
+	
+	/** Identifies red-blue pairs of states to merge, reusing scores from the supplied cache where
+	 * the graph has not changed since they were computed. The outcome is the same as that of {@link #chooseStatePairs(RedNodeSelectionProcedure)}.
+	 * 
+	 * @param decisionProcedure the procedure to choose red states and adjust scores, can be null.
+	 * @param scoreCache scores from a previous invocation of this method, usually on a graph before the most recent merge. If null, all scores are computed from scratch. 
+	 * @return pairs of states, sorted in the order of scores. 
+	 */
+	public Stack<PairScore> chooseStatePairs(RedNodeSelectionProcedure decisionProcedure, PairScoreCache scoreCache)
 	{
 		coregraph.pairsAndScores.clear();
+		if (scoreCache != null) scoreCache.updateFor(coregraph);
 		if (decisionProcedure != null) decisionProcedure.initComputation(coregraph);
 		Collection<CmpVertex> reds = new LinkedList<CmpVertex>();// was: new LinkedHashSet<CmpVertex>();
 		for(CmpVertex v:coregraph.transitionMatrix.keySet())
@@ -116,6 +148,9 @@ public class PairScoreComputation {
 			RedStatesFound.clear();coregraph.pairsAndScores.clear();
 			currentExplorationBoundary.addAll(reds);
 			if (coregraph.additionalExplorationRoot != null) currentExplorationBoundary.addAll(coregraph.additionalExplorationRoot);
+			if (coregraph.config.getPairScoringThreadNumber() > 1)
+				computePairScoresConcurrently(decisionProcedure, scoreCache, reds, currentExplorationBoundary, RedStatesFound);
+			else
 			while(!currentExplorationBoundary.isEmpty())
 			{
 				CmpVertex currentRed = currentExplorationBoundary.remove();
@@ -131,7 +166,8 @@ public class PairScoreComputation {
 						int numberOfCompatiblePairs = 0;
 						for(CmpVertex oldRed:reds)
 						{
-							PairScore pair = obtainPair(currentBlueState,oldRed,decisionProcedure);
+							PairScore pair = scoreCache == null?obtainPair(currentBlueState,oldRed,decisionProcedure):
+								scoreCache.obtainPair(coregraph, currentBlueState, oldRed, decisionProcedure);
 							if (pair.getScore() >= coregraph.config.getGeneralisationThreshold())
 							{
 								coregraph.pairsAndScores.add(pair);
@@ -176,6 +212,129 @@ public class PairScoreComputation {
 		return getSortedPairsAndScoresStackFromUnsorted();
 	}		
 
+	/** Does the same as an iteration of the main loop of {@link #chooseStatePairs(RedNodeSelectionProcedure, PairScoreCache)} but computes scores using 
+	 * the number of threads set by {@link Configuration#setPairScoringThreadNumber(int)}. Blue states are identified first, followed by concurrent computation 
+	 * of scores of blue states against all red ones. Every thread uses its own map of merged vertices. Computed scores are subsequently considered in the same order  
+	 * as they would be if computed sequentially, hence the outcome does not depend on the number of threads.
+	 * Callbacks that do not implement {@link ThreadSafeScoreComputationCallback} are invoked from the current thread, after all scores have been computed.
+	 *  
+	 * @param decisionProcedure the procedure to choose red states and adjust scores, can be null.
+	 * @param scoreCache cached scores, can be null. 
+	 * @param reds red states
+	 * @param currentExplorationBoundary states to start the exploration from, emptied by this method.
+	 * @param RedStatesFound blue states that are not compatible with any red state are added to this collection.
+	 */
+	protected void computePairScoresConcurrently(final RedNodeSelectionProcedure decisionProcedure, PairScoreCache scoreCache, Collection<CmpVertex> reds,
+			Queue<CmpVertex> currentExplorationBoundary, Collection<CmpVertex> RedStatesFound)
+	{
+		List<CmpVertex> bluesInOrder = new ArrayList<CmpVertex>();
+		final List<CmpVertex> distinctBlues = new ArrayList<CmpVertex>();
+		Map<CmpVertex,Integer> blueToIndex = new HashMap<CmpVertex,Integer>();
+		while(!currentExplorationBoundary.isEmpty())
+		{
+			CmpVertex currentRed = currentExplorationBoundary.remove();
+
+			Collection<Entry<Label,CmpVertex>> surrounding = decisionProcedure == null?null:decisionProcedure.getSurroundingTransitions(currentRed);
+			if (surrounding == null) surrounding = coregraph.transitionMatrix.get(currentRed).entrySet();
+			for(Entry<Label,CmpVertex> BlueEntry:surrounding)
+				if (BlueEntry.getValue().getColour() == null || 
+						BlueEntry.getValue().getColour() == JUConstants.BLUE)
+				{// the next vertex is not marked red, hence it has to become blue
+					CmpVertex currentBlueState = BlueEntry.getValue();
+					bluesInOrder.add(currentBlueState);
+					if (!blueToIndex.containsKey(currentBlueState))
+					{
+						blueToIndex.put(currentBlueState,distinctBlues.size());distinctBlues.add(currentBlueState);
+					}
+					// This node is current a blue node and remains blue until I decide which of the currently potentially red nodes become red.
+					currentBlueState.setColour(JUConstants.BLUE);
+				}
+		}
+		
+		final List<CmpVertex> redList = new ArrayList<CmpVertex>(reds);
+		final PairScore [][] scores = new PairScore[distinctBlues.size()][redList.size()];
+		final boolean onlyOverride = coregraph.config.getLearnerScoreMode() == Configuration.ScoreMode.ONLYOVERRIDE;
+		final boolean overrideConcurrently = decisionProcedure == null || decisionProcedure instanceof ThreadSafeScoreComputationCallback;
+		final boolean useCache = scoreCache != null && PairScoreCache.scoresCanBeCached(coregraph);
+		final boolean [][] cached = new boolean[distinctBlues.size()][redList.size()];
+		if (useCache)
+			for(int blue=0;blue<distinctBlues.size();++blue)
+				for(int red=0;red<redList.size();++red)
+				{
+					scores[blue][red] = scoreCache.lookup(distinctBlues.get(blue), redList.get(red));
+					cached[blue][red] = scores[blue][red] != null;
+				}
+		if (coregraph.config.getLearnerScoreMode() == Configuration.ScoreMode.KTAILS)
+			obtainKTailsScore();// ensures that threads do not attempt to update the cached value concurrently.
+		
+		final AtomicInteger nextBlue = new AtomicInteger(0);
+		int threadNumber = coregraph.config.getPairScoringThreadNumber();
+		List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(threadNumber);
+		for(int count=0;count < threadNumber;++count)
+			workers.add(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception 
+				{
+					Map<CmpVertex,List<CmpVertex>> mergedVertices = createMergedVerticesMap();
+					int pairsScored = 0;
+					for(int blue=nextBlue.getAndIncrement();blue < distinctBlues.size();blue=nextBlue.getAndIncrement())
+						for(int red=0;red<redList.size();++red)
+						{
+							CmpVertex currentBlueState = distinctBlues.get(blue), oldRed = redList.get(red);
+							if (onlyOverride)
+							{
+								if (overrideConcurrently)
+									scores[blue][red] = obtainPair(currentBlueState,oldRed,decisionProcedure);
+							}
+							else
+							{
+								if (scores[blue][red] == null)
+									scores[blue][red] = obtainPairWithoutOverride(currentBlueState,oldRed,mergedVertices);
+								if (overrideConcurrently)
+									scores[blue][red] = overrideScore(scores[blue][red], decisionProcedure);
+							}
+							++pairsScored;
+						}
+					return pairsScored;
+				}
+			});
+		try
+		{// the pool is shared with other computations, so that threads are not created every time red states are chosen.
+			for(Future<Integer> result:RowTaskScheduler.getPool(threadNumber).invokeAll(workers))
+				result.get();// this will throw an exception if any of the tasks failed.
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+		
+		for(int blue=0;blue<distinctBlues.size();++blue)
+			for(int red=0;red<redList.size();++red)
+			{
+				if (useCache && !cached[blue][red])
+					scoreCache.record(scores[blue][red]);
+				if (!overrideConcurrently)
+					scores[blue][red] = onlyOverride? obtainPair(distinctBlues.get(blue),redList.get(red),decisionProcedure):
+						overrideScore(scores[blue][red], decisionProcedure);
+			}
+		
+		for(CmpVertex currentBlueState:bluesInOrder)
+		{
+			int numberOfCompatiblePairs = 0;
+			for(PairScore pair:scores[blueToIndex.get(currentBlueState)])
+				if (pair.getScore() >= coregraph.config.getGeneralisationThreshold())
+				{
+					coregraph.pairsAndScores.add(pair);
+					++numberOfCompatiblePairs;
+					if (GlobalConfiguration.getConfiguration().isAssertEnabled() && coregraph.config.getDebugMode()) PathRoutines.checkPTAConsistency(coregraph, currentBlueState);
+				}
+			
+			if (numberOfCompatiblePairs == 0)
+				RedStatesFound.add(currentBlueState);
+		}
+	}
+	
 	/** Used to sort the collection of pairs and scores and do the filtering if needed. */
 	public Stack<PairScore>  getSortedPairsAndScoresStackFromUnsorted()
 	{
@@ -194,16 +353,46 @@ public class PairScoreComputation {
 	
 	public PairScore obtainPair(CmpVertex blue, CmpVertex red, ScoreComputationCallback scoreComputationOverride)
 	{
-		long computedScore = -1, compatibilityScore =-1;StatePair pairToComputeFrom = new StatePair(blue,red);
 		if (coregraph.config.getLearnerScoreMode() == Configuration.ScoreMode.ONLYOVERRIDE)
 		{
-			computedScore = scoreComputationOverride.overrideScoreComputation(new PairScore(blue,red,0, 0));compatibilityScore=computedScore;
-			return new PairScore(blue,red,computedScore, compatibilityScore);
+			long computedScore = scoreComputationOverride.overrideScoreComputation(new PairScore(blue,red,0, 0));
+			return new PairScore(blue,red,computedScore, computedScore);
 		}
-		else		
+		return overrideScore(obtainPairWithoutOverride(blue, red), scoreComputationOverride);
+	}
+	
+	/** Passes a score of a compatible pair to the supplied callback and returns the pair with the adjusted score.
+	 * 
+	 * @param pair pair with a score computed by {@link #obtainPairWithoutOverride(CmpVertex, CmpVertex)}
+	 * @param scoreComputationOverride callback to use, can be null in which case the pair is returned unchanged.
+	 */
+	public PairScore overrideScore(PairScore pair, ScoreComputationCallback scoreComputationOverride)
+	{
+		if (pair.getScore() >= 0 && scoreComputationOverride != null)
+			return new PairScore(pair.getQ(),pair.getR(),scoreComputationOverride.overrideScoreComputation(pair), pair.getAnotherScore());
+		return pair;
+	}
+	
+	/** Computes a score of a pair of states using the score computation mode set in the configuration, not including 
+	 * any adjustments that could be made by score computation callbacks. Should not be used in the ONLYOVERRIDE mode. 
+	 */
+	public PairScore obtainPairWithoutOverride(CmpVertex blue, CmpVertex red)
+	{
+		return obtainPairWithoutOverride(blue, red, null);
+	}
+	
+	/** Similar to {@link #obtainPairWithoutOverride(CmpVertex, CmpVertex)} but makes it possible to reuse a map of merged vertices across 
+	 * multiple invocations, which is important where scores are computed by multiple threads.
+	 *  
+	 * @param mergedVertices map to pass to {@link #computePairCompatibilityScore_internal(StatePair, Map)}, a new one is created if null.
+	 */
+	public PairScore obtainPairWithoutOverride(CmpVertex blue, CmpVertex red, Map<CmpVertex,List<CmpVertex>> mergedVertices)
+	{
+		long computedScore = -1, compatibilityScore =-1;StatePair pairToComputeFrom = new StatePair(blue,red);
+		assert coregraph.config.getLearnerScoreMode() != Configuration.ScoreMode.ONLYOVERRIDE;
 		if (coregraph.config.getLearnerScoreMode() == Configuration.ScoreMode.COMPATIBILITY)
 		{
-			computedScore = computePairCompatibilityScore(pairToComputeFrom);compatibilityScore=computedScore;
+			computedScore = computePairCompatibilityScore(pairToComputeFrom,mergedVertices);compatibilityScore=computedScore;
 		}
 		else		
 		if (coregraph.config.getLearnerScoreMode() == Configuration.ScoreMode.GENERAL)
@@ -230,7 +419,7 @@ public class PairScoreComputation {
 				computedScore = coregraph.pairscores.computeStateScore(pairToComputeFrom);
 				if (computedScore >= 0)
 				{
-					compatibilityScore=	computePairCompatibilityScore(pairToComputeFrom);
+					compatibilityScore=	computePairCompatibilityScore(pairToComputeFrom,mergedVertices);
 					if (compatibilityScore < 0)
 						computedScore = -1;
 				}
@@ -238,7 +427,7 @@ public class PairScoreComputation {
 				else
 				if (GlobalConfiguration.getConfiguration().isAssertEnabled())
 				{
-					int compatScore = computePairCompatibilityScore(pairToComputeFrom);
+					int compatScore = computePairCompatibilityScore(pairToComputeFrom,mergedVertices);
 					assert compatScore <= computedScore;
 				}
 			}
@@ -246,18 +435,29 @@ public class PairScoreComputation {
 		if (blue.isAccept() && computedScore < coregraph.config.getRejectPositivePairsWithScoresLessThan())
 			computedScore = -1;
 		
-		if (computedScore >= 0 && scoreComputationOverride != null)
-			computedScore = scoreComputationOverride.overrideScoreComputation(new PairScore(blue,red,computedScore, compatibilityScore));
 		return new PairScore(blue,red,computedScore, compatibilityScore);
 	}
 
 	public int computePairCompatibilityScore(StatePair origPair)
 	{
-		Map<CmpVertex,List<CmpVertex>> mergedVertices = coregraph.config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?
-				new ArrayMapWithSearch<CmpVertex,List<CmpVertex>>():
-				new HashMapWithSearch<CmpVertex,List<CmpVertex>>(coregraph.getStateNumber());
 		// for every vertex of the model, gives a set of PTA vertices which were joined to it, for those of them which lead to a new (PTA-only) state
 		// note that PTA states may easily be merged with other PTA states, in which case they will feature as keys of this set.
+		return computePairCompatibilityScore_internal(origPair, createMergedVerticesMap());
+	}
+	
+	/** Creates a map to be used by {@link #computePairCompatibilityScore_internal(StatePair, Map)}. */
+	Map<CmpVertex,List<CmpVertex>> createMergedVerticesMap()
+	{
+		return coregraph.config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?
+				new ArrayMapWithSearch<CmpVertex,List<CmpVertex>>():
+				new HashMapWithSearch<CmpVertex,List<CmpVertex>>(coregraph.getStateNumber());
+	}
+	
+	/** Same as {@link #computePairCompatibilityScore(StatePair)} but uses the supplied map of merged vertices if it is not null. */
+	int computePairCompatibilityScore(StatePair origPair, Map<CmpVertex,List<CmpVertex>> mergedVertices)
+	{
+		if (mergedVertices == null)
+			return computePairCompatibilityScore(origPair);
 		return computePairCompatibilityScore_internal(origPair, mergedVertices);
 	}
 	
@@ -477,9 +677,24 @@ public class PairScoreComputation {
 	 *  @param pairToMerge pair to merge
 	 *  @param pairsToMerge more pairs to merge in the process of computation. Can be null.
 	 *  @param mergedVertices collection of sets of merged vertices. Singleton sets reflect those which were not merged with any other.
+	 *  <p>
+	 *  Where {@link Configuration#getMergeThreadNumber()} is above 1, merging is performed by {@link UnionFindMergeEngine}.
 	 */ 
 	public int computePairCompatibilityScore_general(StatePair pairToMerge, Collection<StatePair> pairsToMerge, Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> mergedVertices) 
 	{
+		if (coregraph.config.getMergeThreadNumber() > 1)
+		{// engines are kept by the cache so that states of the graph are not numbered for every pair
+			UnionFindMergeEngine engine = coregraph.learnerCache.obtainMergeEngine(coregraph.config.getMergeThreadNumber());
+			try
+			{
+				return engine.computePairCompatibilityScore_general(pairToMerge, pairsToMerge, mergedVertices);
+			}
+			finally
+			{
+				coregraph.learnerCache.releaseMergeEngine(engine);
+			}
+		}
+		
 		int score=-1;
 		
 		AMEquivalenceClassMergingDetails mergingDetails = new AMEquivalenceClassMergingDetails();mergingDetails.nextEquivalenceClass = 0;
@@ -664,11 +879,17 @@ public class PairScoreComputation {
 		
 		if (foundKTail)
 		{// If we are operating in a k-tails mode, report a very high number if we found a k-tail.
-			if (coregraph.learnerCache.maxScore < 0) coregraph.learnerCache.maxScore = coregraph.transitionMatrix.size()*coregraph.pathroutines.computeAlphabet().size();
-			score = coregraph.learnerCache.maxScore+1;
+			score = obtainKTailsScore();
 		}
 		return score;
 	}
+	
+	/** Returns the score reported for pairs of states with matching k-tails, computing it if this has not already been done. */
+	long obtainKTailsScore()
+	{
+		if (coregraph.learnerCache.maxScore < 0) coregraph.learnerCache.maxScore = coregraph.transitionMatrix.size()*coregraph.pathroutines.computeAlphabet().size();
+		return coregraph.learnerCache.maxScore+1;
+	}
 
 	/** Computes scores by navigating a cross-product of this machine, with itself. Implements the k-tails method.
 	 * 
@@ -815,7 +1036,7 @@ public class PairScoreComputation {
 		final int [] incompatiblePairs = new int[ndGraph.getStateNumber()*(ndGraph.getStateNumber()+1)/2];for(int i=0;i<incompatiblePairs.length;++i) incompatiblePairs[i]=GDLearnerGraph.PAIR_OK;
 		final int pairsNumber = ndGraph.findIncompatiblePairs(incompatiblePairs,ThreadNumber);
 		LSolver solver = ndGraph.buildMatrix_internal(incompatiblePairs, pairsNumber, ThreadNumber,ddrh);
-		solver.solve(ThreadNumber);
+		solver.solve(ThreadNumber,coregraph.config);
 		solver.freeAllButResult();// deallocate memory before creating a large array.
 		coregraph.pairsAndScores.clear();
 		// now fill in the scores in the array.
@@ -904,8 +1125,8 @@ public class PairScoreComputation {
 					}
 				});
 			}
-			GDLearnerGraph.performRowTasks(handlerList, ThreadNumber, coregraph.transitionMatrix,LearnerGraphND.ignoreNone,
-					GDLearnerGraph.partitionWorkLoadTriangular(ThreadNumber,coregraph.transitionMatrix.size()));
+			RowTaskScheduler.performRowTasks(handlerList, ThreadNumber, coregraph.transitionMatrix,LearnerGraphND.ignoreNone,
+					WorkLoadShape.TRIANGULAR,0,coregraph.transitionMatrix.size());
 			// now collect the results of processing
 			for(int threadCnt=0;threadCnt<ThreadNumber;++threadCnt)
 				coregraph.pairsAndScores.addAll(resultsPerThread[threadCnt]);
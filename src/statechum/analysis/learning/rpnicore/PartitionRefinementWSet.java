@@ -0,0 +1,400 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.linear.RowTaskScheduler;
+import statechum.analysis.learning.rpnicore.WMethod.EquivalentStatesException;
+
+/** Computes a characterising set of a deterministic graph by partition refinement over states encoded as integers.
+ * <p>
+ * Blocks of states are arranged in a tree where the root contains all states and each internal node is split into two by
+ * a single sequence: states from which this sequence is accepted and those from which it is not. A leaf is split
+ * where some input takes its states into different leaves; the sequence used for the split is this input followed by the
+ * sequence of the lowest common ancestor of the leaves entered. When no leaf can be split, leaves are equivalence classes
+ * of states and sequences of internal nodes form a characterising set, at most one sequence for each class.
+ * <p>
+ * During each round, all the leaves are considered by multiple threads, the tree being only changed between rounds,
+ * hence the outcome does not depend on the number of threads. Refinement can start from sequences of a characterising set
+ * computed earlier, such as for a previous version of the same graph: every state pair separated by those sequences is
+ * inequivalent, hence where only a few states changed, most of the work is done by checking these sequences.
+ * <p>
+ * In line with {@link WMethod#computeWSet_reducedmemory(LearnerGraph)}, missing transitions lead to a reject-state
+ * with no outgoing transitions (called <em>sink</em>).
+ */
+public class PartitionRefinementWSet
+{
+	/** The graph being processed. */
+	protected final LearnerGraph graph;
+
+	/** The number of threads to use. */
+	protected final int threadNumber;
+
+	/** States of the graph, the sink is number {@link #sink}. */
+	protected final CmpVertex [] vertices;
+
+	/** The number of the sink state. */
+	protected final int sink;
+
+	/** Labels used in the graph or in the sequences to start refinement from. */
+	protected final List<Label> labels = new ArrayList<Label>();
+
+	/** Maps labels to their numbers. */
+	protected final Map<Label,Integer> labelToInt = new HashMap<Label,Integer>();
+
+	/** Transitions, <em>transitions[state*labels.size()+label]</em> is the target state. */
+	protected int [] transitions;
+
+	/** Whether a state is an accept-state. */
+	protected final boolean [] accept;
+
+	/** The leaf containing each state. */
+	protected final int [] stateLeaf;
+
+	/** The parent of each node of the tree, -1 for the root. */
+	protected final int [] parent;
+
+	/** The depth of each node, zero for the root. */
+	protected final int [] depth;
+
+	/** For internal nodes, the child containing states from which the sequence of a node is accepted. */
+	protected final int [] acceptChild;
+
+	/** For internal nodes, the sequence splitting the node; null for leaves. */
+	protected final int [][] sequence;
+
+	/** For leaves, the states in each of them; null for internal nodes. */
+	protected final int [][] leafStates;
+
+	/** The number of nodes in the tree. */
+	protected int nodeNumber = 0;
+
+	/** Constructs the engine, encoding the supplied graph.
+	 *
+	 * @param fsm the graph to compute a characterising set of
+	 * @param threads the number of threads to use
+	 */
+	public PartitionRefinementWSet(LearnerGraph fsm, int threads)
+	{
+		graph = fsm;threadNumber = Math.max(1, threads);
+		vertices = fsm.transitionMatrix.keySet().toArray(new CmpVertex[fsm.transitionMatrix.size()]);
+		sink = vertices.length;
+		for(Label label:new TreeSet<Label>(fsm.pathroutines.computeAlphabet()))
+			addLabel(label);
+		accept = new boolean[sink+1];
+		for(int i=0;i<vertices.length;++i) accept[i]=vertices[i].isAccept();
+
+		// a binary tree with at most sink+1 leaves
+		int maxNodes = 2*(sink+1);
+		stateLeaf = new int[sink+1];parent = new int[maxNodes];depth = new int[maxNodes];acceptChild = new int[maxNodes];
+		sequence = new int[maxNodes][];leafStates = new int[maxNodes][];
+		int [] allStates = new int[sink+1];for(int i=0;i<=sink;++i) allStates[i]=i;
+		parent[0]=-1;depth[0]=0;leafStates[0]=allStates;nodeNumber=1;
+	}
+
+	/** Adds a label to the collection of those used, returning its number. */
+	protected int addLabel(Label label)
+	{
+		Integer number = labelToInt.get(label);
+		if (number == null)
+		{
+			number = labels.size();labels.add(label);labelToInt.put(label, number);
+			transitions = null;// has to be rebuilt.
+		}
+		return number;
+	}
+
+	/** Builds the table of transitions for the current collection of labels. */
+	protected void buildTransitions()
+	{
+		int labelNumber = labels.size();
+		Map<CmpVertex,Integer> vertexToInt = new HashMap<CmpVertex,Integer>(vertices.length);
+		for(int i=0;i<vertices.length;++i) vertexToInt.put(vertices[i], i);
+		transitions = new int[(sink+1)*labelNumber];
+		java.util.Arrays.fill(transitions, sink);
+		for(int i=0;i<vertices.length;++i)
+			for(Entry<Label,CmpVertex> transition:graph.transitionMatrix.get(vertices[i]).entrySet())
+				transitions[i*labelNumber+labelToInt.get(transition.getKey())]=vertexToInt.get(transition.getValue());
+	}
+
+	/** Determines whether the supplied sequence is accepted from the supplied state. */
+	protected boolean accepted(int state, int [] seq)
+	{
+		int labelNumber = labels.size(), current = state;
+		for(int label:seq)
+			current = transitions[current*labelNumber+label];
+		return accept[current];
+	}
+
+	/** Replaces a leaf with two children containing the supplied states, recording the sequence used to split it. */
+	protected void split(int leaf, int [] seq, int [] acceptStates, int [] rejectStates)
+	{
+		assert acceptStates.length > 0 && rejectStates.length > 0;
+		int acc = nodeNumber++, rej = nodeNumber++;
+		sequence[leaf]=seq;leafStates[leaf]=null;acceptChild[leaf]=acc;
+		for(int child:new int[]{acc,rej})
+		{
+			parent[child]=leaf;depth[child]=depth[leaf]+1;
+		}
+		leafStates[acc]=acceptStates;leafStates[rej]=rejectStates;
+		for(int state:acceptStates) stateLeaf[state]=acc;
+		for(int state:rejectStates) stateLeaf[state]=rej;
+	}
+
+	/** Splits the states of the supplied leaf by the supplied sequence.
+	 *
+	 * @return an array with states from which the sequence is accepted followed by those from which it is not, null if all states give the same outcome.
+	 */
+	protected int [][] splitBySequence(int leaf, int [] seq)
+	{
+		int [] states = leafStates[leaf];
+		boolean [] outcome = new boolean[states.length];int acceptNumber = 0;
+		for(int i=0;i<states.length;++i)
+			if (outcome[i] = accepted(states[i], seq))
+				++acceptNumber;
+		if (acceptNumber == 0 || acceptNumber == states.length)
+			return null;
+		int [] acceptStates = new int[acceptNumber], rejectStates = new int[states.length-acceptNumber];
+		int a=0,r=0;
+		for(int i=0;i<states.length;++i)
+			if (outcome[i]) acceptStates[a++]=states[i];else rejectStates[r++]=states[i];
+		return new int[][]{acceptStates,rejectStates};
+	}
+
+	/** Returns the lowest common ancestor of the two nodes. */
+	protected int commonAncestor(int nodeA, int nodeB)
+	{
+		int a = nodeA, b = nodeB;
+		while(depth[a] > depth[b]) a = parent[a];
+		while(depth[b] > depth[a]) b = parent[b];
+		while(a != b)
+		{
+			a = parent[a];b = parent[b];
+		}
+		return a;
+	}
+
+	/** Scratch arrays used by a thread to find a split of a leaf. */
+	protected class Worker
+	{
+		/** Used to mark nodes visited during the current search, by recording the number of that search. */
+		final int [] visited = new int[parent.length], side = new int[parent.length];
+		int stamp = 0;
+		final int [] path = new int[parent.length];
+
+		/** Finds an input which takes states of the supplied leaf to different leaves and splits states accordingly.
+		 *
+		 * @return the sequence, the states from which it is accepted and those from which it is not; null if the leaf cannot be split.
+		 */
+		int [][] findSplit(int leaf)
+		{
+			int [] states = leafStates[leaf];
+			int labelNumber = labels.size();
+			for(int label=0;label<labelNumber;++label)
+			{
+				++stamp;
+				int ancestor = -1;
+				for(int state:states)
+				{
+					int target = stateLeaf[transitions[state*labelNumber+label]];
+					if (visited[target] != stamp)
+					{
+						visited[target]=stamp;side[target]=-1;
+						ancestor = ancestor < 0? target:commonAncestor(ancestor, target);
+					}
+				}
+				if (ancestor >= 0 && leafStates[ancestor] == null)
+				{// targets are in different leaves, their common ancestor is split by its sequence. For each target, we find the child
+				 // of the common ancestor it belongs to, recording it for all nodes on the way up so that each node is only visited once.
+					++stamp;
+					int acceptStateNumber = 0;
+					boolean [] outcome = new boolean[states.length];
+					for(int i=0;i<states.length;++i)
+					{
+						int node = stateLeaf[transitions[states[i]*labelNumber+label]], pathLength = 0;
+						while(visited[node] != stamp && parent[node] != ancestor)
+						{
+							path[pathLength++]=node;node = parent[node];
+						}
+						boolean isAccept = visited[node] == stamp? side[node] == 1:node == acceptChild[ancestor];
+						visited[node]=stamp;side[node]=isAccept?1:0;
+						for(int p=0;p<pathLength;++p)
+						{
+							visited[path[p]]=stamp;side[path[p]]=isAccept?1:0;
+						}
+						outcome[i]=isAccept;if (isAccept) ++acceptStateNumber;
+					}
+					assert acceptStateNumber > 0 && acceptStateNumber < states.length;
+					int [] seq = new int[sequence[ancestor].length+1];seq[0]=label;
+					System.arraycopy(sequence[ancestor], 0, seq, 1, sequence[ancestor].length);
+					int [] acceptStates = new int[acceptStateNumber], rejectStates = new int[states.length-acceptStateNumber];
+					int a=0,r=0;
+					for(int i=0;i<states.length;++i)
+						if (outcome[i]) acceptStates[a++]=states[i];else rejectStates[r++]=states[i];
+					return new int[][]{seq,acceptStates,rejectStates};
+				}
+			}
+			return null;
+		}
+	}
+
+	/** Refines the partition until no leaf can be split.
+	 *
+	 * @param initialSequences sequences to split the partition with before refinement, such as a characterising set of a previous version of the graph; can be null.
+	 */
+	public void refine(Collection<List<Label>> initialSequences)
+	{
+		List<int[]> initial = new ArrayList<int[]>();
+		initial.add(new int[0]);// separates accept- from reject-states.
+		if (initialSequences != null)
+			for(List<Label> seq:initialSequences)
+			{
+				int [] encoded = new int[seq.size()];int i=0;
+				for(Label label:seq) encoded[i++]=addLabel(label);
+				initial.add(encoded);
+			}
+		if (transitions == null) buildTransitions();
+
+		for(int [] seq:initial)
+		{
+			int currentNodeNumber = nodeNumber;
+			for(int node=0;node<currentNodeNumber;++node)
+				if (leafStates[node] != null && leafStates[node].length > 1)
+				{
+					int [][] outcome = splitBySequence(node, seq);
+					if (outcome != null)
+						split(node, seq, outcome[0], outcome[1]);
+				}
+		}
+
+		boolean changed = true;
+		while(changed)
+		{
+			final List<Integer> candidates = new ArrayList<Integer>();
+			for(int node=0;node<nodeNumber;++node)
+				if (leafStates[node] != null && leafStates[node].length > 1)
+					candidates.add(node);
+			final int [][][] splits = new int[candidates.size()][][];
+			final AtomicInteger nextCandidate = new AtomicInteger(0);
+			List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(threadNumber);
+			for(int th=0;th<threadNumber;++th)
+				workers.add(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						Worker worker = new Worker();
+						for(int c=nextCandidate.getAndIncrement();c<splits.length;c=nextCandidate.getAndIncrement())
+							splits[c]=worker.findSplit(candidates.get(c));
+						return 0;
+					}
+				});
+			try
+			{
+				if (threadNumber > 1 && candidates.size() > 1)
+				{
+					for(Future<Integer> outcome:RowTaskScheduler.getPool(threadNumber).invokeAll(workers))
+						outcome.get();// this will throw an exception if any of the tasks failed.
+				}
+				else
+					workers.get(0).call();
+			}
+			catch(Exception ex)
+			{
+				IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+			}
+
+			// Now update the tree, in the order of leaves.
+			changed = false;
+			for(int c=0;c<splits.length;++c)
+				if (splits[c] != null)
+				{
+					split(candidates.get(c), splits[c][0], splits[c][1], splits[c][2]);changed = true;
+				}
+		}
+	}
+
+	/** Returns the number of equivalence classes of states, including the sink. */
+	public int getNumberOfClasses()
+	{
+		return (nodeNumber+1)/2;
+	}
+
+	/** Returns a map from states of the graph to numbers of their equivalence classes. */
+	public Map<CmpVertex,Integer> getEquivalenceClasses()
+	{
+		Map<CmpVertex,Integer> outcome = new TreeMap<CmpVertex,Integer>();
+		for(int i=0;i<vertices.length;++i)
+			outcome.put(vertices[i], stateLeaf[i]);
+		return outcome;
+	}
+
+	/** Returns a characterising set, throwing {@link EquivalentStatesException} if there are equivalent states in the graph
+	 * and these are not permitted by {@link statechum.Configuration#getEquivalentStatesAllowedForW()}.
+	 * Should be called after {@link #refine(Collection)}.
+	 */
+	public Collection<List<Label>> getCharacterisationSet() throws EquivalentStatesException
+	{
+		boolean equivalentStates = false, sinkLikeState = false;
+		for(int node=0;node<nodeNumber;++node)
+		{
+			int [] states = leafStates[node];
+			if (states != null)
+			{
+				int realStates = 0;
+				for(int state:states) if (state != sink) ++realStates;
+				if (realStates > 1) equivalentStates = true;
+				if (realStates > 0 && realStates < states.length) sinkLikeState = true;
+			}
+		}
+		if (equivalentStates && !graph.config.getEquivalentStatesAllowedForW())
+			throw EquivalentStatesException.construct(getEquivalenceClasses(), graph, null);
+
+		// As per computeWSet_reducedmemory, sink is only distinguished from other states where the language is not prefix-closed and no state of the graph accepts an empty language.
+		boolean sinkAsRealState = !graph.config.isPrefixClosed() && !sinkLikeState;
+		Set<List<Label>> result = new HashSet<List<Label>>();
+		for(int node=0;node<nodeNumber;++node)
+			if (sequence[node] != null)
+			{
+				boolean onlySink = false;
+				for(int child:new int[]{acceptChild[node],acceptChild[node]+1})
+					if (leafStates[child] != null && leafStates[child].length == 1 && leafStates[child][0] == sink)
+						onlySink = true;
+				if (sinkAsRealState || !onlySink)
+				{
+					List<Label> seq = new ArrayList<Label>(sequence[node].length);
+					for(int label:sequence[node]) seq.add(labels.get(label));
+					result.add(seq);
+				}
+			}
+		return result;
+	}
+}
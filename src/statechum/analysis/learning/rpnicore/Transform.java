@@ -18,6 +18,7 @@
 
 package statechum.analysis.learning.rpnicore;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -733,6 +734,103 @@ public class Transform
 		return result;
 	}
 	
+	/** Product states (triples of a graph state, an IF state and a THEN state) explored by {@link #augmentFromIfThenAutomaton}
+	 * for some graph, together with the transitions of that graph after augmentation. Where a graph is obtained from the
+	 * recorded one by merging states and/or adding transitions, such as a merger of a pair of states in a tentative automaton,
+	 * augmentation only has to re-explore product states where graph states have been modified: all other product states 
+	 * have the same successors as before and were fully explored.
+	 */
+	public static class ExploredIfThenStates
+	{
+		final LearnerGraph [] ifthenGraphs;
+		final int howManyToAdd;
+		
+		/** Rows of the augmented graph, used to identify states that have been modified since. */
+		final Map<CmpVertex,Map<Label,CmpVertex>> rows = new HashMap<CmpVertex,Map<Label,CmpVertex>>();
+		final Set<CmpVertex> acceptStates = new HashSet<CmpVertex>();
+		
+		/** For each IF automaton, product states explored for each graph state. */
+		final List<Map<CmpVertex,List<ExplorationElement>>> explored;
+		
+		ExploredIfThenStates(LearnerGraph graph, LearnerGraph [] ifthen, int howMany, Map<CmpVertex,Object>[] visited)
+		{
+			ifthenGraphs = ifthen;howManyToAdd = howMany;
+			for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:graph.transitionMatrix.entrySet())
+			{
+				rows.put(entry.getKey(), new HashMap<Label,CmpVertex>(entry.getValue()));
+				if (entry.getKey().isAccept()) acceptStates.add(entry.getKey());
+			}
+			explored = new ArrayList<Map<CmpVertex,List<ExplorationElement>>>(visited.length);
+			for(int i=0;i<visited.length;++i)
+			{
+				Map<CmpVertex,List<ExplorationElement>> exploredForIf = new HashMap<CmpVertex,List<ExplorationElement>>();explored.add(exploredForIf);
+				for(Entry<CmpVertex,Object> entry:visited[i].entrySet())
+				{
+					List<ExplorationElement> elements = new LinkedList<ExplorationElement>();
+					Iterator<ExplorationElement> elementIterator = ExplorationElement.getCollectionOfVisited(entry.getValue());
+					while(elementIterator.hasNext())
+					{// previous elements are not recorded to avoid retaining all paths explored.
+						ExplorationElement elem = elementIterator.next();
+						elements.add(new ExplorationElement(elem.graphState,elem.thenGraph,elem.thenState,elem.propertyGraph,elem.IFState,0,null,null));
+					}
+					exploredForIf.put(entry.getKey(), elements);
+				}
+			}
+		}
+		
+		/** Whether product states recorded can be used to augment a graph with the supplied automata. */
+		boolean isApplicable(LearnerGraph [] ifthen, int howMany)
+		{
+			return ifthen == ifthenGraphs && howMany == howManyToAdd;
+		}
+		
+		/** Whether the state of the supplied graph is different from the one with the same name in the recorded graph. */
+		boolean isModified(LearnerGraph graph, CmpVertex state)
+		{
+			Map<Label,CmpVertex> recordedRow = rows.get(state), row = graph.transitionMatrix.get(state);
+			if (recordedRow == null || recordedRow.size() != row.size() || acceptStates.contains(state) != state.isAccept())
+				return true;
+			for(Entry<Label,CmpVertex> entry:row.entrySet())
+				if (!entry.getValue().equals(recordedRow.get(entry.getKey())))
+					return true;
+			return false;
+		}
+		
+		/** Returns the total number of recorded product states. */
+		public int getExploredNumber()
+		{
+			int result = 0;
+			for(Map<CmpVertex,List<ExplorationElement>> map:explored)
+				for(List<ExplorationElement> elements:map.values())
+					result+=elements.size();
+			return result;
+		}
+	}
+	
+	/** Whether a THEN automaton can make transitions from the supplied product state which are not present in a graph.
+	 * Such transitions are added to a graph unless this is not permitted by the limit on the number of waves of transitions 
+	 * to add, hence product states where THEN can do more than a graph are explored when augmentation is repeated.
+	 */
+	static boolean thenExtendsGraph(LearnerGraph graph, ExplorationElement elem)
+	{
+		if (elem.thenState == null)
+			return false;
+		Map<Label,CmpVertex> graphTargets = graph.transitionMatrix.get(elem.graphState);
+		for(Label label:elem.thenGraph.transitionMatrix.get(elem.thenState).keySet())
+			if (!graphTargets.containsKey(label))
+				return true;
+		return false;
+	}
+
+	/** Same as {@link #augmentFromIfThenAutomaton(LearnerGraph, NonExistingPaths, LearnerGraph[], int, ExploredIfThenStates, boolean)} 
+	 * but without reusing nor recording explored product states.
+	 */
+	public static void augmentFromIfThenAutomaton(LearnerGraph graph, NonExistingPaths questionPaths, 
+			LearnerGraph [] ifthenGraphs, int howManyToAdd) throws AugmentFromIfThenAutomatonException
+	{
+		augmentFromIfThenAutomaton(graph, questionPaths, ifthenGraphs, howManyToAdd, null, false);
+	}
+	
 	/** Can be used both to add new transitions to the graph (at most <em>howMayToAdd</em> waves) and to check if the
 	 * property answers the supplied questions.
 	 * <p>
@@ -752,9 +850,13 @@ public class Transform
 	 * @param howManyToAdd how many waves of transitions to add to the graph. This is not used when if-then is used to answer 
 	 * questions (questionPaths not empty). At most <em>howMayToAdd</em> transitions will be added; 
 	 * if this value if not positive, the graph remains unchanged.
+	 * @param previous product states explored when a graph the supplied one was obtained from (by merging states and/or adding transitions) was augmented, 
+	 * null if not known. Ignored if questions are being answered or the automata are different.  
+	 * @param recordExplored whether to return product states explored.
+	 * @return product states explored if <em>recordExplored</em> is set, null otherwise.
 	 */
-	public static void augmentFromIfThenAutomaton(LearnerGraph graph, NonExistingPaths questionPaths, 
-			LearnerGraph [] ifthenGraphs, int howManyToAdd) throws AugmentFromIfThenAutomatonException
+	public static ExploredIfThenStates augmentFromIfThenAutomaton(LearnerGraph graph, NonExistingPaths questionPaths, 
+			LearnerGraph [] ifthenGraphs, int howManyToAdd, ExploredIfThenStates previous, boolean recordExplored) throws AugmentFromIfThenAutomatonException
 	{
 		assert ( questionPaths == null && howManyToAdd >= 0 ) || (questionPaths != null && howManyToAdd <= 0) : 
 			"inconsistent requirements, when states are to be added, there have to be no questions; when answering questions, the graph should not be updated";
@@ -767,17 +869,48 @@ public class Transform
 		Map<CmpVertex,Map<Label,CmpVertex>> nonexistingMatrix = questionPaths == null?graph.createNewTransitionMatrix(graph.config.getMaxStateNumber()):questionPaths.getNonExistingTransitionMatrix();
 		final Queue<ExplorationElement> currentExplorationBoundary = new LinkedList<ExplorationElement>();// FIFO queue
 		@SuppressWarnings("unchecked")
-		final Map<CmpVertex,Object>[] visited = new Map[ifthenGraphs.length];// for each IF automaton, this one maps visited graph/THEN states to ExplorationElements. This permits one to re-visit all such states whenever we add a new transition to a graph or a THEN state.
+		final Map<CmpVertex,Object>[] visited = (Map<CmpVertex,Object>[])new Map<?,?>[ifthenGraphs.length];// for each IF automaton, this one maps visited graph/THEN states to ExplorationElements. This permits one to re-visit all such states whenever we add a new transition to a graph or a THEN state.
 		final Set<CmpVertex> newStates = new HashSet<CmpVertex>();// since I'm extending a graph and exploring it at the same time, I need to record when I'm walking on previously-added nodes and increment depth accordingly.
 
+		final boolean incremental = previous != null && questionPaths == null && previous.isApplicable(ifthenGraphs, howManyToAdd);
+		Set<CmpVertex> modifiedStates = new HashSet<CmpVertex>();
+		if (incremental)
+			for(CmpVertex state:graph.transitionMatrix.keySet())
+				if (previous.isModified(graph, state))
+					modifiedStates.add(state);
+		
 		for(int i=0;i<ifthenGraphs.length;++i)
 		{
 			visited[i]=graph.config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?new ArrayMapWithSearch<CmpVertex,Object>() :
 					new HashMapWithSearch<CmpVertex,Object>(graph.getStateNumber());// previously the number of states was shifted left by one to create space for more vertices
 			ExplorationElement initialState = new ExplorationElement(graph.getInit(),null,null,i,ifthenGraphs[i].getInit(),0,null,null);
-			currentExplorationBoundary.add(initialState);
-			Set<ExplorationElement> visitedStates = new HashSet<ExplorationElement>();
-			visited[i].put(graph.getInit(), visitedStates);visitedStates.add(initialState);
+			if (incremental)
+			{// all recorded product states are marked visited, but only those for modified graph states 
+			 // and those where THEN could not be unrolled further are explored. Product states are not 
+			 // recorded for graph states added by THEN parts so all the recorded ones have depth of zero.
+				for(Entry<CmpVertex,List<ExplorationElement>> entry:previous.explored.get(i).entrySet())
+				{
+					CmpVertex graphState = graph.findVertex(entry.getKey());
+					if (graphState != null)
+					{
+						boolean modified = modifiedStates.contains(graphState);
+						for(ExplorationElement elem:entry.getValue())
+						{
+							ExplorationElement seed = new ExplorationElement(graphState,elem.thenGraph,elem.thenState,i,elem.IFState,0,null,null);
+							if (!hasBeenVisited(visited,seed) && (modified || thenExtendsGraph(graph, seed)))
+								currentExplorationBoundary.add(seed);
+						}
+					}
+				}
+				if (!hasBeenVisited(visited,initialState))
+					currentExplorationBoundary.add(initialState);
+			}
+			else
+			{
+				currentExplorationBoundary.add(initialState);
+				Set<ExplorationElement> visitedStates = new HashSet<ExplorationElement>();
+				visited[i].put(graph.getInit(), visitedStates);visitedStates.add(initialState);
+			}
 		}
 		ExplorationElement explorationElement = null;
 		while(!currentExplorationBoundary.isEmpty())
@@ -961,6 +1094,7 @@ public class Transform
 		}// while(!currentExplorationBoundary.isEmpty())
 		
 		if (howManyToAdd>0) graph.learnerCache.invalidate();
+		return recordExplored?new ExploredIfThenStates(graph, ifthenGraphs, howManyToAdd, visited):null;
 	}
 	
 	/** Given a deterministic version of a maximal automaton, this method converts it to an if-then
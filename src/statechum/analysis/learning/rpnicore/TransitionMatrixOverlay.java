@@ -0,0 +1,820 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertID;
+import statechum.Label;
+import statechum.collections.HashMapWithSearch;
+import statechum.collections.MapWithSearch;
+
+/** A transition matrix of a deterministic graph that records changes made to another transition matrix,
+ * without modifying it. This is used with {@link STATETREE#STATETREE_OVERLAY} so that a shallow copy of a graph, such as one
+ * constructed by {@link MergeStates#mergeAndDeterminize(LearnerGraph, statechum.analysis.learning.StatePair)}, takes
+ * time and memory proportional to the changes made to it rather than to the size of the original graph.
+ * <p>
+ * Rows of the original matrix are returned wrapped so that the first modification of a row makes a copy of it.
+ * <p>
+ * The original transition matrix should not be modified for as long as this one is in use. In order to detect this,
+ * overlays can only be constructed over matrices that count modifications made to them and to their rows, {@link CountedMatrix}
+ * and overlays themselves; the count of the original is recorded when an overlay is constructed and every access to an overlay
+ * throws {@link IllegalArgumentException} if it has changed since.
+ */
+public class TransitionMatrixOverlay extends AbstractMap<CmpVertex,Map<Label,CmpVertex>> implements MapWithSearch<CmpVertex,Map<Label,CmpVertex>>, CountsModifications
+{
+	/** The matrix changes are recorded against. */
+	protected final MapWithSearch<CmpVertex,Map<Label,CmpVertex>> parent;
+
+	/** The number of modifications of the parent when this overlay was constructed. */
+	protected final int parentModificationCount;
+
+	/** The number of modifications of this matrix and of its rows. */
+	protected int modificationCount = 0;
+
+	/** Used to create new rows. */
+	protected final LearnerGraph owner;
+
+	/** Rows of states of the parent that have been modified. */
+	protected final Map<CmpVertex,Map<Label,CmpVertex>> changedRows = new HashMap<CmpVertex,Map<Label,CmpVertex>>();
+
+	/** States of the parent that have been removed. */
+	protected final Set<CmpVertex> removedStates = new HashSet<CmpVertex>();
+
+	/** States that are not in the parent, in the order they were added. */
+	protected final HashMapWithSearch<CmpVertex,Map<Label,CmpVertex>> addedStates;
+
+	/** The number of overlays between this one and a matrix that stores all rows, 1 if the parent is not an overlay. */
+	protected final int depth;
+
+	/** The maximal length of a chain of overlays. Every time a graph is merged, the outcome is an overlay over the original graph,
+	 * hence after a few mergers the cost of looking rows up would outweigh the benefit of not copying the graph.
+	 * Where a chain would become longer than this, the graph is copied.
+	 */
+	public static final int maxDepth = 8;
+
+	/** Constructs an overlay over the supplied transition matrix.
+	 *
+	 * @param parentMatrix the matrix to record changes against, it has to count modifications.
+	 * @param graph the graph this matrix belongs to.
+	 */
+	public TransitionMatrixOverlay(MapWithSearch<CmpVertex,Map<Label,CmpVertex>> parentMatrix, LearnerGraph graph)
+	{
+		if (!(parentMatrix instanceof CountsModifications))
+			throw new IllegalArgumentException("an overlay can only be constructed over a matrix that counts modifications");
+		parent = parentMatrix;owner = graph;
+		parentModificationCount = ((CountsModifications)parent).getModificationCount();
+		depth = parent instanceof TransitionMatrixOverlay? ((TransitionMatrixOverlay)parent).depth+1:1;
+		addedStates = new HashMapWithSearch<CmpVertex,Map<Label,CmpVertex>>(16);
+	}
+
+	/** Determines whether a graph built using the supplied configuration can record its transition matrix as an overlay over that of the supplied graph.
+	 *
+	 * @param from the graph to copy
+	 * @param conf configuration of the copy.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean canOverlay(AbstractLearnerGraph from, Configuration conf)
+	{
+		return conf.getTransitionMatrixImplType() == STATETREE.STATETREE_OVERLAY && !conf.isLearnerCloneGraph() &&
+				from instanceof LearnerGraph && from.transitionMatrix instanceof CountsModifications &&
+				(!(from.transitionMatrix instanceof TransitionMatrixOverlay) || ((TransitionMatrixOverlay)from.transitionMatrix).depth < maxDepth);
+	}
+
+	@Override
+	public int getModificationCount()
+	{
+		return modificationCount;
+	}
+
+	@Override
+	public void modified()
+	{
+		++modificationCount;
+	}
+
+	/** Throws {@link IllegalArgumentException} if the parent of this overlay or any of those below it has been modified since this overlay was constructed. */
+	protected void checkParent()
+	{
+		if (((CountsModifications)parent).getModificationCount() != parentModificationCount)
+			throw new IllegalArgumentException("the transition matrix an overlay was constructed over has been modified");
+		if (parent instanceof TransitionMatrixOverlay)
+			((TransitionMatrixOverlay)parent).checkParent();
+	}
+
+	/** Returns the length of the chain of overlays. */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/** Returns the number of rows that are stored in this overlay, rather than taken from the parent. */
+	public int getRowsRecorded()
+	{
+		return changedRows.size()+addedStates.size();
+	}
+
+	/** Converts a key passed to one of the methods of a map to a state. */
+	protected CmpVertex toVertex(Object key)
+	{
+		if (key instanceof CmpVertex)
+			return (CmpVertex)key;
+		return parent.findElementById((VertID)key);
+	}
+
+	/** Determines whether the supplied key refers to a state of the parent that has not been removed. */
+	protected boolean inParent(Object key)
+	{
+		return !removedStates.contains(key) && parent.containsKey(key);
+	}
+
+	@Override
+	public Map<Label, CmpVertex> get(Object key)
+	{
+		checkParent();
+		Map<Label,CmpVertex> row = addedStates.get(key);
+		if (row != null)
+			return row;
+		if (removedStates.contains(key))
+			return null;
+		row = changedRows.get(key);
+		if (row != null)
+			return row;
+		Map<Label,CmpVertex> parentRow = parent.get(key);
+		if (parentRow == null)
+			return null;
+		return new SharedRow(toVertex(key),parentRow);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		checkParent();
+		return addedStates.containsKey(key) || inParent(key);
+	}
+
+	/** Makes the supplied row record modifications against the supplied matrix if it counts them. */
+	protected static Map<Label,CmpVertex> bind(Map<Label,CmpVertex> row, CountsModifications matrix)
+	{
+		if (row instanceof CountedRow)
+			((CountedRow)row).matrix = matrix;
+		return row;
+	}
+
+	/** Returns a row that will not be affected by subsequent modifications of this matrix. */
+	protected Map<Label,CmpVertex> detachedRow(CmpVertex key)
+	{
+		Map<Label,CmpVertex> row = changedRows.get(key);
+		return row != null? row:Collections.unmodifiableMap(parent.get(key));
+	}
+
+	@Override
+	public Map<Label, CmpVertex> put(CmpVertex key, Map<Label, CmpVertex> value)
+	{
+		checkParent();modified();
+		if (inParent(key))
+		{
+			Map<Label,CmpVertex> previous = detachedRow(key);changedRows.put(key, bind(value,this));
+			return previous;
+		}
+		return addedStates.put(key, bind(value,this));
+	}
+
+	@Override
+	public Map<Label, CmpVertex> remove(Object key)
+	{
+		checkParent();
+		if (addedStates.containsKey(key))
+		{
+			modified();
+			return addedStates.remove(key);
+		}
+		if (!inParent(key))
+			return null;
+		modified();
+		CmpVertex vertex = toVertex(key);
+		Map<Label,CmpVertex> previous = detachedRow(vertex);
+		changedRows.remove(vertex);removedStates.add(vertex);
+		return previous;
+	}
+
+	@Override
+	public void clear()
+	{
+		checkParent();modified();
+		removedStates.addAll(parent.keySet());
+		changedRows.clear();addedStates.clear();
+	}
+
+	@Override
+	public int size()
+	{
+		checkParent();
+		return parent.size()-removedStates.size()+addedStates.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@Override
+	public CmpVertex findElementById(VertID id)
+	{
+		checkParent();
+		CmpVertex result = addedStates.findElementById(id);
+		if (result == null && !removedStates.contains(id))
+			result = parent.findElementById(id);
+		return result;
+	}
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> getTreeEntrySet()
+	{
+		return new TreeMap<CmpVertex,Map<Label,CmpVertex>>(this).entrySet();
+	}
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> getPotentiallyOrderedEntrySet(boolean ordered)
+	{
+		if (ordered)
+			return getTreeEntrySet();
+		return entrySet();
+	}
+
+	@Override
+	public Set<CmpVertex> getPotentiallyOrderedKeySet(boolean ordered)
+	{
+		if (ordered)
+			return new TreeSet<CmpVertex>(keySet());
+		return keySet();
+	}
+
+	/** An entry of this map, updates to which are recorded in the overlay. */
+	protected class OverlayEntry implements Map.Entry<CmpVertex,Map<Label,CmpVertex>>
+	{
+		protected final CmpVertex key;
+		protected Map<Label,CmpVertex> value;
+
+		public OverlayEntry(CmpVertex k, Map<Label,CmpVertex> v)
+		{
+			key = k;value = v;
+		}
+
+		@Override
+		public CmpVertex getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public Map<Label, CmpVertex> getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public Map<Label, CmpVertex> setValue(Map<Label, CmpVertex> newValue)
+		{
+			Map<Label,CmpVertex> previous = put(key,newValue);value = newValue;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?,?> other = (Map.Entry<?,?>)o;
+			return key.equals(other.getKey()) && value.equals(other.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return key+"="+value;
+		}
+	}
+
+	/** Iterates through states of the parent that have not been removed, followed by the states that have been added. */
+	protected class OverlayIterator implements Iterator<Map.Entry<CmpVertex,Map<Label,CmpVertex>>>
+	{
+		protected final Iterator<Map.Entry<CmpVertex,Map<Label,CmpVertex>>> parentIterator = parent.entrySet().iterator();
+		protected final Iterator<CmpVertex> addedIterator = addedStates.keySet().iterator();
+
+		/** The next state of the parent to return, null if all have been returned. */
+		protected Map.Entry<CmpVertex,Map<Label,CmpVertex>> nextParentEntry = null;
+
+		/** The last state returned, null if none was returned or it was removed. */
+		protected CmpVertex lastKey = null;
+
+		/** Whether the last state returned was taken from the states that have been added. */
+		protected boolean lastFromAdded = false;
+
+		public OverlayIterator()
+		{
+			checkParent();advanceParent();
+		}
+
+		protected void advanceParent()
+		{
+			nextParentEntry = null;
+			while(nextParentEntry == null && parentIterator.hasNext())
+			{
+				Map.Entry<CmpVertex,Map<Label,CmpVertex>> entry = parentIterator.next();
+				if (!removedStates.contains(entry.getKey()))
+					nextParentEntry = entry;
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return nextParentEntry != null || addedIterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<CmpVertex,Map<Label,CmpVertex>> next()
+		{
+			checkParent();
+			if (nextParentEntry != null)
+			{
+				CmpVertex key = nextParentEntry.getKey();
+				Map<Label,CmpVertex> row = changedRows.get(key);
+				if (row == null)
+					row = new SharedRow(key, nextParentEntry.getValue());
+				advanceParent();lastKey = key;lastFromAdded = false;
+				return new OverlayEntry(key,row);
+			}
+			if (!addedIterator.hasNext())
+				throw new NoSuchElementException();
+			CmpVertex key = addedIterator.next();lastKey = key;lastFromAdded = true;
+			return new OverlayEntry(key,addedStates.get(key));
+		}
+
+		@Override
+		public void remove()
+		{
+			if (lastKey == null)
+				throw new IllegalStateException("next was not yet called or was already called");
+			if (lastFromAdded)
+				addedIterator.remove();
+			else
+				TransitionMatrixOverlay.this.remove(lastKey);// does not affect the parent hence the parent iterator remains valid
+			lastKey = null;
+		}
+	}
+
+	protected Set<Map.Entry<CmpVertex,Map<Label,CmpVertex>>> entrySet = null;
+
+	@Override
+	public Set<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> entrySet()
+	{
+		if (entrySet == null)
+			entrySet = new AbstractSet<Map.Entry<CmpVertex,Map<Label,CmpVertex>>>() {
+
+				@Override
+				public Iterator<Map.Entry<CmpVertex, Map<Label, CmpVertex>>> iterator()
+				{
+					return new OverlayIterator();
+				}
+
+				@Override
+				public int size()
+				{
+					return TransitionMatrixOverlay.this.size();
+				}
+			};
+		return entrySet;
+	}
+
+	/** A row of the parent matrix, copied into the overlay when it is modified for the first time. */
+	protected class SharedRow extends AbstractMap<Label,CmpVertex>
+	{
+		protected final CmpVertex state;
+		protected final Map<Label,CmpVertex> parentRow;
+
+		public SharedRow(CmpVertex vertex, Map<Label,CmpVertex> row)
+		{
+			state = vertex;parentRow = row;
+		}
+
+		/** Returns the row to read transitions from. */
+		protected Map<Label,CmpVertex> current()
+		{
+			checkParent();
+			Map<Label,CmpVertex> row = changedRows.get(state);
+			return row != null? row:parentRow;
+		}
+
+		/** Returns the row to record changes in, copying that of the parent if necessary. */
+		protected Map<Label,CmpVertex> writable()
+		{
+			checkParent();
+			Map<Label,CmpVertex> row = changedRows.get(state);
+			if (row == null)
+			{
+				row = bind(owner.createNewRow(),TransitionMatrixOverlay.this);row.putAll(parentRow);changedRows.put(state, row);
+			}
+			return row;
+		}
+
+		@Override
+		public CmpVertex get(Object key)
+		{
+			return current().get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return current().containsKey(key);
+		}
+
+		@Override
+		public int size()
+		{
+			return current().size();
+		}
+
+		@Override
+		public CmpVertex put(Label key, CmpVertex value)
+		{
+			return writable().put(key, value);
+		}
+
+		@Override
+		public CmpVertex remove(Object key)
+		{
+			if (!current().containsKey(key))
+				return null;
+			return writable().remove(key);
+		}
+
+		@Override
+		public void clear()
+		{
+			writable().clear();
+		}
+
+		@Override
+		public Set<Map.Entry<Label, CmpVertex>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<Label,CmpVertex>>() {
+
+				@Override
+				public Iterator<Map.Entry<Label, CmpVertex>> iterator()
+				{
+					if (changedRows.containsKey(state))
+						return changedRows.get(state).entrySet().iterator();
+
+					final Iterator<Map.Entry<Label,CmpVertex>> parentRowIterator = parentRow.entrySet().iterator();
+					return new Iterator<Map.Entry<Label,CmpVertex>>() {
+						Label lastLabel = null;
+
+						@Override
+						public boolean hasNext()
+						{
+							return parentRowIterator.hasNext();
+						}
+
+						@Override
+						public Map.Entry<Label, CmpVertex> next()
+						{
+							final Map.Entry<Label,CmpVertex> entry = parentRowIterator.next();lastLabel = entry.getKey();
+							return new Map.Entry<Label,CmpVertex>() {
+								CmpVertex value = entry.getValue();
+
+								@Override
+								public Label getKey()
+								{
+									return entry.getKey();
+								}
+
+								@Override
+								public CmpVertex getValue()
+								{
+									return value;
+								}
+
+								@Override
+								public CmpVertex setValue(CmpVertex newValue)
+								{
+									CmpVertex previous = writable().put(entry.getKey(), newValue);value = newValue;
+									return previous;
+								}
+
+								@Override
+								public boolean equals(Object o)
+								{
+									if (!(o instanceof Map.Entry))
+										return false;
+									Map.Entry<?,?> other = (Map.Entry<?,?>)o;
+									return entry.getKey().equals(other.getKey()) && value.equals(other.getValue());
+								}
+
+								@Override
+								public int hashCode()
+								{
+									return entry.getKey().hashCode() ^ value.hashCode();
+								}
+
+								@Override
+								public String toString()
+								{
+									return entry.getKey()+"="+value;
+								}
+							};
+						}
+
+						@Override
+						public void remove()
+						{
+							if (lastLabel == null)
+								throw new IllegalStateException("next was not yet called or was already called");
+							writable().remove(lastLabel);lastLabel = null;// the parent row is not modified hence the iterator remains valid
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return current().size();
+				}
+			};
+		}
+	}
+
+	/** The transition matrix of a graph that is not an overlay, used with {@link STATETREE#STATETREE_OVERLAY}.
+	 * It counts modifications made to it, those made to its rows are counted by {@link CountedRow}.
+	 * Rows added to it are bound to it using {@link #put(CmpVertex, Map)}, to which {@link #putAll(Map)} delegates.
+	 */
+	public static class CountedMatrix extends HashMapWithSearch<CmpVertex,Map<Label,CmpVertex>> implements CountsModifications
+	{
+		protected int modificationCount = 0;
+
+		public CountedMatrix(int stateNumber)
+		{
+			super(stateNumber);
+		}
+
+		@Override
+		public int getModificationCount()
+		{
+			return modificationCount;
+		}
+
+		@Override
+		public void modified()
+		{
+			++modificationCount;
+		}
+
+		@Override
+		public Map<Label, CmpVertex> put(CmpVertex key, Map<Label, CmpVertex> value)
+		{
+			modified();
+			return super.put(key, bind(value,this));
+		}
+
+		@Override
+		public void putAll(Map<? extends CmpVertex, ? extends Map<Label, CmpVertex>> m)
+		{
+			for(Map.Entry<? extends CmpVertex, ? extends Map<Label, CmpVertex>> entry:m.entrySet())
+				put(entry.getKey(),entry.getValue());
+		}
+
+		@Override
+		public Map<Label, CmpVertex> remove(Object key)
+		{
+			Map<Label,CmpVertex> previous = super.remove(key);
+			if (previous != null)
+				modified();
+			return previous;
+		}
+
+		@Override
+		public void clear()
+		{
+			modified();
+			super.clear();
+		}
+
+		/** Removals through the key set are counted; its iterator removes elements using {@link #remove(Object)}. */
+		@Override
+		public Set<CmpVertex> keySet()
+		{
+			final Set<CmpVertex> keys = super.keySet();
+			return new AbstractSet<CmpVertex>() {
+
+				@Override
+				public Iterator<CmpVertex> iterator()
+				{
+					return keys.iterator();
+				}
+
+				@Override
+				public int size()
+				{
+					return keys.size();
+				}
+
+				@Override
+				public boolean contains(Object o)
+				{
+					return keys.contains(o);
+				}
+
+				@Override
+				public boolean remove(Object o)
+				{
+					boolean outcome = keys.remove(o);
+					if (outcome)
+						modified();
+					return outcome;
+				}
+
+				@Override
+				public void clear()
+				{
+					CountedMatrix.this.clear();
+				}
+			};
+		}
+	}
+
+	/** A row of a transition matrix used with {@link STATETREE#STATETREE_OVERLAY}, recording modifications made to it
+	 * against the matrix it was last added to. Transitions are kept in a tree map, the same way as for other transition matrices
+	 * with rows that are maps.
+	 */
+	public static class CountedRow extends AbstractMap<Label,CmpVertex>
+	{
+		protected final Map<Label,CmpVertex> transitions = new TreeMap<Label,CmpVertex>();
+
+		/** The matrix to record modifications against, null if the row was not added to a matrix that counts modifications. */
+		protected CountsModifications matrix = null;
+
+		/** Records a modification of this row. */
+		protected void modified()
+		{
+			if (matrix != null)
+				matrix.modified();
+		}
+
+		@Override
+		public CmpVertex get(Object key)
+		{
+			return transitions.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return transitions.containsKey(key);
+		}
+
+		@Override
+		public int size()
+		{
+			return transitions.size();
+		}
+
+		@Override
+		public CmpVertex put(Label key, CmpVertex value)
+		{
+			modified();
+			return transitions.put(key, value);
+		}
+
+		@Override
+		public CmpVertex remove(Object key)
+		{
+			if (!transitions.containsKey(key))
+				return null;
+			modified();
+			return transitions.remove(key);
+		}
+
+		@Override
+		public void clear()
+		{
+			modified();
+			transitions.clear();
+		}
+
+		@Override
+		public Set<Map.Entry<Label, CmpVertex>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<Label,CmpVertex>>() {
+
+				@Override
+				public Iterator<Map.Entry<Label, CmpVertex>> iterator()
+				{
+					final Iterator<Map.Entry<Label,CmpVertex>> rowIterator = transitions.entrySet().iterator();
+					return new Iterator<Map.Entry<Label,CmpVertex>>() {
+
+						@Override
+						public boolean hasNext()
+						{
+							return rowIterator.hasNext();
+						}
+
+						@Override
+						public Map.Entry<Label, CmpVertex> next()
+						{
+							final Map.Entry<Label,CmpVertex> entry = rowIterator.next();
+							return new Map.Entry<Label,CmpVertex>() {
+
+								@Override
+								public Label getKey()
+								{
+									return entry.getKey();
+								}
+
+								@Override
+								public CmpVertex getValue()
+								{
+									return entry.getValue();
+								}
+
+								@Override
+								public CmpVertex setValue(CmpVertex newValue)
+								{
+									modified();
+									return entry.setValue(newValue);
+								}
+
+								@Override
+								public boolean equals(Object o)
+								{
+									return entry.equals(o);
+								}
+
+								@Override
+								public int hashCode()
+								{
+									return entry.hashCode();
+								}
+
+								@Override
+								public String toString()
+								{
+									return entry.toString();
+								}
+							};
+						}
+
+						@Override
+						public void remove()
+						{
+							modified();
+							rowIterator.remove();
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return transitions.size();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.linear.RowTaskScheduler;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+
+/** Computes the outcome of merging states in the same way as
+ * {@link PairScoreComputation#computePairCompatibilityScore_general(StatePair, Collection, Collection)} but
+ * using multiple threads. States are numbered and equivalence classes are represented by a disjoint-set forest stored in an array
+ * that is updated with compare-and-set operations. Every root of the forest is associated with a map from labels to
+ * the states entered by transitions leaving the equivalence class; where two transitions with the same label lead to
+ * different states, the pair of those states is placed on a queue shared by all threads. When the queue is empty and
+ * no thread is processing a pair, the forest is closed under merging of successors with the same labels and
+ * equivalence classes are built from it, in the calling thread, checking compatibility of states in each class.
+ * <p>
+ * The outcome is the same as the sequential merger: the smallest partition containing the supplied pairs that is closed under
+ * merging of targets of transitions with the same labels from states that are merged. Equivalence classes are numbered
+ * in the order of states in the transition matrix rather than in the order they were merged; where a class contains states of
+ * different colours of the same priority, such as red and blue, its colour may differ from that chosen by the sequential merger
+ * unless the class contains states from the supplied pairs.
+ * <p>
+ * An engine can be used for many mergers of states of the same graph, but only by one thread at a time: numbering of states
+ * and the forest are allocated once and only entries changed by a merger are reset before the next one. 
+ * {@link LearnerGraphCachedData#obtainMergeEngine(int)} keeps engines for a graph, sharing the numbering of its states between them.
+ * Threads processing pairs are taken from the pool shared with other computations, {@link RowTaskScheduler#getPool(int)}.
+ */
+public class UnionFindMergeEngine
+{
+	protected final LearnerGraph coregraph;
+
+	/** The number of threads to process pairs of states with. */
+	protected int threadNumber;
+
+	/** States of the graph, numbered in the order of the transition matrix. */
+	protected final CmpVertex [] vertices;
+
+	/** Maps states of the graph to their numbers. */
+	protected final Map<CmpVertex,Integer> vertexToInt;
+
+	/** Parents of states in a disjoint-set forest, roots point to themselves. */
+	protected final AtomicIntegerArray parent;
+
+	/** For every state, the transitions leaving the equivalence class that this state was a root of, created on demand. */
+	protected final AtomicReferenceArray<ConcurrentHashMap<Label,Integer>> outgoing;
+
+	/** States whose entries in {@link #parent} or {@link #outgoing} were changed by the current merger, these are reset before the next one. */
+	protected final ConcurrentLinkedQueue<Integer> touched = new ConcurrentLinkedQueue<Integer>();
+
+	/** Pairs of states to merge, each packed into a long. */
+	protected ConcurrentLinkedQueue<Long> pairsToExplore;
+
+	/** The number of pairs either on the queue or being processed. */
+	protected AtomicLong pendingPairs;
+
+	/** Set when states of opposite acceptance are merged. */
+	protected AtomicBoolean incompatible;
+
+	public UnionFindMergeEngine(LearnerGraph graph, int threads)
+	{
+		coregraph = graph;threadNumber = threads;
+		vertices = coregraph.transitionMatrix.keySet().toArray(new CmpVertex[0]);
+		vertexToInt = new HashMap<CmpVertex,Integer>(vertices.length*2);
+		for(int i=0;i<vertices.length;++i)
+			vertexToInt.put(vertices[i], i);
+		parent = new AtomicIntegerArray(vertices.length);outgoing = new AtomicReferenceArray<ConcurrentHashMap<Label,Integer>>(vertices.length);
+		resetAll();
+	}
+
+	/** Constructs an engine for the same graph as the supplied one, sharing the numbering of states with it. */
+	public UnionFindMergeEngine(UnionFindMergeEngine engine, int threads)
+	{
+		coregraph = engine.coregraph;threadNumber = threads;
+		vertices = engine.vertices;vertexToInt = engine.vertexToInt;
+		parent = new AtomicIntegerArray(vertices.length);outgoing = new AtomicReferenceArray<ConcurrentHashMap<Label,Integer>>(vertices.length);
+		resetAll();
+	}
+
+	/** Returns true if this engine numbers states in the same way as the supplied one. */
+	public boolean sharesNumberingWith(UnionFindMergeEngine engine)
+	{
+		return vertexToInt == engine.vertexToInt;
+	}
+
+	/** Returns true if states of the graph are the states this engine was constructed for, assuming states are only added or removed. */
+	public boolean matchesGraph()
+	{
+		return vertices.length == coregraph.transitionMatrix.size();
+	}
+
+	/** Makes every state a root of its own equivalence class with no transitions recorded. */
+	protected void resetAll()
+	{
+		for(int i=0;i<vertices.length;++i)
+			parent.set(i, i);
+		touched.clear();
+	}
+
+	/** Undoes changes made to the forest by the last merger. */
+	protected void resetTouched()
+	{
+		for(Integer vertex:touched)
+		{
+			parent.set(vertex.intValue(), vertex.intValue());outgoing.set(vertex.intValue(), null);
+		}
+		touched.clear();
+	}
+
+	/** Returns the root of the equivalence class of the supplied state, halving paths along the way. */
+	protected int find(int vertex)
+	{
+		int current = vertex;
+		while(true)
+		{
+			int p = parent.get(current);
+			if (p == current)
+				return current;
+			int grandParent = parent.get(p);
+			if (grandParent != p)
+				parent.compareAndSet(current, p, grandParent);// failure means another thread changed it, which is fine.
+			current = grandParent;
+		}
+	}
+
+	/** Returns transitions leaving an equivalence class rooted at the supplied state. */
+	protected ConcurrentHashMap<Label,Integer> getOutgoing(int vertex)
+	{
+		ConcurrentHashMap<Label,Integer> transitions = outgoing.get(vertex);
+		if (transitions == null)
+		{
+			transitions = new ConcurrentHashMap<Label,Integer>();
+			for(Entry<Label,CmpVertex> entry:coregraph.transitionMatrix.get(vertices[vertex]).entrySet())
+				transitions.put(entry.getKey(), vertexToInt.get(entry.getValue()));
+			if (outgoing.compareAndSet(vertex, null, transitions))
+				touched.add(vertex);
+			else
+				transitions = outgoing.get(vertex);
+		}
+		return transitions;
+	}
+
+	protected void addPair(int first, int second)
+	{
+		pendingPairs.incrementAndGet();pairsToExplore.offer(((long)first << 32) | (second & 0xffffffffL));
+	}
+
+	/** Records a transition as leaving the equivalence class of the supplied state.
+	 * If the class already has a transition with the same label to a different state, the two target states are queued for merging.
+	 * Where the class is merged into another one while we are adding a transition, it is added to that other class again.
+	 */
+	protected void addTransition(int vertex, Label label, int target)
+	{
+		int root = find(vertex);
+		while(true)
+		{
+			Integer existing = getOutgoing(root).putIfAbsent(label, target);
+			if (existing != null && existing.intValue() != target)
+				addPair(existing.intValue(), target);
+			int newRoot = find(root);
+			if (newRoot == root)
+				return;
+			root = newRoot;
+		}
+	}
+
+	/** Merges equivalence classes of the two states and queues pairs of states that have to be merged as a consequence. */
+	protected void mergePair(int first, int second)
+	{
+		while(true)
+		{
+			int rootA = find(first), rootB = find(second);
+			if (rootA == rootB)
+				return;
+			if (rootA > rootB)
+			{// states with higher numbers are always placed under those with lower numbers, hence there cannot be loops.
+				int tmp = rootA;rootA = rootB;rootB = tmp;
+			}
+			if (parent.compareAndSet(rootB, rootB, rootA))
+			{
+				touched.add(rootB);
+				getOutgoing(rootA);// ensures that roots of classes with multiple states have transitions recorded, which is what addToClass relies on.
+				if (vertices[rootA].isAccept() != vertices[rootB].isAccept())
+					incompatible.set(true);
+				else
+					// Transitions added to rootB after it was placed under rootA are added to rootA by addTransition,
+					// those added before are visited by the iterator below.
+					for(Entry<Label,Integer> entry:getOutgoing(rootB).entrySet())
+						addTransition(rootA, entry.getKey(), entry.getValue().intValue());
+				return;
+			}
+		}
+	}
+
+	/** The shortest and the longest times in nanoseconds for which a thread waits for new pairs to appear on an empty queue. */
+	protected static final long minIdleDelay = 1000, maxIdleDelay = 1000000;
+
+	/** Takes pairs off the queue until there are none left or the merger fails. */
+	protected void processPairs()
+	{
+		long idleDelay = minIdleDelay;
+		while(!incompatible.get())
+		{
+			Long pair = pairsToExplore.poll();
+			if (pair == null)
+			{
+				if (pendingPairs.get() == 0)
+					return;
+				// some pairs are still being processed and may result in new pairs on the queue, 
+				// wait for them without taking processor time from threads doing the processing.
+				LockSupport.parkNanos(idleDelay);idleDelay = Math.min(2*idleDelay, maxIdleDelay);
+			}
+			else
+			{
+				idleDelay = minIdleDelay;
+				long value = pair.longValue();
+				mergePair((int)(value >>> 32), (int)value);
+				pendingPairs.decrementAndGet();
+			}
+		}
+	}
+
+	protected int getVertexNumber(CmpVertex vertex)
+	{
+		Integer number = vertexToInt.get(vertex);
+		assert number != null : " state "+vertex+" is not in the graph";
+		return number.intValue();
+	}
+
+	/** Adds a state to the equivalence class of its root, creating the class if necessary. 
+	 * Classes are only recorded for roots of states merged with others, the remaining states are placed in singleton classes.
+	 *
+	 * @return the number to give to the next equivalence class to be created.
+	 */
+	protected int addToClass(int vertexNumber, Map<Integer,AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> rootToClass, 
+			Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> eqClasses, int nextEquivalenceClass) throws IncompatibleStatesException
+	{
+		int nextNumber = nextEquivalenceClass;
+		int root = find(vertexNumber);
+		boolean merged = root != vertexNumber || outgoing.get(vertexNumber) != null;
+		AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass = merged? rootToClass.get(root):null;
+		if (eqClass == null)
+		{
+			eqClass = new AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>(nextNumber++,coregraph);
+			eqClasses.add(eqClass);
+			if (merged)
+				rootToClass.put(root, eqClass);
+		}
+		CmpVertex vertex = vertices[vertexNumber];
+		eqClass.mergeWith(vertex, coregraph.transitionMatrix.get(vertex).entrySet());
+		return nextNumber;
+	}
+
+	/** Has the same arguments and return value as {@link PairScoreComputation#computePairCompatibilityScore_general(StatePair, Collection, Collection)}. */
+	public int computePairCompatibilityScore_general(StatePair pairToMerge, Collection<StatePair> pairsToMerge, Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> mergedVertices)
+	{
+		resetTouched();
+		pairsToExplore = new ConcurrentLinkedQueue<Long>();pendingPairs = new AtomicLong();incompatible = new AtomicBoolean(false);
+
+		if (pairToMerge != null)
+			addPair(getVertexNumber(pairToMerge.firstElem),getVertexNumber(pairToMerge.secondElem));
+		if (pairsToMerge != null)
+			for(StatePair pair:pairsToMerge)
+				addPair(getVertexNumber(pair.firstElem),getVertexNumber(pair.secondElem));
+
+		if (threadNumber <= 1 || ForkJoinTask.inForkJoinPool())
+			processPairs();// where called from a worker of a pool, such as when pairs are scored concurrently, the other workers are busy with other pairs.
+		else
+		{
+			List<Callable<Boolean>> workers = new ArrayList<Callable<Boolean>>(threadNumber);
+			for(int i=0;i<threadNumber;++i)
+				workers.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						processPairs();return true;
+					}
+				});
+			try
+			{// the pool is shared with other computations, so that threads are not created for every pair of states.
+				for(Future<Boolean> result:RowTaskScheduler.getPool(threadNumber).invokeAll(workers))
+					result.get();// this will throw an exception if any of the tasks failed.
+			}
+			catch(Exception ex)
+			{
+				IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+			}
+		}
+
+		if (incompatible.get())
+			return -1;
+
+		// Now build equivalence classes, which also checks that states in them are compatible.
+		// The colour of an equivalence class is that of the state added to it first among those with colours of the highest priority,
+		// hence states of the supplied pairs are added first, in the same order as the sequential merger adds them.
+		List<CmpVertex> statesOfPairs = new ArrayList<CmpVertex>();
+		if (pairToMerge != null)
+		{
+			statesOfPairs.add(pairToMerge.secondElem);statesOfPairs.add(pairToMerge.firstElem);
+		}
+		if (pairsToMerge != null)
+			for(StatePair pair:pairsToMerge)
+			{
+				statesOfPairs.add(pair.secondElem);statesOfPairs.add(pair.firstElem);
+			}
+		Map<Integer,AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> rootToClass = new HashMap<Integer,AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+		Set<Integer> added = new HashSet<Integer>();
+		Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> eqClasses = new ArrayList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+		int nextEquivalenceClass = 0;
+		try
+		{
+			for(CmpVertex vertex:statesOfPairs)
+			{
+				int vertexNumber = vertexToInt.get(vertex).intValue();
+				if (added.add(vertexNumber))
+					nextEquivalenceClass = addToClass(vertexNumber, rootToClass, eqClasses, nextEquivalenceClass);
+			}
+			for(int vertexNumber=0;vertexNumber<vertices.length;++vertexNumber)
+				if (!added.contains(vertexNumber))
+					nextEquivalenceClass = addToClass(vertexNumber, rootToClass, eqClasses, nextEquivalenceClass);
+		}
+		catch(IncompatibleStatesException e)
+		{
+			return -1;
+		}
+
+		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:eqClasses)
+			for(ArrayList<CmpVertex> targets:eqClass.getOutgoing().values())
+				if (targets.size() > 1)
+				{// all targets are in the same equivalence class, which is represented by the first one, as done by the sequential merger.
+					CmpVertex firstVertex = targets.get(0);targets.clear();targets.add(firstVertex);
+				}
+		mergedVertices.clear();mergedVertices.addAll(eqClasses);
+		return vertices.length-eqClasses.size();
+	}
+}
@@ -43,6 +43,7 @@ import statechum.model.testset.PTASequenceEngine;
 import statechum.model.testset.PTA_FSMStructure;
 import statechum.model.testset.PrefixFreeCollection;
 import statechum.model.testset.SlowPrefixFreeCollection;
+import statechum.model.testset.WMethodSequenceGenerator;
 import statechum.model.testset.PTASequenceEngine.SequenceSet;
 
 public class WMethod 
@@ -96,7 +97,7 @@ public class WMethod
 	{
 		Set<Label> alphabet =  coregraph.learnerCache.getAlphabet();
 		List<List<Label>> partialSet = coregraph.pathroutines.computeStateCover(coregraph.getInit());
-		characterisationSet = computeWSet_reducedmemory(coregraph);if (characterisationSet.isEmpty()) characterisationSet.add(Arrays.asList(new Label[]{}));
+		characterisationSet = computeWSet(coregraph,characterisationSet);if (characterisationSet.isEmpty()) characterisationSet.add(Arrays.asList(new Label[]{}));
 		transitionCover = crossWithSet(partialSet,alphabet);transitionCover.addAll(partialSet);
 
 		SlowPrefixFreeCollection testsequenceCollection = new SlowPrefixFreeCollection();
@@ -115,7 +116,7 @@ public class WMethod
 	{
 		Set<Label> alphabet =  coregraph.learnerCache.getAlphabet();
 		List<List<Label>> stateCover = coregraph.pathroutines.computeStateCover(initialState);
-		characterisationSet = computeWSet_reducedmemory(coregraph);if (characterisationSet.isEmpty()) characterisationSet.add(Arrays.asList(new Label[]{}));
+		characterisationSet = computeWSet(coregraph,characterisationSet);if (characterisationSet.isEmpty()) characterisationSet.add(Arrays.asList(new Label[]{}));
 		transitionCover = crossWithSet(stateCover,alphabet);transitionCover.addAll(stateCover);
 
 		PTASequenceEngine engine = new PTA_FSMStructure(coregraph,initialState);
@@ -136,6 +137,58 @@ public class WMethod
 	{
 		return computeNewTestSet(coregraph.getInit(),numberOfExtraStates).getData();
 	}
+
+	/** Returns a generator of the same sequences as {@link #computeNewTestSet(CmpVertex, int)}, 
+	 * which produces them one at a time rather than storing all of them in memory.
+	 */
+	public WMethodSequenceGenerator generateNewTestSet(CmpVertex initialState, int numberOfExtraStates)
+	{
+		Set<Label> alphabet =  coregraph.learnerCache.getAlphabet();
+		List<List<Label>> stateCover = coregraph.pathroutines.computeStateCover(initialState);
+		characterisationSet = computeWSet(coregraph,characterisationSet);if (characterisationSet.isEmpty()) characterisationSet.add(Arrays.asList(new Label[]{}));
+		transitionCover = crossWithSet(stateCover,alphabet);transitionCover.addAll(stateCover);
+
+		return new WMethodSequenceGenerator(coregraph, initialState, stateCover, alphabet, characterisationSet, numberOfExtraStates);
+	}
+	
+	public WMethodSequenceGenerator generateNewTestSet(int numberOfExtraStates)
+	{
+		return generateNewTestSet(coregraph.getInit(),numberOfExtraStates);
+	}
+	
+	/** Computes a characterising set using the algorithm chosen by {@link Configuration#getWSetAlgorithm()}.
+	 *
+	 * @param fsm the machine to process
+	 * @param previousW a characterising set computed earlier, such as for a previous version of the same graph; can be null.
+	 * Only used by {@link PartitionRefinementWSet} where it speeds up the computation.
+	 * @return characterising set
+	 */
+	public static Collection<List<Label>> computeWSet(LearnerGraph fsm, Collection<List<Label>> previousW) throws EquivalentStatesException
+	{
+		switch(fsm.config.getWSetAlgorithm())
+		{
+		case WSET_PARTITIONREFINEMENT:
+			return computeWSet_partitionRefinement(fsm, previousW, fsm.config.getWSetThreadNumber());
+		case WSET_REDUCEDMEMORY:
+			return computeWSet_reducedmemory(fsm);
+		default:
+			throw new IllegalArgumentException("unknown W set algorithm "+fsm.config.getWSetAlgorithm());
+		}
+	}
+
+	/** Computes a characterising set by refinement of a partition of states, using multiple threads. 
+	 * 
+	 * @param fsm the machine to process
+	 * @param previousW sequences to refine the partition with before the refinement starts, can be null.
+	 * @param threads the number of threads to use.
+	 * @return characterising set
+	 */
+	public static Collection<List<Label>> computeWSet_partitionRefinement(LearnerGraph fsm, Collection<List<Label>> previousW, int threads) throws EquivalentStatesException
+	{
+		PartitionRefinementWSet refinement = new PartitionRefinementWSet(fsm, threads);
+		refinement.refine(previousW);
+		return refinement.getCharacterisationSet();
+	}
 	
 	/** Checks if the supplied FSM has equivalent states. */
 	public static boolean checkEquivalentStates(LearnerGraph fsm)
@@ -0,0 +1,265 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.collections;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/** A store of sequences of integers kept outside the Java heap, either in direct buffers or in memory-mapped files.
+ * A sequence is identified by the position of its first element. Sequences stored by {@link #append(int[])} are never
+ * modified or moved, hence can be read by multiple threads without locking; their space is only reclaimed when the whole store
+ * is garbage-collected. Where sequences change, blocks should be obtained from {@link #allocate(int)}, updated in place
+ * with {@link #set(long, int[])} and returned with {@link #free(long, int)} when no longer needed, so that they can be reused.
+ * Blocks have capacities that are powers of two and those freed are kept in a separate list for each capacity.
+ * <p>
+ * The store is made of chunks, the first of which is small and the subsequent ones double in size up to {@link #MAX_CHUNK_BITS},
+ * so that a store holding a handful of sequences does not take much memory.
+ */
+public class OffHeapIntStore
+{
+	/** The number of integers in the first chunk is 2 to this power. */
+	public static final int MIN_CHUNK_BITS = 12;
+
+	/** The maximal number of integers in a chunk is 2 to this power. */
+	public static final int MAX_CHUNK_BITS = 24;
+
+	/** Directory to keep memory-mapped files in, null if direct buffers should be used. */
+	protected final File directory;
+
+	/** Chunks of this store, each chunk {@code i} starts at position {@link #chunkStart}[i]. */
+	protected volatile IntBuffer [] chunks = new IntBuffer[0];
+
+	/** Positions of the first elements of chunks. */
+	protected volatile long [] chunkStart = new long[0];
+
+	/** The number of integers used in the last chunk. */
+	protected int usedInLastChunk = 0;
+
+	/** Positions of freed blocks, by the base-2 logarithm of their capacity; each list is a stack of {@link #freeBlockNumber} elements. */
+	protected final long [][] freeBlocks = new long[Integer.SIZE][];
+
+	/** The number of freed blocks of each capacity. */
+	protected final int [] freeBlockNumber = new int[Integer.SIZE];
+
+	/** Constructs a store.
+	 *
+	 * @param storageDirectory directory to create memory-mapped files in, null to use direct buffers.
+	 */
+	public OffHeapIntStore(String storageDirectory)
+	{
+		directory = storageDirectory == null? null:new File(storageDirectory);
+	}
+
+	/** Returns an empty store keeping its data in the same place as this one. */
+	public OffHeapIntStore emptyCopy()
+	{
+		return new OffHeapIntStore(directory == null? null:directory.getAbsolutePath());
+	}
+
+	/** Returns the total number of integers stored, including those in sequences that are no longer used and in freed blocks. */
+	public synchronized long size()
+	{
+		if (chunks.length == 0)
+			return 0;
+		return chunkStart[chunks.length-1]+usedInLastChunk;
+	}
+
+	/** Allocates a chunk of the specified number of integers. */
+	protected IntBuffer allocateChunk(int size)
+	{
+		ByteBuffer buffer = null;
+		if (directory == null)
+			buffer = ByteBuffer.allocateDirect(4*size);
+		else
+		{
+			RandomAccessFile file = null;
+			try
+			{
+				File chunkFile = File.createTempFile("offheap_chunk", ".bin", directory);chunkFile.deleteOnExit();
+				file = new RandomAccessFile(chunkFile, "rw");
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4L*size);// the mapping remains valid after the file is closed
+				if (!chunkFile.delete())
+					chunkFile.deleteOnExit();
+			}
+			catch(IOException ex)
+			{
+				throw new IllegalArgumentException("failed to create an off-heap chunk in "+directory+": "+ex.getMessage(),ex);
+			}
+			finally
+			{
+				if (file != null)
+					try { file.close(); } catch (IOException e) { /* ignore this */ }
+			}
+		}
+		return buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/** Reserves space for the specified number of integers at the end of the store, within a single chunk, and returns its position. */
+	protected long reserve(int length)
+	{
+		int last = chunks.length-1;
+		if (last < 0 || chunks[last].capacity()-usedInLastChunk < length)
+		{// start a new chunk; the remainder of the current one is not used.
+			int bits = Math.min(MAX_CHUNK_BITS, MIN_CHUNK_BITS+chunks.length);
+			int size = Math.max(1 << bits, length);
+			long start = last < 0? 0:chunkStart[last]+chunks[last].capacity();
+			IntBuffer [] newChunks = Arrays.copyOf(chunks, chunks.length+1);newChunks[last+1] = allocateChunk(size);
+			long [] newStart = Arrays.copyOf(chunkStart, chunkStart.length+1);newStart[last+1] = start;
+			chunkStart = newStart;chunks = newChunks;
+			usedInLastChunk = 0;++last;
+		}
+		long position = chunkStart[last]+usedInLastChunk;
+		usedInLastChunk += length;
+		return position;
+	}
+
+	/** Stores the supplied sequence and returns its position.
+	 *
+	 * @param data sequence to store
+	 * @return position of the first element of the sequence.
+	 */
+	public synchronized long append(int [] data)
+	{
+		long position = reserve(data.length);
+		set(position, data);
+		return position;
+	}
+
+	/** Returns the capacity of a block that can hold a sequence of the supplied length, the smallest power of two not below it. */
+	public static int capacityFor(int length)
+	{
+		if (length < 0 || length > 1 << 30)
+			throw new IllegalArgumentException("invalid length of a sequence "+length);
+		return length <= 1? 1:Integer.highestOneBit(length-1) << 1;
+	}
+
+	/** Returns the base-2 logarithm of a capacity of a block. */
+	protected static int capacityBits(int capacity)
+	{
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("capacity of a block should be a power of two, got "+capacity);
+		return Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/** Returns the position of a block of the specified capacity, reusing a freed one if there is any.
+	 * The contents of the block are undefined.
+	 *
+	 * @param capacity the number of integers in the block, a power of two such as that returned by {@link #capacityFor(int)}.
+	 * @return position of the first element of the block.
+	 */
+	public synchronized long allocate(int capacity)
+	{
+		int bits = capacityBits(capacity);
+		if (freeBlockNumber[bits] > 0)
+			return freeBlocks[bits][--freeBlockNumber[bits]];
+		return reserve(capacity);
+	}
+
+	/** Makes the block at the specified position available for reuse by {@link #allocate(int)}.
+	 *
+	 * @param position position of the block
+	 * @param capacity capacity the block was allocated with.
+	 */
+	public synchronized void free(long position, int capacity)
+	{
+		int bits = capacityBits(capacity);
+		long [] blocks = freeBlocks[bits];
+		if (blocks == null)
+			blocks = new long[16];
+		else
+		if (freeBlockNumber[bits] == blocks.length)
+			blocks = Arrays.copyOf(blocks, blocks.length*2);
+		freeBlocks[bits] = blocks;
+		blocks[freeBlockNumber[bits]++] = position;
+	}
+
+	/** Returns the total number of integers in freed blocks. */
+	public synchronized long freeSize()
+	{
+		long result = 0;
+		for(int bits=0;bits<freeBlockNumber.length;++bits)
+			result+=(long)freeBlockNumber[bits] << bits;
+		return result;
+	}
+
+	/** Replaces elements starting from the specified position with those of the supplied sequence.
+	 * The position should be that of a block with a capacity of at least the length of the sequence.
+	 */
+	public void set(long position, int [] data)
+	{
+		if (data.length > 0)
+		{
+			long [] starts = chunkStart;
+			int chunk = chunkOf(position, starts);
+			IntBuffer buffer = chunks[chunk];
+			int offset = (int)(position-starts[chunk]);
+			for(int i=0;i<data.length;++i)
+				buffer.put(offset+i, data[i]);// blocks never span chunks
+		}
+	}
+
+	/** Replaces an element at the specified position. */
+	public void set(long position, int value)
+	{
+		long [] starts = chunkStart;
+		int chunk = chunkOf(position, starts);
+		chunks[chunk].put((int)(position-starts[chunk]), value);
+	}
+
+	/** Returns the index of the chunk containing the supplied position. */
+	protected int chunkOf(long position, long [] starts)
+	{
+		int pos = Arrays.binarySearch(starts, position);
+		return pos >= 0? pos:-pos-2;
+	}
+
+	/** Returns an element at the specified position. */
+	public int get(long position)
+	{
+		long [] starts = chunkStart;
+		int chunk = chunkOf(position, starts);
+		return chunks[chunk].get((int)(position-starts[chunk]));
+	}
+
+	/** Copies a sequence at the specified position into an array.
+	 *
+	 * @param position the position of the first element
+	 * @param length the number of elements to copy
+	 * @return a new array with the elements.
+	 */
+	public int [] get(long position, int length)
+	{
+		int [] result = new int[length];
+		if (length > 0)
+		{
+			long [] starts = chunkStart;
+			int chunk = chunkOf(position, starts);
+			IntBuffer buffer = chunks[chunk];
+			int offset = (int)(position-starts[chunk]);
+			for(int i=0;i<length;++i)
+				result[i] = buffer.get(offset+i);// sequences never span chunks
+		}
+		return result;
+	}
+}
@@ -0,0 +1,368 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.model.testset;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.linear.RowTaskScheduler;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+
+/** Enumerates the test set of the W method, <em>stateCover</em> &times; <em>alphabet</em><sup>0..k+1</sup> &times; <em>W</em>,
+ * one sequence at a time, returning the same sequences as {@link PTASequenceEngine#getData()} of an engine
+ * built by {@link statechum.analysis.learning.rpnicore.WMethod#computeNewTestSet(CmpVertex, int)}.
+ * That is, sequences are truncated after the first input that is not accepted by the graph and only sequences that are not
+ * prefixes of other sequences are returned.
+ * <p>
+ * Rather than storing a PTA of the test set, a depth-first walk is performed through the tree of prefixes of test sequences.
+ * For each prefix, positions it can correspond to in a test sequence are recorded: a node in a tree of state cover sequences,
+ * the number of inputs from the alphabet appended to a state cover sequence and nodes in a tree of sequences of <em>W</em>.
+ * Each prefix is therefore visited once and the memory used depends on the length of test sequences rather than on their number.
+ * <p>
+ * A generator can be split into two, each covering a part of the remaining sequences, using {@link #trySplit()}, so that
+ * different parts can be processed by different threads. A generator should only be used by one thread at a time.
+ */
+public class WMethodSequenceGenerator implements Iterator<List<Label>>
+{
+	/** Sequences stored as a tree, where nodes are numbered from zero, the root being the zero node. */
+	protected static class SequenceTree
+	{
+		/** For each node, maps labels to children. */
+		protected final List<Map<Label,Integer>> children = new ArrayList<Map<Label,Integer>>();
+
+		/** Nodes where a sequence ends. */
+		protected final BitSet terminal = new BitSet();
+
+		public SequenceTree(Collection<List<Label>> sequences)
+		{
+			children.add(new HashMap<Label,Integer>());
+			for(List<Label> seq:sequences)
+			{
+				int node = 0;
+				for(Label label:seq)
+				{
+					Integer next = children.get(node).get(label);
+					if (next == null)
+					{
+						next = children.size();children.get(node).put(label, next);children.add(new HashMap<Label,Integer>());
+					}
+					node = next;
+				}
+				terminal.set(node);
+			}
+		}
+
+		/** Returns the child of the supplied node associated with the supplied label, -1 if there is none. */
+		public int child(int node, Label label)
+		{
+			Integer next = children.get(node).get(label);
+			return next == null? -1:next.intValue();
+		}
+	}
+
+	/** The graph test sequences are generated for. */
+	protected final LearnerGraph graph;
+
+	/** Labels to append to state cover sequences, in the order they are tried. */
+	protected final Label [] alphabet;
+
+	/** State cover sequences. */
+	protected final SequenceTree stateCover;
+
+	/** The characterising set. */
+	protected final SequenceTree wSet;
+
+	/** The maximal number of inputs from the alphabet between a state cover sequence and a sequence from <em>W</em>. */
+	protected final int maxMiddle;
+
+	/** A prefix of test sequences, the top of the stack of the depth-first walk. */
+	protected class Frame
+	{
+		/** The state entered by the prefix. */
+		final CmpVertex state;
+
+		/** The label leading to this prefix from the previous one, null for the first frame of a generator. */
+		final Label label;
+
+		/** The node of the state cover tree, -1 if the prefix is not a prefix of any state cover sequence. */
+		final int stateCoverNode;
+
+		/** Numbers of inputs from the alphabet appended to a state cover sequence to obtain this prefix. */
+		final BitSet middle;
+
+		/** Nodes of the tree of <em>W</em> sequences, this prefix can end with. */
+		final BitSet wNodes;
+
+		/** Indices of labels in the alphabet that extend this prefix to other prefixes of test sequences. */
+		final int [] extensions;
+
+		/** The next extension to consider and the one after the last to consider. */
+		int next, end;
+
+		Frame(CmpVertex st, Label lbl, int scNode, BitSet mid, BitSet w, int [] ext)
+		{
+			state = st;label = lbl;stateCoverNode = scNode;middle = mid;wNodes = w;
+			extensions = ext;next = 0;end = ext.length;
+		}
+
+		/** Constructs a frame for the prefix obtained by appending the supplied label to this one. */
+		Frame extend(CmpVertex target, Label lbl)
+		{
+			int scNode = stateCoverNode >= 0? stateCover.child(stateCoverNode, lbl):-1;
+			BitSet mid = new BitSet(), w = new BitSet();
+			for(int m=middle.nextSetBit(0);m>=0 && m < maxMiddle;m=middle.nextSetBit(m+1))
+				mid.set(m+1);
+			for(int node=wNodes.nextSetBit(0);node>=0;node=wNodes.nextSetBit(node+1))
+			{
+				int child = wSet.child(node, lbl);
+				if (child >= 0) w.set(child);
+			}
+			return createFrame(target, lbl, scNode, mid, w);
+		}
+	}
+
+	/** Constructs a frame, adding positions corresponding to the start of the next part of a test sequence where the current part may end
+	 * and computing labels that can follow the prefix in a test sequence.
+	 */
+	protected Frame createFrame(CmpVertex state, Label label, int stateCoverNode, BitSet middle, BitSet wNodes)
+	{
+		if (stateCoverNode >= 0 && stateCover.terminal.get(stateCoverNode))
+			middle.set(0);
+		if (!middle.isEmpty())
+			wNodes.set(0);
+		boolean middleCanBeExtended = !middle.isEmpty() && middle.nextSetBit(0) < maxMiddle;
+		int [] ext = new int[alphabet.length];int count = 0;
+		for(int i=0;i<alphabet.length;++i)
+		{
+			Label lbl = alphabet[i];
+			boolean canExtend = middleCanBeExtended || (stateCoverNode >= 0 && stateCover.child(stateCoverNode, lbl) >= 0);
+			for(int w=wNodes.nextSetBit(0);w>=0 && !canExtend;w=wNodes.nextSetBit(w+1))
+				canExtend = wSet.child(w, lbl) >= 0;
+			if (canExtend)
+				ext[count++]=i;
+		}
+		int [] extensions = new int[count];System.arraycopy(ext, 0, extensions, 0, count);
+		return new Frame(state, label, stateCoverNode, middle, wNodes, extensions);
+	}
+
+	/** The prefix of all sequences returned by this generator, leading to the first frame. */
+	protected final List<Label> prefixToRoot;
+
+	/** The stack of the depth-first walk. */
+	protected final LinkedList<Frame> stack = new LinkedList<Frame>();
+
+	/** The sequence to return next, null if it has not yet been found. */
+	protected List<Label> pending = null;
+
+	/** Constructs a generator of sequences starting from the supplied state.
+	 *
+	 * @param graph the graph to generate test sequences for
+	 * @param initialState the state to start from
+	 * @param stateCoverSequences sequences leading from the initial state to all states
+	 * @param alphabetToUse labels to append to state cover sequences
+	 * @param characterisationSet the characterising set
+	 * @param numberOfExtraStates the number of extra states, as per {@link statechum.analysis.learning.rpnicore.WMethod#computeNewTestSet(CmpVertex, int)}.
+	 */
+	public WMethodSequenceGenerator(LearnerGraph argGraph, CmpVertex initialState, Collection<List<Label>> stateCoverSequences,
+			Collection<Label> alphabetToUse, Collection<List<Label>> characterisationSet, int numberOfExtraStates)
+	{
+		graph = argGraph;alphabet = alphabetToUse.toArray(new Label[alphabetToUse.size()]);
+		stateCover = new SequenceTree(stateCoverSequences);wSet = new SequenceTree(characterisationSet);
+		maxMiddle = numberOfExtraStates+1;prefixToRoot = new ArrayList<Label>();
+		if (!initialState.isAccept())
+			pending = new ArrayList<Label>();// as per PTASequenceEngine, where the initial state is a reject-state, the only sequence is an empty one.
+		else
+			pushFrame(createFrame(initialState, null, 0, new BitSet(), new BitSet()));
+	}
+
+	/** Constructs a generator returning a part of sequences of another generator. */
+	protected WMethodSequenceGenerator(WMethodSequenceGenerator from, List<Label> prefix, Frame root)
+	{
+		graph = from.graph;alphabet = from.alphabet;stateCover = from.stateCover;wSet = from.wSet;maxMiddle = from.maxMiddle;
+		prefixToRoot = prefix;stack.add(root);
+	}
+
+	/** Pushes the supplied frame on the stack if the prefix can be extended, otherwise records it as the next sequence to return. */
+	protected void pushFrame(Frame frame)
+	{
+		if (frame.end > 0)
+			stack.addLast(frame);
+		else
+			pending = currentSequence(frame.label);
+	}
+
+	/** Returns the sequence leading to the top of the stack, followed by the supplied label if not null. */
+	protected List<Label> currentSequence(Label last)
+	{
+		List<Label> result = new ArrayList<Label>(prefixToRoot.size()+stack.size()+1);
+		result.addAll(prefixToRoot);
+		for(Frame frame:stack)
+			if (frame.label != null && frame != stack.getFirst()) result.add(frame.label);
+		if (last != null) result.add(last);
+		return result;
+	}
+
+	/** Walks the tree of prefixes until the next sequence to return is found or there are no more sequences. */
+	protected void advance()
+	{
+		while(pending == null && !stack.isEmpty())
+		{
+			Frame top = stack.getLast();
+			if (top.next < top.end)
+			{
+				Label lbl = alphabet[top.extensions[top.next++]];
+				Map<Label,CmpVertex> row = graph.transitionMatrix.get(top.state);
+				CmpVertex target = row == null? null:row.get(lbl);
+				if (target == null || !target.isAccept())
+					pending = currentSequence(lbl);// the sequence is truncated where an input is not accepted.
+				else
+					pushFrame(top.extend(target, lbl));
+			}
+			else
+				stack.removeLast();
+		}
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		advance();
+		return pending != null;
+	}
+
+	@Override
+	public List<Label> next()
+	{
+		advance();
+		if (pending == null)
+			throw new NoSuchElementException();
+		List<Label> result = pending;pending = null;
+		return result;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException("test sequences cannot be removed");
+	}
+
+	/** Splits the sequences that remain to be returned by this generator between this generator and a new one,
+	 * in a similar way to <em>trySplit</em> of <em>Spliterator</em>.
+	 *
+	 * @return a generator that will return a part of the remaining sequences that will no longer be returned by this one, null if the remaining sequences cannot be split.
+	 */
+	public WMethodSequenceGenerator trySplit()
+	{
+		List<Label> prefix = new ArrayList<Label>(prefixToRoot);
+		boolean first = true;
+		for(Frame frame:stack)
+		{// the shallowest frame with multiple extensions has most of the sequences behind it.
+			if (!first) prefix.add(frame.label);
+			first = false;
+			if (frame.end - frame.next > 1)
+			{
+				int middle = (frame.next+frame.end)/2;
+				Frame root = new Frame(frame.state, frame.label, frame.stateCoverNode, frame.middle, frame.wNodes, frame.extensions);
+				root.next = middle;root.end = frame.end;
+				frame.end = middle;
+				return new WMethodSequenceGenerator(this, prefix, root);
+			}
+		}
+		return null;
+	}
+
+	/** Handles test sequences generated by {@link WMethodSequenceGenerator#processSequences}. */
+	public interface SequenceHandler
+	{
+		/** Called for each sequence, from the thread with the supplied number. */
+		public void handleSequence(List<Label> sequence, int threadNo);
+	}
+
+	/** The number of parts to split the sequences of a generator into for each thread. */
+	public static final int PARTS_PER_THREAD = 4;
+
+	/** Calls the supplied handler on all the remaining sequences of the supplied generator, using the specified number of threads.
+	 * Sequences are split between threads using {@link #trySplit()}.
+	 */
+	public static void processSequences(WMethodSequenceGenerator generator, int threadNumber, final SequenceHandler handler)
+	{
+		if (threadNumber <= 0) throw new IllegalArgumentException("invalid processor number");
+		final List<WMethodSequenceGenerator> parts = new ArrayList<WMethodSequenceGenerator>();parts.add(generator);
+		boolean splitFound = true;
+		while(threadNumber > 1 && splitFound && parts.size() < threadNumber*PARTS_PER_THREAD)
+		{
+			splitFound = false;
+			int partsNumber = parts.size();
+			for(int i=0;i<partsNumber;++i)
+			{
+				WMethodSequenceGenerator part = parts.get(i).trySplit();
+				if (part != null)
+				{
+					parts.add(part);splitFound = true;
+				}
+			}
+		}
+
+		final AtomicInteger nextPart = new AtomicInteger(0);
+		List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(threadNumber);
+		for(int count=0;count < threadNumber;++count)
+		{
+			final int threadNo = count;
+			workers.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception
+				{
+					for(int part=nextPart.getAndIncrement();part<parts.size();part=nextPart.getAndIncrement())
+					{
+						WMethodSequenceGenerator gen = parts.get(part);
+						while(gen.hasNext())
+							handler.handleSequence(gen.next(), threadNo);
+					}
+					return 0;
+				}
+			});
+		}
+
+		try
+		{
+			if (threadNumber > 1)
+			{
+				for(Future<Integer> outcome:RowTaskScheduler.getPool(threadNumber).invokeAll(workers))
+					outcome.get();// this will throw an exception if any of the tasks failed.
+			}
+			else
+				workers.get(0).call();
+		}
+		catch(Exception ex)
+		{
+			IllegalArgumentException e = new IllegalArgumentException("failed to compute, the problem is: "+ex);e.initCause(ex);throw e;
+		}
+	}
+}
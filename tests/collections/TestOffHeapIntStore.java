@@ -0,0 +1,177 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package collections;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.collections.OffHeapIntStore;
+
+public class TestOffHeapIntStore
+{
+	/** Stores random sequences, some of which are longer than the first chunk, and checks that they can be retrieved. */
+	protected static void checkStore(OffHeapIntStore store)
+	{
+		Assert.assertEquals(0, store.size());
+		Random rnd = new Random(0);
+		List<int []> sequences = new ArrayList<int []>();List<Long> positions = new ArrayList<Long>();
+		long total = 0;
+		for(int i=0;i<2000;++i)
+		{
+			int [] data = new int[i % 100 == 0? rnd.nextInt(3 << OffHeapIntStore.MIN_CHUNK_BITS):rnd.nextInt(40)];
+			for(int j=0;j<data.length;++j)
+				data[j] = rnd.nextInt()-Integer.MAX_VALUE/2;
+			sequences.add(data);positions.add(store.append(data));total+=data.length;
+		}
+		Assert.assertTrue(store.size() >= total);
+		for(int i=0;i<sequences.size();++i)
+		{
+			int [] data = sequences.get(i);long position = positions.get(i);
+			Assert.assertArrayEquals(data, store.get(position, data.length));
+			for(int j=0;j<data.length;++j)
+				Assert.assertEquals(data[j], store.get(position+j));
+		}
+	}
+
+	@Test
+	public final void testDirectBuffers()
+	{
+		checkStore(new OffHeapIntStore(null));
+	}
+
+	@Test
+	public final void testMappedFiles() throws IOException
+	{
+		File directory = File.createTempFile("testMappedFiles", "");
+		Assert.assertTrue(directory.delete());Assert.assertTrue(directory.mkdir());
+		try
+		{
+			checkStore(new OffHeapIntStore(directory.getAbsolutePath()));
+			Assert.assertEquals(0, directory.list().length);// files are deleted once mapped
+		}
+		finally
+		{
+			directory.delete();
+		}
+	}
+
+	@Test
+	public final void testEmptySequence()
+	{
+		OffHeapIntStore store = new OffHeapIntStore(null);
+		long position = store.append(new int[]{1,2});
+		Assert.assertEquals(0, store.get(store.append(new int[0]), 0).length);
+		Assert.assertArrayEquals(new int[]{1,2}, store.get(position, 2));
+	}
+
+	@Test
+	public final void testCapacityFor()
+	{
+		Assert.assertEquals(1, OffHeapIntStore.capacityFor(0));
+		Assert.assertEquals(1, OffHeapIntStore.capacityFor(1));
+		Assert.assertEquals(2, OffHeapIntStore.capacityFor(2));
+		Assert.assertEquals(4, OffHeapIntStore.capacityFor(3));
+		Assert.assertEquals(64, OffHeapIntStore.capacityFor(64));
+		Assert.assertEquals(128, OffHeapIntStore.capacityFor(65));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public final void testAllocateInvalidCapacity()
+	{
+		new OffHeapIntStore(null).allocate(3);
+	}
+
+	/** Blocks are updated in place and freed blocks are reused rather than new ones reserved. */
+	@Test
+	public final void testFreeBlocksReused()
+	{
+		OffHeapIntStore store = new OffHeapIntStore(null);
+		long first = store.allocate(4), second = store.allocate(8);
+		store.set(first, new int[]{1,2,3,4});store.set(second, new int[]{5,6});
+		store.set(first+2, 7);
+		Assert.assertArrayEquals(new int[]{1,2,7,4}, store.get(first, 4));
+		Assert.assertArrayEquals(new int[]{5,6}, store.get(second, 2));
+		long size = store.size();
+
+		store.free(first, 4);store.free(second, 8);
+		Assert.assertEquals(12, store.freeSize());
+		Assert.assertEquals(first, store.allocate(4));
+		Assert.assertEquals(second, store.allocate(8));
+		Assert.assertEquals(0, store.freeSize());
+		Assert.assertEquals(size, store.size());
+
+		Assert.assertTrue(first != store.allocate(4));// no more freed blocks
+		Assert.assertEquals(size+4, store.size());
+	}
+
+	/** Repeatedly replaces sequences with longer or shorter ones, checking that the store does not grow beyond the space needed by the longest ones. */
+	@Test
+	public final void testReplaceSequences()
+	{
+		OffHeapIntStore store = new OffHeapIntStore(null);
+		Random rnd = new Random(0);
+		final int number = 100;
+		int [][] sequences = new int[number][];long [] positions = new long[number];int [] capacities = new int[number];
+		for(int i=0;i<100*number;++i)
+		{
+			int seq = rnd.nextInt(number);
+			int [] data = new int[rnd.nextInt(64)];
+			for(int j=0;j<data.length;++j)
+				data[j] = rnd.nextInt();
+			if (data.length > capacities[seq])
+			{
+				if (capacities[seq] > 0)
+					store.free(positions[seq], capacities[seq]);
+				capacities[seq] = OffHeapIntStore.capacityFor(data.length);positions[seq] = store.allocate(capacities[seq]);
+			}
+			store.set(positions[seq], data);sequences[seq] = data;
+		}
+		for(int seq=0;seq<number;++seq)
+			if (sequences[seq] != null)
+				Assert.assertArrayEquals(sequences[seq], store.get(positions[seq], sequences[seq].length));
+		Assert.assertTrue(store.size() <= 2*number*64);
+	}
+
+	@Test
+	public final void testEmptyCopy() throws IOException
+	{
+		File directory = File.createTempFile("testEmptyCopy", "");
+		Assert.assertTrue(directory.delete());Assert.assertTrue(directory.mkdir());
+		try
+		{
+			OffHeapIntStore store = new OffHeapIntStore(directory.getAbsolutePath());
+			store.append(new int[]{1,2});
+			OffHeapIntStore copy = store.emptyCopy();
+			Assert.assertEquals(0, copy.size());
+			long position = copy.append(new int[]{3});
+			Assert.assertEquals(3, copy.get(position));
+			Assert.assertEquals(2, store.size());
+			Assert.assertEquals(0, directory.list().length);
+		}
+		finally
+		{
+			directory.delete();
+		}
+	}
+}
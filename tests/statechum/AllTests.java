@@ -42,8 +42,16 @@ public class AllTests {
     @RunWith(Suite.class)
     @Suite.SuiteClasses({
         statechum.analysis.learning.TestPTAConstruction.class,
+        statechum.analysis.learning.rpnicore.TestMappedTraceLoader.class,
+        statechum.analysis.learning.rpnicore.TestConcurrentPTABuilder.class,
         statechum.analysis.learning.TestRpniLearner.class,
+        statechum.analysis.learning.rpnicore.TestPairScoreCache.class,
+        statechum.analysis.learning.rpnicore.TestConcurrentPairScoring.class,
+        statechum.analysis.learning.rpnicore.TestUnionFindMergeEngine.class,
+        statechum.analysis.learning.rpnicore.TestTransitionMatrixOverlay.class,
+        statechum.analysis.learning.rpnicore.TestDenseTransitionMatrix.class,
         statechum.analysis.learning.rpnicore.TestLTL_to_ba.class,
+        statechum.analysis.learning.rpnicore.TestLTLTranslator.class,
         statechum.analysis.learning.rpnicore.TestAugmentUsingIFTHEN.class,
         statechum.analysis.learning.rpnicore.TestAugmentUsingIFTHEN.TestQuestionPTA.class,
         statechum.analysis.learning.rpnicore.TestRandomPathGenerator.class,
@@ -64,7 +72,8 @@ public class AllTests {
         statechum.analysis.learning.observers.TestWriteReadAugmentPta.class,
         statechum.analysis.learning.observers.TestGraphSeries.class,
         statechum.analysis.learning.observers.TestRecorderIntegration.class,
-        statechum.analysis.learning.observers.TestAutoAnswers.class
+        statechum.analysis.learning.observers.TestAutoAnswers.class,
+        statechum.analysis.learning.observers.TestBinaryTrace.class
     })
     public static class ObserversTests {// all tests are included in the annotation.
     }
@@ -84,12 +93,14 @@ public class AllTests {
         statechum.apps.TestQSMTool.TestInvalidTraces.class,
         statechum.analysis.learning.experiments.TestPaperUAS.class,
         collections.TestArrayOperations.class,
+        collections.TestOffHeapIntStore.class,
         statechum.analysis.learning.rpnicore.TestNextID.class,
         statechum.analysis.learning.rpnicore.TestGraphBasicAlgorithms.class,
         statechum.analysis.learning.rpnicore.TestGraphConstruction.class,
         statechum.analysis.learning.rpnicore.TestGraphConstructionWithDifferentConf.class,
         statechum.analysis.learning.experiments.PairSelection.TestWekaPairClassifier.class,
-        statechum.analysis.learning.experiments.TestSGE_ExperimentRunner.class
+        statechum.analysis.learning.experiments.TestSGE_ExperimentRunner.class,
+        statechum.analysis.learning.experiments.TestExperimentResultStore.class
     })
     public static class BasicTests {// all tests are included in the annotation.
     }
@@ -100,10 +111,12 @@ public class AllTests {
         statechum.analysis.learning.TestPathTracing.class,
         statechum.model.testset.TestPrefixRemovingCollection.class,
         statechum.model.testset.TestPTASequenceEngine.class,
+        statechum.model.testset.TestWMethodSequenceGenerator.class,
         statechum.analysis.learning.rpnicore.TestMiscTransformFunctions.class,
         statechum.analysis.learning.rpnicore.TestTransform.class,
         statechum.analysis.learning.rpnicore.TestWMethodUniversal.class,
         statechum.analysis.learning.rpnicore.TestWMethod.class,
+        statechum.analysis.learning.rpnicore.TestPartitionRefinementWSet.class,
         statechum.analysis.learning.experiments.TestForestFireGenerator.class,
         statechum.analysis.learning.TestDrawGraphs.class,
         statechum.analysis.learning.experiments.mutation.TestGraphMutator.class,
@@ -120,6 +133,9 @@ public class AllTests {
         statechum.analysis.learning.linear.TestLinear.class,
         statechum.analysis.learning.linear.TestSolverRandomly.class,
         statechum.analysis.learning.linear.TestSolver.class,
+        statechum.analysis.learning.linear.TestIterativeSolver.class,
+        statechum.analysis.learning.linear.TestGDMatrixChunks.class,
+        statechum.analysis.learning.linear.TestRowTaskScheduler.class,
         statechum.analysis.learning.linear.TestMatrixComputationWithMultipleThreads.class,
         statechum.analysis.learning.linear.TestGD.class,
         statechum.analysis.learning.linear.TestGD_Multithreaded.class,
@@ -70,6 +70,7 @@ import statechum.analysis.learning.rpnicore.MergeStates;
 import statechum.analysis.learning.rpnicore.TestEquivalenceChecking;
 import statechum.analysis.learning.rpnicore.Transform;
 import statechum.analysis.learning.rpnicore.WMethod;
+import statechum.analysis.learning.rpnicore.UnionFindMergeEngine;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
 import statechum.analysis.learning.rpnicore.WMethod.DifferentFSMException;
 import statechum.model.testset.PTASequenceSet;
@@ -1390,6 +1391,15 @@ public class TestRpniLearner extends Test_Orig_RPNIBlueFringeLearnerTestComponen
 		Assert.assertEquals(expectedScore, score);
 		if (score >=0)
 			matchCollectionsOfVertices(result, expectedSrc);
+		
+		for(int threads:new int[]{1,4})
+		{// the same merger performed by the engine based on disjoint sets.
+			result.clear();score = -2;
+			score = new UnionFindMergeEngine(fsm, threads).computePairCompatibilityScore_general(new StatePair(fsm.findVertex(VertexID.parseID("A")),fsm.findVertex(VertexID.parseID("B"))),null,result);
+			Assert.assertEquals(expectedScore, score);
+			if (score >=0)
+				matchCollectionsOfVertices(result, expectedSrc);
+		}
 	}
 	
 	@Test
@@ -2,13 +2,17 @@ package statechum.analysis.learning.experiments.PairSelection;
 
 import static statechum.analysis.learning.rpnicore.TestFSMAlgo.buildSet;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -24,22 +28,31 @@ import org.junit.runners.Parameterized.Parameters;
 import org.junit.runners.ParameterizedWithName.ParametersToString;
 
 import statechum.Configuration;
+import statechum.Configuration.ScoreMode;
 import statechum.Helper;
 import statechum.JUConstants;
 import statechum.Label;
 import statechum.StringLabel;
 import statechum.Trace;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
 import statechum.Helper.whatToRun;
+import statechum.analysis.learning.ASE2014.EDSM_MarkovLearner;
 import statechum.analysis.learning.MarkovClassifier;
 import statechum.analysis.learning.MarkovModel;
+import statechum.analysis.learning.MarkovPathWalker;
 import statechum.analysis.learning.MarkovModel.UpdatablePairInteger;
+import statechum.analysis.learning.MarkovModel.MarkovMatrixEngine.PredictionForSequence;
 import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.observers.ProgressDecorator.LearnerEvaluationConfiguration;
 import statechum.analysis.learning.MarkovModel.MarkovOutcome;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass;
 import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
 import statechum.analysis.learning.rpnicore.FsmParser;
 import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraphCachedData;
 import statechum.analysis.learning.rpnicore.LearnerGraphND;
+import statechum.analysis.learning.rpnicore.MergeStates;
 import statechum.analysis.learning.rpnicore.TestFSMAlgo;
 import statechum.analysis.learning.rpnicore.WMethod;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
@@ -295,6 +308,262 @@ public class TestMarkovLearner
 		}, IllegalArgumentException.class, "empty");
 	}
 	
+	/** Checks that a Markov model stored in a table makes the same predictions as the one stored in a PTA, including predictions for sequences that were not seen. */
+	protected void compareWithTable(MarkovModel m, MarkovModel mTable, Collection<List<Label>> sequencesToCheck)
+	{
+		Assert.assertEquals(m.computePredictionMatrix(),mTable.computePredictionMatrix());
+		Assert.assertEquals(m.computeOccurrenceMatrix(),mTable.computeOccurrenceMatrix());
+		for(List<Label> sequence:sequencesToCheck)
+			for(int i=0;i<=sequence.size();++i)
+			{
+				PredictionForSequence expected = m.getPrediction(sequence.subList(0, i)), actual = mTable.getPrediction(sequence.subList(0, i));
+				if (expected == null)
+					Assert.assertNull(actual);
+				else
+				{
+					Assert.assertSame(expected.prediction, actual.prediction);Assert.assertEquals(expected.occurrence, actual.occurrence);
+				}
+			}
+	}
+	
+	@Test
+	public void testCreateMarkovTable1()
+	{
+		Set<List<Label>> plusStrings = buildSet(new String[][] { new String[]{"a","b","c"}, new String[]{"a","b"}, new String[]{"a","d","c"}},config,converter), minusStrings = buildSet(new String[][] { new String[]{"a","b","c","d"}, new String[]{"a","u"} },config,converter);
+		for(boolean onlyLongest:new boolean[]{false,true})
+			for(int chunkLen=2;chunkLen<5;++chunkLen)
+			{
+				MarkovModel m = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix), mTable = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix,true);
+				Assert.assertNull(mTable.markovMatrix);
+				m.createMarkovLearner(plusStrings, minusStrings,onlyLongest);mTable.createMarkovLearner(plusStrings, minusStrings,onlyLongest);
+				List<List<Label>> sequencesToCheck = new LinkedList<List<Label>>(plusStrings);sequencesToCheck.addAll(minusStrings);
+				sequencesToCheck.addAll(buildSet(new String[][] { new String[]{"b","a","u"}, new String[]{"c","d","b"}, new String[]{"e"} },config,converter));
+				compareWithTable(m, mTable, sequencesToCheck);
+			}
+	}
+
+	/** Builds Markov models from random traces. */
+	@Test
+	public void testCreateMarkovTable2()
+	{
+		Random rnd = new Random(0);
+		Label [] alphabet = new Label[]{lblA,lblB,lblC,lblD,lblU};
+		for(int attempt=0;attempt<20;++attempt)
+		{
+			List<List<Label>> plusStrings = new LinkedList<List<Label>>(), minusStrings = new LinkedList<List<Label>>();
+			for(int i=0;i<10+rnd.nextInt(attempt*10+1);++i)
+			{
+				List<Label> sequence = new LinkedList<Label>();
+				for(int j=rnd.nextInt(10);j>0;--j)
+					sequence.add(alphabet[rnd.nextInt(alphabet.length)]);
+				if (rnd.nextInt(4) == 0) minusStrings.add(sequence);else plusStrings.add(sequence);
+			}
+			plusStrings.add(Arrays.asList(new Label[]{lblA}));// ensures that traces are never empty
+			int chunkLen = 2+rnd.nextInt(3);boolean onlyLongest = rnd.nextBoolean();
+			MarkovModel m = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix), mTable = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix,true);
+			m.createMarkovLearner(plusStrings, minusStrings,onlyLongest);mTable.createMarkovLearner(plusStrings, minusStrings,onlyLongest);
+			List<List<Label>> sequencesToCheck = new LinkedList<List<Label>>(plusStrings);sequencesToCheck.addAll(minusStrings);
+			compareWithTable(m, mTable, sequencesToCheck);
+		}
+	}
+
+	/** Predictions returned by a table can be modified in the same way as those stored in a PTA. */
+	@Test
+	public void testCreateMarkovTable3()
+	{
+		MarkovModel m = new MarkovModel(3,true,true,markovPTAUseMatrix), mTable = new MarkovModel(3,true,true,markovPTAUseMatrix,true);
+		Set<List<Label>> plusStrings = buildSet(new String[][] { new String[]{"a","b","c"}, new String[]{"a","d","c"}},config,converter), minusStrings = buildSet(new String[][] { new String[]{"a","u"} },config,converter);
+		m.createMarkovLearner(plusStrings, minusStrings,true);mTable.createMarkovLearner(plusStrings, minusStrings,true);
+		Set<List<Label>> sequencesToCheck = buildSet(new String[][] { new String[]{"a","b","c"}, new String[]{"u","c","d"}, new String[]{"a","b"}},config,converter);
+		for(MarkovModel model:new MarkovModel[]{m,mTable})
+		{
+			Assert.assertNull(model.getPrediction(Arrays.asList(new Label[]{lblU,lblC})));
+			PredictionForSequence prediction = model.getPredictionAndCreateNewOneIfNecessary(Arrays.asList(new Label[]{lblU,lblC,lblD}));
+			Assert.assertNull(prediction.prediction);
+			prediction.occurrence.add(0, 3);prediction.prediction = MarkovOutcome.negative;
+			Assert.assertNull(model.getPrediction(Arrays.asList(new Label[]{lblU,lblC})).prediction);// prefixes are added without predictions
+			prediction = model.getPrediction(Arrays.asList(new Label[]{lblA,lblB}));
+			prediction.occurrence.add(1, 0);prediction.prediction = MarkovOutcome.failure;
+			Assert.assertEquals(new UpdatablePairInteger(1, 0), model.computeOccurrenceMatrix().get(Arrays.asList(new Label[]{lblA,lblB})));
+		}
+		compareWithTable(m, mTable, sequencesToCheck);
+		Assert.assertSame(MarkovOutcome.negative, mTable.computePredictionMatrix().get(Arrays.asList(new Label[]{lblU,lblC,lblD})));
+		Assert.assertSame(MarkovOutcome.failure, mTable.computePredictionMatrix().get(Arrays.asList(new Label[]{lblA,lblB})));
+
+		// adding the same traces again updates the modified predictions
+		m.createMarkovLearner(plusStrings, minusStrings,true);mTable.createMarkovLearner(plusStrings, minusStrings,true);
+		compareWithTable(m, mTable, sequencesToCheck);
+		Assert.assertSame(MarkovOutcome.positive, mTable.computePredictionMatrix().get(Arrays.asList(new Label[]{lblA,lblB})));
+		Assert.assertEquals(new UpdatablePairInteger(2, 0), mTable.computeOccurrenceMatrix().get(Arrays.asList(new Label[]{lblA,lblB,lblC})));
+	}
+
+	@Test
+	public void testCreateMarkovTableFail1()
+	{
+		final MarkovModel m = new MarkovModel(2,true,true,markovPTAUseMatrix,true);
+		Helper.checkForCorrectException(new whatToRun() {
+			@Override
+			public void run() throws NumberFormatException
+			{
+				m.getPredictionAndCreateNewOneIfNecessary(Arrays.asList(new Label[]{lblA,lblB,lblC}));
+			}
+		}, IllegalArgumentException.class, "is longer than 2");
+		Assert.assertNull(m.getPrediction(Arrays.asList(new Label[]{lblA,lblB,lblC})));
+	}
+
+	/** Where chunks are very long, only a few labels can be packed. */
+	@Test
+	public void testCreateMarkovTableFail2()
+	{
+		final MarkovModel m = new MarkovModel(32,true,true,markovPTAUseMatrix,true);
+		m.getPredictionAndCreateNewOneIfNecessary(Arrays.asList(new Label[]{lblA,lblB,lblA}));
+		Helper.checkForCorrectException(new whatToRun() {
+			@Override
+			public void run() throws NumberFormatException
+			{
+				m.getPredictionAndCreateNewOneIfNecessary(Arrays.asList(new Label[]{lblA,lblC}));
+			}
+		}, IllegalArgumentException.class, "too many labels");
+		Helper.checkForCorrectException(new whatToRun() {
+			@SuppressWarnings("unused")
+			@Override
+			public void run() throws NumberFormatException
+			{
+				new MarkovModel(33,true,true,markovPTAUseMatrix,true);
+			}
+		}, IllegalArgumentException.class, "cannot be packed");
+	}
+	
+	/** Generates random traces. */
+	protected List<List<Label>> randomTraces(Random rnd, int number)
+	{
+		Label [] alphabet = new Label[]{lblA,lblB,lblC,lblD,lblU};
+		List<List<Label>> traces = new LinkedList<List<Label>>();
+		for(int i=0;i<number;++i)
+		{
+			List<Label> sequence = new LinkedList<Label>();
+			for(int j=rnd.nextInt(10);j>0;--j)
+				sequence.add(alphabet[rnd.nextInt(alphabet.length)]);
+			traces.add(sequence);
+		}
+		return traces;
+	}
+	
+	/** Builds Markov models from random traces sequentially and using multiple threads. */
+	@Test
+	public void testCreateMarkovLearnerConcurrently1()
+	{
+		Random rnd = new Random(0);
+		for(int attempt=0;attempt<20;++attempt)
+		{
+			List<List<Label>> plusStrings = randomTraces(rnd, 10+rnd.nextInt(attempt*100+1)), minusStrings = randomTraces(rnd, rnd.nextInt(attempt*30+1));
+			int chunkLen = 2+rnd.nextInt(3);boolean onlyLongest = rnd.nextBoolean();
+			MarkovModel m = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix);
+			m.createMarkovLearner(plusStrings, minusStrings,onlyLongest);
+			List<List<Label>> sequencesToCheck = new LinkedList<List<Label>>(plusStrings);sequencesToCheck.addAll(minusStrings);
+			List<List<Label>> tableOrder = null;
+			for(int threads=1;threads<5;++threads)
+			{
+				MarkovModel mConcurrent = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix), mTable = new MarkovModel(chunkLen,true,true,markovPTAUseMatrix,true);
+				mConcurrent.createMarkovLearner(plusStrings, minusStrings,onlyLongest,threads);mTable.createMarkovLearner(plusStrings, minusStrings,onlyLongest,threads);
+				Assert.assertEquals(m.computePredictionMatrix(),mConcurrent.computePredictionMatrix());
+				Assert.assertEquals(m.computeOccurrenceMatrix(),mConcurrent.computeOccurrenceMatrix());
+				compareWithTable(m, mTable, sequencesToCheck);
+				
+				// the order of sequences in the table does not depend on the number of threads
+				List<List<Label>> order = new LinkedList<List<Label>>(mTable.computePredictionMatrix().keySet());
+				if (tableOrder == null) tableOrder = order;else Assert.assertEquals(tableOrder, order);
+			}
+		}
+	}
+
+	/** Traces are consumed from iterators as they are needed. */
+	@Test
+	public void testCreateMarkovLearnerConcurrently2()
+	{
+		final Random rnd = new Random(1);
+		final int traceNumber = 5*MarkovModel.tracesPerBatch+10;
+		final AtomicInteger tracesGenerated = new AtomicInteger(0);
+		Iterator<List<Label>> plusIterator = new Iterator<List<Label>>() {
+
+			@Override
+			public boolean hasNext() {
+				return tracesGenerated.get() < traceNumber;
+			}
+
+			@Override
+			public List<Label> next() {
+				tracesGenerated.incrementAndGet();
+				return randomTraces(rnd, 1).get(0);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		List<List<Label>> minusStrings = randomTraces(new Random(2), 100);
+		MarkovModel mConcurrent = new MarkovModel(3,true,true,markovPTAUseMatrix);
+		mConcurrent.createMarkovLearner(plusIterator, minusStrings.iterator(),false,3);
+		Assert.assertEquals(traceNumber, tracesGenerated.get());
+		
+		MarkovModel m = new MarkovModel(3,true,true,markovPTAUseMatrix);
+		List<List<Label>> plusStrings = randomTraces(new Random(1), traceNumber);
+		m.createMarkovLearner(plusStrings, minusStrings,false);
+		Assert.assertEquals(m.computePredictionMatrix(),mConcurrent.computePredictionMatrix());
+		Assert.assertEquals(m.computeOccurrenceMatrix(),mConcurrent.computeOccurrenceMatrix());
+	}
+
+	@Test
+	public void testCreateMarkovLearnerConcurrentlyFail()
+	{
+		final MarkovModel m = new MarkovModel(2,true,true,markovPTAUseMatrix);
+		final Set<List<Label>> plusStrings = new HashSet<List<Label>>(), minusStrings = buildSet(new String[][] { new String[]{},new String[]{} },config,converter);
+		Helper.checkForCorrectException(new whatToRun() {
+			@Override
+			public void run() throws NumberFormatException
+			{
+				m.createMarkovLearner(plusStrings, minusStrings,false,2);
+			}
+		}, IllegalArgumentException.class, "empty");
+		Assert.assertTrue(m.computePredictionMatrix().isEmpty());
+		
+		final Iterator<List<Label>> failingIterator = new Iterator<List<Label>>() {
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public List<Label> next() {
+				return new AbstractList<Label>() {
+					@Override
+					public Label get(@SuppressWarnings("unused") int index) {
+						throw new IllegalStateException("cannot read trace");
+					}
+
+					@Override
+					public int size() {
+						return 3;
+					}
+				};
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		Helper.checkForCorrectException(new whatToRun() {
+			@Override
+			public void run() throws NumberFormatException
+			{
+				m.createMarkovLearner(failingIterator, minusStrings.iterator(),false,2);
+			}
+		}, IllegalArgumentException.class, "cannot read trace");
+	}
+	
 	/** Nothing to add because there not enough evidence. */
 	@Test
 	public void testConstructExtendedGraph1()
@@ -2392,6 +2661,165 @@ public class TestMarkovLearner
 		Assert.assertEquals(0.5,pair.secondElem,Configuration.fpAccuracy);// transition a is not predicted
 	}
 	
+	@Test
+	public void testComputeClosureInAnyGraph1()
+	{
+		Set<CmpVertex> verts=new TreeSet<CmpVertex>();verts.add(trainingGraphForClosures.findVertex("B"));
+		MarkovClassifier.computeClosureInAnyGraph(trainingGraphForClosures,verts,2);
+		Assert.assertEquals("[B, C, D]",verts.toString());
+		verts.clear();verts.add(trainingGraphForClosures.findVertex("B"));
+		MarkovClassifier.computeClosureInAnyGraph(trainingGraphForClosures,verts,0);
+		Assert.assertEquals("[B]",verts.toString());
+	}
+	
+	@Test
+	public void testComputeClosureInAnyGraph2()
+	{
+		LearnerGraphND inverse = MarkovClassifier.computeInverseGraph(trainingGraphForClosures);
+		Set<CmpVertex> verts=new TreeSet<CmpVertex>();verts.add(inverse.findVertex("D"));
+		MarkovClassifier.computeClosureInAnyGraph(inverse,verts,1);
+		Assert.assertEquals("[C, D]",verts.toString());
+		MarkovClassifier.computeClosureInAnyGraph(inverse,verts,1);
+		Assert.assertEquals("[B, C, D]",verts.toString());
+		MarkovClassifier.computeClosureInAnyGraph(inverse,verts,5);
+		Assert.assertEquals("[A, B, C, D]",verts.toString());
+	}
+	
+	/** Checks that inconsistencies of mergers computed using cached inconsistencies of vertices are the same as those computed without caching. */
+	@Test
+	public void testCachedInconsistencies()
+	{
+		Random rnd = new Random(0);
+		final MarkovClassifier.ConsistencyChecker checker = new MarkovClassifier.DifferentPredictionsInconsistency();
+		for(boolean [] direction:new boolean[][]{new boolean[]{true,true},new boolean[]{false,true},new boolean[]{false,false}})
+			for(int attempt=0;attempt<4;++attempt)
+			{
+				LearnerGraph pta = new LearnerGraph(config);pta.paths.augmentPTA(randomTraces(rnd, 30), true, false);
+				MarkovModel m = new MarkovModel(2+attempt%2,direction[0],direction[1],markovPTAUseMatrix);new MarkovClassifier(m,pta).updateMarkov(false);
+				MarkovClassifier cl = new MarkovClassifier(m, pta);
+				long inconsistency = cl.computeConsistency(checker, false);
+				Assert.assertEquals(MarkovClassifier.computeInconsistency(pta, m, checker, false), inconsistency);
+				for(CmpVertex v:pta.transitionMatrix.keySet())
+					Assert.assertEquals(cl.checkFanoutInconsistency(v, checker), cl.getInconsistency(v, checker));
+				Assert.assertEquals(inconsistency, cl.computeConsistency(checker, false));
+				
+				Map<CmpVertex,Long> origInconsistencies = new TreeMap<CmpVertex,Long>();
+				List<CmpVertex> vertices = new ArrayList<CmpVertex>(pta.transitionMatrix.keySet());
+				for(int pair=0;pair<40;++pair)
+				{
+					StatePair p = new StatePair(vertices.get(rnd.nextInt(vertices.size())),vertices.get(rnd.nextInt(vertices.size())));
+					if (p.getQ() == p.getR())
+						continue;
+					List<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge = new LinkedList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+					if (pta.pairscores.computePairCompatibilityScore_general(p, null, verticesToMerge) < 0)
+						continue;
+					LearnerGraph merged = MergeStates.mergeCollectionOfVertices(pta, null, verticesToMerge);
+					long expected = MarkovClassifier.computeInconsistencyOfAMerger(pta, verticesToMerge, origInconsistencies, merged, m, cl, checker);
+					Assert.assertEquals(expected, cl.computeInconsistencyOfAMerger(verticesToMerge, merged, checker));
+					if (direction[0])
+						Assert.assertEquals(MarkovClassifier.computeInconsistency(merged, m, checker, false)-inconsistency, expected);
+					
+					// inconsistencies of vertices not affected by a merger are retained
+					MarkovClassifier clMerged = new MarkovClassifier(cl, merged, verticesToMerge);
+					Assert.assertEquals(MarkovClassifier.computeInconsistency(merged, m, checker, false), clMerged.computeConsistency(checker, false));
+				}
+			}
+	}
+
+	/** Inconsistencies cached by a classifier are not retained when the model is updated through that classifier and are kept separately for different checkers. */
+	@Test
+	public void testCachedInconsistenciesUpdateMarkov()
+	{
+		Random rnd = new Random(0);
+		final MarkovClassifier.ConsistencyChecker checker = new MarkovClassifier.DifferentPredictionsInconsistency(), 
+				checkerOther = new MarkovClassifier.DifferentPredictionsInconsistencyNoBlacklistingIncludeMissingPrefixes();
+		for(int attempt=0;attempt<4;++attempt)
+		{
+			LearnerGraph pta = new LearnerGraph(config);pta.paths.augmentPTA(randomTraces(rnd, 30), true, false);
+			LearnerGraph ptaOther = new LearnerGraph(config);ptaOther.paths.augmentPTA(randomTraces(rnd, 30), true, false);
+			MarkovModel m = new MarkovModel(2+attempt%2,true,true,markovPTAUseMatrix);new MarkovClassifier(m,pta).updateMarkov(false);
+			MarkovClassifier cl = new MarkovClassifier(m, ptaOther);
+			long inconsistency = cl.computeConsistency(checker, false), inconsistencyOther = cl.computeConsistency(checkerOther, false);
+			Assert.assertEquals(MarkovClassifier.computeInconsistency(ptaOther, m, checker, false), inconsistency);
+			Assert.assertEquals(MarkovClassifier.computeInconsistency(ptaOther, m, checkerOther, false), inconsistencyOther);
+			Assert.assertEquals(inconsistency, cl.computeConsistency(checker, false));
+
+			CmpVertex vertex = ptaOther.getInit();
+			cl.updateMarkov(vertex, m.getChunkLen());
+			Assert.assertEquals(cl.checkFanoutInconsistency(vertex, checker), cl.getInconsistency(vertex, checker));
+			cl.updateMarkov(false);
+			Assert.assertEquals(MarkovClassifier.computeInconsistency(ptaOther, m, checker, false), cl.computeConsistency(checker, false));
+			Assert.assertEquals(MarkovClassifier.computeInconsistency(ptaOther, m, checkerOther, false), cl.computeConsistency(checkerOther, false));
+		}
+	}
+	
+	/** A classifier constructed for a graph obtained by merging states of the graph of another classifier reuses the inconsistencies cached by that classifier. */
+	@Test
+	public void testCachedInconsistenciesAfterMerger()
+	{
+		Random rnd = new Random(1);
+		final MarkovClassifier.ConsistencyChecker checker = new MarkovClassifier.DifferentPredictionsInconsistency();
+		for(boolean [] direction:new boolean[][]{new boolean[]{true,true},new boolean[]{false,true},new boolean[]{false,false}})
+			for(int attempt=0;attempt<4;++attempt)
+			{
+				LearnerGraph pta = new LearnerGraph(config);pta.paths.augmentPTA(randomTraces(rnd, 30), true, false);
+				MarkovModel m = new MarkovModel(2+attempt%2,direction[0],direction[1],markovPTAUseMatrix);new MarkovClassifier(m,pta).updateMarkov(false);
+				MarkovClassifier cl = new MarkovClassifier(m, pta);
+				LearnerGraph graph = pta;
+				cl.computeConsistency(checker, false);
+				List<CmpVertex> vertices = new ArrayList<CmpVertex>(pta.transitionMatrix.keySet());
+				for(int pair=0;pair<40;++pair)
+				{
+					StatePair p = new StatePair(vertices.get(rnd.nextInt(vertices.size())),vertices.get(rnd.nextInt(vertices.size())));
+					if (p.getQ() == p.getR() || !graph.transitionMatrix.containsKey(p.getQ()) || !graph.transitionMatrix.containsKey(p.getR()))
+						continue;
+					List<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> verticesToMerge = new LinkedList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+					if (graph.pairscores.computePairCompatibilityScore_general(p, null, verticesToMerge) < 0)
+						continue;
+					LearnerGraph merged = MergeStates.mergeCollectionOfVertices(graph, null, verticesToMerge);
+					Assert.assertSame(graph, merged.learnerCache.getMergedFrom());
+					cl = new MarkovClassifier(cl, merged);graph = merged;
+					Assert.assertEquals(MarkovClassifier.computeInconsistency(merged, m, checker, false), cl.computeConsistency(checker, false));
+				}
+				
+				// a graph not obtained by merging states of the graph of a classifier
+				LearnerGraph copy = new LearnerGraph(config);LearnerGraph.copyGraphs(pta, copy);
+				Assert.assertNull(copy.learnerCache.getMergedFrom());
+				Assert.assertEquals(MarkovClassifier.computeInconsistency(pta, m, checker, false), new MarkovClassifier(cl, copy).computeConsistency(checker, false));
+			}
+	}
+
+	/** Learns using Markov models stored in a table and in a PTA, expecting the same outcome. */
+	@Test
+	public void testLearnWithTable()
+	{
+		Random rnd = new Random(0);
+		final MarkovClassifier.ConsistencyChecker checker = new MarkovClassifier.DifferentPredictionsInconsistencyNoBlacklistingIncludeMissingPrefixes();
+		Configuration learnerConfig = config.copy();learnerConfig.setAskQuestions(false);learnerConfig.setLearnerScoreMode(ScoreMode.GENERAL);
+		LearnerEvaluationConfiguration evalConfig = new LearnerEvaluationConfiguration(learnerConfig);evalConfig.setLabelConverter(converter);
+		for(int attempt=0;attempt<4;++attempt)
+		{
+			LearnerGraph pta = new LearnerGraph(config);pta.paths.augmentPTA(randomTraces(rnd, 20), true, false);
+			MarkovModel m = new MarkovModel(2+attempt%2,true,true,markovPTAUseMatrix), mTable = new MarkovModel(2+attempt%2,true,true,markovPTAUseMatrix,true);
+			new MarkovClassifier(m,pta).updateMarkov(false);new MarkovClassifier(mTable,pta).updateMarkov(false);
+			Assert.assertEquals(m.computePredictionMatrix(),mTable.computePredictionMatrix());
+			Assert.assertEquals(m.computeOccurrenceMatrix(),mTable.computeOccurrenceMatrix());
+			Assert.assertEquals(MarkovClassifier.computeInconsistency(pta, m, checker, false), MarkovClassifier.computeInconsistency(pta, mTable, checker, false));
+			
+			LearnerGraph [] outcome = new LearnerGraph[2];int i=0;
+			for(MarkovModel model:new MarkovModel[]{m,mTable})
+			{
+				LearnerGraph ptaCopy = new LearnerGraph(learnerConfig);LearnerGraph.copyGraphs(pta, ptaCopy);
+				EDSM_MarkovLearner learner = new EDSM_MarkovLearner(evalConfig,ptaCopy,0);learner.setMarkov(model);learner.setChecker(checker);
+				outcome[i++] = learner.learnMachine(new LinkedList<List<Label>>(),new LinkedList<List<Label>>());
+			}
+			Assert.assertTrue(outcome[0].getStateNumber() < pta.getStateNumber());
+			DifferentFSMException diff = WMethod.checkM(outcome[0], outcome[1]);
+			if (diff != null)
+				throw diff;
+		}
+	}
+
 	@Test
 	public void testComputeClosure1()
 	{
@@ -2460,5 +2888,108 @@ public class TestMarkovLearner
 		Assert.assertFalse(MarkovClassifier.checkIfThereIsPathOfSpecificLength(trainingGraphForClosures,trainingGraphForClosures.findVertex("D"),2));// only paths of length 1 are possible from D
 	}
 	
+	/** Checks that paths reported by {@link MarkovPathWalker} are the same as those reported by {@link MarkovClassifier#WalkThroughAllPathsOfSpecificLength}, in the same order. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected static void comparePathWalkers(AbstractLearnerGraph graph, int maxLength)
+	{
+		MarkovPathWalker walker = new MarkovPathWalker(graph);
+		for(Object v:graph.transitionMatrix.keySet())
+			for(int length=0;length<=maxLength;++length)
+			{
+				final List<List<Label>> expected = new ArrayList<List<Label>>();
+				MarkovClassifier.WalkThroughAllPathsOfSpecificLength(graph, (CmpVertex)v, length, new MarkovClassifier.ForEachCollectionOfPaths() {
+					@Override
+					public void handlePath(List<Label> path) {
+						expected.add(new ArrayList<Label>(path));
+					}
+				});
+				for(final boolean reverse:new boolean[]{false,true})
+				{
+					final List<List<Label>> actual = new ArrayList<List<Label>>();
+					walker.walkThroughAllPathsOfSpecificLength((CmpVertex)v, length, reverse, new MarkovClassifier.ForEachCollectionOfPaths() {
+						@Override
+						public void handlePath(List<Label> path) {
+							List<Label> copy = new ArrayList<Label>(path);
+							if (reverse) Collections.reverse(copy);
+							actual.add(copy);
+						}
+					});
+					Assert.assertEquals(expected, actual);
+				}
+			}
+	}
+	
+	@Test
+	public void testPathWalker1()
+	{
+		comparePathWalkers(trainingGraphForClosures, 5);
+		comparePathWalkers(MarkovClassifier.computeInverseGraph(trainingGraphForClosures), 5);
+	}
+	
+	/** Reject-states are not explored and not reported. */
+	@Test
+	public void testPathWalker2()
+	{
+		LearnerGraph graph = FsmParser.buildLearnerGraph("A-a->B-b->C / B-u-#D / A-c-#E / C-a->A","testPathWalker2",config, converter);
+		comparePathWalkers(graph, 4);comparePathWalkers(MarkovClassifier.computeInverseGraph(graph), 4);
+		final List<List<Label>> paths = new ArrayList<List<Label>>();
+		MarkovPathWalker walker = new MarkovPathWalker(graph);
+		MarkovClassifier.ForEachCollectionOfPaths collector = new MarkovClassifier.ForEachCollectionOfPaths() {
+			@Override
+			public void handlePath(List<Label> path) {
+				paths.add(new ArrayList<Label>(path));
+			}
+		};
+		walker.walkThroughAllPathsOfSpecificLength(graph.findVertex("D"), 0, false, collector);
+		Assert.assertTrue(paths.isEmpty());
+		walker.walkThroughAllPathsOfSpecificLength(graph.findVertex("A"), 3, true, collector);
+		Assert.assertEquals(TestFSMAlgo.buildList(new String[][]{new String[]{"a","b","a"}}, config, converter), paths);
+	}
+	
+	/** Random graphs, where inverse graphs have many paths that can be followed in multiple ways. In the second half of attempts, 
+	 * a state with over a thousand outgoing transitions is added, so that paths of length 6 cannot be packed into a single number.
+	 */
+	@Test
+	public void testPathWalker3()
+	{
+		Random rnd = new Random(0);
+		for(int attempt=0;attempt<20;++attempt)
+		{
+			int labels = attempt < 10?3:40, states = 2+rnd.nextInt(10);
+			StringBuffer description = new StringBuffer();
+			for(int from=0;from<states;++from)
+				for(int label=0;label<labels;++label)
+					if (rnd.nextInt(labels) < 3)
+					{
+						int to = rnd.nextInt(states+1);
+						description.append("S"+from+"-l"+label+(to == states?"-#R"+from+"L"+label:"->S"+to)+" / ");
+					}
+			if (description.length() == 0)
+				continue;
+			if (attempt >= 10)
+				for(int label=0;label<1100;++label)
+					description.append("X-m"+label+"->Y / ");
+			LearnerGraph graph = FsmParser.buildLearnerGraph(description.toString(),"testPathWalker3_"+attempt,config, converter);
+			comparePathWalkers(graph, 3);comparePathWalkers(MarkovClassifier.computeInverseGraph(graph), attempt < 10?5:6);
+		}
+	}
+	
+	@Test
+	public void testPathWalkerFail()
+	{
+		final MarkovPathWalker walker = new MarkovPathWalker(trainingGraphForClosures);
+		final MarkovClassifier.ForEachCollectionOfPaths ignore = new MarkovClassifier.ForEachCollectionOfPaths() {
+			@Override
+			public void handlePath(@SuppressWarnings("unused") List<Label> path) {
+			}
+		};
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			walker.walkThroughAllPathsOfSpecificLength(AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID("Q"), config), 1, false, ignore);
+		}},IllegalArgumentException.class,"is not in the graph");
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			walker.walkThroughAllPathsOfSpecificLength(trainingGraphForClosures.findVertex("A"), -1, false, ignore);
+		}},IllegalArgumentException.class,"invalid length");
+	}
+	
 }
 
@@ -0,0 +1,123 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import statechum.GlobalConfiguration;
+import statechum.GlobalConfiguration.G_PROPERTIES;
+
+public class TestExperimentResultStore {
+
+	public static final File testDir = new File(GlobalConfiguration.getConfiguration().getProperty(G_PROPERTIES.TEMP),"__TestExperimentResultStore__");
+
+	@Before
+	public void before()
+	{
+		if (!testDir.isDirectory())
+			Assert.assertTrue("could not create "+testDir.getAbsolutePath(),testDir.mkdirs());
+	}
+
+	@After
+	public void after()
+	{
+		ExperimentRunner.zapDir(testDir);
+	}
+
+	@Test
+	public void testEmptyStore() throws IOException
+	{
+		ExperimentResultStore store = new ExperimentResultStore(testDir);
+		Assert.assertTrue(store.load().isEmpty());
+		Assert.assertFalse(store.isCompleted("A", 0));
+	}
+
+	@Test
+	public void testAppendAndLoad() throws IOException
+	{
+		ExperimentResultStore store = new ExperimentResultStore(testDir);
+		store.append("A", 0, "a|b\nc");store.append("B", 0, "");store.append("A", 3, "text \u00e9");
+		Assert.assertTrue(store.isCompleted("A", 0));Assert.assertTrue(store.isCompleted("A", 3));Assert.assertTrue(store.isCompleted("B", 0));
+		Assert.assertFalse(store.isCompleted("A", 1));Assert.assertFalse(store.isCompleted("B", 3));Assert.assertFalse(store.isCompleted("C", 0));
+
+		Map<String,Map<Integer,String>> outcome = new ExperimentResultStore(testDir).load();
+		Assert.assertEquals("{A={0=a|b\nc, 3=text \u00e9}, B={0=}}", outcome.toString());
+	}
+
+	/** Where a task is recorded more than once, the last outcome is used. */
+	@Test
+	public void testLastOutcomeUsed() throws IOException
+	{
+		ExperimentResultStore store = new ExperimentResultStore(testDir);
+		store.append("A", 0, "first");store.append("A", 0, "second");
+		Assert.assertEquals("{A={0=second}}", store.load().toString());
+	}
+
+	/** Records damaged by crashed processes are skipped, including those followed by records appended by other processes. */
+	@Test
+	public void testDamagedRecords() throws IOException
+	{
+		ExperimentResultStore store = new ExperimentResultStore(testDir);
+		store.append("A", 0, "outcome 0");store.append("A", 1, "outcome 1");
+		File results = new File(testDir,ExperimentResultStore.resultsFileName), index = new File(testDir,ExperimentResultStore.indexFileName);
+		long lengthOfTwo = results.length();
+		store.append("A", 2, "outcome 2");
+		RandomAccessFile file = new RandomAccessFile(results,"rw");
+		try
+		{// truncate the last record, as if the process adding it crashed.
+			file.setLength(file.length()-3);
+		}
+		finally
+		{
+			file.close();
+		}
+		Assert.assertEquals("{A={0=outcome 0, 1=outcome 1}}", store.load().toString());
+
+		file = new RandomAccessFile(index,"rw");
+		try
+		{// the same for the index.
+			file.setLength(file.length()-5);
+		}
+		finally
+		{
+			file.close();
+		}
+		store.append("A", 3, "outcome 3");
+		Assert.assertEquals("{A={0=outcome 0, 1=outcome 1, 3=outcome 3}}", store.load().toString());
+		Assert.assertTrue(store.isCompleted("A", 1));Assert.assertTrue(store.isCompleted("A", 3));
+
+		file = new RandomAccessFile(results,"rw");
+		try
+		{// corrupt the text of the second record.
+			file.seek(lengthOfTwo-12);file.write('X');
+		}
+		finally
+		{
+			file.close();
+		}
+		Assert.assertEquals("{A={0=outcome 0, 3=outcome 3}}", store.load().toString());
+	}
+}
@@ -221,6 +221,60 @@ public class TestSGE_ExperimentRunner {
 		return experimentRunner.successfulTermination();
 	}
 	
+	// same as runB but the worker running the second sample terminates the first time it does it and 
+	// the third sample runs out of memory the first time it is run. Only used with a farm of workers.
+	public int runCrash(String []args)
+	{
+		RunSubExperiment<Integer> experimentRunner = new RunSubExperiment<Integer>(1,testDir.getAbsolutePath(),args);
+				for(int sample=0;sample<3;++sample)
+				{
+					DummyExperiment learnerRunner = new DummyExperiment(sample){
+						@Override
+						public Integer call() throws Exception 
+						{
+							File marker = new File(testDir,"crashed"+value);
+							if (value > 0 && marker.createNewFile())
+							{
+								if (value == 1)
+									Runtime.getRuntime().halt(3);
+								throw new OutOfMemoryError("simulated");
+							}
+							return value;
+						}
+					};
+					experimentRunner.submitTask(learnerRunner);
+				}
+			experimentRunner.collectOutcomeOfExperiments(new processSubExperimentResult<Integer>() {
+
+				@Override
+				public void processSubResult(Integer result, RunSubExperiment<Integer> experimentrunner) throws IOException 
+				{
+					experimentrunner.Record(gr_StructuralDiff,new Double(result),new Double(result+1),"dd"+new Double(result+1),null);
+					experimentrunner.Record(gr_BCR,new Double(result+1),new Double(result-1),null,"tt"+new Double(result+1));
+				}
+
+				@Override
+				public String getSubExperimentName()
+				{
+					return "tmp/experimentrunA";
+				}
+				
+				@SuppressWarnings("rawtypes")
+				@Override
+				public RGraph[] getGraphs() {
+					return new RGraph[]{gr_StructuralDiff,gr_BCR};
+				}
+				
+			});
+		return experimentRunner.successfulTermination();
+	}
+	
+	/** Used to start workers of a farm, the last argument is the name of the method to run. */
+	public static void main(String []args) throws Exception
+	{
+		TestSGE_ExperimentRunner.class.getMethod(args[args.length-1], String[].class).invoke(new TestSGE_ExperimentRunner(), (Object)args);
+	}
+	
 	// same as runA but experiment returns null for one of the samples
 	public int runD(String []args)
 	{
@@ -699,6 +753,109 @@ public class TestSGE_ExperimentRunner {
 		Assert.assertEquals("[1.0,-1.0,NULL,NULL]",gr_b.getData());
 	}
 	
+	// tasks that have already been completed are not run again, permitting a partially complete run to be resumed.
+	@Test
+	public void testResume() throws Exception
+	{
+		int counter = runMultiple(new String[]{"COUNT_TASKS"});
+		for(int i=1;i<=counter-1;++i)
+			Assert.assertEquals(0,runMultiple(new String[]{"RUN_TASK",""+i}));
+		Assert.assertEquals(1,runMultiple(new String[]{"LIST_INCOMPLETE_TASKS"}));
+		
+		// runC fails in the third task, but it is not run because it has already been completed.
+		Assert.assertEquals(0,runC(new String[]{"RUN_TASK","3"}));
+		Assert.assertEquals(0,runMultiple(new String[]{"RUN_TASK",""+counter}));
+		Assert.assertEquals(0,runMultiple(new String[]{"LIST_INCOMPLETE_TASKS"}));
+		Assert.assertEquals(0,runMultiple(new String[]{"COLLECT_RESULTS"}));
+
+		Assert.assertEquals("[1.0,-1.0,NULL,tt1.0][2.0,0.0,NULL,tt2.0][3.0,1.0,NULL,tt3.0]",gr_BCR.getData());
+		Assert.assertEquals("[0.0,1.0,dd1.0,NULL][1.0,2.0,dd2.0,NULL][2.0,3.0,dd3.0,NULL]",gr_StructuralDiff.getData());
+		Assert.assertEquals("[0.0,2.0,aa1.0,bb1.0][1.0,3.0,aa2.0,bb2.0]",gr_a.getData());
+		Assert.assertEquals("[1.0,-1.0,NULL,NULL][2.0,0.0,NULL,NULL]",gr_b.getData());
+	}
+	
+	// a task that failed is not recorded as completed.
+	@Test
+	public void testListIncomplete() throws Exception
+	{
+		for(int i=1;i<=3;++i)
+			try
+			{
+				runC(new String[]{"RUN_TASK",""+i});
+			}
+			catch(IllegalArgumentException ex)
+			{
+				Assert.assertEquals(3, i);// only the third task fails
+			}
+		Assert.assertEquals(1,runC(new String[]{"LIST_INCOMPLETE_TASKS"}));
+		Assert.assertEquals(3,runA(new String[]{"LIST_INCOMPLETE_TASKS"}));// runA is a different experiment
+	}
+	
+	@Test
+	public void testFarm1() throws Exception
+	{
+		Assert.assertEquals(0,runMultiple(new String[]{"RUN_LOCAL_FARM","2","runMultiple"}));
+		Assert.assertEquals("[1.0,-1.0,NULL,tt1.0][2.0,0.0,NULL,tt2.0][3.0,1.0,NULL,tt3.0]",gr_BCR.getData());
+		Assert.assertEquals("[0.0,1.0,dd1.0,NULL][1.0,2.0,dd2.0,NULL][2.0,3.0,dd3.0,NULL]",gr_StructuralDiff.getData());
+		Assert.assertEquals("[0.0,2.0,aa1.0,bb1.0][1.0,3.0,aa2.0,bb2.0]",gr_a.getData());
+		Assert.assertEquals("[1.0,-1.0,NULL,NULL][2.0,0.0,NULL,NULL]",gr_b.getData());
+		Assert.assertEquals(0,runMultiple(new String[]{"LIST_INCOMPLETE_TASKS"}));
+		Assert.assertTrue(new File(testDir,LocalTaskFarm.durationsFileName).canRead());
+	}
+	
+	// tasks completed by a farm are not run again and outcomes of tasks run on a grid are collected by a farm.
+	@Test
+	public void testFarm2() throws Exception
+	{
+		Assert.assertEquals(0,runB(new String[]{"RUN_TASK","3"}));// this is the only task that fails in runC
+		Assert.assertEquals(0,runC(new String[]{"RUN_LOCAL_FARM","3","runC"}));
+		Assert.assertEquals("[1.0,-1.0,NULL,tt1.0][2.0,0.0,NULL,tt2.0][3.0,1.0,NULL,tt3.0]",gr_BCR.getData());
+	}
+	
+	// workers that terminate or run out of memory are restarted.
+	@Test
+	public void testFarmCrash() throws Exception
+	{
+		Assert.assertEquals(0,runCrash(new String[]{"RUN_LOCAL_FARM","1","runCrash"}));
+		Assert.assertEquals("[1.0,-1.0,NULL,tt1.0][2.0,0.0,NULL,tt2.0][3.0,1.0,NULL,tt3.0]",gr_BCR.getData());
+		Assert.assertEquals("[0.0,1.0,dd1.0,NULL][1.0,2.0,dd2.0,NULL][2.0,3.0,dd3.0,NULL]",gr_StructuralDiff.getData());
+	}
+	
+	@Test
+	public void testFarmFailure() throws Exception
+	{
+		Helper.checkForCorrectException(new whatToRun() {
+			
+			@Override
+			public void run()
+			{
+				runC(new String[]{"RUN_LOCAL_FARM","2","runC"});
+			}
+		}, IllegalArgumentException.class, "tmp_experimentrunA-2: running task failed: task failed");
+		Assert.assertEquals(1,runC(new String[]{"LIST_INCOMPLETE_TASKS"}));
+	}
+	
+	@Test
+	public void testFarmInvalidArguments()
+	{
+		Helper.checkForCorrectException(new whatToRun() {
+			
+			@Override
+			public void run()
+			{
+				runA(new String[]{"RUN_LOCAL_FARM"});
+			}
+		}, IllegalArgumentException.class, "number of workers");
+		Helper.checkForCorrectException(new whatToRun() {
+			
+			@Override
+			public void run()
+			{
+				runA(new String[]{"RUN_LOCAL_FARM","0"});
+			}
+		}, IllegalArgumentException.class, "positive");
+	}
+	
 	// if I run a task with too high an ID, it is ignored
 	@Test
 	public void testRun6() throws Exception
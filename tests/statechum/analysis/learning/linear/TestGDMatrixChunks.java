@@ -0,0 +1,162 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.linear;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.GDScoreComputationEnum;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph.StatesToConsider;
+import statechum.analysis.learning.rpnicore.LSolver;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraphND;
+import statechum.analysis.learning.rpnicore.Transform;
+
+/** Checks that the matrix for computation of compatibility scores is the same regardless of whether it is built in one go or in chunks. */
+public class TestGDMatrixChunks
+{
+	/** Builds a random graph where some of the states are made reject-states so that there are incompatible pairs of states. */
+	protected static LearnerGraph buildGraph(int states, int seed) throws IncompatibleStatesException
+	{
+		Configuration config = Configuration.getDefaultConfiguration().copy();
+		LearnerGraph graph = new MachineGenerator(states, 40, states/5).nextMachine(states/3,seed,config,new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+		Random rnd = new Random(seed);
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (v != graph.getInit() && rnd.nextInt(5) == 0)
+				v.setAccept(false);
+		return graph;
+	}
+
+	protected static LSolver buildMatrix(LearnerGraph graph, StatesToConsider filter, int threads)
+	{
+		return new GDLearnerGraph(graph, filter, false).buildMatrix(threads);
+	}
+
+	protected static void checkSameMatrix(LearnerGraph graph, String spillDirectory)
+	{
+		for(StatesToConsider filter:new StatesToConsider[]{LearnerGraphND.ignoreRejectStates,LearnerGraphND.ignoreNone})
+		{
+			graph.config.setGdMatrixChunkRows(0);
+			LSolver expected = buildMatrix(graph, filter, 1);
+			for(int threads:new int[]{1,3})
+				for(int rows:new int[]{1,2,7,graph.getStateNumber()-1,graph.getStateNumber()+10})
+				{
+					graph.config.setGdMatrixChunkRows(rows);graph.config.setGdMatrixSpillDirectory(spillDirectory);
+					LSolver actual = buildMatrix(graph, filter, threads);
+					Assert.assertArrayEquals(expected.j_Ap, actual.j_Ap);
+					Assert.assertArrayEquals(expected.j_Ai, actual.j_Ai);
+					Assert.assertArrayEquals(expected.j_Ax, actual.j_Ax, 0);
+					Assert.assertArrayEquals(expected.j_b, actual.j_b, 0);
+				}
+		}
+		graph.config.setGdMatrixChunkRows(0);graph.config.setGdMatrixSpillDirectory(null);
+	}
+
+	@Test
+	public final void testSmallGraphs() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<5;++seed)
+			checkSameMatrix(buildGraph(15,seed), null);
+	}
+
+	@Test
+	public final void testLargerGraph() throws IncompatibleStatesException
+	{
+		checkSameMatrix(buildGraph(100,1), null);
+	}
+
+	@Test
+	public final void testSpillToFiles() throws IOException, IncompatibleStatesException
+	{
+		File directory = File.createTempFile("testSpillToFiles", "");
+		Assert.assertTrue(directory.delete());Assert.assertTrue(directory.mkdir());
+		try
+		{
+			checkSameMatrix(buildGraph(40,2), directory.getAbsolutePath());
+			Assert.assertEquals(0, directory.list().length);// files are deleted once mapped
+		}
+		finally
+		{
+			directory.delete();
+		}
+	}
+
+	@Test
+	public final void testEmptyGraph()
+	{
+		LearnerGraph graph = new LearnerGraph(Configuration.getDefaultConfiguration().copy());
+		checkSameMatrix(graph, null);
+	}
+
+	/** Where only the right-hand side is computed, the outcome should not depend on chunks either. */
+	@Test
+	public final void testRightHandSideOnly() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(30,3);graph.config.setGdScoreComputation(GDScoreComputationEnum.GD_DIRECT);
+		double [] expected = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(1, null);
+		graph.config.setGdMatrixChunkRows(3);
+		double [] actual = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(2, null);
+		Assert.assertArrayEquals(expected, actual, 0);
+	}
+
+	/** Scores computed from a matrix built in chunks should be the same as those computed from a matrix built in one go. */
+	@Test
+	public final void testStateCompatibility() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(40,4);
+		graph.config.setLinearSolver(Configuration.LINEARSOLVER.LINEARSOLVER_COLT);
+		double [] expected = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(1, null);
+		graph.config.setGdMatrixChunkRows(4);
+		double [] actual = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(2, null);
+		Assert.assertArrayEquals(expected, actual, Configuration.fpAccuracy);
+	}
+
+	@Test
+	public final void testMatrixChunkStore()
+	{
+		MatrixChunkStore store = new MatrixChunkStore(null);
+		store.append(new int[]{1,2,3}, new double[]{0.5,-1,2}, 2);
+		store.append(new int[0], new double[0], 0);
+		store.append(new int[]{7}, new double[]{3.5}, 1);
+		Assert.assertEquals(3, store.size());
+		int [] Ai = new int[3];double [] Ax = new double[3];
+		store.copyTo(Ai, Ax);
+		Assert.assertArrayEquals(new int[]{1,2,7}, Ai);
+		Assert.assertArrayEquals(new double[]{0.5,-1,3.5}, Ax, 0);
+	}
+
+	@Test
+	public final void testWorkLoadDistributionForRange()
+	{
+		Assert.assertArrayEquals(new int[]{5,10},GDLearnerGraph.partitionWorkLoadTriangular(1,5,10));
+		Assert.assertArrayEquals(new int[]{3,3,3},GDLearnerGraph.partitionWorkLoadTriangular(2,3,3));
+		Assert.assertArrayEquals(GDLearnerGraph.partitionWorkLoadTriangular(3,20),GDLearnerGraph.partitionWorkLoadTriangular(3,0,20));
+		int [] workLoad = GDLearnerGraph.partitionWorkLoadTriangular(2,100,200);
+		Assert.assertEquals(100, workLoad[0]);Assert.assertEquals(200, workLoad[2]);
+		// later rows are longer, hence the first thread should be given more rows.
+		Assert.assertTrue(workLoad[1] > 150 && workLoad[1] < 160);
+	}
+}
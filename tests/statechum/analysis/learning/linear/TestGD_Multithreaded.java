@@ -21,9 +21,12 @@ package statechum.analysis.learning.linear;
 import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
 import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraphND;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Map.Entry;
 
 import org.junit.Assert;
@@ -37,6 +40,7 @@ import statechum.Configuration;
 import statechum.Configuration.STATETREE;
 import statechum.DeterministicDirectedSparseGraph;
 import statechum.JUConstants;
+import statechum.Label;
 import statechum.DeterministicDirectedSparseGraph.CmpVertex;
 import statechum.DeterministicDirectedSparseGraph.VertexID;
 import statechum.JUConstants.PAIRCOMPATIBILITY;
@@ -1958,6 +1962,65 @@ public class TestGD_Multithreaded {
 		Assert.assertEquals("diff of testCounterB to testCounterA is 100% of testCounterB",counter.toString());
 	}
 
+	/** Where candidates for key pairs and changes to a patch are computed by multiple threads, the patch should be the same 
+	 * as that computed by a single thread, including the order of changes. Linear is not used in order to keep the running time low 
+	 * with graphs that are large enough for waves to be split between threads.
+	 */
+	@Test
+	public final void testConcurrentWaves() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<3;++seed)
+		{
+			Random rnd = new Random(seed);
+			LearnerGraph grA = new LearnerGraph(config);grA.initEmpty();
+			List<CmpVertex> states = new ArrayList<CmpVertex>();
+			for(int i=0;i<200+seed*50;++i)
+			{
+				CmpVertex vert = AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID("P"+i), config);
+				states.add(vert);grA.transitionMatrix.put(vert, grA.createNewRow());
+			}
+			grA.setInit(states.get(0));
+			for(int i=1;i<states.size();++i)
+			{// a random spanning tree makes all states reachable, additional transitions are added to it
+				grA.transitionMatrix.get(states.get(rnd.nextInt(i))).put(AbstractLearnerGraph.generateNewLabel(rnd.nextInt(10), config, converter), states.get(i));
+				grA.transitionMatrix.get(states.get(rnd.nextInt(states.size()))).put(AbstractLearnerGraph.generateNewLabel(10+rnd.nextInt(10), config, converter), states.get(rnd.nextInt(states.size())));
+			}
+			LearnerGraph grB = new LearnerGraph(config);AbstractLearnerGraph.copyGraphs(grA, grB);
+			states = new ArrayList<CmpVertex>(grB.transitionMatrix.keySet());
+			for(int mutation=0;mutation<states.size()/5;++mutation)
+			{// redirect or remove random transitions
+				Map<Label,CmpVertex> row = grB.transitionMatrix.get(states.get(rnd.nextInt(states.size())));
+				if (!row.isEmpty())
+				{
+					Label label = new ArrayList<Label>(row.keySet()).get(rnd.nextInt(row.size()));
+					if (rnd.nextInt(3) == 0)
+						row.remove(label);
+					else
+						row.put(label, states.get(rnd.nextInt(states.size())));
+				}
+			}
+			grB.learnerCache.invalidate();
+			grA.setIDNumbers();grB.setIDNumbers();
+			
+			String expected = null;
+			for(boolean concurrent:new boolean[]{false,true})
+			{
+				Configuration configWaves = config.copy();configWaves.setGdConcurrentWaves(concurrent);configWaves.setGdMaxNumberOfStatesInCrossProduct(0);configWaves.setGdFailOnDuplicateNames(false);
+				ChangesRecorder recorder = new ChangesRecorder(null);
+				ChangesDisplay display = new ChangesDisplay(recorder);
+				new GD<CmpVertex,CmpVertex,LearnerGraphCachedData,LearnerGraphCachedData>().computeGD(grA, grB, threadNumber, display,configWaves);
+				if (expected == null)
+					expected = display.toString();
+				else
+					Assert.assertEquals(expected, display.toString());
+				
+				LearnerGraph graph = new LearnerGraph(config);AbstractLearnerGraph.copyGraphs(grA, graph);
+				ChangesRecorder.applyGD(graph, recorder.writeGD(TestGD.createDoc()), converter);
+				Assert.assertNull(WMethod.checkM(graph, grB));
+			}
+		}
+	}
+
 	/** Tests ChangesDisplay and nesting of change observers. */ 
 	@Test
 	public final void testDisplay()
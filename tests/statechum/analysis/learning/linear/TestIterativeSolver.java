@@ -0,0 +1,236 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.linear;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Stack;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.LINEARSOLVER;
+import statechum.Helper;
+import statechum.Helper.whatToRun;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.linear.GDLearnerGraph.StateBasedRandom;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.IterativeSolver;
+import statechum.analysis.learning.rpnicore.LSolver;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraphND;
+import statechum.analysis.learning.rpnicore.Transform;
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.linalg.LUDecompositionQuick;
+
+public class TestIterativeSolver
+{
+	/** Builds a random sparse system of equations where the diagonal dominates the rest of each column.
+	 *
+	 * @param size the number of variables
+	 * @param perCol the number of off-diagonal non-zero elements per column
+	 */
+	protected static LSolver buildSolver(int size, int perCol, long seed)
+	{
+		Random rnd = new Random(seed);
+		int Ap[] = new int[size+1], Ai[] = new int[size*(perCol+1)];
+		double Ax[] = new double[Ai.length], b[] = new double[size];
+		int pos = 0;
+		for(int col=0;col<size;++col)
+		{
+			Ap[col] = pos;
+			int rows[] = new int[perCol+1];rows[0]=col;
+			for(int i=1;i<=perCol;++i)
+			{
+				boolean duplicate = true;
+				while(duplicate)
+				{
+					rows[i] = rnd.nextInt(size);duplicate = false;
+					for(int j=0;j<i;++j) if (rows[j] == rows[i]) duplicate = true;
+				}
+			}
+			Arrays.sort(rows);
+			for(int row:rows)
+			{
+				Ai[pos]=row;Ax[pos]=row == col?perCol+1:rnd.nextDouble()*2-1;++pos;
+			}
+		}
+		Ap[size] = pos;
+		for(int i=0;i<size;++i) b[i]=rnd.nextDouble()*10;
+		return new LSolver(Ap,Ai,Ax,b,new double[size]);
+	}
+
+	/** Checks that <em>Ax=b</em> holds for the solution in the supplied solver, computing <em>Ax</em> directly from the compressed-column form. */
+	protected static void checkSolution(LSolver solver, double accuracy)
+	{
+		int size = solver.j_b.length;
+		double [] product = new double[size];
+		for(int col=0;col<size;++col)
+			for(int i=solver.j_Ap[col];i<solver.j_Ap[col+1];++i)
+				product[solver.j_Ai[i]]+=solver.j_Ax[i]*solver.j_x[col];
+		for(int i=0;i<size;++i)
+			Assert.assertEquals(solver.j_b[i], product[i], accuracy);
+	}
+
+	protected static void checkRandomSystem(int size, boolean ilu, int threads)
+	{
+		LSolver solver = buildSolver(size,3,size);
+		Assert.assertTrue(solver.solveIteratively(threads, ilu, 1e-12, 1000) > 0);
+		checkSolution(solver, 1e-8);
+	}
+
+	@Test
+	public final void testSmallJacobi()
+	{
+		checkRandomSystem(50, false, 1);
+	}
+
+	@Test
+	public final void testSmallILU()
+	{
+		checkRandomSystem(50, true, 1);
+	}
+
+	@Test
+	public final void testLargeJacobi()
+	{
+		checkRandomSystem(20000, false, 1);
+		checkRandomSystem(20000, false, 4);
+	}
+
+	@Test
+	public final void testLargeILU()
+	{
+		checkRandomSystem(20000, true, 1);
+		checkRandomSystem(20000, true, 4);
+	}
+
+	/** Compares the outcome of the iterative solver to that of Colt. */
+	@Test
+	public final void testCompareWithColt()
+	{
+		for(int seed=0;seed<10;++seed)
+			for(boolean ilu:new boolean[]{false,true})
+			{
+				LSolver solver = buildSolver(200,5,seed);
+				LUDecompositionQuick coltSolver = new LUDecompositionQuick();
+				coltSolver.decompose(solver.toDoubleMatrix2D());
+				DoubleMatrix1D expected = solver.toDoubleMatrix1D().copy();coltSolver.solve(expected);
+				solver.solveIteratively(2, ilu, 1e-12, 1000);
+				for(int i=0;i<expected.size();++i)
+					Assert.assertEquals(expected.getQuick(i), solver.j_x[i], 1e-9);
+			}
+	}
+
+	@Test
+	public final void testZeroRightHandSide()
+	{
+		LSolver solver = buildSolver(100,3,0);
+		Arrays.fill(solver.j_b, 0);Arrays.fill(solver.j_x, 1);
+		Assert.assertEquals(0, solver.solveIteratively(1, false, 1e-12, 1000));
+		for(double x:solver.j_x) Assert.assertEquals(0, x, Configuration.fpAccuracy);
+	}
+
+	@Test
+	public final void testZeroDiagonal()
+	{
+		final LSolver solver = new LSolver(new int[]{0,1,2},new int[]{1,0},new double[]{1,1},new double[]{1,2},new double[2]);
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			solver.solveIteratively(1, false, 1e-12, 1000);
+		}},IllegalArgumentException.class,"zero diagonal");
+	}
+
+	@Test
+	public final void testFailureToConverge()
+	{
+		final LSolver solver = buildSolver(1000,30,1);
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			solver.solveIteratively(1, false, 1e-12, 1);
+		}},IllegalArgumentException.class,"failed to converge");
+	}
+
+	/** Small systems are solved in a single thread regardless of the number of threads requested. */
+	@Test
+	public final void testThreadsForSmallSystems()
+	{
+		LSolver solver = buildSolver(100,3,0);
+		IterativeSolver iterative = new IterativeSolver(solver.j_Ap, solver.j_Ai, solver.j_Ax, 8, false);
+		Assert.assertTrue(iterative.solve(solver.j_b, solver.j_x, 1e-12, 1000) > 0);
+		checkSolution(solver, 1e-8);
+	}
+
+	/** Computes compatibility scores of pairs of states of a random graph using the default solver
+	 * (external one if available and Colt otherwise) and the iterative ones, and checks that they agree.
+	 */
+	@Test
+	public final void testStateCompatibility() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<3;++seed)
+		{
+			Configuration config = Configuration.getDefaultConfiguration().copy();
+			LearnerGraph graph = new MachineGenerator(60, 40, 12).nextMachine(10,seed,config,new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+			double [] expected = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(1,null);
+			for(LINEARSOLVER solverKind:new LINEARSOLVER[]{LINEARSOLVER.LINEARSOLVER_ITERATIVE_JACOBI,LINEARSOLVER.LINEARSOLVER_ITERATIVE_ILU})
+				for(int threads:new int[]{1,4})
+				{
+					graph.config.setLinearSolver(solverKind);
+					double [] actual = new GDLearnerGraph(graph, LearnerGraphND.ignoreRejectStates, false).computeStateCompatibility(threads,null);
+					Assert.assertEquals(expected.length, actual.length);
+					for(int i=0;i<expected.length;++i)
+						Assert.assertEquals(expected[i], actual[i], 1e-8);
+				}
+		}
+	}
+
+	/** Chooses pairs of states using scores computed with the default solver and an iterative one, and checks that they are the same. */
+	@Test
+	public final void testChooseStatePairs() throws IncompatibleStatesException
+	{
+		Configuration config = Configuration.getDefaultConfiguration().copy();
+		LearnerGraph graph = new MachineGenerator(60, 40, 12).nextMachine(10,1,config,new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+		Stack<PairScore> expected = graph.pairscores.chooseStatePairs_filtered(0.1, 1000, 1, null, LearnerGraphND.ignoreRejectStates, new StateBasedRandom(1));
+		graph.config.setLinearSolver(LINEARSOLVER.LINEARSOLVER_ITERATIVE_JACOBI);
+		Stack<PairScore> actual = graph.pairscores.chooseStatePairs_filtered(0.1, 1000, 2, null, LearnerGraphND.ignoreRejectStates, new StateBasedRandom(1));
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected.size(), actual.size());
+		// Scores are scaled and truncated, hence may differ by one and pairs with similar scores may be ordered differently.
+		Map<StatePair,Long> actualScores = new TreeMap<StatePair,Long>();
+		for(PairScore pair:actual)
+			actualScores.put(new StatePair(pair.getQ(),pair.getR()), pair.getScore());
+		for(PairScore pair:expected)
+			Assert.assertEquals(pair.getScore(), actualScores.get(new StatePair(pair.getQ(),pair.getR())).longValue(), 1);
+	}
+
+	@Test
+	public final void testSolveUsingConfiguration()
+	{
+		Configuration config = Configuration.getDefaultConfiguration().copy();
+		for(LINEARSOLVER solverKind:new LINEARSOLVER[]{LINEARSOLVER.LINEARSOLVER_COLT,LINEARSOLVER.LINEARSOLVER_ITERATIVE_JACOBI,LINEARSOLVER.LINEARSOLVER_ITERATIVE_ILU})
+		{
+			LSolver solver = buildSolver(100,3,2);
+			config.setLinearSolver(solverKind);solver.solve(1, config);
+			TestSolver.verifyAxb(solver.toDoubleMatrix2D(), solver.toDoubleMatrix1D(), DoubleFactory1D.dense.make(solver.j_x));
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.linear;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Helper;
+import statechum.Helper.whatToRun;
+import statechum.Label;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.linear.GDLearnerGraph.HandleRow;
+import statechum.analysis.learning.linear.RowTaskScheduler.WorkLoadShape;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.AbstractLearnerGraph.StatesToConsider;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.LearnerGraphND;
+import statechum.analysis.learning.rpnicore.Transform;
+
+public class TestRowTaskScheduler
+{
+	protected static LearnerGraph buildGraph(int states, int seed) throws IncompatibleStatesException
+	{
+		return new MachineGenerator(states, 40, states/5).nextMachine(states/3,seed,Configuration.getDefaultConfiguration().copy(),new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+	}
+
+	/** Runs the scheduler with handlers that record the rows they were given and checks that each row is given to exactly one handler,
+	 * that handlers are initialised once and only if they are given any rows and that handlers are not used concurrently.
+	 */
+	protected static void checkRows(final LearnerGraph graph, StatesToConsider filter, int threads, WorkLoadShape shape, int firstRow, int lastRow)
+	{
+		final List<CmpVertex> expected = new ArrayList<CmpVertex>();
+		int row = 0;
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (filter.stateToConsider(v))
+			{
+				if (row >= firstRow && row < lastRow)
+					expected.add(v);
+				++row;
+			}
+
+		final List<CmpVertex> visited = Collections.synchronizedList(new LinkedList<CmpVertex>());
+		final int initCounter[] = new int[threads], rowCounter[] = new int[threads];
+		List<HandleRow<CmpVertex>> handlerList = new LinkedList<HandleRow<CmpVertex>>();
+		for(int threadCnt=0;threadCnt<threads;++threadCnt)
+			handlerList.add(new HandleRow<CmpVertex>()
+			{
+				AtomicInteger inUse = new AtomicInteger(0);
+
+				@Override
+				public void init(int threadNo) {
+					++initCounter[threadNo];
+				}
+
+				@Override
+				public void handleEntry(Entry<CmpVertex, Map<Label, CmpVertex>> entry, int threadNo)
+				{
+					Assert.assertEquals(0, inUse.getAndIncrement());
+					Assert.assertEquals(1, initCounter[threadNo]);
+					visited.add(entry.getKey());++rowCounter[threadNo];
+					inUse.decrementAndGet();
+				}
+			});
+		RowTaskScheduler.performRowTasks(handlerList, threads, graph.transitionMatrix, filter, shape, firstRow, lastRow);
+		Assert.assertEquals(expected.size(), visited.size());
+		Assert.assertEquals(new TreeSet<CmpVertex>(expected), new TreeSet<CmpVertex>(visited));
+		for(int th=0;th<threads;++th)
+			Assert.assertEquals(rowCounter[th] > 0? 1:0, initCounter[th]);
+	}
+
+	@Test
+	public final void testAllRows() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(100,0);
+		for(int threads:new int[]{1,2,5})
+			for(WorkLoadShape shape:WorkLoadShape.values())
+			{
+				checkRows(graph, LearnerGraphND.ignoreNone, threads, shape, 0, graph.getStateNumber());
+				checkRows(graph, LearnerGraphND.ignoreNone, threads, shape, 0, graph.getStateNumber()+10);
+			}
+	}
+
+	@Test
+	public final void testRangeOfRows() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(100,1);
+		for(int threads:new int[]{1,3})
+			for(WorkLoadShape shape:WorkLoadShape.values())
+			{
+				checkRows(graph, LearnerGraphND.ignoreNone, threads, shape, 10, 20);
+				checkRows(graph, LearnerGraphND.ignoreNone, threads, shape, 90, 200);
+				checkRows(graph, LearnerGraphND.ignoreNone, threads, shape, 5, 5);
+			}
+	}
+
+	@Test
+	public final void testFilter() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(60,2);
+		int count = 0;
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (count++ % 3 == 0) v.setAccept(false);
+		checkRows(graph, LearnerGraphND.ignoreRejectStates, 4, WorkLoadShape.TRIANGULAR, 0, graph.getStateNumber());
+		checkRows(graph, LearnerGraphND.ignoreRejectStates, 4, WorkLoadShape.LINEAR, 3, 30);
+	}
+
+	/** More threads than rows, hence some of the handlers will not be given anything to do. */
+	@Test
+	public final void testMoreThreadsThanRows() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(10,3);
+		checkRows(graph, LearnerGraphND.ignoreNone, 16, WorkLoadShape.TRIANGULAR, 0, 3);
+	}
+
+	@Test
+	public final void testInvalidThreadNumber()
+	{
+		final LearnerGraph graph = new LearnerGraph(Configuration.getDefaultConfiguration().copy());
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			RowTaskScheduler.performRowTasks(new LinkedList<HandleRow<CmpVertex>>(), 0, graph.transitionMatrix, LearnerGraphND.ignoreNone, WorkLoadShape.LINEAR, 0, 1);
+		}},IllegalArgumentException.class,"invalid processor number");
+	}
+
+	/** Exceptions thrown by handlers are reported to the caller. */
+	@Test
+	public final void testFailure() throws IncompatibleStatesException
+	{
+		final LearnerGraph graph = buildGraph(30,4);
+		for(final int threads:new int[]{1,3})
+			Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+				List<HandleRow<CmpVertex>> handlerList = new LinkedList<HandleRow<CmpVertex>>();
+				for(int threadCnt=0;threadCnt<threads;++threadCnt)
+					handlerList.add(new HandleRow<CmpVertex>()
+					{
+						@Override
+						public void init(@SuppressWarnings("unused") int threadNo) {
+							// No per-thread initialisation is needed.
+						}
+
+						@Override
+						public void handleEntry(Entry<CmpVertex, Map<Label, CmpVertex>> entry, @SuppressWarnings("unused") int threadNo)
+						{
+							if (entry.getKey().equals(graph.getInit()))
+								throw new IllegalStateException("test failure");
+						}
+					});
+				RowTaskScheduler.performRowTasks(handlerList, threads, graph.transitionMatrix, LearnerGraphND.ignoreNone, WorkLoadShape.LINEAR, 0, graph.getStateNumber());
+			}},IllegalArgumentException.class,"test failure");
+	}
+
+	/** The pool is shared between calls and grows if more threads are requested. */
+	@Test
+	public final void testSharedPool()
+	{
+		ForkJoinPool pool = RowTaskScheduler.getPool(2);
+		Assert.assertSame(pool, RowTaskScheduler.getPool(1));
+		Assert.assertSame(pool, RowTaskScheduler.getPool(pool.getParallelism()));
+		ForkJoinPool largerPool = RowTaskScheduler.getPool(pool.getParallelism()+1);
+		Assert.assertTrue(largerPool.getParallelism() > pool.getParallelism());
+		Assert.assertSame(largerPool, RowTaskScheduler.getPool(2));
+	}
+
+	/** Where work is very unevenly distributed between rows, threads which got cheap rows should take over the remaining ones. */
+	@Test
+	public final void testUnevenWork() throws IncompatibleStatesException
+	{
+		final LearnerGraph graph = buildGraph(200,5);
+		final int threads = 4;
+		final CmpVertex expensive = graph.transitionMatrix.keySet().iterator().next();
+		final int rowCounter[] = new int[threads];
+		final Set<Integer> threadsWithExpensiveRow = Collections.synchronizedSet(new TreeSet<Integer>());
+		List<HandleRow<CmpVertex>> handlerList = new LinkedList<HandleRow<CmpVertex>>();
+		for(int threadCnt=0;threadCnt<threads;++threadCnt)
+			handlerList.add(new HandleRow<CmpVertex>()
+			{
+				@Override
+				public void init(@SuppressWarnings("unused") int threadNo) {
+					// No per-thread initialisation is needed.
+				}
+
+				@Override
+				public void handleEntry(Entry<CmpVertex, Map<Label, CmpVertex>> entry, int threadNo)
+				{
+					++rowCounter[threadNo];
+					if (entry.getKey() == expensive)
+					{
+						threadsWithExpensiveRow.add(threadNo);
+						try { Thread.sleep(500); } catch (InterruptedException e) { Helper.throwUnchecked("interrupted", e); }
+					}
+				}
+			});
+		RowTaskScheduler.performRowTasks(handlerList, threads, graph.transitionMatrix, LearnerGraphND.ignoreNone, WorkLoadShape.LINEAR, 0, graph.getStateNumber());
+		Assert.assertEquals(1, threadsWithExpensiveRow.size());
+		int threadWithExpensiveRow = threadsWithExpensiveRow.iterator().next(), total = 0;
+		for(int count:rowCounter) total+=count;
+		Assert.assertEquals(graph.getStateNumber(), total);
+		// with static partitioning, the thread with the expensive row would have handled a quarter of rows.
+		Assert.assertTrue(rowCounter[threadWithExpensiveRow] < graph.getStateNumber()/4);
+	}
+}
@@ -0,0 +1,197 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum.
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.observers;
+
+import static statechum.Helper.checkForCorrectException;
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.JUConstants;
+import statechum.Helper.whatToRun;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
+import statechum.analysis.learning.Learner.RestartLearningEnum;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.observers.BinaryTrace.FRAMEKIND;
+import statechum.analysis.learning.observers.BinaryTrace.TraceEvent;
+import statechum.analysis.learning.observers.BinaryTrace.TraceReader;
+import statechum.analysis.learning.observers.BinaryTrace.TraceWriter;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.TestWithMultipleConfigurations;
+import statechum.analysis.learning.rpnicore.WMethod;
+import statechum.analysis.learning.rpnicore.WMethod.VERTEX_COMPARISON_KIND;
+
+@RunWith(ParameterizedWithName.class)
+public class TestBinaryTrace extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data()
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestBinaryTrace(Configuration config)
+	{
+		super(config);
+	}
+
+	LearnerGraph graphA = null, graphB = null, graphC = null;
+
+	@Before
+	public final void beforeTest()
+	{
+		mainConfiguration.setCompressLogs(true);
+		graphA = buildLearnerGraph("A1-a->A1-b->B1-a->C1 / B1-c-#D1", "A_TestBinaryTrace",mainConfiguration,converter);
+		graphA.findVertex("B1").setColour(JUConstants.RED);graphA.findVertex("C1").setColour(JUConstants.BLUE);
+		graphA.findVertex("C1").setHighlight(true);graphA.findVertex("C1").setOrigState(VertexID.parseID("Q5"));graphA.findVertex("C1").setDepth(7);
+		graphA.addToCompatibility(graphA.findVertex("A1"), graphA.findVertex("C1"), JUConstants.PAIRCOMPATIBILITY.INCOMPATIBLE);
+		graphB = buildLearnerGraph("A1-a->A1-b->B1-a->B1 / B1-c-#D1", "B_TestBinaryTrace",mainConfiguration,converter);
+		graphB.findVertex("B1").setColour(JUConstants.RED);
+		graphC = buildLearnerGraph("A1-a->E1-b->A1", "C_TestBinaryTrace",mainConfiguration,converter);
+	}
+
+	/** Checks that the two graphs are the same, including names of states, their attributes and compatibility. */
+	public static void compareGraphs(LearnerGraph expected, LearnerGraph actual)
+	{
+		Assert.assertNull(WMethod.checkM_and_colours(expected, actual, VERTEX_COMPARISON_KIND.DEEP));
+		Assert.assertEquals(expected.getStateNumber(),actual.getStateNumber());
+		Assert.assertEquals(expected.transitionMatrix.keySet(),actual.transitionMatrix.keySet());
+		Assert.assertEquals(expected.getInit(),actual.getInit());
+		Assert.assertEquals(expected.pairCompatibility,actual.pairCompatibility);
+		for(statechum.DeterministicDirectedSparseGraph.CmpVertex vert:expected.transitionMatrix.keySet())
+		{
+			statechum.DeterministicDirectedSparseGraph.CmpVertex other = actual.findVertex(vert);
+			Assert.assertEquals(vert.getOrigState(),other.getOrigState());Assert.assertEquals(vert.getDepth(),other.getDepth());
+		}
+	}
+
+	@Test
+	public final void testVariableLengthIntegers() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int [] unsigned = new int[]{0,1,127,128,16383,16384,Integer.MAX_VALUE};
+		long [] signed = new long[]{0,-1,1,-64,64,JUConstants.intUNKNOWN,Integer.MIN_VALUE,Long.MAX_VALUE,Long.MIN_VALUE};
+		for(int value:unsigned) BinaryTrace.writeUnsigned(out, value);
+		for(long value:signed) BinaryTrace.writeSigned(out, value);
+		BinaryTrace.writeString(out, "some text \u00e9");
+		out.flush();
+		Assert.assertEquals(1+1+1+2+2+3+5+  1+1+1+1+2+1+5+10+10+  1+12, bytes.size());
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for(int value:unsigned) Assert.assertEquals(value, BinaryTrace.readUnsigned(in));
+		for(long value:signed) Assert.assertEquals(value, BinaryTrace.readSigned(in));
+		Assert.assertEquals("some text \u00e9", BinaryTrace.readString(in));
+		Assert.assertEquals(0, in.available());
+	}
+
+	@Test
+	public final void testNegativeUnsigned()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() throws IOException {
+			BinaryTrace.writeUnsigned(new DataOutputStream(new ByteArrayOutputStream()), -1);
+		}},IllegalArgumentException.class,"negative value");
+	}
+
+	/** Writes a series of graphs and checks that they are loaded correctly. */
+	@Test
+	public final void testGraphSeries()
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TraceWriter writer = new TraceWriter(output, mainConfiguration);
+		writer.writeMergeAndDeterminize(new StatePair(graphA.findVertex("B1"),graphA.findVertex("C1")), graphA);
+		int sizeOfFirst = output.size();
+		writer.writeConstraints(graphB, true);
+		writer.writeConstraints(graphB, false);
+		Assert.assertTrue(output.size()-sizeOfFirst < sizeOfFirst);
+		writer.writeRestart(RestartLearningEnum.restartHARD);writer.reset();
+		writer.writeResult(graphC);
+
+		TraceReader reader = new TraceReader(new ByteArrayInputStream(output.toByteArray()), converter);reader.setConfiguration(mainConfiguration);
+		TraceEvent event = reader.readEvent();
+		Assert.assertEquals(FRAMEKIND.FRAME_MERGEANDDETERMINIZE, event.kind);
+		Assert.assertEquals("B1", event.pair.getQ().getStringId());Assert.assertEquals("C1", event.pair.getR().getStringId());
+		compareGraphs(graphA, event.graph);
+		event = reader.readEvent();Assert.assertEquals(FRAMEKIND.FRAME_CONSTRAINTS, event.kind);Assert.assertTrue(event.constraintsAdded);
+		compareGraphs(graphB, event.graph);
+		event = reader.readEvent();Assert.assertEquals(FRAMEKIND.FRAME_CONSTRAINTS, event.kind);Assert.assertFalse(event.constraintsAdded);
+		compareGraphs(graphB, event.graph);
+		event = reader.readEvent();Assert.assertEquals(FRAMEKIND.FRAME_RESTART, event.kind);Assert.assertEquals(RestartLearningEnum.restartHARD, event.restartMode);
+		event = reader.readEvent();Assert.assertEquals(FRAMEKIND.FRAME_RESULT, event.kind);
+		compareGraphs(graphC, event.graph);
+		Assert.assertNull(reader.readEvent());
+	}
+
+	/** Without log compression, every graph is stored completely. */
+	@Test
+	public final void testGraphSeriesNoCompression()
+	{
+		Configuration config = mainConfiguration.copy();config.setCompressLogs(false);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TraceWriter writer = new TraceWriter(output, config);
+		writer.writeResult(graphB);int sizeOfFirst = output.size();
+		writer.writeResult(graphB);
+		byte [] data = output.toByteArray();
+		int frameLength = data.length-sizeOfFirst;// the second frame has no definitions of labels and states since they are already known.
+		Assert.assertArrayEquals(Arrays.copyOfRange(data, sizeOfFirst-frameLength, sizeOfFirst), Arrays.copyOfRange(data, sizeOfFirst, data.length));
+
+		TraceReader reader = new TraceReader(new ByteArrayInputStream(output.toByteArray()), converter);reader.setConfiguration(config);
+		compareGraphs(graphB, reader.readEvent().graph);compareGraphs(graphB, reader.readEvent().graph);
+		Assert.assertNull(reader.readEvent());
+	}
+
+	@Test
+	public final void testNotATrace()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			new TraceReader(new ByteArrayInputStream(new byte[]{1,2,3,4,5,6,7,8}), converter);
+		}},IllegalArgumentException.class,"not a binary learner trace");
+	}
+
+	@Test
+	public final void testTruncatedTrace()
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new TraceWriter(output, mainConfiguration).writeResult(graphA);
+		final byte [] data = Arrays.copyOf(output.toByteArray(), output.size()-1);
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			TraceReader reader = new TraceReader(new ByteArrayInputStream(data), converter);reader.setConfiguration(mainConfiguration);
+			reader.readEvent();
+		}},IllegalArgumentException.class,"truncated");
+	}
+}
@@ -39,6 +39,7 @@ import statechum.analysis.learning.AbstractOracle;
 import statechum.analysis.learning.Learner;
 import statechum.analysis.learning.RPNIUniversalLearner;
 import statechum.analysis.learning.observers.ProgressDecorator.LearnerEvaluationConfiguration;
+import statechum.analysis.learning.observers.ProgressDecorator.TraceFormat;
 import statechum.analysis.learning.rpnicore.AbstractLearnerGraph;
 import statechum.analysis.learning.rpnicore.AbstractPathRoutines;
 import statechum.analysis.learning.rpnicore.FsmParser;
@@ -59,16 +60,16 @@ public class TestRecorderIntegration {
 	public static Collection<Object[]> data() 
 	{
 		Collection<Object []> result = new LinkedList<Object []>();
-		for(boolean zip:new boolean[]{false,true})
+		for(TraceFormat format:TraceFormat.values())
 			for(boolean logCompression:new boolean[]{false,true})
 				for(boolean forceFallback:new boolean[]{false,true})
 					for(RecorderTestKind kind:RecorderTestKind.values())
-			result.add(new Object[]{new Boolean(zip),new Boolean(logCompression),new Boolean(forceFallback),kind});
+			result.add(new Object[]{format,new Boolean(logCompression),new Boolean(forceFallback),kind});
 		
 		return result;
 	}
 
-	private final boolean useZip;
+	private final TraceFormat format;
 	private final RecorderTestKind kind;
 	boolean useCompression;
 	boolean forceGDfallback;
@@ -76,15 +77,15 @@ public class TestRecorderIntegration {
 	private final Configuration testConfig = Configuration.getDefaultConfiguration().copy();
 	private final ConvertALabel converter = null;
 	
-	public TestRecorderIntegration(boolean zip,boolean logCompression, boolean forceFallback,RecorderTestKind k)
+	public TestRecorderIntegration(TraceFormat traceFormat,boolean logCompression, boolean forceFallback,RecorderTestKind k)
 	{
-		useZip=zip;useCompression=logCompression;forceGDfallback=forceFallback;kind = k;
+		format=traceFormat;useCompression=logCompression;forceGDfallback=forceFallback;kind = k;
 	}
 
 	@ParametersToString
-	public static String parametersToString(Boolean zip,Boolean logCompression, Boolean forceFallback,RecorderTestKind k)
+	public static String parametersToString(TraceFormat traceFormat,Boolean logCompression, Boolean forceFallback,RecorderTestKind k)
 	{
-		return (zip?"ZIP":"XML")+", "+(logCompression?"GD":" no compression")+
+		return traceFormat+", "+(logCompression?"GD":" no compression")+
 			", "+(forceFallback?"GD_fallback":"GD_usual")+
 			", "+k.toString();
 	}
@@ -98,7 +99,7 @@ public class TestRecorderIntegration {
 	 * @param name its name
 	 * @param plus positives
 	 * @param minus negatives.
-	 * @param useZip whether to use ZIP compression with the data stream. 
+	 * @param format the format of the log. 
 	 */
 	protected void checkLearnerProgressRecording(String fsmString, String name, final String [][] plus, final String [][] minus)
 	{
@@ -127,7 +128,7 @@ public class TestRecorderIntegration {
 		};
 		testConfig.setLearnerIdMode(IDMode.POSITIVE_NEGATIVE);
 		ByteArrayOutputStream logStream = new ByteArrayOutputStream();
-		RecordProgressDecorator recorder = new RecordProgressDecorator(l,logStream,1,testConfig,useZip);
+		RecordProgressDecorator recorder = new RecordProgressDecorator(l,logStream,1,testConfig,format);
 		Collection<List<Label>> testSet = new LinkedList<List<Label>>();
 		recorder.writeLearnerEvaluationData(new LearnerEvaluationConfiguration(expected, testSet, testConfig, null, null));
 		LearnerGraph learntStructureA = recorder.learnMachine(buildSet(plus,testConfig,converter), buildSet(minus,testConfig,converter));
@@ -144,8 +145,8 @@ public class TestRecorderIntegration {
 			case RECORDERTEST_SS:
 			{// matching two simulators
 				final LearnerSimulator 
-					simulator = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),useZip,converter),
-					simulator2 = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),useZip,converter);
+					simulator = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),format,converter),
+					simulator2 = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),format,converter);
 				
 				LearnerEvaluationConfiguration eval1 = simulator.readLearnerConstructionData(testConfig);
 				Assert.assertNull(WMethod.checkM(expected, eval1.graph));
@@ -162,7 +163,7 @@ public class TestRecorderIntegration {
 			
 			case RECORDERTEST_SL:
 			{// now a simulator to a learner
-				final LearnerSimulator simulator = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),useZip,converter);
+				final LearnerSimulator simulator = new LearnerSimulator(new ByteArrayInputStream(logStream.toByteArray()),format,converter);
 				LearnerEvaluationConfiguration eval1 = simulator.readLearnerConstructionData(testConfig);
 				Assert.assertNull(WMethod.checkM(expected, eval1.graph));
 				Assert.assertEquals(testSet, eval1.testSet);
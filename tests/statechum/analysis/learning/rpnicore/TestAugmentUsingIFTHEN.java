@@ -27,7 +27,10 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -39,6 +42,7 @@ import org.junit.runners.ParameterizedWithName.ParametersToString;
 
 import edu.uci.ics.jung.graph.impl.DirectedSparseGraph;
 import statechum.Configuration;
+import statechum.Configuration.LTL2BABACKEND;
 import statechum.Helper;
 import statechum.JUConstants;
 import statechum.Configuration.QuestionGeneratorKind;
@@ -49,12 +53,14 @@ import statechum.Helper.whatToRun;
 import statechum.JUConstants.PAIRCOMPATIBILITY;
 import statechum.Label;
 import statechum.analysis.learning.AbstractOracle;
+import statechum.analysis.learning.PairScore;
 import statechum.analysis.learning.StatePair;
 import statechum.analysis.learning.TestRpniLearner;
 import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
 import statechum.analysis.learning.rpnicore.LearnerGraph.NonExistingPaths;
 import statechum.analysis.learning.rpnicore.PathRoutines.EdgeAnnotation;
 import statechum.analysis.learning.rpnicore.Transform.AugmentFromIfThenAutomatonException;
+import statechum.analysis.learning.rpnicore.Transform.ExploredIfThenStates;
 import statechum.analysis.learning.rpnicore.WMethod.DifferentFSMException;
 import statechum.analysis.learning.rpnicore.WMethod.VERTEX_COMPARISON_KIND;
 import statechum.apps.QSMTool;
@@ -315,6 +321,28 @@ final public class TestAugmentUsingIFTHEN extends TestWithMultipleConfigurations
 		Assert.assertFalse(graphIter.hasNext());
 	}
 	
+	/** Same as above, but using the Java translator of LTL rather than ltl2ba. Automata it builds are deterministic, hence there is no need for the IA state. */
+	@Test
+	public final void testbuildIfThenAutomata1_java()
+	{
+		mainConfiguration.setLtl2baBackend(LTL2BABACKEND.LTL2BA_JAVA);
+		String ltlFormula = "!([](a->X[]b))";
+		Collection<LearnerGraph> automata = Transform.buildIfThenAutomata(Arrays.asList(new String[]{
+				QSMTool.cmdLTL+" "+ltlFormula}), null,  buildLearnerGraph("A-a->B-b->C-c->D", "testbuildIfThenAutomata1_java", mainConfiguration,converter),mainConfiguration,converter);
+		Iterator<LearnerGraph> graphIter = automata.iterator();
+
+		LearnerGraph topGraph = graphIter.next(), expectedTop = buildLearnerGraph("I-a->A-b->A / I-b->I-c->I / P-c-#P1 / P-a-#P2 / A = THEN = P / " +
+				"I - transition_to_THEN ->P","!("+ltlFormula+")",mainConfiguration,converter);
+		// numbering of states depends on the order they were created in, hence the THEN state is identified as the one which is not reachable from the initial state.
+		Set<CmpVertex> reachable = topGraph.pathroutines.computeShortPathsToAllStates().keySet(), thenStates = new TreeSet<CmpVertex>();
+		for(CmpVertex v:topGraph.transitionMatrix.keySet())
+			if (v.isAccept() && !reachable.contains(v)) thenStates.add(v);
+		Assert.assertEquals(1,thenStates.size());
+		topGraph.addTransition(topGraph.transitionMatrix.get(topGraph.getInit()), AbstractLearnerGraph.generateNewLabel("transition_to_THEN",mainConfiguration,converter), thenStates.iterator().next());
+		compareGraphs(expectedTop,topGraph);
+		Assert.assertFalse(graphIter.hasNext());
+	}
+	
 	/** Same as above, but more automata. */
 	@Test
 	public final void testbuildIfThenAutomata2()
@@ -753,6 +781,110 @@ final public class TestAugmentUsingIFTHEN extends TestWithMultipleConfigurations
 		compareGraphs(buildLearnerGraph("A-a->B-c->T1-c->T2-c-#T3 / T2-b->T4", "testPerformAugment6b",mainConfiguration,converter), graph);
 	}
 	
+	/** Builds a PTA from random sequences over the alphabet of a, b, c and d. Sequences starting with a number of a followed 
+	 * by b are not included since they contradict the second of the if-then automata in {@link #testIncrementalAugment2()}.
+	 */
+	private LearnerGraph buildRandomPTA(int seed)
+	{
+		Random rnd = new Random(seed);
+		LearnerGraph pta = new LearnerGraph(mainConfiguration);
+		String [] alphabet = new String[]{"a","b","c","d"};
+		for(int i=0;i<20;++i)
+		{
+			List<Label> sequence = new LinkedList<Label>();
+			int length = 1+rnd.nextInt(6);
+			StringBuffer text = new StringBuffer();
+			for(int j=0;j<length;++j)
+			{
+				String label = alphabet[rnd.nextInt(alphabet.length)];text.append(label);
+				sequence.add(AbstractLearnerGraph.generateNewLabel(label, mainConfiguration, converter));
+			}
+			if (!text.toString().matches("a+b.*"))
+				pta.paths.augmentPTA(sequence, true, false, null);
+		}
+		return pta;
+	}
+	
+	/** Merges pairs of states one after another, the way a learner does it, augmenting the outcome of 
+	 * each merge both from scratch and incrementally, and checks that the outcomes are the same.
+	 */
+	private void checkIncrementalAugmentation(LearnerGraph pta, LearnerGraph[] ifthenCollection, int howManyToAdd) throws IncompatibleStatesException
+	{
+		LearnerGraph tentative = new LearnerGraph(pta,pta.config);
+		ExploredIfThenStates explored = Transform.augmentFromIfThenAutomaton(tentative, null, ifthenCollection, howManyToAdd, null, true);
+		Stack<PairScore> pairs = tentative.pairscores.chooseStatePairs(null, null);
+		for(int iteration=0;iteration < 30 && !pairs.isEmpty();++iteration)
+		{
+			PairScore pair = pairs.pop();
+			LearnerGraph merged = MergeStates.mergeAndDeterminize_general(tentative, pair);
+			LearnerGraph full = new LearnerGraph(merged,merged.config), incremental = new LearnerGraph(merged,merged.config);
+			boolean fullFailed = false, incrementalFailed = false;
+			ExploredIfThenStates nextExplored = null;
+			try
+			{
+				Transform.augmentFromIfThenAutomaton(full, null, ifthenCollection, howManyToAdd);
+			}
+			catch(AugmentFromIfThenAutomatonException ex)
+			{
+				fullFailed = true;
+			}
+			try
+			{
+				nextExplored = Transform.augmentFromIfThenAutomaton(incremental, null, ifthenCollection, howManyToAdd, explored, true);
+			}
+			catch(AugmentFromIfThenAutomatonException ex)
+			{
+				incrementalFailed = true;
+			}
+			Assert.assertEquals(fullFailed, incrementalFailed);
+			if (fullFailed)
+				tentative.addToCompatibility(pair.firstElem, pair.secondElem, PAIRCOMPATIBILITY.INCOMPATIBLE);
+			else
+			{
+				compareGraphs(full, incremental);Assert.assertEquals(full.getStateNumber(), incremental.getStateNumber());
+				tentative = incremental;explored = nextExplored;
+			}
+			pairs = tentative.pairscores.chooseStatePairs(null, null);
+		}
+	}
+	
+	@Test
+	public final void testIncrementalAugment1() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-b->C-a->D-b->E-c->F-c->G-d->H", "testIncrementalAugment1",mainConfiguration,converter);
+		LearnerGraph[] ifthenCollection = new LearnerGraph[]{buildLearnerGraph(ifthenC, "ifthenC", mainConfiguration,converter)};
+		for(int howManyToAdd=0;howManyToAdd<4;++howManyToAdd)
+			checkIncrementalAugmentation(graph, ifthenCollection, howManyToAdd);
+	}
+	
+	/** Random PTAs and a few if-then automata, some of which reject some of the merges. */
+	@Test
+	public final void testIncrementalAugment2() throws IncompatibleStatesException
+	{
+		LearnerGraph[] ifthenCollection = new LearnerGraph[]{buildLearnerGraph(ifthenC, "ifthenC", mainConfiguration,converter),
+				buildLearnerGraph("A-a->B-a->B /  T-b-#N / B=THEN=T", "testIncrementalAugment2", mainConfiguration,converter)};
+		for(int seed=0;seed<10;++seed)
+			checkIncrementalAugmentation(buildRandomPTA(seed), ifthenCollection, 1+seed%3);
+	}
+	
+	/** Product states are not recorded unless asked for, and those recorded are not used with different automata. 
+	 * @throws IncompatibleStatesException */
+	@Test
+	public final void testIncrementalAugment3() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-b->C", "testIncrementalAugment3",mainConfiguration,converter);
+		LearnerGraph[] ifthenCollection = new LearnerGraph[]{buildLearnerGraph(ifthenC, "ifthenC", mainConfiguration,converter)};
+		Assert.assertNull(Transform.augmentFromIfThenAutomaton(new LearnerGraph(graph,graph.config), null, ifthenCollection, 2, null, false));
+		ExploredIfThenStates explored = Transform.augmentFromIfThenAutomaton(new LearnerGraph(graph,graph.config), null, ifthenCollection, 2, null, true);
+		Assert.assertTrue(explored.getExploredNumber() > 0);
+		
+		LearnerGraph[] otherCollection = new LearnerGraph[]{buildLearnerGraph(ifthenC, "ifthenC", mainConfiguration,converter)};
+		LearnerGraph expected = new LearnerGraph(graph,graph.config), actual = new LearnerGraph(graph,graph.config);
+		Transform.augmentFromIfThenAutomaton(expected, null, otherCollection, 1);
+		Transform.augmentFromIfThenAutomaton(actual, null, otherCollection, 1, explored, false);
+		compareGraphs(expected, actual);
+	}
+	
 	/** Not yet a contradiction between states added by THEN graphs - the depth of exploration is 
 	 * too low to hit it. 
 	 * @throws IncompatibleStatesException */
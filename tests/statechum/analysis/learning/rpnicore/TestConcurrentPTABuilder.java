@@ -0,0 +1,202 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.Label;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.analysis.learning.rpnicore.WMethod.VERTEX_COMPARISON_KIND;
+
+@RunWith(ParameterizedWithName.class)
+public class TestConcurrentPTABuilder extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data()
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestConcurrentPTABuilder(Configuration config)
+	{
+		super(config);
+	}
+
+	/** Checks that the two graphs are the same, including names of states, their depth, colour and highlighting. */
+	protected static void compareGraphs(LearnerGraph expected, LearnerGraph actual)
+	{
+		Assert.assertNull(WMethod.checkM_and_colours(expected, actual, VERTEX_COMPARISON_KIND.DEEP));
+		Assert.assertEquals(expected.getStateNumber(), actual.getStateNumber());
+		Assert.assertEquals(expected.transitionMatrix.keySet(), actual.transitionMatrix.keySet());
+		for(CmpVertex vert:expected.transitionMatrix.keySet())
+		{
+			CmpVertex other = actual.findVertex(vert);
+			Assert.assertEquals(vert.getDepth(), other.getDepth());Assert.assertEquals(vert.isHighlight(), other.isHighlight());
+			Assert.assertEquals(vert.getColour(), other.getColour());
+		}
+	}
+
+	/** Builds PTAs from the supplied sequences sequentially and concurrently and compares the outcome, including the exceptions thrown.
+	 * @return the message of an exception thrown or null if there was none.
+	 */
+	protected String checkConstruction(Collection<List<Label>> plus, Collection<List<Label>> minus, int threads)
+	{
+		LearnerGraph expected = new LearnerGraph(mainConfiguration);expected.initPTA();
+		String expectedMessage = null;
+		try
+		{
+			expected.paths.augmentPTA(minus, false, false);expected.paths.augmentPTA(plus, true, false);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			expectedMessage = ex.getMessage();
+		}
+
+		LearnerGraph actual = new LearnerGraph(mainConfiguration);actual.initPTA();
+		String actualMessage = null;
+		try
+		{
+			Assert.assertSame(actual, new ConcurrentPTABuilder(actual, threads).augmentPTA(minus, plus));
+		}
+		catch(IllegalArgumentException ex)
+		{
+			actualMessage = ex.getMessage();
+		}
+		Assert.assertEquals(expectedMessage, actualMessage);
+		compareGraphs(expected, actual);
+		return actualMessage;
+	}
+
+	protected List<List<Label>> buildList(String [][] sequences)
+	{
+		return TestFSMAlgo.buildList(sequences, mainConfiguration, converter);
+	}
+
+	@Test
+	public final void testConstruction1()
+	{
+		for(int threads=1;threads<5;++threads)
+			Assert.assertNull(checkConstruction(buildList(new String[][]{new String[]{"a","b","c"},new String[]{"a","d"},new String[]{},new String[]{"c","c"}}),
+				buildList(new String[][]{new String[]{"a","b","d"},new String[]{"c","a"},new String[]{"e"}}),threads));
+	}
+
+	@Test
+	public final void testConstruction_empty()
+	{
+		List<List<Label>> empty = new LinkedList<List<Label>>();
+		Assert.assertNull(checkConstruction(empty,empty,3));
+		Assert.assertNull(checkConstruction(buildList(new String[][]{new String[]{}}),empty,3));
+	}
+
+	/** A reject-sequence is a prefix of an accept one. */
+	@Test
+	public final void testConflict1()
+	{
+		Assert.assertEquals("incompatible accept labelling: [a, b] when trying to append [a, b, c]",
+				checkConstruction(buildList(new String[][]{new String[]{"c"},new String[]{"a","b","c"}}),buildList(new String[][]{new String[]{"a","b"},new String[]{"d"}}),2));
+	}
+
+	/** An accept-sequence ends in a reject-state. */
+	@Test
+	public final void testConflict2()
+	{
+		Assert.assertEquals("incompatible accept labelling: [a, b]",
+				checkConstruction(buildList(new String[][]{new String[]{"a","b"}}),buildList(new String[][]{new String[]{"d","a"},new String[]{"a","b"}}),2));
+	}
+
+	/** An empty reject-sequence. */
+	@Test
+	public final void testConflict3()
+	{
+		Assert.assertEquals("incompatible reject labelling: []",
+				checkConstruction(buildList(new String[][]{new String[]{"a","b"}}),buildList(new String[][]{new String[]{"d","a"},new String[]{},new String[]{"a","b"}}),2));
+	}
+
+	/** Contradictions in two partitions, the earliest one has to be reported. */
+	@Test
+	public final void testConflict4()
+	{
+		Assert.assertEquals("incompatible reject labelling: [b, a]",
+				checkConstruction(buildList(new String[][]{new String[]{"a","b","c"}}),
+						buildList(new String[][]{new String[]{"b","a","c"},new String[]{"b","a"},new String[]{"a","b","c"}, new String[]{"a","b"}}),3));
+	}
+
+	/** A graph that is not an initial PTA is augmented sequentially. */
+	@Test
+	public final void testNotInitialPTA()
+	{
+		LearnerGraph expected = buildLearnerGraph("A-a->B-b->C", "testNotInitialPTA", mainConfiguration, converter),
+			actual = buildLearnerGraph("A-a->B-b->C", "testNotInitialPTA", mainConfiguration, converter);
+		List<List<Label>> plus = buildList(new String[][]{new String[]{"a","b","c"},new String[]{"c"}}), minus = buildList(new String[][]{new String[]{"a","d"}});
+		expected.paths.augmentPTA(minus, false, false);expected.paths.augmentPTA(plus, true, false);
+		new ConcurrentPTABuilder(actual, 4).augmentPTA(minus, plus);
+		compareGraphs(expected, actual);
+	}
+
+	/** Builds PTAs from random sequences, where in every fourth set of sequences some contradict others. */
+	@Test
+	public final void testRandomSequences()
+	{
+		Random rnd = new Random(0);
+		Label [] alphabet = new Label[]{
+				AbstractLearnerGraph.generateNewLabel("a", mainConfiguration, converter),AbstractLearnerGraph.generateNewLabel("b", mainConfiguration, converter),
+				AbstractLearnerGraph.generateNewLabel("c", mainConfiguration, converter),AbstractLearnerGraph.generateNewLabel("d", mainConfiguration, converter),
+				AbstractLearnerGraph.generateNewLabel("e", mainConfiguration, converter)};
+		Label rejectLabel = AbstractLearnerGraph.generateNewLabel("z", mainConfiguration, converter);
+		int contradictions = 0;
+		for(int attempt=0;attempt<40;++attempt)
+		{
+			List<List<Label>> plus = new LinkedList<List<Label>>(), minus = new LinkedList<List<Label>>();
+			int sequenceNumber = 20+rnd.nextInt(attempt*20+1);
+			for(int i=0;i<sequenceNumber;++i)
+			{
+				List<Label> sequence = new LinkedList<Label>();
+				int length = rnd.nextInt(8);
+				for(int j=0;j<length;++j)
+					sequence.add(alphabet[rnd.nextInt(alphabet.length)]);
+				if (rnd.nextInt(5) == 0)
+				{// most reject-sequences end with a label that is not used anywhere else, hence they do not contradict other sequences.
+					if (attempt % 4 != 0) sequence.add(rejectLabel);
+					minus.add(sequence);
+				}
+				else plus.add(sequence);
+			}
+			if (checkConstruction(plus, minus, 1+rnd.nextInt(4)) != null)
+				++contradictions;
+		}
+		Assert.assertTrue(contradictions > 0);Assert.assertTrue(contradictions <= 10);
+	}
+}
@@ -0,0 +1,225 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ * 
+ * This file is part of StateChum
+ * 
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Stack;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.Configuration.ScoreMode;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.PairScoreComputation.RedNodeSelectionProcedure;
+import statechum.analysis.learning.rpnicore.PairScoreComputation.ThreadSafeRedNodeSelectionProcedure;
+
+/** Checks that pair selection where scores are computed by multiple threads gives the same outcome as the one where they are computed sequentially. */
+@RunWith(ParameterizedWithName.class)
+public class TestConcurrentPairScoring extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data() 
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+	
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestConcurrentPairScoring(Configuration conf)
+	{
+		super(conf);
+	}
+
+	protected Configuration config = null;
+	
+	@Before
+	public final void beforeTest()
+	{
+		config = mainConfiguration.copy();config.setDebugMode(false);
+	}
+	
+	/** Learns a machine using a single and multiple threads to compute scores and checks that the outcome is identical at every step.
+	 * 
+	 * @return the number of scores taken from the cache, if one is provided.
+	 */
+	protected int checkLearningConcurrently(int seed, RedNodeSelectionProcedure procedure, PairScoreCache cache) throws IncompatibleStatesException
+	{
+		Configuration concurrentConfig = config.copy();concurrentConfig.setPairScoringThreadNumber(4);
+		LearnerGraph graphA = buildRandomPTA(20,seed,config,converter), graphB = buildRandomPTA(20,seed,concurrentConfig,converter);
+		int mergers = 0, pairsReused = 0;
+		while(true)
+		{
+			Stack<PairScore> pairsA = graphA.pairscores.chooseStatePairs(procedure), pairsB = graphB.pairscores.chooseStatePairs(procedure,cache);
+			if (cache != null) pairsReused+=cache.getPairsReused();
+			Assert.assertEquals(pairsA, pairsB);
+			for(int i=0;i<pairsA.size();++i)
+				Assert.assertEquals(pairsA.get(i).getAnotherScore(), pairsB.get(i).getAnotherScore());
+			if (pairsA.isEmpty())
+				break;
+			
+			graphA = MergeStates.mergeAndDeterminize_general(graphA, pairsA.peek());
+			graphB = MergeStates.mergeAndDeterminize_general(graphB, pairsB.peek());
+			Assert.assertNull(WMethod.checkM(graphA, graphB));
+			for(CmpVertex v:graphA.transitionMatrix.keySet())
+				Assert.assertEquals(v.getColour(), graphB.findVertex(v).getColour());
+			++mergers;
+		}
+		Assert.assertTrue(mergers > 0);
+		return pairsReused;
+	}
+
+	@Test
+	public final void testLearningConventional() throws IncompatibleStatesException
+	{
+		checkLearningConcurrently(1, null, null);
+	}
+	
+	@Test
+	public final void testLearningCompatibility() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.COMPATIBILITY);
+		checkLearningConcurrently(2, null, null);
+	}
+	
+	@Test
+	public final void testLearningGeneral() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.GENERAL);
+		checkLearningConcurrently(3, null, null);
+	}
+	
+	@Test
+	public final void testLearningKTails() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.KTAILS);config.setKlimit(2);
+		checkLearningConcurrently(4, null, null);
+	}
+	
+	@Test
+	public final void testLearningWithCache() throws IncompatibleStatesException
+	{
+		Assert.assertTrue(checkLearningConcurrently(5, null, new PairScoreCache()) > 0);
+	}
+	
+	/** Adjusts scores in a way that depends on the pair of states, records the threads from which it is called. */
+	public static class ScoreAdjuster implements RedNodeSelectionProcedure
+	{
+		/** The thread expected to call all methods. */
+		protected final Thread learnerThread;
+		
+		/** Whether a method was called from a thread other than the learner. */
+		protected boolean calledFromAnotherThread = false;
+		
+		/** The graph in which scores are being computed. */
+		protected LearnerGraph coregraph = null;
+		
+		public ScoreAdjuster(Thread thread)
+		{
+			learnerThread = thread;
+		}
+		
+		protected void recordThread()
+		{
+			if (Thread.currentThread() != learnerThread)
+				calledFromAnotherThread = true;
+		}
+		
+		@Override
+		public void initComputation(LearnerGraph graph) 
+		{
+			recordThread();coregraph = graph;
+		}
+
+		@Override
+		public long overrideScoreComputation(PairScore p) 
+		{
+			recordThread();
+			if (p.getScore() < 0 || coregraph.pairscores.computePairCompatibilityScore(p) < 0)
+				return -1;// in the ONLYOVERRIDE mode, pairs are not checked for compatibility before this method is called.
+			return Math.abs(p.getQ().getStringId().hashCode()+p.getR().getStringId().hashCode()) % 3;
+		}
+
+		@Override
+		public Collection<Entry<Label, CmpVertex>> getSurroundingTransitions(@SuppressWarnings("unused") CmpVertex currentRed) 
+		{
+			recordThread();
+			return null;
+		}
+
+		@Override
+		public CmpVertex selectRedNode(@SuppressWarnings("unused") LearnerGraph coregraph, @SuppressWarnings("unused") Collection<CmpVertex> reds, Collection<CmpVertex> tentativeRedNodes) 
+		{
+			recordThread();
+			return tentativeRedNodes.iterator().next();
+		}
+
+		@Override
+		public CmpVertex resolvePotentialDeadEnd(@SuppressWarnings("unused") LearnerGraph coregraph, @SuppressWarnings("unused") Collection<CmpVertex> reds, @SuppressWarnings("unused") List<PairScore> pairs) 
+		{
+			recordThread();
+			return null;
+		}
+	}
+	
+	/** Same as {@link ScoreAdjuster} but declares that scores can be adjusted concurrently. */
+	public static class ThreadSafeScoreAdjuster extends ScoreAdjuster implements ThreadSafeRedNodeSelectionProcedure
+	{
+		public ThreadSafeScoreAdjuster(Thread thread) 
+		{
+			super(thread);
+		}
+	}
+	
+	@Test
+	public final void testCallbackNotThreadSafe() throws IncompatibleStatesException
+	{
+		ScoreAdjuster adjuster = new ScoreAdjuster(Thread.currentThread());
+		checkLearningConcurrently(6, adjuster, null);
+		Assert.assertFalse(adjuster.calledFromAnotherThread);
+	}
+	
+	@Test
+	public final void testCallbackThreadSafe() throws IncompatibleStatesException
+	{
+		ScoreAdjuster adjuster = new ThreadSafeScoreAdjuster(Thread.currentThread());
+		checkLearningConcurrently(6, adjuster, null);
+		Assert.assertTrue(adjuster.calledFromAnotherThread);
+	}
+	
+	@Test
+	public final void testCallbackOnlyOverride() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.ONLYOVERRIDE);
+		checkLearningConcurrently(7, new ThreadSafeScoreAdjuster(Thread.currentThread()), null);
+		checkLearningConcurrently(7, new ScoreAdjuster(Thread.currentThread()), null);
+	}
+}
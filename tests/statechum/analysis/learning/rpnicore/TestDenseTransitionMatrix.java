@@ -0,0 +1,346 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Stack;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
+import statechum.Label;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.RPNIUniversalLearner;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.collections.OffHeapIntStore;
+import statechum.model.testset.PTASequenceEngine;
+
+/** Checks that graphs with transition matrices stored in arrays of integers behave the same way as those stored in maps. */
+public class TestDenseTransitionMatrix
+{
+	protected Configuration configArray = null, configDense = null;
+
+	/** Labels used by both graphs have to be interned the same way. */
+	protected ConvertALabel converter = null;
+
+	@Before
+	public final void beforeTest()
+	{
+		configArray = Configuration.getDefaultConfiguration().copy();configArray.setTransitionMatrixImplType(STATETREE.STATETREE_ARRAY);
+		configDense = Configuration.getDefaultConfiguration().copy();configDense.setTransitionMatrixImplType(STATETREE.STATETREE_DENSE);
+		converter = new Transform.InternStringLabel();
+	}
+
+	/** Makes a shallow copy of the supplied graph using the supplied configuration. */
+	protected static LearnerGraph shallowCopy(LearnerGraph graph, Configuration conf)
+	{
+		Configuration shallowCopy = conf.copy();shallowCopy.setLearnerCloneGraph(false);
+		return new LearnerGraph(graph,shallowCopy);
+	}
+
+	/** Checks that the two transition matrices have the same states and transitions, with transitions of every state in the same order.
+	 * The order of states is not checked because states of a dense matrix are returned in the order they were added.
+	 */
+	protected static void checkSameMatrix(Map<CmpVertex,Map<Label,CmpVertex>> expected, Map<CmpVertex,Map<Label,CmpVertex>> actual)
+	{
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(new HashSet<CmpVertex>(expected.keySet()), new HashSet<CmpVertex>(actual.keySet()));
+		for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:expected.entrySet())
+			Assert.assertEquals(new ArrayList<Label>(entry.getValue().keySet()), new ArrayList<Label>(actual.get(entry.getKey()).keySet()));
+	}
+
+	@Test
+	public final void testConstruction()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E-c->A","testConstruction",configDense,converter);
+		Assert.assertTrue(graph.transitionMatrix instanceof DenseTransitionMatrix);
+		Assert.assertNull(WMethod.checkM(buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E-c->A","testConstruction",configArray,converter), graph));
+		Assert.assertEquals(5,graph.getStateNumber());Assert.assertEquals(5,graph.pathroutines.countEdges());
+		CmpVertex a = graph.findVertex("A"), e = graph.findVertex("E");
+		Assert.assertSame(a,graph.transitionMatrix.findElementById(VertexID.parseID("A")));
+		Assert.assertSame(a,graph.transitionMatrix.get(e).get(AbstractLearnerGraph.generateNewLabel("c", configDense, converter)));
+		Assert.assertNull(graph.transitionMatrix.get(a).get(AbstractLearnerGraph.generateNewLabel("c", configDense, converter)));
+		Assert.assertNull(graph.transitionMatrix.get(VertexID.parseID("Q")));
+		Assert.assertNull(graph.transitionMatrix.get("A"));
+	}
+
+	@Test
+	public final void testChangesToCopyDoNotAffectTheOriginal()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testChangesToCopyDoNotAffectTheOriginal",configDense,converter);
+		LearnerGraph expected = new LearnerGraph(graph,configDense);// a real copy since vertices are cloned.
+		LearnerGraph copy = shallowCopy(graph,configDense);
+		Assert.assertTrue(copy.transitionMatrix instanceof DenseTransitionMatrix);
+		Assert.assertNotSame(graph.transitionMatrix, copy.transitionMatrix);
+		Assert.assertSame(graph.findVertex("C"),copy.findVertex("C"));
+
+		CmpVertex a = copy.findVertex("A"), b = copy.findVertex("B"), c = copy.findVertex("C"), e = copy.findVertex("E");
+		Label lblA = AbstractLearnerGraph.generateNewLabel("a", configDense, converter), lblC = AbstractLearnerGraph.generateNewLabel("c", configDense, converter);
+		copy.transitionMatrix.get(a).put(lblC, c);
+		copy.transitionMatrix.get(b).remove(lblA);copy.transitionMatrix.remove(c);copy.transitionMatrix.remove(copy.findVertex("D"));
+		Iterator<Entry<Label,CmpVertex>> iter = copy.transitionMatrix.get(a).entrySet().iterator();
+		iter.next();iter.remove();
+		copy.transitionMatrix.get(e).put(lblA, e);
+
+		Assert.assertNull(WMethod.checkM(expected, graph));
+		Assert.assertEquals(3,copy.transitionMatrix.size());
+		Assert.assertFalse(copy.transitionMatrix.containsKey(c));Assert.assertNull(copy.transitionMatrix.get(c));
+		Assert.assertNull(copy.transitionMatrix.findElementById(c));Assert.assertSame(b,copy.transitionMatrix.findElementById(b));
+		Assert.assertTrue(copy.transitionMatrix.get(b).isEmpty());
+		Assert.assertEquals(2,copy.transitionMatrix.get(a).size());
+		Assert.assertSame(e,copy.transitionMatrix.get(e).get(lblA));
+	}
+
+	@Test
+	public final void testRowViews()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testRowViews",configDense,converter);
+		CmpVertex a = graph.findVertex("A"), b = graph.findVertex("B"), c = graph.findVertex("C");
+		Label lblA = AbstractLearnerGraph.generateNewLabel("a", configDense, converter), lblB = AbstractLearnerGraph.generateNewLabel("b", configDense, converter);
+
+		// a row of a removed state remains accessible
+		Map<Label,CmpVertex> rowOfA = graph.transitionMatrix.get(a);
+		Assert.assertEquals(rowOfA,graph.transitionMatrix.remove(a));
+		Assert.assertEquals(2,rowOfA.size());Assert.assertSame(b,rowOfA.get(lblA));
+		Assert.assertEquals(4,graph.getStateNumber());
+
+		// adding it back under another name copies transitions
+		CmpVertex newState = AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID("F"), configDense);
+		Assert.assertNull(graph.transitionMatrix.put(newState, rowOfA));
+		Assert.assertEquals(rowOfA, graph.transitionMatrix.get(newState));
+
+		// entries of rows can be changed
+		for(Entry<Label,CmpVertex> entry:graph.transitionMatrix.get(newState).entrySet())
+			entry.setValue(c);
+		Assert.assertSame(c,graph.transitionMatrix.get(newState).get(lblA));Assert.assertSame(c,graph.transitionMatrix.get(newState).get(lblB));
+		Assert.assertSame(b,rowOfA.get(lblA));
+
+		// replacing a row returns the previous one
+		Map<Label,CmpVertex> newRow = graph.createNewRow();newRow.put(lblB, newState);
+		Map<Label,CmpVertex> previous = graph.transitionMatrix.put(newState, newRow);
+		Assert.assertEquals(2,previous.size());Assert.assertSame(c,previous.get(lblA));
+		newRow.put(lblA, b);// the row is now part of the matrix
+		Assert.assertSame(b,graph.transitionMatrix.get(newState).get(lblA));Assert.assertSame(newState,graph.transitionMatrix.get(newState).get(lblB));
+
+		// removal of states via an iterator
+		Iterator<CmpVertex> stateIter = graph.transitionMatrix.keySet().iterator();
+		while(stateIter.hasNext())
+			if (stateIter.next() != newState)
+				stateIter.remove();
+		Assert.assertEquals(1,graph.transitionMatrix.size());
+		Assert.assertSame(newState,graph.transitionMatrix.keySet().iterator().next());
+		graph.transitionMatrix.clear();
+		Assert.assertTrue(graph.transitionMatrix.isEmpty());Assert.assertNull(graph.transitionMatrix.get(newState));
+	}
+
+	/** Performs the same random changes on a transition matrix stored as arrays of references and on a dense one, checking that they remain the same. */
+	@Test
+	public final void testRandomChanges() throws IncompatibleStatesException
+	{
+		checkRandomChanges(configDense);
+	}
+
+	@Test
+	public final void testRandomChangesOffHeap() throws IncompatibleStatesException
+	{
+		configDense.setOffHeapTransitions(true);
+		checkRandomChanges(configDense);
+	}
+
+	protected void checkRandomChanges(Configuration config) throws IncompatibleStatesException
+	{
+		LearnerGraph graphArray = new MachineGenerator(30, 40 , 6).nextMachine(5,1, configArray,converter).pathroutines.buildDeterministicGraph(),
+				graphDense = new MachineGenerator(30, 40 , 6).nextMachine(5,1, config,converter).pathroutines.buildDeterministicGraph();
+		checkSameMatrix(graphArray.transitionMatrix, graphDense.transitionMatrix);
+		LearnerGraph expected = new LearnerGraph(graphDense,config);
+		Random rnd = new Random(0);
+		LearnerGraph arrayCopy = shallowCopy(graphArray,configArray), denseCopy = shallowCopy(graphDense,config);
+		List<CmpVertex> states = new ArrayList<CmpVertex>(graphArray.transitionMatrix.keySet());
+		List<Label> labels = new ArrayList<Label>(graphArray.pathroutines.computeAlphabet());
+		for(int i=0;i<2000;++i)
+		{
+			CmpVertex state = states.get(rnd.nextInt(states.size()));
+			switch(rnd.nextInt(6))
+			{
+			case 0:
+				arrayCopy.transitionMatrix.remove(state);denseCopy.transitionMatrix.remove(state);
+				break;
+			case 1:
+				if (!arrayCopy.transitionMatrix.containsKey(state))
+				{
+					arrayCopy.transitionMatrix.put(state, arrayCopy.createNewRow());denseCopy.transitionMatrix.put(state, denseCopy.createNewRow());
+				}
+				break;
+			case 2:
+			case 3:
+				if (arrayCopy.transitionMatrix.containsKey(state))
+				{
+					Label label = labels.get(rnd.nextInt(labels.size()));CmpVertex target = states.get(rnd.nextInt(states.size()));
+					Assert.assertEquals(arrayCopy.transitionMatrix.get(state).put(label, target),denseCopy.transitionMatrix.get(state).put(label, target));
+				}
+				break;
+			case 4:
+				if (arrayCopy.transitionMatrix.containsKey(state))
+				{
+					Label label = labels.get(rnd.nextInt(labels.size()));
+					Assert.assertEquals(arrayCopy.transitionMatrix.get(state).remove(label),denseCopy.transitionMatrix.get(state).remove(label));
+				}
+				break;
+			case 5:
+				Assert.assertEquals(arrayCopy.transitionMatrix.get(state), denseCopy.transitionMatrix.get(state));
+				Assert.assertEquals(arrayCopy.transitionMatrix.findElementById(state), denseCopy.transitionMatrix.findElementById(state));
+				break;
+			}
+		}
+		checkSameMatrix(arrayCopy.transitionMatrix, denseCopy.transitionMatrix);
+		checkSameMatrix(expected.transitionMatrix, graphDense.transitionMatrix);
+	}
+
+	/** Builds random walks of a randomly-generated machine. */
+	protected static PTASequenceEngine buildWalks(int states, int seed, Configuration conf, ConvertALabel conv) throws IncompatibleStatesException
+	{
+		MachineGenerator mg = new MachineGenerator(states, 40 , (int)Math.round((double)states/5));mg.setGenerateConnected(true);
+		LearnerGraph referenceGraph = mg.nextMachine(states/2,seed, conf,conv).pathroutines.buildDeterministicGraph();
+		RandomPathGenerator generator = new RandomPathGenerator(referenceGraph,new Random(seed),5,null);
+		generator.generatePosNeg(2*states, 1);
+		return generator.getAllSequences(0);
+	}
+
+	/** Builds a PTA from the supplied walks. */
+	protected static LearnerGraph buildPTA(PTASequenceEngine engine, Configuration conf)
+	{
+		LearnerGraph pta = new LearnerGraph(conf);pta.initPTA();
+		pta.paths.augmentPTA(engine);
+		return pta;
+	}
+
+	/** Merges states of a PTA using both representations of transition matrices and checks that the outcomes and questions are the same at every step. */
+	@Test
+	public final void testMergeAndDeterminize() throws IncompatibleStatesException
+	{
+		checkMergeAndDeterminize(configDense);
+	}
+
+	@Test
+	public final void testMergeAndDeterminizeOffHeap() throws IncompatibleStatesException
+	{
+		configDense.setOffHeapTransitions(true);
+		checkMergeAndDeterminize(configDense);
+	}
+
+	/** Repeatedly adds transitions to a state stored off the heap and copies the graph, checking that the stores do not grow with the number of changes. */
+	@Test
+	public final void testOffHeapRowsReused()
+	{
+		configDense.setOffHeapTransitions(true);
+		LearnerGraph graph = new LearnerGraph(configDense);graph.initPTA();
+		DenseTransitionMatrix matrix = (DenseTransitionMatrix)graph.transitionMatrix;
+		final int transitions = 500;
+		CmpVertex target = AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID("P5000"), configDense);
+		graph.transitionMatrix.put(target, graph.createNewRow());
+		for(int i=0;i<transitions;++i)
+		{
+			Label label = AbstractLearnerGraph.generateNewLabel("l"+i, configDense, converter);
+			graph.transitionMatrix.get(graph.getInit()).put(label, target);
+			graph.transitionMatrix.get(graph.getInit()).put(label, graph.getInit());// replaces the transition in place
+		}
+		Assert.assertEquals(transitions, graph.transitionMatrix.get(graph.getInit()).size());
+		int capacity = OffHeapIntStore.capacityFor(2*transitions);
+		Assert.assertTrue(matrix.store.size() <= 2*capacity);
+
+		LearnerGraph copy = shallowCopy(graph,configDense);
+		DenseTransitionMatrix copyMatrix = (DenseTransitionMatrix)copy.transitionMatrix;
+		Assert.assertNotSame(matrix.store, copyMatrix.store);
+		Assert.assertEquals(capacity, copyMatrix.store.size());// only the live row is copied
+		Assert.assertEquals(0, copyMatrix.store.freeSize());
+		checkSameMatrix(graph.transitionMatrix, copy.transitionMatrix);
+
+		copy.transitionMatrix.get(copy.getInit()).clear();
+		Assert.assertEquals(transitions, graph.transitionMatrix.get(graph.getInit()).size());
+		copy.transitionMatrix.clear();
+		Assert.assertEquals(capacity, copyMatrix.store.freeSize());
+	}
+
+	protected void checkMergeAndDeterminize(Configuration config) throws IncompatibleStatesException
+	{
+		PTASequenceEngine engine = buildWalks(30,1,configArray,converter);
+		LearnerGraph graphArray = buildPTA(engine,configArray), graphDense = buildPTA(engine,config);
+		checkSameMatrix(graphArray.transitionMatrix, graphDense.transitionMatrix);
+		int mergers = 0;
+		while(true)
+		{
+			Stack<PairScore> pairsArray = graphArray.pairscores.chooseStatePairs(null), pairsDense = graphDense.pairscores.chooseStatePairs(null);
+			Assert.assertEquals(new HashSet<PairScore>(pairsArray), new HashSet<PairScore>(pairsDense));
+			if (pairsArray.isEmpty())
+				break;
+
+			PairScore pair = pairsArray.peek(), pairDense = pairsDense.get(pairsDense.indexOf(pair));// states of the two graphs are different objects
+			LearnerGraph mergedArray = MergeStates.mergeAndDeterminize(graphArray, pair), mergedDense = MergeStates.mergeAndDeterminize(graphDense, pairDense);
+			Assert.assertTrue(mergedDense.transitionMatrix instanceof DenseTransitionMatrix);
+			checkSameMatrix(mergedArray.transitionMatrix, mergedDense.transitionMatrix);
+			Assert.assertEquals(
+					new HashSet<List<Label>>(ComputeQuestions.computeQS_orig(pair, graphArray, mergedArray)),
+					new HashSet<List<Label>>(ComputeQuestions.computeQS_orig(pairDense, graphDense, mergedDense)));
+			graphArray = mergedArray;graphDense = mergedDense;
+			++mergers;
+		}
+		Assert.assertTrue(mergers > 0);
+	}
+
+	/** Checks that a learner can be initialised with a PTA stored outside the heap and that learning produces the same outcome as with a PTA stored on the heap. */
+	@Test
+	public final void testLearnerWithOffHeapPTA() throws IncompatibleStatesException, IOException
+	{
+		File directory = File.createTempFile("testLearnerWithOffHeapPTA", "");
+		Assert.assertTrue(directory.delete());Assert.assertTrue(directory.mkdir());
+		try
+		{
+			PTASequenceEngine engine = buildWalks(30,1,configArray,converter);
+			configArray.setAskQuestions(false);configDense.setAskQuestions(false);
+			configDense.setOffHeapTransitions(true);configDense.setOffHeapStorageDirectory(directory.getAbsolutePath());
+			RPNIUniversalLearner learnerArray = new RPNIUniversalLearner(null, configArray, converter), learnerDense = new RPNIUniversalLearner(null, configDense, converter);
+			LearnerGraph ptaArray = learnerArray.init(engine, 0, 0), ptaDense = learnerDense.init(engine, 0, 0);
+			Assert.assertTrue(ptaDense.transitionMatrix instanceof DenseTransitionMatrix);
+			Assert.assertNotNull(((DenseTransitionMatrix)ptaDense.transitionMatrix).store);
+			checkSameMatrix(ptaArray.transitionMatrix, ptaDense.transitionMatrix);
+			Assert.assertNull(WMethod.checkM(learnerArray.learnMachine(), learnerDense.learnMachine()));
+		}
+		finally
+		{
+			directory.delete();
+		}
+	}
+}
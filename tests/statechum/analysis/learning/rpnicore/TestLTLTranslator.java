@@ -0,0 +1,224 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.LTL2BABACKEND;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.apps.QSMTool;
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+import static statechum.Helper.checkForCorrectException;
+import static statechum.Helper.whatToRun;
+
+public class TestLTLTranslator
+{
+	protected Configuration config = null;
+	protected LearnerGraph expectedFromASEExample = null;
+	protected static final String formulaASE = "([]((close)-> X((load) V !((save) || (edit) || (close)))))";
+
+	@Before
+	public final void beforeTest()
+	{
+		config = Configuration.getDefaultConfiguration().copy();config.setLtl2baBackend(LTL2BABACKEND.LTL2BA_JAVA);
+		expectedFromASEExample = buildLearnerGraph(
+				"I-close->1\nI-edit->I1\nI-save->I1\nI-load->I1\n"+
+				"1-load->I1-close->1\n"+
+				"I1-edit->I1-save->I1-load->I1\n","testLTL_bigger",config,null);
+		LTL_to_ba.clearAutomataCache();
+	}
+
+	protected LTL_to_ba createTranslator()
+	{
+		LTL_to_ba ba = new LTL_to_ba(config,null);
+		ba.setAlphabet(AbstractLearnerGraph.buildList(Arrays.asList(new String[]{"load","save","edit","close"}),config,null));
+		return ba;
+	}
+
+	@Test
+	public final void testParse1()
+	{
+		Assert.assertEquals("((b || c) && a)",LTLTranslator.parse("a && (b || c)").toString());
+		Assert.assertEquals(LTLTranslator.parse("a && (b || c)"),LTLTranslator.parse(" ( (c||b) &&a)"));
+		Assert.assertEquals("(false V a)",LTLTranslator.parse("[]a").toString());
+		Assert.assertEquals("(true U a)",LTLTranslator.parse("<>a").toString());
+		Assert.assertEquals("(!a V !b)",LTLTranslator.parse("!(a U b)").toString());
+		Assert.assertEquals("(!a || X b)",LTLTranslator.parse("a -> X b").toString());
+		Assert.assertEquals("X (true U !a)",LTLTranslator.parse("!X[]a").toString());
+	}
+
+	/** Since exactly one label is true at every step, conjunctions of different atoms are false. */
+	@Test
+	public final void testParse2()
+	{
+		Assert.assertEquals("false",LTLTranslator.parse("a && b").toString());
+		Assert.assertEquals("true",LTLTranslator.parse("!a || !b").toString());
+		Assert.assertEquals("a",LTLTranslator.parse("a && !b").toString());
+		Assert.assertEquals("true",LTLTranslator.parse("a || !a").toString());
+		Assert.assertEquals("(!a && !b)",LTLTranslator.parse("a <-> b").toString());
+	}
+
+	@Test
+	public final void testParseFailure1()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			LTLTranslator.parse("&");
+		}},IllegalArgumentException.class,"syntax");
+	}
+
+	@Test
+	public final void testParseFailure2()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			LTLTranslator.parse("(a || b");
+		}},IllegalArgumentException.class,"syntax");
+	}
+
+	@Test
+	public final void testParseFailure3()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			LTLTranslator.parse("a U");
+		}},IllegalArgumentException.class,"syntax");
+	}
+
+	@Test
+	public final void testEmpty() throws IncompatibleStatesException
+	{
+		LTL_to_ba ba = createTranslator();
+		LearnerGraph expected = new LearnerGraph(config);expected.getInit().setAccept(false);
+		ba.runJavaLTL2BA("false");
+		Assert.assertNull(WMethod.checkM(expected,ba.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+	}
+
+	/** A formula which cannot be satisfied by any infinite trace. */
+	@Test
+	public final void testEmptyAfterPruning() throws IncompatibleStatesException
+	{
+		LTL_to_ba ba = createTranslator();
+		LearnerGraph expected = new LearnerGraph(config);expected.getInit().setAccept(false);
+		ba.runJavaLTL2BA("X [] (load && X save)");
+		Assert.assertNull(WMethod.checkM(expected,ba.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+	}
+
+	@Test
+	public final void testBigger() throws IncompatibleStatesException
+	{
+		LTL_to_ba ba = createTranslator();
+		ba.runJavaLTL2BA(formulaASE);
+		Assert.assertNull(WMethod.checkM(expectedFromASEExample,ba.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+	}
+
+	@Test
+	public final void testBiggerViaLtlToBA() throws IncompatibleStatesException
+	{
+		LTL_to_ba ba = createTranslator();
+		Assert.assertTrue(ba.ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" "+formulaASE}),null,false,"junk"));
+		Assert.assertNull(WMethod.checkM(expectedFromASEExample,ba.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+	}
+
+	@Test
+	public final void testNonSafety()
+	{
+		final LTL_to_ba ba = createTranslator();
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			ba.ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" ([](close-><>load))"}),null,false,null);
+		}},IllegalArgumentException.class,"not all states are accept");
+	}
+
+	@Test
+	public final void testUnknownLabel()
+	{
+		final LTL_to_ba ba = createTranslator();
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			ba.runJavaLTL2BA("[](open -> X close)");
+		}},IllegalArgumentException.class,"unrecognised label open");
+	}
+
+	/** Checks that all labels of the automaton are those of the alphabet of the supplied translator. */
+	protected static void checkLabelsInterned(LTL_to_ba ba)
+	{
+		for(Entry<CmpVertex,Map<Label,List<CmpVertex>>> entry:ba.matrixFromLTL.transitionMatrix.entrySet())
+			for(Label lbl:entry.getValue().keySet())
+				Assert.assertSame(ba.alphabet.get(lbl),lbl);
+	}
+
+	@Test
+	public final void testCache() throws IncompatibleStatesException
+	{
+		LTL_to_ba ba = createTranslator();
+		ba.ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" "+formulaASE}),null,false,null);
+		Assert.assertEquals(1,LTL_to_ba.getAutomataCacheSize());
+
+		// the same formula with a different layout
+		LTL_to_ba another = createTranslator();
+		another.ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" []( !close || X (load V (!edit && !close && !save)))"}),null,false,null);
+		Assert.assertEquals(1,LTL_to_ba.getAutomataCacheSize());
+		Assert.assertNull(WMethod.checkM(expectedFromASEExample,another.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+		checkLabelsInterned(another);
+
+		// a different alphabet
+		LTL_to_ba third = new LTL_to_ba(config,null);
+		third.setAlphabet(AbstractLearnerGraph.buildList(Arrays.asList(new String[]{"load","save","edit","close","open"}),config,null));
+		third.ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" "+formulaASE}),null,false,null);
+		Assert.assertEquals(2,LTL_to_ba.getAutomataCacheSize());
+		checkLabelsInterned(third);
+	}
+
+	@Test
+	public final void testCacheSize()
+	{
+		config.setLtl2baCacheSize(2);
+		for(String formula:new String[]{"[]load","[]save","[]edit","[]save"})
+			createTranslator().ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" "+formula}),null,false,null);
+		Assert.assertEquals(2,LTL_to_ba.getAutomataCacheSize());
+
+		config.setLtl2baCacheSize(0);LTL_to_ba.clearAutomataCache();
+		createTranslator().ltlToBA(Arrays.asList(new String[]{QSMTool.cmdLTL+" []load"}),null,false,null);
+		Assert.assertEquals(0,LTL_to_ba.getAutomataCacheSize());
+	}
+
+	/** Cached automata should be the same as those built without a cache. */
+	@Test
+	public final void testCacheConsistency() throws IncompatibleStatesException
+	{
+		String [] formulas = new String[]{formulaASE,"[](load -> X (save || edit))","X X [] !close","[](edit -> X X load) && [](save -> X !save)","false","true"};
+		for(String formula:formulas)
+		{
+			LTL_to_ba.clearAutomataCache();
+			LTL_to_ba first = createTranslator(), second = createTranslator();
+			first.runJavaLTL2BA(formula);
+			second.buildAutomaton("("+formula+")", null);
+			LTL_to_ba third = createTranslator();
+			third.buildAutomaton("("+formula+")", null);// this one comes from the cache
+			Assert.assertEquals(1,LTL_to_ba.getAutomataCacheSize());
+			LearnerGraph expected = first.matrixFromLTL.pathroutines.buildDeterministicGraph();
+			Assert.assertNull(WMethod.checkM(expected,third.matrixFromLTL.pathroutines.buildDeterministicGraph()));
+		}
+	}
+}
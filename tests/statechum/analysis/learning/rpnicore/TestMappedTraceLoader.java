@@ -0,0 +1,218 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import static statechum.Helper.checkForCorrectException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.GlobalConfiguration;
+import statechum.Helper.whatToRun;
+import statechum.GlobalConfiguration.G_PROPERTIES;
+import statechum.Label;
+import statechum.analysis.learning.experiments.ExperimentRunner;
+import statechum.analysis.learning.rpnicore.MappedTraceLoader.LoadProgress;
+import statechum.analysis.learning.rpnicore.MappedTraceLoader.LoadStatistics;
+import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+import statechum.analysis.learning.rpnicore.WMethod.VERTEX_COMPARISON_KIND;
+import statechum.apps.QSMTool.TraceAdder;
+
+@RunWith(ParameterizedWithName.class)
+public class TestMappedTraceLoader extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data()
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestMappedTraceLoader(Configuration config)
+	{
+		super(config);
+	}
+
+	File testDir = null, traceFile = null;
+
+	@Before
+	public final void beforeTest()
+	{
+		testDir = new File(GlobalConfiguration.getConfiguration().getProperty(G_PROPERTIES.TEMP),"__TestMappedTraceLoader__");
+		if (!testDir.isDirectory())
+			Assert.assertTrue("could not create "+testDir.getAbsolutePath(),testDir.mkdirs());
+		traceFile = new File(testDir,"traces.txt");
+	}
+
+	@After
+	public final void afterTest()
+	{
+		ExperimentRunner.zapDir(testDir);
+	}
+
+	protected void writeTraces(String text) throws IOException
+	{
+		FileWriter writer = new FileWriter(traceFile);writer.write(text);writer.close();
+	}
+
+	/** Loads traces into a list of strings where each trace is represented as text with a sign. */
+	protected List<String> loadAsText(MappedTraceLoader loader) throws IOException
+	{
+		final List<String> outcome = new LinkedList<String>();
+		loader.load(traceFile, new TraceAdder() {
+			@Override
+			public void addTrace(List<Label> trace, boolean positive) {
+				outcome.add((positive?"+":"-")+trace.toString());
+			}
+		});
+		return outcome;
+	}
+
+	@Test
+	public final void testLoadTraces1() throws IOException
+	{
+		writeTraces("+ a b c\n\n# comment\n- a,d\r\n+\n  +a\tb  \n-c");
+		for(int threads=1;threads<4;++threads)
+			for(int chunk:new int[]{1,2,5,100})
+			{
+				MappedTraceLoader loader = new MappedTraceLoader(mainConfiguration, converter, threads);loader.setChunkSize(chunk);
+				Assert.assertEquals("[+[a, b, c], -[a, d], +[], +[a, b], -[c]]",loadAsText(loader).toString());
+			}
+	}
+
+	@Test
+	public final void testLoadTraces_empty() throws IOException
+	{
+		writeTraces("");
+		MappedTraceLoader loader = new MappedTraceLoader(mainConfiguration, converter, 2);
+		Assert.assertTrue(loadAsText(loader).isEmpty());
+	}
+
+	@Test
+	public final void testLoadTraces_fail() throws IOException
+	{
+		writeTraces("+ a b c\n- a d\nc d\n");
+		final MappedTraceLoader loader = new MappedTraceLoader(mainConfiguration, converter, 2);loader.setChunkSize(3);
+		checkForCorrectException(new whatToRun() { public @Override void run() throws IOException {
+			loadAsText(loader);
+		}},IllegalArgumentException.class,"at offset 14");
+	}
+
+	@Test
+	public final void testInvalidArguments()
+	{
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			new MappedTraceLoader(mainConfiguration, converter, 0);
+		}},IllegalArgumentException.class,"number of threads");
+		checkForCorrectException(new whatToRun() { public @Override void run() {
+			new MappedTraceLoader(mainConfiguration, converter, 1).setChunkSize(0);
+		}},IllegalArgumentException.class,"chunk size");
+	}
+
+	/** Labels loaded by different threads are interned using the same converter. */
+	@Test
+	public final void testLabelsInterned() throws IOException
+	{
+		writeTraces("+ a b c\n+ a b\n+ c\n+ b a\n");
+		MappedTraceLoader loader = new MappedTraceLoader(mainConfiguration, converter, 3);loader.setChunkSize(1);
+		final List<Label> labels = new ArrayList<Label>();
+		loader.load(traceFile, new TraceAdder() {
+			@Override
+			public void addTrace(List<Label> trace, @SuppressWarnings("unused") boolean positive) {
+				labels.addAll(trace);
+			}
+		});
+		Assert.assertEquals(8, labels.size());
+		Assert.assertSame(labels.get(0), labels.get(3));Assert.assertSame(labels.get(0), labels.get(7));
+		Assert.assertSame(labels.get(1), labels.get(6));Assert.assertSame(labels.get(2), labels.get(5));
+	}
+
+	/** Builds random traces and checks that PTAs built from a file are the same as those built from the traces. */
+	@Test
+	public final void testLoadIntoPTA() throws IOException
+	{
+		Random rnd = new Random(0);
+		ConvertALabel conv = converter != null?converter:new Transform.InternStringLabel();// the same labels have to be used for the expected and the loaded PTA.
+		StringBuffer text = new StringBuffer();
+		List<List<Label>> plus = new LinkedList<List<Label>>(), minus = new LinkedList<List<Label>>();
+		LearnerGraph expected = new LearnerGraph(mainConfiguration);expected.initPTA();
+		for(int i=0;i<300;++i)
+		{
+			List<Label> trace = new LinkedList<Label>();
+			StringBuffer traceText = new StringBuffer();
+			int length = rnd.nextInt(6);
+			for(int j=0;j<length;++j)
+			{
+				String label = "lbl"+rnd.nextInt(4);
+				traceText.append(' ');traceText.append(label);
+				trace.add(AbstractLearnerGraph.generateNewLabel(label, mainConfiguration, conv));
+			}
+			// reject-traces end with a label that is not used anywhere else, hence they never contradict other traces.
+			boolean positive = rnd.nextInt(3) != 0;
+			if (!positive)
+			{
+				traceText.append(" rej");trace.add(AbstractLearnerGraph.generateNewLabel("rej", mainConfiguration, conv));
+			}
+			expected.paths.augmentPTA(trace, positive, false, null);
+			text.append(positive?"+":"-");text.append(traceText);text.append('\n');
+			if (positive) plus.add(trace);else minus.add(trace);
+		}
+		writeTraces(text.toString());
+		final List<LoadStatistics> progress = new LinkedList<LoadStatistics>();
+		MappedTraceLoader loader = new MappedTraceLoader(mainConfiguration, conv, 4);loader.setChunkSize(200);
+		loader.setProgress(new LoadProgress() {
+			@Override
+			public void chunkLoaded(LoadStatistics statistics) {
+				progress.add(statistics);
+			}
+		});
+		LearnerGraph actual = new LearnerGraph(mainConfiguration);actual.initPTA();
+		LoadStatistics statistics = loader.loadIntoPTA(traceFile, actual);
+		Assert.assertNull(WMethod.checkM(expected, expected.getInit(), actual, actual.getInit(), VERTEX_COMPARISON_KIND.DEEP));
+		Assert.assertEquals(expected.getStateNumber(), actual.getStateNumber());
+		Assert.assertEquals(plus.size()+minus.size(), statistics.traces);
+		Assert.assertEquals(text.length(), statistics.bytesTotal);Assert.assertEquals(text.length(), statistics.bytesLoaded);
+		Assert.assertEquals(progress.size(), statistics.chunks);Assert.assertTrue(statistics.chunks > 1);
+
+		LearnerGraph fromEngine = new LearnerGraph(mainConfiguration);fromEngine.initPTA();
+		fromEngine.paths.augmentPTA(loader.loadIntoEngine(traceFile));
+		// states are numbered in a different order when a PTA is built from an engine, hence names of states are not compared.
+		Assert.assertNull(WMethod.checkM(expected, expected.getInit(), fromEngine, fromEngine.getInit(), VERTEX_COMPARISON_KIND.NONE));
+		Assert.assertEquals(expected.getStateNumber(), fromEngine.getStateNumber());
+	}
+}
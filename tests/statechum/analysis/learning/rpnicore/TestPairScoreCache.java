@@ -0,0 +1,187 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ * 
+ * This file is part of StateChum
+ * 
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Stack;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.Configuration.ScoreMode;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.JUConstants;
+import statechum.Label;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+
+/** Checks that pair selection using cached scores gives the same outcome as the one that computes all scores from scratch. */
+@RunWith(ParameterizedWithName.class)
+public class TestPairScoreCache extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data() 
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+	
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestPairScoreCache(Configuration conf)
+	{
+		super(conf);
+	}
+
+	protected Configuration config = null;
+	
+	@Before
+	public final void beforeTest()
+	{
+		config = mainConfiguration.copy();config.setDebugMode(false);
+	}
+	
+	/** Checks that states reported as affected by a merge include all those where transitions, acceptance or compatibility 
+	 * differ between the original and the merged graphs, as well as those removed. 
+	 */
+	protected static void checkStatesAffectedByMerge(LearnerGraph original, LearnerGraph merged)
+	{
+		Assert.assertSame(original, merged.learnerCache.getMergedFrom());
+		Collection<CmpVertex> affected = merged.learnerCache.getStatesAffectedByMerge();
+		for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:merged.transitionMatrix.entrySet())
+		{
+			CmpVertex vertex = entry.getKey(), originalVertex = original.findVertex(vertex);
+			if (originalVertex == null || !new PairScoreCache.StateDetails(originalVertex, original.transitionMatrix.get(originalVertex), original.pairCompatibility.compatibility.get(originalVertex))
+					.sameAs(vertex, entry.getValue(), merged.pairCompatibility.compatibility.get(vertex)))
+				Assert.assertTrue(affected.contains(vertex));
+		}
+		for(CmpVertex vertex:original.transitionMatrix.keySet())
+			if (merged.findVertex(vertex) == null)
+				Assert.assertTrue(affected.contains(vertex));
+	}
+	
+	/** Learns a machine twice, with and without the cache and checks that the outcome is identical at every step. 
+	 * 
+	 * @return the cache used during learning.
+	 */
+	protected PairScoreCache checkLearningWithCache(LearnerGraph ptaA, LearnerGraph ptaB)
+	{
+		return checkLearningWithCache(ptaA, ptaB, true);
+	}
+	
+	/** Learns a machine twice, with and without the cache and checks that the outcome is identical at every step. 
+	 * 
+	 * @param general whether to merge using {@link MergeStates#mergeAndDeterminize_general(LearnerGraph, statechum.analysis.learning.StatePair)}
+	 * rather than {@link MergeStates#mergeAndDeterminize(LearnerGraph, statechum.analysis.learning.StatePair)}.
+	 * @return the cache used during learning.
+	 */
+	protected PairScoreCache checkLearningWithCache(LearnerGraph ptaA, LearnerGraph ptaB, boolean general)
+	{
+		PairScoreCache cache = new PairScoreCache();
+		LearnerGraph graphA = ptaA, graphB = ptaB;
+		int pairsReused = 0;
+		while(true)
+		{
+			Stack<PairScore> pairsA = graphA.pairscores.chooseStatePairs(null), pairsB = graphB.pairscores.chooseStatePairs(null, cache);
+			pairsReused+=cache.getPairsReused();
+			Assert.assertEquals(pairsA, pairsB);
+			if (pairsA.isEmpty())
+				break;
+			
+			LearnerGraph mergedB = general? MergeStates.mergeAndDeterminize_general(graphB, pairsB.peek()):MergeStates.mergeAndDeterminize(graphB, pairsB.peek());
+			checkStatesAffectedByMerge(graphB, mergedB);
+			graphA = general? MergeStates.mergeAndDeterminize_general(graphA, pairsA.peek()):MergeStates.mergeAndDeterminize(graphA, pairsA.peek());
+			graphB = mergedB;
+			Assert.assertNull(WMethod.checkM(graphA, graphB));
+			for(CmpVertex v:graphA.transitionMatrix.keySet())
+				Assert.assertEquals(v.getColour(), graphB.findVertex(v).getColour());
+		}
+		Assert.assertTrue(pairsReused > 0);
+		return cache;
+	}
+
+	@Test
+	public final void testLearningConventional() throws IncompatibleStatesException
+	{
+		checkLearningWithCache(buildRandomPTA(20,1,config,converter), buildRandomPTA(20,1,config,converter));
+	}
+	
+	@Test
+	public final void testLearningConventionalMergeAndDeterminize() throws IncompatibleStatesException
+	{
+		checkLearningWithCache(buildRandomPTA(20,1,config,converter), buildRandomPTA(20,1,config,converter), false);
+	}
+	
+	@Test
+	public final void testLearningCompatibility() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.COMPATIBILITY);
+		checkLearningWithCache(buildRandomPTA(20,2,config,converter), buildRandomPTA(20,2,config,converter));
+	}
+	
+	@Test
+	public final void testLearningGeneral() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.GENERAL);
+		checkLearningWithCache(buildRandomPTA(20,3,config,converter), buildRandomPTA(20,3,config,converter));
+	}
+	
+	@Test
+	public final void testLearningKTailsIsNotCached() throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.KTAILS);config.setKlimit(2);
+		LearnerGraph graph = buildRandomPTA(20,4,config,converter);
+		PairScoreCache cache = new PairScoreCache();
+		graph.pairscores.chooseStatePairs(null, cache);
+		Assert.assertEquals(0, cache.getPairsScored());Assert.assertEquals(0, cache.getPairsReused());
+	}
+	
+	/** A change to the graph without merging has to invalidate scores of pairs which can reach the modified state. */
+	@Test
+	public final void testInvalidationOnIncompatibility()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-a->D-b->E\nA-c->F-a->G-a->H-b->I","testInvalidationOnIncompatibility",config,converter);
+		PairScoreCache cache = new PairScoreCache();
+		graph.getInit().setColour(JUConstants.RED);
+		Stack<PairScore> pairsBefore = graph.pairscores.chooseStatePairs(null, cache);
+		int scored = cache.getPairsScored();
+		Assert.assertTrue(scored > 0);
+		graph.clearColours();graph.getInit().setColour(JUConstants.RED);
+		Assert.assertEquals(pairsBefore,graph.pairscores.chooseStatePairs(null, cache));
+		Assert.assertEquals(0,cache.getPairsScored());Assert.assertEquals(scored,cache.getPairsReused());
+		
+		graph.clearColours();graph.getInit().setColour(JUConstants.RED);
+		graph.addToCompatibility(graph.findVertex("E"), graph.findVertex("I"), JUConstants.PAIRCOMPATIBILITY.INCOMPATIBLE);
+		Stack<PairScore> pairsAfter = graph.pairscores.chooseStatePairs(null, cache);
+		Assert.assertTrue(cache.getPairsScored() > 0);
+		graph.clearColours();graph.getInit().setColour(JUConstants.RED);
+		Assert.assertEquals(graph.pairscores.chooseStatePairs(null),pairsAfter);
+	}
+}
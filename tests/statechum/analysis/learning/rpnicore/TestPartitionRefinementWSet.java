@@ -0,0 +1,176 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.WSETALGORITHM;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Label;
+import statechum.analysis.learning.AbstractOracle;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.WMethod.EquivalentStatesException;
+
+public class TestPartitionRefinementWSet
+{
+	protected static LearnerGraph buildGraph(int states, int seed) throws IncompatibleStatesException
+	{
+		LearnerGraph graph = new MachineGenerator(states, 40, states/5).nextMachine(states/3,seed,Configuration.getDefaultConfiguration().copy(),new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+		Random rnd = new Random(seed);
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (v != graph.getInit() && rnd.nextInt(5) == 0)
+				v.setAccept(false);
+		return graph;
+	}
+
+	/** Checks that the characterising set is valid and does not depend on the number of threads. */
+	protected static void checkWSet(LearnerGraph graph, boolean prefixClosed)
+	{
+		graph.config.setPrefixClosed(prefixClosed);
+		Collection<List<Label>> expected = WMethod.computeWSet_partitionRefinement(graph, null, 1);
+		graph.wmethod.checkW_is_corrent(expected, prefixClosed, null);
+		Assert.assertTrue(expected.size() < graph.getStateNumber()+1);
+		for(int threads:new int[]{2,4})
+			Assert.assertEquals(expected, WMethod.computeWSet_partitionRefinement(graph, null, threads));
+	}
+
+	@Test
+	public final void testRandomGraphs() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<10;++seed)
+		{
+			LearnerGraph graph = buildGraph(40+seed*10,seed);
+			boolean equivalentStates = WMethod.checkEquivalentStates(graph);
+			try
+			{
+				checkWSet(graph, false);
+				Assert.assertFalse(equivalentStates);
+			}
+			catch(EquivalentStatesException ex)
+			{
+				Assert.assertTrue(equivalentStates);
+			}
+		}
+	}
+
+	@Test
+	public final void testRandomGraphsPrefixClosed() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<10;++seed)
+		{
+			LearnerGraph graph = new MachineGenerator(50, 40, 10).nextMachine(15,seed,Configuration.getDefaultConfiguration().copy(),new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+			graph.config.setEquivalentStatesAllowedForW(true);
+			checkWSet(graph, true);
+		}
+	}
+
+	/** Where equivalent states are permitted, the outcome has to distinguish all states that are not equivalent. */
+	@Test
+	public final void testEquivalentStatesAllowed() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<10;++seed)
+		{
+			LearnerGraph graph = buildGraph(30,seed);graph.config.setEquivalentStatesAllowedForW(true);
+			Collection<List<Label>> reducedMemory = WMethod.computeWSet_reducedmemory(graph), refinement = WMethod.computeWSet_partitionRefinement(graph, null, 2);
+			// both sets should split states into the same number of equivalence classes.
+			Assert.assertEquals(countClasses(graph, reducedMemory), countClasses(graph, refinement));
+		}
+	}
+
+	/** Returns the number of sets of states which cannot be distinguished by the supplied sequences. */
+	protected static int countClasses(LearnerGraph graph, Collection<List<Label>> wset)
+	{
+		Set<List<Integer>> outcomes = new HashSet<List<Integer>>();
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+		{
+			List<Integer> outcome = new ArrayList<Integer>(wset.size()+1);
+			outcome.add(v.isAccept()?1:0);
+			for(List<Label> seq:wset)
+				outcome.add(graph.paths.tracePath(seq, v, false) == AbstractOracle.USER_ACCEPTED?1:0);
+			outcomes.add(outcome);
+		}
+		return outcomes.size();
+	}
+
+	/** Starting from a characterising set of a slightly different graph. */
+	@Test
+	public final void testIncremental() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<5;++seed)
+		{
+			LearnerGraph graph = buildGraph(60,seed);graph.config.setEquivalentStatesAllowedForW(true);
+			Collection<List<Label>> previous = WMethod.computeWSet_partitionRefinement(graph, null, 1);
+			LearnerGraph changed = new LearnerGraph(graph,graph.config);
+			int count = 0;
+			for(CmpVertex v:changed.transitionMatrix.keySet())
+				if (v != changed.getInit() && count++ % 17 == 0)
+					v.setAccept(!v.isAccept());
+			// the modified graph may have equivalent states, hence the outcome is compared with the number of equivalence classes of states.
+			int expectedClasses = countClasses(changed, WMethod.computeWSet_reducedmemory(changed));
+			for(int threads:new int[]{1,3})
+				Assert.assertEquals(expectedClasses, countClasses(changed, WMethod.computeWSet_partitionRefinement(changed, previous, threads)));
+			// for the same graph, the previous set is already characterising hence no new sequences should be added to it.
+			Collection<List<Label>> same = WMethod.computeWSet_partitionRefinement(graph, previous, 2);
+			Assert.assertTrue(previous.containsAll(same));
+			Assert.assertEquals(countClasses(graph, previous), countClasses(graph, same));
+		}
+	}
+
+	/** Sequences to start from may contain labels not used in the graph. */
+	@Test
+	public final void testIncrementalWithUnknownLabels()
+	{
+		Configuration config = Configuration.getDefaultConfiguration().copy();
+		LearnerGraph graph = FsmParser.buildLearnerGraph("A-a->B-a->C-b->D", "testIncrementalWithUnknownLabels",config,null);
+		List<List<Label>> previous = new ArrayList<List<Label>>();
+		previous.add(AbstractLearnerGraph.buildList(java.util.Arrays.asList(new String[]{"c","a"}), config, null));
+		Collection<List<Label>> wset = WMethod.computeWSet_partitionRefinement(graph, previous, 1);
+		graph.wmethod.checkW_is_corrent(wset, false, null);
+	}
+
+	@Test
+	public final void testEmptyGraph()
+	{
+		LearnerGraph graph = new LearnerGraph(Configuration.getDefaultConfiguration().copy());
+		Collection<List<Label>> wset = WMethod.computeWSet_partitionRefinement(graph, null, 2);
+		graph.wmethod.checkW_is_corrent(wset, false, null);
+	}
+
+	/** The choice of algorithm in the configuration is used when test sets are generated. */
+	@Test
+	public final void testTestSetGeneration() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(30,7);graph.config.setEquivalentStatesAllowedForW(true);
+		graph.config.setWSetAlgorithm(WSETALGORITHM.WSET_PARTITIONREFINEMENT);graph.config.setWSetThreadNumber(2);
+		graph.wmethod.computeNewTestSet(1);
+		graph.wmethod.checkW_is_corrent(graph.wmethod.getCharacterisationSet(), false, null);
+		Collection<List<Label>> expected = WMethod.computeWSet_partitionRefinement(graph, null, 1);
+		if (expected.isEmpty()) expected.add(new ArrayList<Label>());
+		Assert.assertEquals(new HashSet<List<Label>>(expected),new HashSet<List<Label>>(graph.wmethod.getCharacterisationSet()));
+	}
+}
@@ -20,6 +20,8 @@ package statechum.analysis.learning.rpnicore;
 import static statechum.Helper.checkForCorrectException;
 import static statechum.Helper.whatToRun;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
@@ -36,6 +38,9 @@ import java.util.TreeSet;
 import statechum.StatechumXML;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -47,6 +52,8 @@ import org.w3c.dom.Element;
 import edu.uci.ics.jung.exceptions.FatalException;
 
 import statechum.Configuration;
+import statechum.GlobalConfiguration;
+import statechum.GlobalConfiguration.G_PROPERTIES;
 import statechum.Helper;
 import statechum.JUConstants;
 import statechum.Label;
@@ -60,6 +67,7 @@ import statechum.DeterministicDirectedSparseGraph.VertID.VertKind;
 import statechum.analysis.learning.PairScore;
 import statechum.analysis.learning.StatePair;
 import statechum.analysis.learning.TestRpniLearner;
+import statechum.analysis.learning.observers.LearnerSimulator;
 import statechum.analysis.learning.observers.TestWriteReadPair;
 import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
 import statechum.analysis.learning.linear.GD;
@@ -742,6 +750,43 @@ public class TestTransform
 	}
 	
 	/** No graph element. */
+	/** Graphs written to a stream have to be the same as those obtained by serialising the DOM representation. */
+	@Test
+	public final void testGraphMLwriter_sameAsDOM() throws Exception
+	{
+		LearnerGraph fsm = buildLearnerGraph(TestRpniLearner.largeGraph1_invalid5, "testGraphMLwriter_sameAsDOM",config,converter);
+		fsm.findVertex("BB1").setAccept(false);fsm.findVertex("BB1").setColour(JUConstants.RED);fsm.findVertex("BB1").setHighlight(true);
+		fsm.findVertex("B").setOrigState(VertexID.parseID("P4500"));fsm.findVertex("B").setDepth(5);
+		fsm.addToCompatibility(fsm.findVertex("B"), fsm.findVertex("A"),JUConstants.PAIRCOMPATIBILITY.INCOMPATIBLE);
+		fsm.addToCompatibility(fsm.findVertex("B"), fsm.findVertex("S"),JUConstants.PAIRCOMPATIBILITY.MERGED);
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();doc.setXmlStandalone(true);
+		doc.appendChild(fsm.storage.createGraphMLNode(doc));
+		StringWriter domWriter = new StringWriter(), streamWriter = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc),new StreamResult(domWriter));
+		fsm.storage.writeGraphML(streamWriter);
+		Assert.assertEquals(domWriter.toString(), streamWriter.toString());
+	}
+	
+	/** Existing graphs have to load the same way with a stream-based loader as they do with a DOM-based one. */
+	@Test
+	public final void testGraphMLloader_sameAsDOM() throws IOException
+	{
+		for(String name:new String[]{"testWset1.graphml","LargeGraphs"+File.separator+"experiment_500.xml"})
+		{
+			String fileName = GlobalConfiguration.getConfiguration().getProperty(G_PROPERTIES.RESOURCES)+File.separator+name;
+			LearnerGraph streamed = new LearnerGraph(config);AbstractPersistence.loadGraph(fileName, streamed, converter);
+			FileReader reader = new FileReader(fileName);
+			LearnerGraph fromDOM = loadLearnerGraph(LearnerSimulator.getDocumentOfXML(reader).getDocumentElement());reader.close();
+			Assert.assertNull(WMethod.checkM_and_colours(fromDOM, streamed,WMethod.VERTEX_COMPARISON_KIND.DEEP));
+			Assert.assertEquals(fromDOM.getInit(), streamed.getInit());Assert.assertEquals(fromDOM.getStateNumber(), streamed.getStateNumber());
+			Assert.assertEquals(fromDOM.pairCompatibility, streamed.pairCompatibility);
+			StringWriter writer = new StringWriter();streamed.storage.writeGraphML(writer);
+			LearnerGraph loaded = loadLearnerGraph(new StringReader(writer.toString()));
+			Assert.assertNull(WMethod.checkM_and_colours(streamed, loaded,WMethod.VERTEX_COMPARISON_KIND.DEEP));
+			Assert.assertEquals(streamed.getStateNumber(), loaded.getStateNumber());
+		}
+	}
+	
 	@Test
 	public final void testGraphMLwriter_loadnode_fail1a()
 	{
@@ -0,0 +1,272 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ * 
+ * This file is part of StateChum
+ * 
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Stack;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.Configuration.STATETREE;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
+import statechum.Helper;
+import statechum.Helper.whatToRun;
+import statechum.Label;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+
+/** Checks that graphs with transition matrices recorded as overlays behave the same way as those where transition matrices are copied. */
+public class TestTransitionMatrixOverlay 
+{
+	protected Configuration configHash = null, configOverlay = null;
+	
+	@Before
+	public final void beforeTest()
+	{
+		configHash = Configuration.getDefaultConfiguration().copy();configHash.setTransitionMatrixImplType(STATETREE.STATETREE_LINKEDHASH);
+		configOverlay = Configuration.getDefaultConfiguration().copy();configOverlay.setTransitionMatrixImplType(STATETREE.STATETREE_OVERLAY);
+	}
+	
+	/** Makes a shallow copy of the supplied graph using the supplied configuration. */
+	protected static LearnerGraph shallowCopy(LearnerGraph graph, Configuration conf)
+	{
+		Configuration shallowCopy = conf.copy();shallowCopy.setLearnerCloneGraph(false);
+		return new LearnerGraph(graph,shallowCopy);
+	}
+
+	/** Checks that the two transition matrices have the same states and transitions, in the same order. */
+	protected static void checkSameMatrix(Map<CmpVertex,Map<Label,CmpVertex>> expected, Map<CmpVertex,Map<Label,CmpVertex>> actual)
+	{
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(new ArrayList<CmpVertex>(expected.keySet()), new ArrayList<CmpVertex>(actual.keySet()));
+		for(Entry<CmpVertex,Map<Label,CmpVertex>> entry:expected.entrySet())
+			Assert.assertEquals(new ArrayList<Label>(entry.getValue().keySet()), new ArrayList<Label>(actual.get(entry.getKey()).keySet()));
+	}
+	
+	@Test
+	public final void testCopyIsAnOverlay()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testCopyIsAnOverlay",configOverlay,null);
+		LearnerGraph copy = shallowCopy(graph,configOverlay);
+		Assert.assertTrue(copy.transitionMatrix instanceof TransitionMatrixOverlay);
+		Assert.assertEquals(0, ((TransitionMatrixOverlay)copy.transitionMatrix).getRowsRecorded());
+		Assert.assertNull(WMethod.checkM(graph, copy));
+		Assert.assertSame(graph.getInit(), copy.getInit());
+		Assert.assertSame(graph.findVertex("C"),copy.findVertex("C"));
+		
+		Configuration cloneConfig = configOverlay.copy();cloneConfig.setLearnerCloneGraph(true);
+		Assert.assertFalse(new LearnerGraph(graph,cloneConfig).transitionMatrix instanceof TransitionMatrixOverlay);
+		Assert.assertFalse(shallowCopy(graph,configHash).transitionMatrix instanceof TransitionMatrixOverlay);
+	}
+	
+	@Test
+	public final void testChangesDoNotAffectTheOriginal()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testChangesDoNotAffectTheOriginal",configOverlay,null);
+		LearnerGraph expected = new LearnerGraph(graph,configOverlay);// a real copy since vertices are cloned.
+		LearnerGraph copy = shallowCopy(graph,configOverlay);
+		CmpVertex a = copy.findVertex("A"), b = copy.findVertex("B"), c = copy.findVertex("C"), e = copy.findVertex("E");
+		Label lblA = AbstractLearnerGraph.generateNewLabel("a", configOverlay, null), lblC = AbstractLearnerGraph.generateNewLabel("c", configOverlay, null);
+		copy.transitionMatrix.get(a).put(lblC, c);
+		copy.transitionMatrix.get(b).remove(lblA);copy.transitionMatrix.remove(c);copy.transitionMatrix.remove(copy.findVertex("D"));
+		Iterator<Entry<Label,CmpVertex>> iter = copy.transitionMatrix.get(a).entrySet().iterator();
+		iter.next();iter.remove();
+		copy.transitionMatrix.get(e).put(lblA, e);
+		
+		Assert.assertNull(WMethod.checkM(expected, graph));
+		Assert.assertEquals(3,copy.transitionMatrix.size());
+		Assert.assertEquals(3,((TransitionMatrixOverlay)copy.transitionMatrix).getRowsRecorded());
+		Assert.assertFalse(copy.transitionMatrix.containsKey(c));Assert.assertNull(copy.transitionMatrix.get(c));
+		Assert.assertNull(copy.transitionMatrix.findElementById(c));Assert.assertSame(b,copy.transitionMatrix.findElementById(b));
+		Assert.assertTrue(copy.transitionMatrix.get(b).isEmpty());
+		Assert.assertEquals(2,copy.transitionMatrix.get(a).size());
+	}
+	
+	/** Modifications of a row of the original graph are detected by the overlay. */
+	@Test
+	public final void testModifyingOriginalRowDetected()
+	{
+		final LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testModifyingOriginalRowDetected",configOverlay,null);
+		final LearnerGraph copy = shallowCopy(graph,configOverlay);
+		final CmpVertex a = copy.findVertex("A");
+		Label lblC = AbstractLearnerGraph.generateNewLabel("c", configOverlay, null);
+		Assert.assertNull(graph.transitionMatrix.get(a).remove(lblC));// nothing is removed, hence the original is not changed
+		Assert.assertEquals(2,copy.transitionMatrix.get(a).size());
+		graph.transitionMatrix.get(a).put(lblC, graph.findVertex("C"));
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copy.transitionMatrix.get(a);
+		}}, IllegalArgumentException.class, "has been modified");
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copy.transitionMatrix.entrySet().iterator();
+		}}, IllegalArgumentException.class, "has been modified");
+	}
+
+	/** Modifications of the original graph made through an iterator of a row are detected by the overlay. */
+	@Test
+	public final void testModifyingOriginalRowWithIteratorDetected()
+	{
+		final LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testModifyingOriginalRowWithIteratorDetected",configOverlay,null);
+		final LearnerGraph copy = shallowCopy(graph,configOverlay);
+		Iterator<Entry<Label,CmpVertex>> iter = graph.transitionMatrix.get(graph.findVertex("A")).entrySet().iterator();
+		iter.next();iter.remove();
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copy.transitionMatrix.size();
+		}}, IllegalArgumentException.class, "has been modified");
+	}
+
+	/** Addition and removal of states of the original graph are detected by the overlay. */
+	@Test
+	public final void testModifyingOriginalMatrixDetected()
+	{
+		final LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testModifyingOriginalMatrixDetected",configOverlay,null);
+		final LearnerGraph copy = shallowCopy(graph,configOverlay);
+		graph.transitionMatrix.keySet().remove(graph.findVertex("D"));
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copy.transitionMatrix.containsKey(copy.findVertex("A"));
+		}}, IllegalArgumentException.class, "has been modified");
+	}
+
+	/** Modifications of any graph in a chain of overlays are detected by the overlays above it. */
+	@Test
+	public final void testModifyingChainOfOverlaysDetected()
+	{
+		final LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testModifyingChainOfOverlaysDetected",configOverlay,null);
+		LearnerGraph copy = shallowCopy(graph,configOverlay);
+		final LearnerGraph copyOfCopy = shallowCopy(copy,configOverlay);
+		Assert.assertEquals(2,((TransitionMatrixOverlay)copyOfCopy.transitionMatrix).getDepth());
+		copyOfCopy.transitionMatrix.get(copyOfCopy.findVertex("B")).clear();// changes to the top of the chain do not affect graphs below
+		Assert.assertEquals(1,copy.transitionMatrix.get(copy.findVertex("B")).size());
+
+		copy.transitionMatrix.remove(copy.findVertex("E"));
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copyOfCopy.transitionMatrix.get(copyOfCopy.findVertex("A"));
+		}}, IllegalArgumentException.class, "has been modified");
+
+		final LearnerGraph anotherCopy = shallowCopy(graph,configOverlay), copyOfAnotherCopy = shallowCopy(anotherCopy,configOverlay);
+		graph.transitionMatrix.put(AbstractLearnerGraph.generateNewCmpVertex(VertexID.parseID("F"), configOverlay), graph.createNewRow());
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			copyOfAnotherCopy.transitionMatrix.get(copyOfAnotherCopy.findVertex("A"));
+		}}, IllegalArgumentException.class, "has been modified");
+	}
+
+	/** An overlay is only constructed over a matrix that counts modifications. */
+	@Test
+	public final void testOverlayOnlyOverCountingMatrix()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b->E","testOverlayOnlyOverCountingMatrix",configHash,null);
+		LearnerGraph copy = shallowCopy(graph,configOverlay);
+		Assert.assertFalse(copy.transitionMatrix instanceof TransitionMatrixOverlay);
+		Assert.assertNull(WMethod.checkM(graph, copy));
+		Assert.assertTrue(shallowCopy(copy,configOverlay).transitionMatrix instanceof TransitionMatrixOverlay);
+	}
+
+	/** Performs the same random changes on a transition matrix that is a copy and on the one that is an overlay, checking that they remain the same. */
+	@Test
+	public final void testRandomChanges() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = new MachineGenerator(30, 40 , 6).nextMachine(5,1, configOverlay,null).pathroutines.buildDeterministicGraph();
+		LearnerGraph expected = new LearnerGraph(graph,configOverlay);
+		Random rnd = new Random(0);
+		LearnerGraph hashGraph = shallowCopy(graph,configHash), overlayGraph = shallowCopy(graph,configOverlay);
+		List<CmpVertex> states = new ArrayList<CmpVertex>(graph.transitionMatrix.keySet());
+		List<Label> labels = new ArrayList<Label>(graph.pathroutines.computeAlphabet());
+		for(int i=0;i<2000;++i)
+		{
+			CmpVertex state = states.get(rnd.nextInt(states.size()));
+			switch(rnd.nextInt(6))
+			{
+			case 0:
+				hashGraph.transitionMatrix.remove(state);overlayGraph.transitionMatrix.remove(state);
+				break;
+			case 1:
+				if (!hashGraph.transitionMatrix.containsKey(state))
+				{
+					hashGraph.transitionMatrix.put(state, hashGraph.createNewRow());overlayGraph.transitionMatrix.put(state, overlayGraph.createNewRow());
+				}
+				break;
+			case 2:
+			case 3:
+				if (hashGraph.transitionMatrix.containsKey(state))
+				{
+					Label label = labels.get(rnd.nextInt(labels.size()));CmpVertex target = states.get(rnd.nextInt(states.size()));
+					Assert.assertEquals(hashGraph.transitionMatrix.get(state).put(label, target),overlayGraph.transitionMatrix.get(state).put(label, target));
+				}
+				break;
+			case 4:
+				if (hashGraph.transitionMatrix.containsKey(state))
+				{
+					Label label = labels.get(rnd.nextInt(labels.size()));
+					Assert.assertEquals(hashGraph.transitionMatrix.get(state).remove(label),overlayGraph.transitionMatrix.get(state).remove(label));
+				}
+				break;
+			case 5:
+				Assert.assertEquals(hashGraph.transitionMatrix.get(state), overlayGraph.transitionMatrix.get(state));
+				Assert.assertEquals(hashGraph.transitionMatrix.findElementById(state), overlayGraph.transitionMatrix.findElementById(state));
+				break;
+			}
+		}
+		checkSameMatrix(hashGraph.transitionMatrix, overlayGraph.transitionMatrix);
+		checkSameMatrix(expected.transitionMatrix, graph.transitionMatrix);
+	}
+
+	/** Merges states using both a copied and an overlaid transition matrix and checks that the outcomes and questions are the same at every step. */
+	@Test
+	public final void testMergeAndDeterminize() throws IncompatibleStatesException
+	{
+		LearnerGraph graphHash = TestWithMultipleConfigurations.buildRandomPTA(30,1,configHash,null), graphOverlay = TestWithMultipleConfigurations.buildRandomPTA(30,1,configOverlay,null);
+		int mergers = 0, maxDepth = 0, copies = 0;
+		while(true)
+		{
+			Stack<PairScore> pairsHash = graphHash.pairscores.chooseStatePairs(null), pairsOverlay = graphOverlay.pairscores.chooseStatePairs(null);
+			Assert.assertEquals(pairsHash, pairsOverlay);
+			if (pairsHash.isEmpty())
+				break;
+			
+			LearnerGraph mergedHash = MergeStates.mergeAndDeterminize(graphHash, pairsHash.peek()), mergedOverlay = MergeStates.mergeAndDeterminize(graphOverlay, pairsOverlay.peek());
+			if (mergedOverlay.transitionMatrix instanceof TransitionMatrixOverlay)
+			{
+				TransitionMatrixOverlay overlay = (TransitionMatrixOverlay)mergedOverlay.transitionMatrix;
+				maxDepth = Math.max(maxDepth,overlay.getDepth());
+				Assert.assertTrue(overlay.getRowsRecorded() < mergedOverlay.getStateNumber());
+			}
+			else
+				++copies;// a chain of overlays became too long
+			checkSameMatrix(mergedHash.transitionMatrix, mergedOverlay.transitionMatrix);
+			Assert.assertEquals(
+					ComputeQuestions.computeQS_orig(pairsHash.peek(), graphHash, mergedHash),
+					ComputeQuestions.computeQS_orig(pairsOverlay.peek(), graphOverlay, mergedOverlay));
+			graphHash = mergedHash;graphOverlay = mergedOverlay;
+			++mergers;
+		}
+		Assert.assertTrue(mergers > TransitionMatrixOverlay.maxDepth);Assert.assertTrue(copies > 0);
+		Assert.assertEquals(TransitionMatrixOverlay.maxDepth, maxDepth);
+	}
+}
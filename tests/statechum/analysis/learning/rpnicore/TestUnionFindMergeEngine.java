@@ -0,0 +1,248 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.analysis.learning.rpnicore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.ParameterizedWithName;
+import org.junit.runners.ParameterizedWithName.ParametersToString;
+
+import statechum.Configuration;
+import statechum.Configuration.ScoreMode;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.DeterministicDirectedSparseGraph.VertID.VertKind;
+import statechum.DeterministicDirectedSparseGraph.VertexID;
+import statechum.JUConstants;
+import statechum.analysis.learning.PairScore;
+import statechum.analysis.learning.StatePair;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+
+/** Checks that merging of states using {@link UnionFindMergeEngine} gives the same outcome as the sequential merger. */
+@RunWith(ParameterizedWithName.class)
+public class TestUnionFindMergeEngine extends TestWithMultipleConfigurations
+{
+	@org.junit.runners.Parameterized.Parameters
+	public static Collection<Object[]> data()
+	{
+		return TestWithMultipleConfigurations.data();
+	}
+
+	@ParametersToString
+	public static String parametersToString(Configuration config)
+	{
+		return TestWithMultipleConfigurations.parametersToString(config);
+	}
+
+	public TestUnionFindMergeEngine(Configuration conf)
+	{
+		super(conf);
+	}
+
+	protected Configuration config = null;
+
+	@Before
+	public final void beforeTest()
+	{
+		config = mainConfiguration.copy();config.setDebugMode(false);
+	}
+
+	/** Converts equivalence classes to sets of states, to compare them without regard to the numbering of classes. */
+	protected static Set<Set<CmpVertex>> toPartition(Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> eqClasses)
+	{
+		Set<Set<CmpVertex>> outcome = new HashSet<Set<CmpVertex>>();
+		for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:eqClasses)
+			Assert.assertTrue(outcome.add(new TreeSet<CmpVertex>(eqClass.getStates())));
+		return outcome;
+	}
+
+	/** Merges the supplied pairs using the sequential merger and the engine with different numbers of threads, comparing the outcomes.
+	 * Both a new engine and one kept by the cache of the graph, which may have been used for other pairs, are checked.
+	 *
+	 * @return the score returned by the sequential merger.
+	 */
+	protected static int checkMerge(LearnerGraph graph, StatePair pair, Collection<StatePair> pairs)
+	{
+		Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> expected = new LinkedList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+		int expectedScore = graph.pairscores.computePairCompatibilityScore_general(pair, pairs, expected);
+		for(int threads:new int[]{1,2,4})
+		{
+			UnionFindMergeEngine cachedEngine = graph.learnerCache.obtainMergeEngine(threads);
+			for(UnionFindMergeEngine engine:new UnionFindMergeEngine[]{new UnionFindMergeEngine(graph, threads),cachedEngine})
+			{
+				Collection<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>> actual = new LinkedList<AMEquivalenceClass<CmpVertex,LearnerGraphCachedData>>();
+				Assert.assertEquals(expectedScore, engine.computePairCompatibilityScore_general(pair, pairs, actual));
+				if (expectedScore >= 0)
+				{
+					Assert.assertEquals(toPartition(expected), toPartition(actual));
+					for(AMEquivalenceClass<CmpVertex,LearnerGraphCachedData> eqClass:actual)
+						for(List<CmpVertex> targets:eqClass.getOutgoing().values())
+							Assert.assertEquals(1, targets.size());
+				}
+			}
+			graph.learnerCache.releaseMergeEngine(cachedEngine);
+		}
+		return expectedScore;
+	}
+
+	/** Merges random pairs of states, many of which are incompatible. */
+	@Test
+	public final void testRandomPairs() throws IncompatibleStatesException
+	{
+		LearnerGraph pta = buildRandomPTA(40,1,config,converter);
+		CmpVertex [] vertices = pta.transitionMatrix.keySet().toArray(new CmpVertex[0]);
+		Random rnd = new Random(0);
+		int compatible = 0, incompatible = 0;
+		for(int i=0;i<200;++i)
+		{
+			CmpVertex a = vertices[rnd.nextInt(vertices.length)], b = vertices[rnd.nextInt(vertices.length)];
+			if (a != b)
+			{
+				if (checkMerge(pta, new StatePair(a,b), null) >= 0) ++compatible;else ++incompatible;
+			}
+		}
+		Assert.assertTrue(compatible > 0);Assert.assertTrue(incompatible > 0);
+	}
+
+	/** Merges the initial state with every accept-state of a PTA, collapsing most of it into a single state. */
+	@Test
+	public final void testCollapsePTA() throws IncompatibleStatesException
+	{
+		LearnerGraph pta = buildRandomPTA(40,2,config,converter);
+		List<StatePair> pairs = new ArrayList<StatePair>();
+		for(CmpVertex v:pta.transitionMatrix.keySet())
+			if (v.isAccept() && v != pta.getInit())
+				pairs.add(new StatePair(pta.getInit(),v));
+		checkMerge(pta, null, pairs);
+		checkMerge(pta, pairs.get(0), pairs.subList(1, pairs.size()/2));
+	}
+
+	@Test
+	public final void testNoPairs() throws IncompatibleStatesException
+	{
+		LearnerGraph pta = buildRandomPTA(10,3,config,converter);
+		Assert.assertEquals(0,checkMerge(pta, null, null));
+		Assert.assertEquals(0,checkMerge(pta, null, new LinkedList<StatePair>()));
+	}
+
+	/** Merges random collections of pairs of states where some states are recorded as incompatible. */
+	@Test
+	public final void testIncompatibleStates() throws IncompatibleStatesException
+	{
+		LearnerGraph pta = buildRandomPTA(40,4,config,converter);
+		CmpVertex [] vertices = pta.transitionMatrix.keySet().toArray(new CmpVertex[0]);
+		Random rnd = new Random(1);
+		for(int i=0;i<vertices.length/4;++i)
+		{
+			CmpVertex a = vertices[rnd.nextInt(vertices.length)], b = vertices[rnd.nextInt(vertices.length)];
+			if (a != b && a.isAccept() == b.isAccept())
+				pta.addToCompatibility(a, b, JUConstants.PAIRCOMPATIBILITY.INCOMPATIBLE);
+		}
+		int compatible = 0, incompatible = 0;
+		for(int i=0;i<100;++i)
+		{
+			List<StatePair> pairs = new ArrayList<StatePair>();
+			for(int j=0;j<3;++j)
+			{
+				CmpVertex a = vertices[rnd.nextInt(vertices.length)], b = vertices[rnd.nextInt(vertices.length)];
+				if (a != b && a.isAccept() && b.isAccept())
+					pairs.add(new StatePair(a,b));
+			}
+			if (checkMerge(pta, null, pairs) >= 0) ++compatible;else ++incompatible;
+		}
+		Assert.assertTrue(compatible > 0);Assert.assertTrue(incompatible > 0);
+	}
+
+	/** Engines kept by the cache of a graph share the numbering of states and are reused until the graph is modified. */
+	@Test
+	public final void testEnginesReused() throws IncompatibleStatesException
+	{
+		LearnerGraph pta = buildRandomPTA(20,6,config,converter);
+		UnionFindMergeEngine engineA = pta.learnerCache.obtainMergeEngine(2), engineB = pta.learnerCache.obtainMergeEngine(2);
+		Assert.assertNotSame(engineA, engineB);Assert.assertTrue(engineA.sharesNumberingWith(engineB));
+		pta.learnerCache.releaseMergeEngine(engineB);
+		Assert.assertSame(engineB, pta.learnerCache.obtainMergeEngine(4));Assert.assertEquals(4, engineB.threadNumber);
+		pta.learnerCache.releaseMergeEngine(engineB);
+		
+		pta.learnerCache.invalidate();
+		pta.learnerCache.releaseMergeEngine(engineA);// the graph may have changed while the engine was used, hence it is not reused
+		UnionFindMergeEngine engineC = pta.learnerCache.obtainMergeEngine(2);
+		Assert.assertNotSame(engineA, engineC);Assert.assertNotSame(engineB, engineC);Assert.assertFalse(engineA.sharesNumberingWith(engineC));
+		
+		CmpVertex newVertex = AbstractLearnerGraph.generateNewCmpVertex(new VertexID(VertKind.NONEXISTING,90), config);
+		pta.transitionMatrix.put(newVertex, pta.createNewRow());
+		pta.learnerCache.releaseMergeEngine(engineC);
+		Assert.assertFalse(engineC.matchesGraph());
+		UnionFindMergeEngine engineD = pta.learnerCache.obtainMergeEngine(2);
+		Assert.assertNotSame(engineC, engineD);Assert.assertTrue(engineD.matchesGraph());
+	}
+
+	/** Learns a machine with the generalised merger performed sequentially and by multiple threads. */
+	@Test
+	public final void testLearning() throws IncompatibleStatesException
+	{
+		checkLearning(false);
+	}
+
+	/** Learns a machine with the generalised merger performed by multiple threads while pairs are scored concurrently, 
+	 * in which case each pair is merged by the thread scoring it. 
+	 */
+	@Test
+	public final void testLearningScoringConcurrently() throws IncompatibleStatesException
+	{
+		checkLearning(true);
+	}
+
+	protected void checkLearning(boolean scoreConcurrently) throws IncompatibleStatesException
+	{
+		config.setLearnerScoreMode(ScoreMode.GENERAL);
+		Configuration concurrentConfig = config.copy();concurrentConfig.setMergeThreadNumber(4);
+		if (scoreConcurrently)
+			concurrentConfig.setPairScoringThreadNumber(4);
+		LearnerGraph graphA = buildRandomPTA(20,5,config,converter), graphB = buildRandomPTA(20,5,concurrentConfig,converter);
+		int mergers = 0;
+		while(true)
+		{
+			Stack<PairScore> pairsA = graphA.pairscores.chooseStatePairs(null), pairsB = graphB.pairscores.chooseStatePairs(null);
+			Assert.assertEquals(pairsA, pairsB);
+			for(int i=0;i<pairsA.size();++i)
+				Assert.assertEquals(pairsA.get(i).getAnotherScore(), pairsB.get(i).getAnotherScore());
+			if (pairsA.isEmpty())
+				break;
+
+			graphA = MergeStates.mergeAndDeterminize_general(graphA, pairsA.peek());
+			graphB = MergeStates.mergeAndDeterminize_general(graphB, pairsB.peek());
+			Assert.assertNull(WMethod.checkM(graphA, graphB));
+			for(CmpVertex v:graphA.transitionMatrix.keySet())
+				Assert.assertEquals(v.getColour(), graphB.findVertex(v).getColour());
+			++mergers;
+		}
+		Assert.assertTrue(mergers > 0);
+	}
+}
@@ -724,10 +724,21 @@ public class TestWMethod {
 			checkEquivalentStatesException(e,fsm);
 		}
 
+		try
+		{
+			computedWset.addAll(WMethod.computeWSet_partitionRefinement(fsm,null,2));
+			fail("exception not thrown");
+		}
+		catch(EquivalentStatesException e)
+		{// exception is expected here
+			checkEquivalentStatesException(e,fsm);
+		}
+
 		fsm.config.setEquivalentStatesAllowedForW(true);
 		Set<List<Label>> wset = new HashSet<List<Label>>();wset.addAll(WMethod.computeWSet_reducedmemory(fsm));
 		fsm.wmethod.checkW_is_corrent(wset,prefixClosed,equivalentVertices);// we are not checking for W reduction here since space-saving way to compute W
-		
+		wset.clear();wset.addAll(WMethod.computeWSet_partitionRefinement(fsm,null,2));
+		fsm.wmethod.checkW_is_corrent(wset,prefixClosed,equivalentVertices);
 	}
 
 	public static void testWsetconstruction(LearnerGraph fsm, boolean equivalentExpected, boolean reductionExpected, boolean prefixClosed)
@@ -776,6 +787,18 @@ public class TestWMethod {
 			Assert.assertEquals(true, equivalentExpected);
 			checkEquivalentStatesException(e,fsm);
 		}
+
+		try
+		{
+			Set<List<Label>> wset = new HashSet<List<Label>>();wset.addAll(WMethod.computeWSet_partitionRefinement(fsm,null,2));
+			Assert.assertEquals(false, equivalentExpected);
+			fsm.wmethod.checkW_is_corrent(wset,prefixClosed,null);
+		}
+		catch(EquivalentStatesException e)
+		{
+			Assert.assertEquals(true, equivalentExpected);
+			checkEquivalentStatesException(e,fsm);
+		}
 	}	
 	
 	/** Checking generation of a sink state. */
@@ -60,7 +60,8 @@ public class TestWMethodUniversal
 	{
 		prefixClosed = closed;
 		config = conf.copy();
-		converter = config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?new Transform.InternStringLabel():null;
+		converter = config.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY || config.getTransitionMatrixImplType() == STATETREE.STATETREE_DENSE?
+				new Transform.InternStringLabel():null;
 	}
 	
 	@org.junit.runners.Parameterized.Parameters
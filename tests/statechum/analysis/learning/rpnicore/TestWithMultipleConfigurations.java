@@ -21,11 +21,15 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import statechum.Configuration;
 import statechum.Label;
 import statechum.Configuration.STATETREE;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
 import statechum.analysis.learning.rpnicore.Transform.ConvertALabel;
+import statechum.model.testset.PTASequenceEngine;
 
 /** Makes it possible to easily test classes parameterised by a few type of transition matrix.
  */
@@ -35,13 +39,17 @@ public class TestWithMultipleConfigurations
 	configStd = Configuration.getDefaultConfiguration().copy(), 
 	configTree = Configuration.getDefaultConfiguration().copy(), 
 	configArray = Configuration.getDefaultConfiguration().copy(),
-	configHash = Configuration.getDefaultConfiguration().copy();
+	configHash = Configuration.getDefaultConfiguration().copy(),
+	configOverlay = Configuration.getDefaultConfiguration().copy(),
+	configDense = Configuration.getDefaultConfiguration().copy();
 
 	static
 	{
 		configArray.setTransitionMatrixImplType(STATETREE.STATETREE_ARRAY);
 		configHash.setTransitionMatrixImplType(STATETREE.STATETREE_LINKEDHASH);
 		configTree.setTransitionMatrixImplType(STATETREE.STATETREE_SLOWTREE);
+		configOverlay.setTransitionMatrixImplType(STATETREE.STATETREE_OVERLAY);
+		configDense.setTransitionMatrixImplType(STATETREE.STATETREE_DENSE);
 	}
 	
 	/** Label converter to use. */
@@ -57,6 +65,8 @@ public class TestWithMultipleConfigurations
 		result.add(new Object[]{configTree});
 		result.add(new Object[]{configArray});
 		result.add(new Object[]{configHash});
+		result.add(new Object[]{configOverlay});
+		result.add(new Object[]{configDense});
 		return result;
 	}
 	
@@ -70,7 +80,27 @@ public class TestWithMultipleConfigurations
 	{
 		mainConfiguration = argConfig.copy();
 		mainConfiguration.setAllowedToCloneNonCmpVertex(true);
-		converter = mainConfiguration.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY?new Transform.InternStringLabel():null;
+		converter = mainConfiguration.getTransitionMatrixImplType() == STATETREE.STATETREE_ARRAY || mainConfiguration.getTransitionMatrixImplType() == STATETREE.STATETREE_DENSE?
+				new Transform.InternStringLabel():null;
+	}
+	
+	/** Builds a PTA from random walks of a randomly-generated machine.
+	 * 
+	 * @param states the number of states in the machine to generate
+	 * @param seed the seed for the generator of the machine and of walks
+	 * @param conf configuration for the PTA
+	 * @param conv label converter to use, can be null
+	 */
+	public static LearnerGraph buildRandomPTA(int states, int seed, Configuration conf, ConvertALabel conv) throws IncompatibleStatesException
+	{
+		MachineGenerator mg = new MachineGenerator(states, 40 , (int)Math.round((double)states/5));mg.setGenerateConnected(true);
+		LearnerGraph referenceGraph = mg.nextMachine(states/2,seed, conf,conv).pathroutines.buildDeterministicGraph();
+		RandomPathGenerator generator = new RandomPathGenerator(referenceGraph,new Random(seed),5,null);
+		generator.generatePosNeg(2*states, 1);
+		PTASequenceEngine engine = generator.getAllSequences(0);
+		LearnerGraph pta = new LearnerGraph(conf);pta.initPTA();
+		pta.paths.augmentPTA(engine);
+		return pta;
 	}
 	
 	/** Converts arrays of labels to lists of labels using config - it does not really matter which configuration is used 
@@ -0,0 +1,192 @@
+/* Copyright (c) 2015 The University of Sheffield.
+ *
+ * This file is part of StateChum
+ *
+ * StateChum is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * StateChum is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with StateChum.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package statechum.model.testset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import statechum.Configuration;
+import statechum.DeterministicDirectedSparseGraph.CmpVertex;
+import statechum.Helper;
+import statechum.Helper.whatToRun;
+import statechum.Label;
+import statechum.analysis.learning.experiments.mutation.DiffExperiments.MachineGenerator;
+import statechum.analysis.learning.rpnicore.AMEquivalenceClass.IncompatibleStatesException;
+import statechum.analysis.learning.rpnicore.LearnerGraph;
+import statechum.analysis.learning.rpnicore.Transform;
+import statechum.model.testset.WMethodSequenceGenerator.SequenceHandler;
+import static statechum.analysis.learning.rpnicore.FsmParser.buildLearnerGraph;
+
+public class TestWMethodSequenceGenerator
+{
+	/** Builds a random graph with some reject-states. */
+	protected static LearnerGraph buildGraph(int states, int seed) throws IncompatibleStatesException
+	{
+		Configuration config = Configuration.getDefaultConfiguration().copy();config.setEquivalentStatesAllowedForW(true);
+		LearnerGraph graph = new MachineGenerator(states, 40, states/5).nextMachine(states/3,seed,config,new Transform.InternStringLabel()).pathroutines.buildDeterministicGraph();
+		Random rnd = new Random(seed);
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (v != graph.getInit() && rnd.nextInt(6) == 0)
+				v.setAccept(false);
+		return graph;
+	}
+
+	/** Returns all the sequences of the supplied generator, checking that there are no duplicates. */
+	protected static Set<List<Label>> collect(WMethodSequenceGenerator generator)
+	{
+		Set<List<Label>> result = new HashSet<List<Label>>();
+		while(generator.hasNext())
+			Assert.assertTrue(result.add(generator.next()));
+		return result;
+	}
+
+	protected static void checkSameSequences(LearnerGraph graph, CmpVertex initialState, int extraStates)
+	{
+		Set<List<Label>> expected = new HashSet<List<Label>>(graph.wmethod.computeNewTestSet(initialState, extraStates).getData());
+		Assert.assertEquals(expected, collect(graph.wmethod.generateNewTestSet(initialState, extraStates)));
+	}
+
+	@Test
+	public final void testSimpleGraph()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nA-b-#E\nB-c->A","testSimpleGraph",Configuration.getDefaultConfiguration().copy(),null);
+		for(int extra=0;extra<3;++extra)
+			checkSameSequences(graph, graph.getInit(), extra);
+	}
+
+	@Test
+	public final void testSingleState()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->A","testSingleState",Configuration.getDefaultConfiguration().copy(),null);
+		checkSameSequences(graph, graph.getInit(), 0);
+		checkSameSequences(graph, graph.getInit(), 2);
+	}
+
+	@Test
+	public final void testRejectInitialState()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->B","testRejectInitialState",Configuration.getDefaultConfiguration().copy(),null);
+		graph.getInit().setAccept(false);
+		checkSameSequences(graph, graph.getInit(), 1);
+	}
+
+	@Test
+	public final void testRandomGraphs() throws IncompatibleStatesException
+	{
+		for(int seed=0;seed<8;++seed)
+		{
+			LearnerGraph graph = buildGraph(20+seed*5,seed);
+			for(int extra=0;extra<3;++extra)
+				checkSameSequences(graph, graph.getInit(), extra);
+		}
+	}
+
+	@Test
+	public final void testDifferentInitialState() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(30,1);
+		for(CmpVertex v:graph.transitionMatrix.keySet())
+			if (v.isAccept())
+				checkSameSequences(graph, v, 1);
+	}
+
+	/** Sequences of generators obtained by splitting should be disjoint and together make up the test set. */
+	@Test
+	public final void testSplit() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(40,3);
+		Set<List<Label>> expected = collect(graph.wmethod.generateNewTestSet(1));
+		for(int consumedFirst:new int[]{0,1,10,100})
+		{
+			WMethodSequenceGenerator generator = graph.wmethod.generateNewTestSet(1);
+			Set<List<Label>> actual = new HashSet<List<Label>>();
+			for(int i=0;i<consumedFirst && generator.hasNext();++i)
+				Assert.assertTrue(actual.add(generator.next()));
+			List<WMethodSequenceGenerator> parts = new LinkedList<WMethodSequenceGenerator>();parts.add(generator);
+			for(int i=0;i<5;++i)
+			{
+				List<WMethodSequenceGenerator> newParts = new LinkedList<WMethodSequenceGenerator>();
+				for(WMethodSequenceGenerator part:parts)
+				{
+					WMethodSequenceGenerator split = part.trySplit();
+					if (split != null) newParts.add(split);
+				}
+				parts.addAll(newParts);
+			}
+			Assert.assertTrue(parts.size() > 10);
+			for(WMethodSequenceGenerator part:parts)
+				for(List<Label> seq:collect(part))
+					Assert.assertTrue(actual.add(seq));
+			Assert.assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public final void testSplitExhausted()
+	{
+		LearnerGraph graph = buildLearnerGraph("A-a->A","testSplitExhausted",Configuration.getDefaultConfiguration().copy(),null);
+		WMethodSequenceGenerator generator = graph.wmethod.generateNewTestSet(0);
+		collect(generator);
+		Assert.assertNull(generator.trySplit());
+		Assert.assertFalse(generator.hasNext());
+	}
+
+	@Test
+	public final void testProcessSequences() throws IncompatibleStatesException
+	{
+		LearnerGraph graph = buildGraph(40,4);
+		Set<List<Label>> expected = collect(graph.wmethod.generateNewTestSet(2));
+		for(int threads:new int[]{1,4})
+		{
+			final List<List<Label>> actual = Collections.synchronizedList(new ArrayList<List<Label>>());
+			WMethodSequenceGenerator.processSequences(graph.wmethod.generateNewTestSet(2), threads, new SequenceHandler() {
+				@Override
+				public void handleSequence(List<Label> sequence, @SuppressWarnings("unused") int threadNo) {
+					actual.add(sequence);
+				}
+			});
+			Assert.assertEquals(expected.size(), actual.size());
+			Assert.assertEquals(expected, new HashSet<List<Label>>(actual));
+		}
+	}
+
+	@Test
+	public final void testProcessSequencesFailure()
+	{
+		final LearnerGraph graph = buildLearnerGraph("A-a->B-a->C-b->D\nB-c->A","testProcessSequencesFailure",Configuration.getDefaultConfiguration().copy(),null);
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			WMethodSequenceGenerator.processSequences(graph.wmethod.generateNewTestSet(1), 2, new SequenceHandler() {
+				@Override
+				public void handleSequence(@SuppressWarnings("unused") List<Label> sequence, @SuppressWarnings("unused") int threadNo) {
+					throw new IllegalStateException("test failure");
+				}
+			});
+		}},IllegalArgumentException.class,"test failure");
+		Helper.checkForCorrectException(new whatToRun() { public @Override void run() {
+			WMethodSequenceGenerator.processSequences(graph.wmethod.generateNewTestSet(1), 0, null);
+		}},IllegalArgumentException.class,"invalid processor number");
+	}
+}